@@ -14,19 +14,41 @@ import java.util.*;
 */
 public class ExcelAdapter implements ActionListener
    {
-   private String rowstring,value;
+   /**
+    * Estimated characters per copied cell used to size the copy buffer.
+    */
+   private static final int CHARS_PER_CELL = 16;
    private Clipboard system;
    private StringSelection stsel;
    private JTable jTable1 ;
+   /**
+    * Indicates if a paste that runs past the last row of the table appends rows.
+    * When false the pasted block is clipped to the rows the table already has.
+    */
+   private boolean grow_rows = false;
+   /**
+    * Listener told with a "Paste" action after each paste that changed the table (may be null).
+    */
+   private ActionListener paste_listener = null;
    /**
     * The Excel Adapter is constructed with a
     * JTable on which it enables Copy-Paste and acts
-    * as a Clipboard listener.
+    * as a Clipboard listener.  Pastes are clipped to the rows of the table.
     */
 
 public ExcelAdapter(JTable myJTable)
+   {
+      this(myJTable, false);
+   }
+   /**
+    * Construct an Excel Adapter that appends rows to the table when
+    * <code>grow_rows</code> is true and the pasted block runs past the last row.
+    */
+
+public ExcelAdapter(JTable myJTable, boolean grow_rows)
    {
       jTable1 = myJTable;
+      this.grow_rows = grow_rows;
       KeyStroke copy = KeyStroke.getKeyStroke(KeyEvent.VK_C,ActionEvent.CTRL_MASK,false);
       // Identifying the copy KeyStroke user can modify this
       // to copy on some other Key combination.
@@ -43,6 +65,11 @@ jTable1.registerKeyboardAction(this,"Paste",paste,JComponent.WHEN_FOCUSED);
     */
 public JTable getJTable() {return jTable1;}
 public void setJTable(JTable jTable1) {this.jTable1=jTable1;}
+   /**
+    * Set the listener that is told when a paste changes the table.
+    * The front end uses this to mark its input data as unsaved.
+    */
+public void setPaste_listener(ActionListener listener) {paste_listener=listener;}
    /**
     * This method is activated on the Keystrokes we are listening to
     * in this implementation. Here it listens for Copy and Paste ActionCommands.
@@ -55,62 +82,200 @@ public void actionPerformed(ActionEvent e)
    {
       if (e.getActionCommand().compareTo("Copy")==0)
       {
-         StringBuffer sbf=new StringBuffer();
-         // Check to ensure we have selected only a contiguous block of
-         // cells
-         int numcols=jTable1.getSelectedColumnCount();
-         int numrows=jTable1.getSelectedRowCount();
-         int[] rowsselected=jTable1.getSelectedRows();
-         int[] colsselected=jTable1.getSelectedColumns();
-         if (!((numrows-1==rowsselected[rowsselected.length-1]-rowsselected[0] &&
-                numrows==rowsselected.length) &&
-(numcols-1==colsselected[colsselected.length-1]-colsselected[0] &&
-                numcols==colsselected.length)))
+         copy_selection();
+      }
+      if (e.getActionCommand().compareTo("Paste")==0)
+      {
+         paste_clipboard();
+      }
+   }
+
+   /**
+    * Copy the selected block of cells to the clipboard as tab delimited rows.
+    * The string buffer is sized up front from the selection so that copying a
+    * large table does not repeatedly grow and copy the buffer.
+    */
+private void copy_selection()
+   {
+      // Check to ensure we have selected only a contiguous block of
+      // cells
+      int numcols=jTable1.getSelectedColumnCount();
+      int numrows=jTable1.getSelectedRowCount();
+      int[] rowsselected=jTable1.getSelectedRows();
+      int[] colsselected=jTable1.getSelectedColumns();
+      if (numrows==0 || numcols==0 ||
+          !((numrows-1==rowsselected[rowsselected.length-1]-rowsselected[0] &&
+             numrows==rowsselected.length) &&
+            (numcols-1==colsselected[colsselected.length-1]-colsselected[0] &&
+             numcols==colsselected.length)))
+      {
+         JOptionPane.showMessageDialog(null, "Invalid Copy Selection",
+                                       "Invalid Copy Selection",
+                                       JOptionPane.ERROR_MESSAGE);
+         return;
+      }
+      StringBuffer sbf=new StringBuffer(numrows*numcols*CHARS_PER_CELL);    // sized once for the whole selection
+      for (int i=0;i<numrows;i++)
+      {
+         for (int j=0;j<numcols;j++)
+         {
+            sbf.append(jTable1.getValueAt(rowsselected[i],colsselected[j]));
+            if (j<numcols-1) sbf.append('\t');
+         }
+         sbf.append('\n');
+      }
+      stsel  = new StringSelection(sbf.toString());
+      system = Toolkit.getDefaultToolkit().getSystemClipboard();
+      system.setContents(stsel,stsel);
+   }
+
+   /**
+    * Paste the clipboard into the table starting at the first selected cell.
+    * The clipboard text is parsed in a single pass into a block of cells typed to
+    * match each destination column (Double columns receive Double values).
+    * When the table is backed by a <code>FE_table_model</code> the block is
+    * applied with one model update.  Rows past the end of the table are appended
+    * if the adapter was built to grow its table and are dropped otherwise.
+    * Other table models fall back to setting one cell at a time.
+    * Blank cells leave the existing value alone.
+    */
+private void paste_clipboard()
+   {
+      int[] rows=jTable1.getSelectedRows();
+      int[] cols=jTable1.getSelectedColumns();
+      if (rows.length==0 || cols.length==0) return;    // nothing selected to paste into
+      int startRow=rows[0];
+      int startCol=cols[0];
+      try
+      {
+         String trstring= (String)(system.getContents(this).getTransferData(DataFlavor.stringFlavor));
+         Object[][] block=parse_block(trstring, startCol);
+         if (block==null) return;    // the user was already told why the paste failed
+         if (!grow_rows && startRow+block.length>jTable1.getRowCount())
          {
-            JOptionPane.showMessageDialog(null, "Invalid Copy Selection",
-                                          "Invalid Copy Selection",
-                                          JOptionPane.ERROR_MESSAGE);
-            return;
+            // keep only the rows that land on the table
+            Object[][] clipped=new Object[Math.max(jTable1.getRowCount()-startRow,0)][];
+            System.arraycopy(block,0,clipped,0,clipped.length);
+            block=clipped;
          }
-         for (int i=0;i<numrows;i++)
+         if (block.length==0) return;
+
+         if (jTable1.getModel() instanceof FE_table_model)
          {
-            for (int j=0;j<numcols;j++)
+            // map the visible columns onto the model columns they display
+            int[] model_cols=new int[Math.min(block_width(block), jTable1.getColumnCount()-startCol)];
+            for (int j=0;j<model_cols.length;j++)
             {
-sbf.append(jTable1.getValueAt(rowsselected[i],colsselected[j]));
-               if (j<numcols-1) sbf.append("\t");
+               model_cols[j]=jTable1.convertColumnIndexToModel(startCol+j);
             }
-            sbf.append("\n");
+            ((FE_table_model) jTable1.getModel()).setValuesAt(block,startRow,model_cols);
+         }
+         else
+         {
+            for (int i=0;i<block.length && startRow+i<jTable1.getRowCount();i++)
+            {
+               for (int j=0;j<block[i].length && startCol+j<jTable1.getColumnCount();j++)
+               {
+                  if (block[i][j]!=null) jTable1.setValueAt(block[i][j],startRow+i,startCol+j);
+               }
+            }
+         }
+         if (paste_listener!=null)
+         {
+            paste_listener.actionPerformed(new ActionEvent(this,ActionEvent.ACTION_PERFORMED,"Paste"));
          }
-         stsel  = new StringSelection(sbf.toString());
-         system = Toolkit.getDefaultToolkit().getSystemClipboard();
-         system.setContents(stsel,stsel);
       }
-      if (e.getActionCommand().compareTo("Paste")==0)
+      catch(Exception ex){ex.printStackTrace();}
+   }
+
+   /**
+    * Split tab delimited clipboard text into a block of cells in a single scan.
+    * Rows end with a newline (a carriage return before the newline is dropped so
+    * that Excel's Windows line endings paste cleanly).  Cells destined for a column
+    * whose class is Double are converted to Double; all other cells stay Strings.
+    * A blank numeric cell becomes null so that it leaves the table value alone.
+    * Returns null after warning the user if a numeric cell can not be parsed.
+    */
+private Object[][] parse_block(String text, int startCol)
+   {
+      int numcols=jTable1.getColumnCount();
+      // work out the destination type of each column once rather than once per cell
+      boolean[] numeric=new boolean[Math.max(numcols-startCol,0)];
+      for (int j=0;j<numeric.length;j++)
+      {
+         numeric[j]= jTable1.getRowCount()>0 && jTable1.getColumnClass(startCol+j)==Double.class;
+      }
+
+      // count the rows first so that the block can be allocated exactly once
+      int length=text.length();
+      if (length>0 && text.charAt(length-1)=='\n') length--;    // ignore the trailing newline
+      if (length>0 && text.charAt(length-1)=='\r') length--;
+      if (length==0) return new Object[0][0];
+      int numrows=1;
+      for (int k=text.indexOf('\n');k>=0 && k<length;k=text.indexOf('\n',k+1)) numrows++;
+
+      Object[][] block=new Object[numrows][];
+      int row_start=0;
+      for (int i=0;i<numrows;i++)
       {
-          System.out.println("Trying to Paste");
-          int startRow=(jTable1.getSelectedRows())[0];
-          int startCol=(jTable1.getSelectedColumns())[0];
-          try
-          {
-             String trstring= (String)(system.getContents(this).getTransferData(DataFlavor.stringFlavor));
-             System.out.println("String is:"+trstring);
-             StringTokenizer st1=new StringTokenizer(trstring,"\n");
-             for(int i=0;st1.hasMoreTokens();i++)
-             {
-                rowstring=st1.nextToken();
-                StringTokenizer st2=new StringTokenizer(rowstring,"\t");
-                for(int j=0;st2.hasMoreTokens();j++)
-                {
-                   value=(String)st2.nextToken();
-                   if (startRow+i< jTable1.getRowCount()  &&
-                       startCol+j< jTable1.getColumnCount())
-                      jTable1.setValueAt(value,startRow+i,startCol+j);
-                   System.out.println("Putting "+ value + "at row="+startRow+i+"column="+startCol+j);
+         int row_end=text.indexOf('\n',row_start);
+         if (row_end<0 || row_end>length) row_end=length;
+         int line_end=row_end;
+         if (line_end>row_start && text.charAt(line_end-1)=='\r') line_end--;
+
+         // count the cells in this row so the row can be sized exactly
+         int cells=1;
+         for (int k=row_start;k<line_end;k++) if (text.charAt(k)=='\t') cells++;
+         cells=Math.min(cells,numeric.length);
+         block[i]=new Object[cells];
+
+         int cell_start=row_start;
+         for (int j=0;j<cells;j++)
+         {
+            int cell_end=text.indexOf('\t',cell_start);
+            if (cell_end<0 || cell_end>line_end) cell_end=line_end;
+            String value=text.substring(cell_start,cell_end);
+            if (numeric[j] && value.trim().length()==0)
+            {
+               block[i][j]=null;    // a blank cell leaves the existing value alone
+            }
+            else if (numeric[j])
+            {
+               try
+               {
+                  block[i][j]=Double.valueOf(value.trim());
+               }
+               catch (NumberFormatException nfe)
+               {
+                  JOptionPane.showMessageDialog(null, "Invalid Paste Data\n\"" + value
+                                                + "\" is not a number (pasted row " + (i+1)
+                                                + ", column " + (j+1) + ")",
+                                                "Invalid Paste Data",
+                                                JOptionPane.ERROR_MESSAGE);
+                  return null;
                }
             }
+            else
+            {
+               block[i][j]=value;
+            }
+            cell_start=cell_end+1;
          }
-         catch(Exception ex){ex.printStackTrace();}
+         row_start=row_end+1;
       }
+      return block;
    }
-}
 
+   /**
+    * Returns the number of cells in the widest row of a pasted block.
+    */
+private static int block_width(Object[][] block)
+   {
+      int width=0;
+      for (int i=0;i<block.length;i++)
+      {
+         if (block[i].length>width) width=block[i].length;
+      }
+      return width;
+   }
+}
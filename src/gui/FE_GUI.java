@@ -69,6 +69,13 @@ public static final int BAD_RUN = 5;
    // This will allow cut and paste of the Jtables to excel
    ExcelAdapter link_copy, run_copy, receptor_copy, met_copy;
 
+   // A paste into an input table changes the input data, so it must be saved before a run
+   ActionListener input_paste_listener = new java.awt.event.ActionListener() {
+      public void actionPerformed(ActionEvent e) {
+         Set_FE_status(UNSAVED_DATA);            // update the status display
+      }
+   };
+
    JPanel Receptor_Buttons = new JPanel();
    JButton Receptor_Add = new JButton();
    JButton Receptor_Delete = new JButton();
@@ -963,7 +970,8 @@ output.println("In the output that follows, all measurements with unlabeled unit
 
 	 Receptor_model = new FE_table_model( Recep_Columns, Recep_Data);
       Receptor_Table = new JTable(Receptor_model);
-	 receptor_copy = new ExcelAdapter(Receptor_Table);  // This will allow cut and paste of the Jtables to excel
+	 receptor_copy = new ExcelAdapter(Receptor_Table, true);  // This will allow cut and paste of the Jtables to excel
+	 receptor_copy.setPaste_listener(input_paste_listener);  // pasted receptors must be saved before a run
 
 
 	 // link information is from the GM site description as well
@@ -991,7 +999,8 @@ output.println("In the output that follows, all measurements with unlabeled unit
 
 	 Link_model = new FE_table_model( Link_Columns, Link_Data);
       Link_Table = new JTable(Link_model);
-	 link_copy = new ExcelAdapter(Link_Table);  // This will allow cut and paste of the Jtables to excel
+	 link_copy = new ExcelAdapter(Link_Table, true);  // This will allow cut and paste of the Jtables to excel
+	 link_copy.setPaste_listener(input_paste_listener);  // pasted links must be saved before a run
 
 	 String[] MET_Columns = { "Wind Speed (m/s)", "Wind Direction (degrees)", "Ref. Elevation (m)",
 					      "Temperature (K)", "Pressure (atm)"};
@@ -1002,6 +1011,7 @@ output.println("In the output that follows, all measurements with unlabeled unit
 	 MET_model = new FE_table_model( MET_Columns, MET_Data);
       MET_Table = new JTable(MET_model);
 	 met_copy = new ExcelAdapter(MET_Table);  // This will allow cut and paste of the Jtables to excel
+	 met_copy.setPaste_listener(input_paste_listener);  // pasted met data must be saved before a run
 
 	 Run_Model = new FE_table_model();
 	 this.Initialize_Run();
@@ -269,6 +269,86 @@ public class FE_table_model extends AbstractTableModel {
          }
      }
 
+	/**
+	 * Update a rectangular block of the underlying Data in a single pass.
+	 * Row i of <code>block</code> is written to table row <code>start_row + i</code>
+	 * and member j of a block row is written to the model column <code>columns[j]</code>.
+	 * Block rows that extend past the last row of the table are appended as new rows
+	 * with the same column types as an added row (see <code>add_named_row</code>).
+	 * Unlike <code>setValueAt</code>, the JTable is only notified once after the whole
+	 * block has been written, which keeps large clipboard pastes from flooding the
+	 * event queue with single cell updates.
+	 */
+     public void setValuesAt(Object[][] block, int start_row, int[] columns) {
+	    int last_row = start_row + block.length - 1;    // last table row touched by the block
+	    int old_row_count = getRowCount();
+
+	    // grow the data vector in one step if the block runs off the end of the table
+	    if (last_row >= old_row_count)
+	    {
+		  Data.ensureCapacity(last_row + 1);
+
+		  for (int i=old_row_count; i<=last_row; i++)
+		  {
+			addDataRow(new_blank_row());
+		  }
+	    }
+
+	    // copy the block into the row vectors
+	    for (int i=0; i<block.length; i++)
+	    {
+		  // every row of the table is a vector of objects
+		  @SuppressWarnings("unchecked")
+		  Vector<Object> row_of_data = (Vector<Object>) Data.get(start_row + i);
+
+		  for (int j=0; j<block[i].length && j<columns.length; j++)
+		  {
+			if (block[i][j] != null)    // a null cell leaves the existing value alone
+			{
+			    row_of_data.set(columns[j], block[i][j]);
+			}
+		  }
+	    }
+
+	    // tell the JTable about the change with a single event
+	    if (last_row >= old_row_count)
+	    {
+		  fireTableDataChanged();
+	    }
+	    else
+	    {
+		  fireTableRowsUpdated(start_row, last_row);
+	    }
+
+         if (DEBUG) {
+             System.out.println("New value of Data:");
+             printDebugData();
+         }
+     }
+
+	/**
+	 * Create an empty row with the same column types as the first row of the table.
+	 * String columns are blank and all other columns are set to a Double of 0.0.
+	 */
+	private Vector<Object> new_blank_row() {
+	    int size = getColumnCount();
+	    Vector<Object> new_row = new Vector<Object>(size);
+
+	    for (int j=0; j<size; j++)
+	    {
+		  if (getRowCount() > 0 && getColumnClass(j) == String.class)
+		  {
+			new_row.add("");
+		  }
+		  else
+		  {
+			new_row.add(Double.valueOf(0.0));
+		  }
+	    }
+
+	    return new_row;
+	}
+
 	/**
 	 * Output the model contents to a string.
 	 */
@@ -216,18 +216,83 @@ public class coordinate implements Cloneable
      * Standard geometric notations is used (i.e. x-axis is 0 or 2 pi and angles
      * are measured counter-clockwise)
      * the z component will not be affected - only then x & y will be modified
+     * If the same rotation is applied to many coordinates use the version of this routine
+     * that accepts the cosine and sine of the angle so they are only found once.
      *
      * @param radian_angle angle to rotate (in the counter clockwise direction)
      * the horizontal vector by.
      */
     public void horizontal_rotation(double radian_angle)
     {
-	double length = horizontal_norm();    // length of the x,y vector
-	double angle = horizontal_angle();    // angle that coordinate makes with the x-axis
+	horizontal_rotation(Math.cos(radian_angle), Math.sin(radian_angle));
+    }
 
-	angle += radian_angle;		 // the new angle will be the old angle plus the CW rotation
-	x = length * Math.cos(angle);    // move the x and y components to their new locations
-	y = length * Math.sin(angle);
+    /**
+     * This routine will rotate the coordinate in the horizontal plane using the cosine and sine
+     * of the rotation angle (i.e. by the rotation matrix [cos -sin; sin cos]).
+     * No trigonometric functions are evaluated so this routine should be used when a
+     * rotation angle is applied to many coordinates.
+     * The z component will not be affected - only the x & y will be modified.
+     * To undo a rotation pass the same cosine and the negative of the sine.
+     *
+     * @param cos_angle cosine of the angle to rotate (in the counter clockwise direction).
+     * @param sin_angle sine of the angle to rotate (in the counter clockwise direction).
+     */
+    public void horizontal_rotation(double cos_angle, double sin_angle)
+    {
+	double old_x = x;    // keep the original x since it is needed to find the new y
+
+	x = old_x * cos_angle - y * sin_angle;
+	y = old_x * sin_angle + y * cos_angle;
+    }
+
+    /**
+     * Rotate a collection of horizontal coordinates stored in primitive arrays using the cosine
+     * and sine of the rotation angle.  Only the first <code>count</code> members of the arrays are rotated.
+     *
+     * @param x_array the x coordinates to rotate (modified in place).
+     * @param y_array the y coordinates to rotate (modified in place).
+     * @param count the number of coordinates to rotate.
+     * @param cos_angle cosine of the angle to rotate (in the counter clockwise direction).
+     * @param sin_angle sine of the angle to rotate (in the counter clockwise direction).
+     */
+    public static void horizontal_rotation(double[] x_array, double[] y_array, int count, double cos_angle,
+					   double sin_angle)
+    {
+	for (int i = 0; i < count; i++)
+	{
+	    double old_x = x_array[i];
+
+	    x_array[i] = old_x * cos_angle - y_array[i] * sin_angle;
+	    y_array[i] = old_x * sin_angle + y_array[i] * cos_angle;
+	}
+    }
+
+    /**
+     * Translate and then rotate a collection of horizontal coordinates stored in primitive arrays.
+     * The offset (<code>x_offset, y_offset</code>) is added to each coordinate before it is rotated
+     * using the cosine and sine of the rotation angle.  This is the transformation used to move
+     * points generated in a normalized coordinate system back to their true location.
+     *
+     * @param x_array the x coordinates to transform (modified in place).
+     * @param y_array the y coordinates to transform (modified in place).
+     * @param count the number of coordinates to transform.
+     * @param x_offset the value added to each x coordinate before rotation.
+     * @param y_offset the value added to each y coordinate before rotation.
+     * @param cos_angle cosine of the angle to rotate (in the counter clockwise direction).
+     * @param sin_angle sine of the angle to rotate (in the counter clockwise direction).
+     */
+    public static void translate_and_rotate(double[] x_array, double[] y_array, int count, double x_offset,
+					    double y_offset, double cos_angle, double sin_angle)
+    {
+	for (int i = 0; i < count; i++)
+	{
+	    double shifted_x = x_array[i] + x_offset;
+	    double shifted_y = y_array[i] + y_offset;
+
+	    x_array[i] = shifted_x * cos_angle - shifted_y * sin_angle;
+	    y_array[i] = shifted_x * sin_angle + shifted_y * cos_angle;
+	}
     }
 
     /**
@@ -421,6 +486,16 @@ public class coordinate implements Cloneable
 	System.out.println("Rotate by -135 degrees");
 	u.horizontal_rotation(-135 * constants.DEGREES_TO_RADIANS);
 	System.out.println(u);
+	System.out.println("Rotate by 90 degrees using the cosine and sine of the angle");
+	u.horizontal_rotation(0.0, 1.0);
+	System.out.println(u);
+	System.out.println("Translate by <1,0> and rotate back by -90 degrees using primitive arrays");
+
+	double[] x_array = { u.getX() };
+	double[] y_array = { u.getY() };
+
+	translate_and_rotate(x_array, y_array, 1, 1.0, 0.0, 0.0, -1.0);
+	System.out.println("x = " + x_array[0] + " y = " + y_array[0]);
 	System.out.println("Debugging complete!");
     }
 }
@@ -0,0 +1,1425 @@
+package roadway_dispersion;
+
+import java.util.*;				      // access to the vector and timer classes
+import java.util.concurrent.TimeUnit;		      // the time unit of the process wait
+import java.io.*;				      // binary file access
+import java.lang.management.ManagementFactory;    // the process id and host of a worker
+import utilities.*;				      // access to the debugging routines
+
+/**
+ * <b>Overview</b><br>
+ * The <code>distributed_run</code> class finds the receptor concentrations of a site for a series
+ * of hours on several worker processes, for runs (such as a year of hours over a city) that need
+ * more memory or processors than one JVM has.  The coordinator splits the run into partitions of
+ * a tile of receptors and a range of hours and writes each partition to a work directory as a
+ * self-contained job file holding the links, the receptors of the tile, the spacing and pruning
+ * settings, the settings common to all links in the JVM and the dispersion parameters of each hour.  The workers share nothing but that
+ * directory:
+ * <ul>
+ * <li>a worker claims a job by renaming <code>partition_K.job</code> to
+ *     <code>partition_K.WORKER.running</code>, which only one worker can do, and touches the claimed
+ *     file from a timer thread four times per <code>heartbeat_timeout</code> as a heartbeat</li>
+ * <li>the concentrations of the partition are written to a temporary file of the worker that is
+ *     renamed to <code>partition_K.result</code> when it is complete, so a result file is never partial</li>
+ * <li>a worker that fails to evaluate a job renames it back to a job, leaves a
+ *     <code>partition_K.WORKER.failed</code> marker for the coordinator, and stops</li>
+ * <li>a worker stops when no job is left</li>
+ * </ul>
+ * <code>run</code> starts <code>workers</code> local worker JVMs and watches them.  A claimed job
+ * whose local worker exited without its result, or whose heartbeat is older than
+ * <code>heartbeat_timeout</code> (for example a worker on another host that was lost), is renamed
+ * back to a job and claimed again, and a local worker is started in place of one that exited while
+ * jobs are left.  A partition that is given up or fails <code>max_attempts</code> times stops the run,
+ * as does a job that no worker claims within <code>heartbeat_timeout</code> while no local worker runs.
+ * Once every result is present the results are merged into the concentration of each receptor and hour.
+ * <br>
+ * Workers on other hosts are started with
+ * <tt><pre>
+ *   java -cp CLASSPATH roadway_dispersion.distributed_run WORK_DIRECTORY [WORKER_NAME]
+ * </pre></tt>
+ * on a directory shared with the coordinator.  Use <code>setWorkers(0)</code> for a coordinator
+ * that only writes the jobs and merges the results of workers started elsewhere.
+ * <br>
+ * The receptors are ordered by square cells that hold about <code>tile_receptors</code> receptors
+ * each, row by row, before they are split into tiles, so the receptors of a tile are close together
+ * and share the same links within reach when influence pruning is on.
+ *
+ * <br><br>
+ * <b>Notes:</b><br>
+ * All units in metric (MKS) unless otherwise stated.   <br>
+ * Only <code>highway_link</code> links can be written to a job.  The settings common to all links
+ * in a JVM that change the concentrations - <code>link.set_auto_refine</code>,
+ * <code>link.set_line_source</code>, <code>link.set_local_frame</code>, the <code>kernel_table</code>
+ * and the default spacing profile of <code>highway_point_spacing</code> (including the adaptive
+ * spacing) - are written to each job as they are when <code>run</code> is called, and a worker
+ * applies them to its JVM before it evaluates the job.   <br>
+ * The concentration of an hour is the simulation at the dispersion parameters of the hour times its
+ * emission scale, so the results of a partition do not depend on the worker that found them.
+ *
+ * @see site_description
+ * @see hourly_run
+ */
+
+public class distributed_run
+{
+    /**
+     * The first four bytes of a job file ("UCDJ") and a result file ("UCDR"), and the version of
+	* the layouts.
+     */
+    public static final int  JOB_MAGIC = 0x5543444A;
+    public static final int  RESULT_MAGIC = 0x55434452;
+    public static final int  FILE_VERSION = 3;
+
+    /**
+     * The time (ms) between the checks of the coordinator.
+     */
+    public static final long POLL_INTERVAL = 250;
+
+    /**
+     * The site whose concentrations are found.
+     */
+    private site_description site;
+
+    /**
+     * The dispersion parameters and emission scale of each hour.
+     */
+    private Vector<dispersion> hour_dispersion = new Vector<dispersion>(0, 100);
+    private Vector<Double>     hour_emission_scale = new Vector<Double>(0, 100);
+
+    /**
+     * The directory the jobs and results are exchanged in.
+     */
+    private String	     work_directory = "distributed_run";
+
+    /**
+     * The number of local workers, the threads each worker evaluates on, and the options given to
+	* the JVM of each local worker (for example its heap size).
+     */
+    private int		     workers = 2;
+    private int		     worker_threads = 1;
+    private String[]	     worker_options = new String[0];
+
+    /**
+     * The number of receptors and hours of a partition.
+     */
+    private int		     tile_receptors = 256;
+    private int		     tile_hours = 744;
+
+    /**
+     * The time (ms) after which a claimed job without a heartbeat is given to another worker,
+	* and the number of times a partition may be given up before the run is stopped.
+     */
+    private long	     heartbeat_timeout = 3600000;
+    private int		     max_attempts = 3;
+
+    /**
+     * The number of partitions of the last run and the number of times one was given up.
+     */
+    private int		     partition_count = 0;
+    private int		     requeued_partitions = 0;
+
+    /**
+     * The concentration of each receptor (columns) in each hour (rows) of the last run in g/m^3.
+     */
+    private double[][]	     hour_totals = null;
+
+    /**
+     * Creates a new <code>distributed_run</code> for a site.  The links and receptors of the site
+	* must be set before <code>run</code> is called.
+     */
+    public distributed_run(site_description site)
+    {
+	this.site = site;
+    }
+
+    /**
+     * Add an hour with the dispersion parameters found by <code>site_description.setDispersion</code>
+	* from the wind speed (m/s) at a reference elevation (m) and the meteorological wind direction.
+     *
+     * @param emission_scale the factor that the line strength of every link is multiplied by in this hour.
+     */
+    public void add_hour(double wind_speed, double wind_direction, double wind_reference_elevation,
+			 double emission_scale)
+    {
+	add_hour(site_description.create_gm_dispersion(wind_speed, wind_direction, wind_reference_elevation),
+		 emission_scale);
+    }
+
+    /**
+     * Add an hour described by a complete set of dispersion parameters.
+     *
+     * @param emission_scale the factor that the line strength of every link is multiplied by in this hour.
+     */
+    public void add_hour(dispersion disp, double emission_scale)
+    {
+	if (disp.getA() <= 0.0)
+	{
+	    System.err.println("An hour with a non positive wind constant a = " + disp.getA()
+			       + " was added to a distributed run.\nIf you choose to continue the hour will be ignored");
+	    debugging.exception_handeler();
+
+	    return;
+	}
+
+	hour_dispersion.add(new dispersion(disp));
+	hour_emission_scale.add(Double.valueOf(emission_scale));
+    }
+
+    /**
+     * Remove all the hours and the results.
+     */
+    public void clear_hours()
+    {
+	hour_dispersion.clear();
+	hour_emission_scale.clear();
+	hour_totals = null;
+    }
+
+    /**
+     * Get the number of hours.
+     */
+    public int getNum_hours()
+    {
+	return hour_dispersion.size();
+    }
+
+    /**
+     * Set the directory the jobs and results are exchanged in.  It is created if it does not exist,
+	* and must be shared with any workers on other hosts.
+     */
+    public void setWork_directory(String directory)
+    {
+	work_directory = directory;
+    }
+
+    /**
+     * Get the directory the jobs and results are exchanged in.
+     */
+    public String getWork_directory()
+    {
+	return work_directory;
+    }
+
+    /**
+     * Set the number of local worker processes, 0 if only workers on other hosts are used.
+     */
+    public void setWorkers(int count)
+    {
+	if (count < 0)
+	{
+	    System.err.println("The number of workers can not be negative, " + count
+			       + " is not allowed.\nIf you choose to continue the number will not be changed");
+	    debugging.exception_handeler();
+
+	    return;
+	}
+
+	workers = count;
+    }
+
+    /**
+     * Get the number of local worker processes.
+     */
+    public int getWorkers()
+    {
+	return workers;
+    }
+
+    /**
+     * Set the number of threads each worker evaluates a partition on
+	* (see <code>site_description.setParallel_threads</code>).
+     */
+    public void setWorker_threads(int threads)
+    {
+	if (threads < 1)
+	{
+	    System.err.println("A worker needs at least one thread, " + threads
+			       + " is not allowed.\nIf you choose to continue the number will not be changed");
+	    debugging.exception_handeler();
+
+	    return;
+	}
+
+	worker_threads = threads;
+    }
+
+    /**
+     * Get the number of threads of each worker.
+     */
+    public int getWorker_threads()
+    {
+	return worker_threads;
+    }
+
+    /**
+     * Set the options given to the JVM of each local worker, for example <code>{"-Xmx4g"}</code>.
+     */
+    public void setWorker_options(String[] options)
+    {
+	worker_options = options.clone();
+    }
+
+    /**
+     * Set the number of receptors and the number of hours of each partition.
+     */
+    public void setPartition_size(int receptors, int hours)
+    {
+	if (receptors < 1 || hours < 1)
+	{
+	    System.err.println("A partition needs at least one receptor and one hour, not " + receptors + " and "
+			       + hours + ".\nIf you choose to continue the partition size will not be changed");
+	    debugging.exception_handeler();
+
+	    return;
+	}
+
+	tile_receptors = receptors;
+	tile_hours = hours;
+    }
+
+    /**
+     * Get the number of receptors of each partition.
+     */
+    public int getTile_receptors()
+    {
+	return tile_receptors;
+    }
+
+    /**
+     * Get the number of hours of each partition.
+     */
+    public int getTile_hours()
+    {
+	return tile_hours;
+    }
+
+    /**
+     * Set the time (ms) after which a claimed job without a heartbeat is given to another worker.
+	* The workers touch their claims four times within it, and a job that no worker claims within
+	* it stops a run without local workers.
+     */
+    public void setHeartbeat_timeout(long timeout)
+    {
+	if (timeout <= 0)
+	{
+	    System.err.println("The heartbeat timeout must be positive, " + timeout
+			       + " is not allowed.\nIf you choose to continue the timeout will not be changed");
+	    debugging.exception_handeler();
+
+	    return;
+	}
+
+	heartbeat_timeout = timeout;
+    }
+
+    /**
+     * Set the number of times a partition may be given up before the run is stopped.
+     */
+    public void setMax_attempts(int attempts)
+    {
+	if (attempts < 1)
+	{
+	    System.err.println("A partition needs at least one attempt, " + attempts
+			       + " is not allowed.\nIf you choose to continue the number will not be changed");
+	    debugging.exception_handeler();
+
+	    return;
+	}
+
+	max_attempts = attempts;
+    }
+
+    /**
+     * Get the number of partitions of the last run.
+     */
+    public int getNum_partitions()
+    {
+	return partition_count;
+    }
+
+    /**
+     * Get the number of times a partition of the last run was given up and claimed again.
+     */
+    public int getRequeued_partitions()
+    {
+	return requeued_partitions;
+    }
+
+    /**
+     * Write the jobs, run the workers until every partition has a result, and merge the results.
+	* The files of the partitions are removed from the work directory afterwards.
+     *
+     * @return true if the concentrations of every receptor and hour were found.
+     */
+    public boolean run()
+    {
+	hour_totals = null;
+	requeued_partitions = 0;
+
+	if (getNum_hours() == 0 || site.known_receptors() == 0)
+	{
+	    System.err.println("A distributed run needs at least one hour and one receptor"
+			       + "\nIf you choose to continue nothing will be run");
+	    debugging.exception_handeler();
+
+	    return false;
+	}
+
+	for (int j = 0; j < site.known_links(); j++)
+	{
+	    if (!(site.getLink(j) instanceof highway_link))
+	    {
+		System.err.println("Only highway links can be written to a distributed run, link " + j
+				   + " is not one\nIf you choose to continue nothing will be run");
+		debugging.exception_handeler();
+
+		return false;
+	    }
+	}
+
+	File directory = new File(work_directory);
+
+	directory.mkdirs();
+	remove_partition_files(directory);
+
+	if (!write_jobs(directory))
+	{
+	    return false;
+	}
+
+	if (!run_workers(directory))
+	{
+	    return false;
+	}
+
+	if (!merge_results(directory))
+	{
+	    return false;
+	}
+
+	remove_partition_files(directory);
+
+	return true;
+    }
+
+    /**
+     * Split the receptors into tiles and the hours into ranges, and write a job for each pair.
+     */
+    private boolean write_jobs(File directory)
+    {
+	int[][] tiles = find_receptor_tiles();
+	int	hour_ranges = (getNum_hours() + tile_hours - 1) / tile_hours;
+
+	partition_count = tiles.length * hour_ranges;
+
+	for (int t = 0; t < tiles.length; t++)
+	{
+	    for (int r = 0; r < hour_ranges; r++)
+	    {
+		int first_hour = r * tile_hours;
+		int hours = Math.min(tile_hours, getNum_hours() - first_hour);
+		int partition = t * hour_ranges + r;
+
+		if (!write_job(new File(directory, partition_name(partition) + ".job"), partition, tiles[t], first_hour,
+			       hours))
+		{
+		    return false;
+		}
+	    }
+	}
+
+	return true;
+    }
+
+    /**
+     * Order the receptors by square cells of about <code>tile_receptors</code> receptors, row by row,
+	* and split them into tiles of <code>tile_receptors</code>.
+     *
+     * @return the receptor indices of each tile.
+     */
+    private int[][] find_receptor_tiles()
+    {
+	int    count = site.known_receptors();
+	double min_x = Double.MAX_VALUE, min_y = Double.MAX_VALUE;
+	double max_x = -Double.MAX_VALUE, max_y = -Double.MAX_VALUE;
+
+	for (int i = 0; i < count; i++)
+	{
+	    coordinate location = site.getReceptor(i).getLocation();
+
+	    min_x = Math.min(min_x, location.getX());
+	    max_x = Math.max(max_x, location.getX());
+	    min_y = Math.min(min_y, location.getY());
+	    max_y = Math.max(max_y, location.getY());
+	}
+
+	// cells of the area that holds tile_receptors receptors at the mean receptor density
+	double area = Math.max((max_x - min_x) * (max_y - min_y), 1.0);
+	double cell = Math.sqrt(area * Math.min(tile_receptors, count) / count);
+	long   columns = (long) ((max_x - min_x) / cell) + 1;
+	long[] keys = new long[count];
+
+	for (int i = 0; i < count; i++)
+	{
+	    coordinate location = site.getReceptor(i).getLocation();
+	    long       row = (long) ((location.getY() - min_y) / cell);
+	    long       column = (long) ((location.getX() - min_x) / cell);
+
+	    keys[i] = (row * columns + column) * count + i;    // receptors of a cell keep their order
+	}
+
+	Arrays.sort(keys);
+
+	int[][] tiles = new int[(count + tile_receptors - 1) / tile_receptors][];
+
+	for (int t = 0; t < tiles.length; t++)
+	{
+	    tiles[t] = new int[Math.min(tile_receptors, count - t * tile_receptors)];
+
+	    for (int k = 0; k < tiles[t].length; k++)
+	    {
+		tiles[t][k] = (int) (keys[t * tile_receptors + k] % count);
+	    }
+	}
+
+	return tiles;
+    }
+
+    /**
+     * Write the job of a partition.  The file holds, with the big-endian types of
+	* <code>DataOutputStream</code>:
+	* <tt><pre>
+	*   int     JOB_MAGIC, FILE_VERSION, partition, first hour, hours, worker threads
+	*   long    heartbeat interval (ms)
+	*   boolean influence pruning     double  influence threshold
+	*   profile of the site
+	*   int     links, and for each link
+	*	    UTF name, double start x, y, z, end x, y, z, width, line strength, profile of the link
+	*   int     receptors, and for each receptor
+	*	    int index in the site, UTF name, double x, y, z
+	*   double  a, b, c, d, e, n, p, wind angle and emission scale of each hour
+	* </pre></tt>
+	* A profile is a boolean that is false for no profile (see <code>write_profile</code>).
+     */
+    private boolean write_job(File file, int partition, int[] tile, int first_hour, int hours)
+    {
+	try
+	{
+	    // the job is written under another name first so a worker never claims a partial job
+	    File	     partial = new File(file.getPath() + ".tmp");
+	    DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(partial)));
+
+	    try
+	    {
+		out.writeInt(JOB_MAGIC);
+		out.writeInt(FILE_VERSION);
+		out.writeInt(partition);
+		out.writeInt(first_hour);
+		out.writeInt(hours);
+		out.writeInt(worker_threads);
+		out.writeLong(heartbeat_timeout / 4);
+		out.writeBoolean(site.isInfluence_pruning());
+		out.writeDouble(site.getInfluence_threshold());
+		write_settings(out);
+		write_profile(out, site.getSpacing_profile());
+		out.writeInt(site.known_links());
+
+		for (int j = 0; j < site.known_links(); j++)
+		{
+		    link current_link = site.getLink(j);
+
+		    out.writeUTF(current_link.naming.getName());
+		    write_coordinate(out, current_link.getStart_location());
+		    write_coordinate(out, current_link.getEnd_location());
+		    out.writeDouble(current_link.getWidth());
+		    out.writeDouble(current_link.getLine_strength());
+		    write_profile(out, current_link.getSpacing_profile());
+		}
+
+		out.writeInt(tile.length);
+
+		for (int k = 0; k < tile.length; k++)
+		{
+		    receptor current_receptor = site.getReceptor(tile[k]);
+
+		    out.writeInt(tile[k]);
+		    out.writeUTF(current_receptor.naming.getName());
+		    write_coordinate(out, current_receptor.getLocation());
+		}
+
+		for (int h = first_hour; h < first_hour + hours; h++)
+		{
+		    dispersion disp = hour_dispersion.elementAt(h);
+
+		    out.writeDouble(disp.getA());
+		    out.writeDouble(disp.getB());
+		    out.writeDouble(disp.getC());
+		    out.writeDouble(disp.getD());
+		    out.writeDouble(disp.getE());
+		    out.writeDouble(disp.getN());
+		    out.writeDouble(disp.getP());
+		    out.writeDouble(disp.getWind_angle());
+		    out.writeDouble(hour_emission_scale.elementAt(h).doubleValue());
+		}
+	    }
+	    finally
+	    {
+		out.close();
+	    }
+
+	    if (!partial.renameTo(file))
+	    {
+		throw new IOException("the job could not be renamed to " + file.getName());
+	    }
+
+	    return true;
+	}
+	catch (IOException e)
+	{
+	    System.err.println("Error writing the job " + file.getPath() + ": " + e.getMessage()
+			       + "\nIf you choose to continue nothing will be run");
+	    debugging.exception_handeler();
+
+	    return false;
+	}
+    }
+
+    /**
+     * Write the settings common to all links in this JVM that change the concentrations.
+     */
+    private static void write_settings(DataOutputStream out) throws IOException
+    {
+	out.writeBoolean(link.is_auto_refine());
+	out.writeDouble(link.get_auto_refine_tolerance());
+	out.writeInt(link.get_auto_refine_max_levels());
+	out.writeBoolean(link.is_line_source());
+	out.writeBoolean(link.is_local_frame());
+	out.writeBoolean(kernel_table.is_enabled());
+	out.writeDouble(kernel_table.getTolerance());
+	write_profile(out, highway_point_spacing.get_default_profile());
+    }
+
+    /**
+     * Read the settings written by <code>write_settings</code> and apply them to this JVM.
+     */
+    private static void read_settings(DataInputStream in) throws IOException
+    {
+	boolean refine = in.readBoolean();
+	double	refine_tolerance = in.readDouble();
+
+	link.set_auto_refine(refine, refine_tolerance, in.readInt());
+	link.set_line_source(in.readBoolean());
+	link.set_local_frame(in.readBoolean());
+	kernel_table.set_enabled(in.readBoolean());
+
+	double table_tolerance = in.readDouble();
+
+	// changing the tolerance drops the tables, so they are kept if the tolerance is the same
+	if (table_tolerance != kernel_table.getTolerance())
+	{
+	    kernel_table.set_tolerance(table_tolerance);
+	}
+
+	highway_point_spacing.set_default_profile(read_profile(in));
+    }
+
+    private static void write_coordinate(DataOutputStream out, coordinate location) throws IOException
+    {
+	out.writeDouble(location.getX());
+	out.writeDouble(location.getY());
+	out.writeDouble(location.getZ());
+    }
+
+    private static coordinate read_coordinate(DataInputStream in) throws IOException
+    {
+	double x = in.readDouble();
+	double y = in.readDouble();
+
+	return new coordinate(x, y, in.readDouble());
+    }
+
+    /**
+     * Write a spacing profile as a boolean that is false for no profile, followed by
+	* <tt><pre>
+	*   int regions, double zones (regions - 1), fetch and cross density (regions)
+	*   int vertical segments, double start, stop and spacing of each segment
+	*   double overhang up and down     boolean adaptive     double tolerance, min and max spacing
+	* </pre></tt>
+     */
+    private static void write_profile(DataOutputStream out, spacing_profile profile) throws IOException
+    {
+	out.writeBoolean(profile != null);
+
+	if (profile == null)
+	{
+	    return;
+	}
+
+	out.writeInt(profile.getNum_regions());
+	write_values(out, profile.getZones());
+	write_values(out, profile.getFetch_density());
+	write_values(out, profile.getCross_density());
+
+	double[][] vertical = profile.getVertical_density();
+
+	out.writeInt(vertical.length);
+
+	for (int s = 0; s < vertical.length; s++)
+	{
+	    write_values(out, vertical[s]);
+	}
+
+	out.writeDouble(profile.getCross_component_overhang_UP());
+	out.writeDouble(profile.getCross_component_overhang_Down());
+	out.writeBoolean(profile.is_adaptive_spacing());
+	out.writeDouble(profile.getAdaptive_tolerance());
+	out.writeDouble(profile.getAdaptive_min_spacing());
+	out.writeDouble(profile.getAdaptive_max_spacing());
+    }
+
+    private static spacing_profile read_profile(DataInputStream in) throws IOException
+    {
+	if (!in.readBoolean())
+	{
+	    return null;
+	}
+
+	int	   regions = in.readInt();
+	double[]   zones = read_values(in, regions - 1);
+	double[]   fetch = read_values(in, regions);
+	double[]   cross = read_values(in, regions);
+	double[][] vertical = new double[in.readInt()][];
+
+	for (int s = 0; s < vertical.length; s++)
+	{
+	    vertical[s] = read_values(in, 3);
+	}
+
+	double	overhang_up = in.readDouble();
+	double	overhang_down = in.readDouble();
+	boolean adaptive = in.readBoolean();
+	double	tolerance = in.readDouble();
+	double	min_spacing = in.readDouble();
+
+	return new spacing_profile(zones, fetch, cross, vertical, overhang_up, overhang_down, adaptive, tolerance,
+				   min_spacing, in.readDouble());
+    }
+
+    private static void write_values(DataOutputStream out, double[] values) throws IOException
+    {
+	for (int k = 0; k < values.length; k++)
+	{
+	    out.writeDouble(values[k]);
+	}
+    }
+
+    private static double[] read_values(DataInputStream in, int count) throws IOException
+    {
+	if (count < 0)
+	{
+	    throw new IOException("negative size");
+	}
+
+	double[] values = new double[count];
+
+	for (int k = 0; k < count; k++)
+	{
+	    values[k] = in.readDouble();
+	}
+
+	return values;
+    }
+
+    /**
+     * Start the local workers and watch the claimed jobs until every partition has a result.
+     */
+    private boolean run_workers(File directory)
+    {
+	int[]		attempts = new int[partition_count];
+	Vector<Process> processes = new Vector<Process>();
+	Vector<String>	names = new Vector<String>();
+	int		started = 0;
+	long		unclaimed_since = System.currentTimeMillis();
+
+	while (count_files(directory, ".result") < partition_count)
+	{
+	    // the jobs a worker failed to evaluate count as given up
+	    if (!record_failures(directory, attempts))
+	    {
+		stop_workers(processes);
+
+		return false;
+	    }
+
+	    // the claims of local workers that have exited are given up
+	    for (int w = processes.size() - 1; w >= 0; w--)
+	    {
+		if (!processes.elementAt(w).isAlive())
+		{
+		    if (!requeue_claims(directory, names.elementAt(w), 0, attempts))
+		    {
+			stop_workers(processes);
+
+			return false;
+		    }
+
+		    processes.removeElementAt(w);
+		    names.removeElementAt(w);
+		}
+	    }
+
+	    // as are claims without a recent heartbeat (a lost worker on another host, or a hung one)
+	    if (!requeue_claims(directory, null, System.currentTimeMillis() - heartbeat_timeout, attempts))
+	    {
+		stop_workers(processes);
+
+		return false;
+	    }
+
+	    // a worker is started in place of each one that exited while jobs are left
+	    int queued = count_files(directory, ".job");
+
+	    while (processes.size() < workers && queued > 0)
+	    {
+		String name = "local" + started++;
+		Process worker = start_worker(directory, name);
+
+		if (worker == null)
+		{
+		    stop_workers(processes);
+
+		    return false;
+		}
+
+		processes.add(worker);
+		names.add(name);
+	    }
+
+	    // without local workers the jobs wait for workers on other hosts, but not forever
+	    if (processes.size() > 0 || queued == 0 || count_files(directory, ".running") > 0)
+	    {
+		unclaimed_since = System.currentTimeMillis();
+	    }
+	    else if (System.currentTimeMillis() - unclaimed_since > heartbeat_timeout)
+	    {
+		System.err.println("No worker claimed a job of the distributed run in " + directory.getPath()
+				   + " within " + heartbeat_timeout + " ms\nIf you choose to continue the run will be stopped");
+		debugging.exception_handeler();
+
+		return false;
+	    }
+
+	    try
+	    {
+		Thread.sleep(POLL_INTERVAL);
+	    }
+	    catch (InterruptedException e)
+	    {
+		stop_workers(processes);
+
+		return false;
+	    }
+	}
+
+	// the workers stop by themselves once no job is left, a worker still running after that is
+	// only repeating a partition that was given up
+	for (int w = 0; w < processes.size(); w++)
+	{
+	    try
+	    {
+		processes.elementAt(w).waitFor(4 * POLL_INTERVAL, TimeUnit.MILLISECONDS);
+	    }
+	    catch (InterruptedException e)
+	    {
+		break;
+	    }
+	}
+
+	stop_workers(processes);
+
+	return true;
+    }
+
+    /**
+     * Start a local worker JVM with the class path of this JVM.  Its output is written to
+	* <code>NAME.log</code> in the work directory and its input is closed, so an error in the
+	* worker ends the worker instead of waiting for an answer (see <code>debugging</code>).
+     *
+     * @return the worker process, or null if it could not be started.
+     */
+    private Process start_worker(File directory, String name)
+    {
+	Vector<String> command = new Vector<String>();
+
+	command.add(System.getProperty("java.home") + File.separator + "bin" + File.separator + "java");
+
+	for (int k = 0; k < worker_options.length; k++)
+	{
+	    command.add(worker_options[k]);
+	}
+
+	command.add("-cp");
+	command.add(System.getProperty("java.class.path"));
+	command.add(distributed_run.class.getName());
+	command.add(directory.getPath());
+	command.add(name);
+
+	try
+	{
+	    ProcessBuilder builder = new ProcessBuilder(command);
+
+	    builder.redirectErrorStream(true);
+	    builder.redirectOutput(new File(directory, name + ".log"));
+
+	    Process worker = builder.start();
+
+	    worker.getOutputStream().close();
+
+	    return worker;
+	}
+	catch (IOException e)
+	{
+	    System.err.println("Error starting the worker " + name + ": " + e.getMessage()
+			       + "\nIf you choose to continue the run will be stopped");
+	    debugging.exception_handeler();
+
+	    return null;
+	}
+    }
+
+    private static void stop_workers(Vector<Process> processes)
+    {
+	for (int w = 0; w < processes.size(); w++)
+	{
+	    processes.elementAt(w).destroy();
+	}
+    }
+
+    /**
+     * Give up the claimed jobs of a worker, or of any worker whose heartbeat is older than
+	* <code>oldest_heartbeat</code>, so they are claimed again.  A claim whose result is already
+	* present is only removed.
+     *
+     * @param worker the name of the worker, or null to check the heartbeat of every claim.
+     * @return false if a partition was given up more than <code>max_attempts</code> times.
+     */
+    private boolean requeue_claims(File directory, String worker, long oldest_heartbeat, int[] attempts)
+    {
+	String[] files = directory.list();
+
+	if (files == null)
+	{
+	    return true;
+	}
+
+	for (int f = 0; f < files.length; f++)
+	{
+	    if (!files[f].endsWith(".running"))
+	    {
+		continue;
+	    }
+
+	    File   claim = new File(directory, files[f]);
+	    String partition = files[f].substring(0, files[f].indexOf('.'));
+	    String owner = files[f].substring(partition.length() + 1, files[f].length() - ".running".length());
+
+	    if ((worker != null && !owner.equals(worker)) || (worker == null && claim.lastModified() >= oldest_heartbeat))
+	    {
+		continue;
+	    }
+
+	    if (new File(directory, partition + ".result").exists())
+	    {
+		claim.delete();
+
+		continue;
+	    }
+
+	    if (!claim.renameTo(new File(directory, partition + ".job")))
+	    {
+		continue;    // the worker finished or the claim changed since the directory was listed
+	    }
+
+	    if (!give_up(directory, partition, attempts))
+	    {
+		return false;
+	    }
+	}
+
+	return true;
+    }
+
+    /**
+     * Count the jobs that workers failed to evaluate and gave back (see <code>work</code>) as given
+	* up, removing their markers.
+     *
+     * @return false if a partition was given up more than <code>max_attempts</code> times.
+     */
+    private boolean record_failures(File directory, int[] attempts)
+    {
+	String[] files = directory.list();
+
+	for (int f = 0; files != null && f < files.length; f++)
+	{
+	    if (files[f].startsWith("partition_") && files[f].endsWith(".failed")
+		    && new File(directory, files[f]).delete()
+		    && !give_up(directory, files[f].substring(0, files[f].indexOf('.')), attempts))
+	    {
+		return false;
+	    }
+	}
+
+	return true;
+    }
+
+    /**
+     * Count a partition as given up once more.
+     *
+     * @return false if the partition was given up <code>max_attempts</code> times.
+     */
+    private boolean give_up(File directory, String partition, int[] attempts)
+    {
+	int index = Integer.parseInt(partition.substring("partition_".length()));
+
+	requeued_partitions++;
+	attempts[index]++;
+
+	if (attempts[index] >= max_attempts)
+	{
+	    System.err.println("The partition " + index + " of the distributed run was given up " + attempts[index]
+			       + " times (see the worker logs in " + directory.getPath()
+			       + ")\nIf you choose to continue the run will be stopped");
+	    debugging.exception_handeler();
+
+	    return false;
+	}
+
+	return true;
+    }
+
+    private static int count_files(File directory, String extension)
+    {
+	String[] files = directory.list();
+	int	 count = 0;
+
+	for (int f = 0; files != null && f < files.length; f++)
+	{
+	    if (files[f].startsWith("partition_") && files[f].endsWith(extension))
+	    {
+		count++;
+	    }
+	}
+
+	return count;
+    }
+
+    /**
+     * Remove the jobs, claims and results of a run from the work directory.  The worker logs are kept.
+     */
+    private static void remove_partition_files(File directory)
+    {
+	String[] files = directory.list();
+
+	for (int f = 0; files != null && f < files.length; f++)
+	{
+	    if (files[f].startsWith("partition_"))
+	    {
+		new File(directory, files[f]).delete();
+	    }
+	}
+    }
+
+    private static String partition_name(int partition)
+    {
+	String number = String.valueOf(partition);
+
+	while (number.length() < 5)
+	{
+	    number = "0" + number;
+	}
+
+	return "partition_" + number;
+    }
+
+    /**
+     * Read the result of every partition into the concentrations of the run.
+     */
+    private boolean merge_results(File directory)
+    {
+	hour_totals = new double[getNum_hours()][site.known_receptors()];
+
+	for (int partition = 0; partition < partition_count; partition++)
+	{
+	    File file = new File(directory, partition_name(partition) + ".result");
+
+	    try
+	    {
+		DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+
+		try
+		{
+		    if (in.readInt() != RESULT_MAGIC || in.readInt() != FILE_VERSION || in.readInt() != partition)
+		    {
+			throw new IOException("not the result of partition " + partition + " of version " + FILE_VERSION);
+		    }
+
+		    int	  first_hour = in.readInt();
+		    int	  hours = in.readInt();
+		    int[] tile = new int[in.readInt()];
+
+		    if (first_hour < 0 || hours < 0 || first_hour + hours > getNum_hours())
+		    {
+			throw new IOException("the hours do not match the run");
+		    }
+
+		    for (int k = 0; k < tile.length; k++)
+		    {
+			tile[k] = in.readInt();
+
+			if (tile[k] < 0 || tile[k] >= site.known_receptors())
+			{
+			    throw new IOException("the receptors do not match the run");
+			}
+		    }
+
+		    for (int h = first_hour; h < first_hour + hours; h++)
+		    {
+			for (int k = 0; k < tile.length; k++)
+			{
+			    hour_totals[h][tile[k]] = in.readDouble();
+			}
+		    }
+		}
+		finally
+		{
+		    in.close();
+		}
+	    }
+	    catch (IOException e)
+	    {
+		System.err.println("Error reading the result " + file.getPath() + ": " + e.getMessage()
+				   + "\nIf you choose to continue no concentrations will be available");
+		debugging.exception_handeler();
+		hour_totals = null;
+
+		return false;
+	    }
+	}
+
+	return true;
+    }
+
+    /**
+     * Return the concentration of each receptor in an hour of the last run.
+     *
+     * @param hour the index of the hour in the order it was added.
+     * @param units indicates what units to return the concentration data in
+	* (see <code>site_description.get_conc_matrix</code>).
+     */
+    public double[] get_hour_totals(int hour, int units)
+    {
+	if (hour_totals == null)
+	{
+	    System.err.println("The distributed run must be run before its concentrations are available");
+	    debugging.exception_handeler();
+
+	    return null;
+	}
+
+	double	 factor = site.find_unit_conversion(units);
+	double[] return_totals = new double[hour_totals[hour].length];
+
+	for (int i = 0; i < return_totals.length; i++)
+	{
+	    return_totals[i] = hour_totals[hour][i] * factor;
+	}
+
+	return return_totals;
+    }
+
+    /**
+     * Return the mean concentration of each receptor over all the hours of the last run.
+     */
+    public double[] get_mean_totals(int units)
+    {
+	double[] mean = null;
+
+	for (int h = 0; h < getNum_hours(); h++)
+	{
+	    double[] hour_conc = get_hour_totals(h, units);
+
+	    if (hour_conc == null)
+	    {
+		return null;
+	    }
+
+	    if (mean == null)
+	    {
+		mean = new double[hour_conc.length];
+	    }
+
+	    for (int i = 0; i < mean.length; i++)
+	    {
+		mean[i] += hour_conc[i] / getNum_hours();
+	    }
+	}
+
+	return mean;
+    }
+
+    /**
+     * Claim and evaluate jobs in a work directory until no job is left.  The settings common to
+	* all links that are written to each job are applied to this JVM (see the class notes).
+     *
+     * @param directory the work directory shared with the coordinator.
+     * @param worker the name of this worker, which must not contain a period.
+     * @return the number of partitions evaluated.
+     */
+    public static int work(String directory, String worker)
+    {
+	File work_directory = new File(directory);
+	int  evaluated = 0;
+	File claim;
+
+	while ((claim = claim_job(work_directory, worker)) != null)
+	{
+	    String partition = claim.getName().substring(0, claim.getName().indexOf('.'));
+
+	    // a job that fails is given back with a marker the coordinator counts as an attempt
+	    if (!evaluate_job(claim, new File(work_directory, partition + ".result"), worker))
+	    {
+		try
+		{
+		    new File(work_directory, partition + "." + worker + ".failed").createNewFile();
+		}
+		catch (IOException e)
+		{
+		    System.err.println("Error marking the failed job " + claim.getPath() + ": " + e.getMessage());
+		}
+
+		claim.renameTo(new File(work_directory, partition + ".job"));
+
+		break;
+	    }
+
+	    evaluated++;
+	    claim.delete();
+	}
+
+	return evaluated;
+    }
+
+    /**
+     * Claim the first job of the directory that no other worker claims first.
+     *
+     * @return the claimed file, or null if no job is left.
+     */
+    private static File claim_job(File directory, String worker)
+    {
+	String[] files = directory.list();
+
+	if (files == null)
+	{
+	    return null;
+	}
+
+	Arrays.sort(files);
+
+	for (int f = 0; f < files.length; f++)
+	{
+	    if (files[f].startsWith("partition_") && files[f].endsWith(".job"))
+	    {
+		String partition = files[f].substring(0, files[f].length() - ".job".length());
+		File   claim = new File(directory, partition + "." + worker + ".running");
+
+		// only one worker can rename the job
+		if (new File(directory, files[f]).renameTo(claim))
+		{
+		    claim.setLastModified(System.currentTimeMillis());
+
+		    return claim;
+		}
+	    }
+	}
+
+	return null;
+    }
+
+    /**
+     * Evaluate a claimed job and write its result.  The result holds, with the big-endian types
+	* of <code>DataOutputStream</code>:
+	* <tt><pre>
+	*   int     RESULT_MAGIC, FILE_VERSION, partition, first hour, hours, receptors
+	*   int     index in the site of each receptor
+	*   double  concentration (g/m^3) of each receptor in each hour, hour by hour
+	* </pre></tt>
+     *
+     * @param worker the name of the worker, which the temporary result file is named after so
+	* that workers evaluating the same partition do not write to the same file.
+     * @return true if the result was written.
+     */
+    private static boolean evaluate_job(final File claim, File result, String worker)
+    {
+	try
+	{
+	    DataInputStream  in = new DataInputStream(new BufferedInputStream(new FileInputStream(claim)));
+	    site_description job_site = new site_description();
+	    int		     partition, first_hour, hours;
+	    long	     heartbeat_interval;
+	    int[]	     tile;
+	    double[][]	     hour_values;    // the dispersion parameters and emission scale of each hour
+
+	    try
+	    {
+		if (in.readInt() != JOB_MAGIC || in.readInt() != FILE_VERSION)
+		{
+		    throw new IOException("not a job of version " + FILE_VERSION);
+		}
+
+		partition = in.readInt();
+		first_hour = in.readInt();
+		hours = in.readInt();
+		job_site.setParallel_threads(in.readInt());
+		heartbeat_interval = in.readLong();
+
+		if (heartbeat_interval <= 0)
+		{
+		    throw new IOException("the heartbeat interval is not positive");
+		}
+
+		boolean pruning = in.readBoolean();
+
+		job_site.setInfluence_pruning(pruning, in.readDouble());
+		read_settings(in);
+		job_site.setSpacing_profile(read_profile(in));
+
+		int links = in.readInt();
+
+		for (int j = 0; j < links; j++)
+		{
+		    String     name = in.readUTF();
+		    coordinate start = read_coordinate(in);
+		    coordinate end = read_coordinate(in);
+		    double     width = in.readDouble();
+		    link       job_link = new highway_link(start, end, width, in.readDouble(), name);
+
+		    job_link.setSpacing_profile(read_profile(in));
+		    job_site.add_link(job_link);
+		}
+
+		tile = new int[in.readInt()];
+
+		for (int k = 0; k < tile.length; k++)
+		{
+		    tile[k] = in.readInt();
+
+		    String name = in.readUTF();
+
+		    job_site.add_receptor(new receptor(name, read_coordinate(in)));
+		}
+
+		hour_values = new double[hours][];
+
+		for (int h = 0; h < hours; h++)
+		{
+		    hour_values[h] = read_values(in, 9);
+		}
+	    }
+	    finally
+	    {
+		in.close();
+	    }
+
+	    // only the total of each receptor is kept (see site_description.setSparse_storage)
+	    job_site.setSparse_storage(true, Double.MAX_VALUE);
+
+	    File	     partial = new File(result.getPath() + "." + worker + ".tmp");
+	    DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(partial)));
+
+	    // the claim is touched on a thread of its own, so an hour may take longer than the timeout
+	    Timer heartbeat = new Timer(true);
+
+	    heartbeat.schedule(new TimerTask()
+	    {
+		public void run()
+		{
+		    claim.setLastModified(System.currentTimeMillis());
+		}
+	    }, heartbeat_interval, heartbeat_interval);
+
+	    try
+	    {
+		out.writeInt(RESULT_MAGIC);
+		out.writeInt(FILE_VERSION);
+		out.writeInt(partition);
+		out.writeInt(first_hour);
+		out.writeInt(hours);
+		out.writeInt(tile.length);
+
+		for (int k = 0; k < tile.length; k++)
+		{
+		    out.writeInt(tile[k]);
+		}
+
+		for (int h = 0; h < hours; h++)
+		{
+		    double[] v = hour_values[h];
+
+		    job_site.setDispersion(new dispersion(v[0], v[1], v[2], v[3], v[4], v[5], v[6], v[7]));
+		    job_site.run_simulation(false);
+
+		    for (int k = 0; k < tile.length; k++)
+		    {
+			out.writeDouble(job_site.getReceptor(k).getTotal_concentration() * v[8]);
+		    }
+		}
+	    }
+	    finally
+	    {
+		heartbeat.cancel();
+		out.close();
+	    }
+
+	    // an earlier claim of the same partition may have finished first with the same result
+	    if (result.exists())
+	    {
+		partial.delete();
+	    }
+	    else if (!partial.renameTo(result))
+	    {
+		throw new IOException("the result could not be renamed to " + result.getName());
+	    }
+
+	    return true;
+	}
+	catch (IOException e)
+	{
+	    System.err.println("Error evaluating the job " + claim.getPath() + ": " + e.getMessage()
+			       + "\nIf you choose to continue the job will be given back to the coordinator");
+	    debugging.exception_handeler();
+
+	    return false;
+	}
+    }
+
+    /**
+     * The worker process: <code>distributed_run WORK_DIRECTORY [WORKER_NAME]</code>.  Without a name
+	* the worker is named from its process id and host.
+     */
+    public static void main(String[] args)
+    {
+	if (args.length < 1)
+	{
+	    System.err.println("usage: java roadway_dispersion.distributed_run WORK_DIRECTORY [WORKER_NAME]");
+
+	    return;
+	}
+
+	String worker = (args.length > 1) ? args[1] : ManagementFactory.getRuntimeMXBean().getName();
+
+	// the name is placed between periods in the names of the claimed jobs
+	worker = worker.replace('.', '_');
+
+	work(args[0], worker);
+    }
+}
@@ -0,0 +1,159 @@
+package roadway_dispersion;
+
+/**
+ * <b>Overview</b><br>
+ * The <code>fourier_transform</code> class finds the discrete Fourier transform of a two
+ * dimensional complex array with the radix-2 fast Fourier transform.  It is used by
+ * <code>grid_run</code> to convolve an emission raster with the huang kernel in
+ * O(N log N) operations.  The rows are transformed first and then the columns, each in place
+ * with an iterative (bit reversal and butterfly) transform.
+ * <br>
+ * The forward transform is <code>X[k] = sum x[n] exp(-2 pi i k n / N)</code> in each direction
+ * and the inverse transform includes the factor 1/N, so an inverse transform of a forward
+ * transform returns the original array.
+ *
+ * <br><br>
+ * <b>Notes:</b><br>
+ * The number of rows and columns must each be a power of two (see <code>power_of_two</code>).
+ *
+ * @see grid_run
+ */
+
+public final class fourier_transform
+{
+    /**
+     * The transforms are only used through the static methods.
+     */
+    private fourier_transform() {}
+
+    /**
+     * Return the smallest power of two that is not less than <code>n</code>.
+     */
+    public static int power_of_two(int n)
+    {
+	int size = 1;
+
+	while (size < n)
+	{
+	    size <<= 1;
+	}
+
+	return size;
+    }
+
+    /**
+     * Transform a two dimensional complex array in place.
+     *
+     * @param real the real part, <code>real[row][column]</code>.
+     * @param imaginary the imaginary part, with the same size as <code>real</code>.
+     * @param inverse true for the inverse transform (which includes the 1/N factor).
+     */
+    public static void transform_2d(double[][] real, double[][] imaginary, boolean inverse)
+    {
+	int	 rows = real.length;
+	int	 columns = real[0].length;
+	double[] column_real = new double[rows];
+	double[] column_imaginary = new double[rows];
+
+	for (int i = 0; i < rows; i++)
+	{
+	    transform(real[i], imaginary[i], inverse);
+	}
+
+	for (int j = 0; j < columns; j++)
+	{
+	    for (int i = 0; i < rows; i++)
+	    {
+		column_real[i] = real[i][j];
+		column_imaginary[i] = imaginary[i][j];
+	    }
+
+	    transform(column_real, column_imaginary, inverse);
+
+	    for (int i = 0; i < rows; i++)
+	    {
+		real[i][j] = column_real[i];
+		imaginary[i][j] = column_imaginary[i];
+	    }
+	}
+    }
+
+    /**
+     * Transform a one dimensional complex array in place.
+     *
+     * @param real the real part, its length must be a power of two.
+     * @param imaginary the imaginary part, with the same length as <code>real</code>.
+     * @param inverse true for the inverse transform (which includes the 1/N factor).
+     */
+    public static void transform(double[] real, double[] imaginary, boolean inverse)
+    {
+	int n = real.length;
+
+	// place each member at the bit reversed position of its index
+	for (int i = 1, j = 0; i < n; i++)
+	{
+	    int bit = n >> 1;
+
+	    for (; (j & bit) != 0; bit >>= 1)
+	    {
+		j ^= bit;
+	    }
+
+	    j ^= bit;
+
+	    if (i < j)
+	    {
+		double temp = real[i];
+
+		real[i] = real[j];
+		real[j] = temp;
+		temp = imaginary[i];
+		imaginary[i] = imaginary[j];
+		imaginary[j] = temp;
+	    }
+	}
+
+	// combine transforms of length 2, 4, ... n with butterflies
+	for (int length = 2; length <= n; length <<= 1)
+	{
+	    double angle = (inverse ? 2.0 : -2.0) * Math.PI / length;
+	    double step_real = Math.cos(angle);
+	    double step_imaginary = Math.sin(angle);
+	    int	   half = length >> 1;
+
+	    for (int start = 0; start < n; start += length)
+	    {
+		double w_real = 1.0;
+		double w_imaginary = 0.0;
+
+		for (int k = 0; k < half; k++)
+		{
+		    int	   even = start + k;
+		    int	   odd = even + half;
+		    double odd_real = real[odd] * w_real - imaginary[odd] * w_imaginary;
+		    double odd_imaginary = real[odd] * w_imaginary + imaginary[odd] * w_real;
+
+		    real[odd] = real[even] - odd_real;
+		    imaginary[odd] = imaginary[even] - odd_imaginary;
+		    real[even] += odd_real;
+		    imaginary[even] += odd_imaginary;
+
+		    // advance the twiddle factor by one step of the unit circle
+		    double next_real = w_real * step_real - w_imaginary * step_imaginary;
+
+		    w_imaginary = w_real * step_imaginary + w_imaginary * step_real;
+		    w_real = next_real;
+		}
+	    }
+	}
+
+	if (inverse)
+	{
+	    for (int i = 0; i < n; i++)
+	    {
+		real[i] /= n;
+		imaginary[i] /= n;
+	    }
+	}
+    }
+}
@@ -0,0 +1,498 @@
+package roadway_dispersion;
+
+import java.util.*;    // access to the vector and hashtable classes
+import utilities.*;    // access to the debugging routines and the wind vector
+
+/**
+ * <b>Overview</b><br>
+ * The <code>grid_run</code> class finds the concentrations of a site on a regular grid of
+ * receptors at one height, for example to map the concentrations over a whole area.  For one
+ * set of dispersion parameters the contribution of a point source depends only on the horizontal
+ * offset from the source to the receptor and on the source and receptor heights, so the
+ * concentration map is the two dimensional convolution of an emission raster with a kernel raster.
+ * The convolution is found with the fast Fourier transform in O(N log N) operations instead of
+ * generating the points of every link for every receptor.
+ * <br>
+ * The map is found in three steps:
+ * <ul>
+ * <li>The emissions of every <code>highway_link</code> of the site are rasterized on a grid with
+ *     the same spacing as the receptor grid.  The traveled way and the overhang of the spacing
+ *     profile are sampled <code>RASTER_SAMPLES</code> times per grid spacing in both directions
+ *     and each sample is shared among the four nearest raster nodes.</li>
+ * <li>The kernel raster, the contribution of a unit source to each grid offset, is evaluated
+ *     once with the formula of <code>point.calculate_contribution</code>.  Links are grouped by
+ *     the source heights of their spacing profile, and the kernel of a group is the mean of the
+ *     kernels of its heights, since the emission of a link is shared equally among its heights.</li>
+ * <li>Each emission raster is convolved with the kernel of its group by FFT and the results
+ *     are added.</li>
+ * </ul>
+ * The map is exact for the rasterized emissions, but the rasterization smooths the source at the
+ * scale of the grid spacing.  Receptors within a few grid spacings of a road are therefore less
+ * accurate than those of <code>site_description.run_simulation</code>; use a spacing that is small
+ * compared to the distance from the road to the receptors of interest, or evaluate the kernel as
+ * the mean over sub-offsets of each cell with <code>setKernel_subsamples</code>.
+ *
+ * <br><br>
+ * <b>Notes:</b><br>
+ * All units in metric (MKS) unless otherwise stated.   <br>
+ * The dispersion parameters of the site are used as they are when <code>run</code> is called.
+ * Links that are not <code>highway_link</code> objects are not included in the map.   <br>
+ * The round off of the transforms is relative to the largest concentration of the map, so
+ * concentrations below about 1E-15 of the largest are not meaningful.
+ *
+ * @see site_description
+ * @see fourier_transform
+ * @see point
+ */
+
+public class grid_run
+{
+    /**
+     * The number of emission samples per grid spacing along and across each link.
+     */
+    public static final int RASTER_SAMPLES = 4;
+
+    /**
+     * The site whose concentrations are found.
+     */
+    private site_description site;
+
+    /**
+     * The location of the first receptor of the grid and the spacing between receptors.
+     */
+    private double	     origin_x, origin_y, spacing;
+
+    /**
+     * The number of receptors along x (columns) and along y (rows).
+     */
+    private int		     columns, rows;
+
+    /**
+     * The receptor height of the grid.
+     */
+    private double	     height;
+
+    /**
+     * The number of sub-offsets in each direction that the kernel of a cell is averaged over.
+     */
+    private int		     kernel_subsamples = 1;
+
+    /**
+     * The concentration of each receptor in g/m^3, <code>conc_grid[row][column]</code>
+	* (null until <code>run</code> is called).
+     */
+    private double[][]	     conc_grid = null;
+
+    /**
+     * The number of kernel evaluations of the last <code>run</code>.
+     */
+    private long	     kernel_evaluations = 0;
+
+    /**
+     * Creates a new <code>grid_run</code> for a site.  The receptor at column i and row j of the
+	* grid is located at (origin_x + i * spacing, origin_y + j * spacing, height).  The links and
+	* dispersion parameters of the site must be set before <code>run</code> is called.
+     */
+    public grid_run(site_description site, double origin_x, double origin_y, double spacing, int columns,
+		    int rows, double height)
+    {
+	this.site = site;
+	this.origin_x = origin_x;
+	this.origin_y = origin_y;
+	this.height = height;
+
+	if (spacing <= 0.0 || columns < 1 || rows < 1)
+	{
+	    System.err.println("A receptor grid needs a positive spacing and at least one row and column, "
+			       + "not a spacing of " + spacing + " with " + columns + " columns and " + rows
+			       + " rows.\nIf you choose to continue a single receptor with a 1 m spacing will be used");
+	    debugging.exception_handeler();
+
+	    spacing = 1.0;
+	    columns = 1;
+	    rows = 1;
+	}
+
+	this.spacing = spacing;
+	this.columns = columns;
+	this.rows = rows;
+    }
+
+    /**
+     * Set the number of sub-offsets in each direction that the kernel of a cell is averaged over.
+	* A value of 1 evaluates the kernel at the center of the cell only.  Larger values improve
+	* receptors near the roads at the cost of subsamples^2 times as many kernel evaluations.
+     */
+    public void setKernel_subsamples(int subsamples)
+    {
+	if (subsamples < 1)
+	{
+	    System.err.println("The number of kernel subsamples must be at least 1, " + subsamples
+			       + " is not allowed.\nIf you choose to continue the number will not be changed");
+	    debugging.exception_handeler();
+
+	    return;
+	}
+
+	kernel_subsamples = subsamples;
+    }
+
+    /**
+     * Get the number of sub-offsets in each direction that the kernel of a cell is averaged over.
+     */
+    public int getKernel_subsamples()
+    {
+	return kernel_subsamples;
+    }
+
+    /**
+     * Get the number of kernel evaluations made by the last <code>run</code>.
+     */
+    public long getKernel_evaluations()
+    {
+	return kernel_evaluations;
+    }
+
+    /**
+     * Get the x coordinate of a column of the grid.
+     */
+    public double getX(int column)
+    {
+	return origin_x + column * spacing;
+    }
+
+    /**
+     * Get the y coordinate of a row of the grid.
+     */
+    public double getY(int row)
+    {
+	return origin_y + row * spacing;
+    }
+
+    /**
+     * Find the concentration of every receptor of the grid.
+     */
+    public void run()
+    {
+	dispersion disp = site.getDispersion();
+
+	point.setDisp_param(disp);
+	kernel_evaluations = 0;
+	conc_grid = new double[rows][columns];
+
+	// the emission rasters of each group of source heights and the heights of the group
+	Hashtable<String, double[][]> group_rasters = new Hashtable<String, double[][]>();
+	Hashtable<String, double[]>   group_heights = new Hashtable<String, double[]>();
+
+	// the raster nodes are the grid receptor locations extended to cover every link
+	int[] extent = find_raster_extent();
+
+	if (extent == null)
+	{
+	    return;	    // no links to map
+	}
+
+	int raster_columns = extent[2] - extent[0] + 1;
+	int raster_rows = extent[3] - extent[1] + 1;
+
+	for (int l = 0; l < site.known_links(); l++)
+	{
+	    link current_link = site.getLink(l);
+
+	    if (!(current_link instanceof highway_link))
+	    {
+		System.err.println("Only highway links can be mapped on a receptor grid, link " + l
+				   + " is not a highway link.\nIf you choose to continue it will be ignored");
+		debugging.exception_handeler();
+
+		continue;
+	    }
+
+	    double[] heights = find_profile(current_link).vertical_locations(current_link.getVertical_refinement());
+	    String   group = Arrays.toString(heights);
+
+	    if (!group_rasters.containsKey(group))
+	    {
+		group_rasters.put(group, new double[raster_rows][raster_columns]);
+		group_heights.put(group, heights);
+	    }
+
+	    rasterize(current_link, disp, group_rasters.get(group), extent[0], extent[1]);
+	}
+
+	// the convolutions are sized so that the circular wrap does not reach the receptor grid
+	int transform_columns = fourier_transform.power_of_two(columns + raster_columns - 1);
+	int transform_rows = fourier_transform.power_of_two(rows + raster_rows - 1);
+
+	for (Enumeration<String> e = group_rasters.keys(); e.hasMoreElements(); )
+	{
+	    String     group = e.nextElement();
+	    double[][] raster = group_rasters.get(group);
+	    double[]   heights = group_heights.get(group);
+
+	    // transform the emission raster
+	    double[][] emission_real = new double[transform_rows][transform_columns];
+	    double[][] emission_imaginary = new double[transform_rows][transform_columns];
+
+	    for (int j = 0; j < raster_rows; j++)
+	    {
+		System.arraycopy(raster[j], 0, emission_real[j], 0, raster_columns);
+	    }
+
+	    fourier_transform.transform_2d(emission_real, emission_imaginary, false);
+
+	    // transform the kernel of the group and multiply the transforms
+	    double[][] kernel_real = create_kernel_raster(heights, disp, extent, raster_columns, raster_rows,
+							    transform_columns, transform_rows);
+	    double[][] kernel_imaginary = new double[transform_rows][transform_columns];
+
+	    fourier_transform.transform_2d(kernel_real, kernel_imaginary, false);
+
+	    for (int j = 0; j < transform_rows; j++)
+	    {
+		for (int i = 0; i < transform_columns; i++)
+		{
+		    double real = emission_real[j][i] * kernel_real[j][i] - emission_imaginary[j][i] * kernel_imaginary[j][i];
+
+		    emission_imaginary[j][i] = emission_real[j][i] * kernel_imaginary[j][i]
+					       + emission_imaginary[j][i] * kernel_real[j][i];
+		    emission_real[j][i] = real;
+		}
+	    }
+
+	    fourier_transform.transform_2d(emission_real, emission_imaginary, true);
+
+	    for (int j = 0; j < rows; j++)
+	    {
+		for (int i = 0; i < columns; i++)
+		{
+		    conc_grid[j][i] += emission_real[j][i];
+		}
+	    }
+	}
+
+	// the round off of the transforms can leave tiny negative values upwind of every link
+	for (int j = 0; j < rows; j++)
+	{
+	    for (int i = 0; i < columns; i++)
+	    {
+		if (conc_grid[j][i] < 0.0)
+		{
+		    conc_grid[j][i] = 0.0;
+		}
+	    }
+	}
+    }
+
+    /**
+     * Find the spacing profile of a link: its own profile, that of the site, or the default profile.
+     */
+    private spacing_profile find_profile(link current_link)
+    {
+	if (current_link.getSpacing_profile() != null)
+	{
+	    return current_link.getSpacing_profile();
+	}
+
+	if (site.getSpacing_profile() != null)
+	{
+	    return site.getSpacing_profile();
+	}
+
+	return highway_point_spacing.get_default_profile();
+    }
+
+    /**
+     * Find the raster nodes that cover every link and the receptor grid, as
+	* {first column, first row, last column, last row} in grid spacings from the grid origin.
+	* Returns null if the site has no links.
+     */
+    private int[] find_raster_extent()
+    {
+	if (site.known_links() == 0)
+	{
+	    return null;
+	}
+
+	double min_x = Double.MAX_VALUE, min_y = Double.MAX_VALUE;
+	double max_x = -Double.MAX_VALUE, max_y = -Double.MAX_VALUE;
+
+	for (int l = 0; l < site.known_links(); l++)
+	{
+	    link	    current_link = site.getLink(l);
+	    link_geometry   geometry = current_link.getGeometry();
+	    spacing_profile profile = find_profile(current_link);
+
+	    // the widest the sources can reach from the centerline
+	    double reach = geometry.getWidth() / 2.0
+			   + Math.max(profile.getCross_component_overhang_UP(), profile.getCross_component_overhang_Down());
+	    coordinate[] ends = { geometry.getStart_location(), geometry.getEnd_location() };
+
+	    for (int k = 0; k < ends.length; k++)
+	    {
+		min_x = Math.min(min_x, ends[k].getX() - reach);
+		max_x = Math.max(max_x, ends[k].getX() + reach);
+		min_y = Math.min(min_y, ends[k].getY() - reach);
+		max_y = Math.max(max_y, ends[k].getY() + reach);
+	    }
+	}
+
+	return new int[] { (int) Math.floor((min_x - origin_x) / spacing), (int) Math.floor((min_y - origin_y) / spacing),
+			   (int) Math.ceil((max_x - origin_x) / spacing), (int) Math.ceil((max_y - origin_y) / spacing) };
+    }
+
+    /**
+     * Add the emissions of a link (g/s) to an emission raster whose first node is at
+	* (first_column, first_row) grid spacings from the grid origin.  The traveled way is widened by
+	* the overhang of the spacing profile on each side, with the upwind overhang on the upwind side
+	* as in <code>highway_point_spacing</code>.
+     */
+    private void rasterize(link current_link, dispersion disp, double[][] raster, int first_column, int first_row)
+    {
+	link_geometry	geometry = current_link.getGeometry();
+	spacing_profile profile = find_profile(current_link);
+
+	// the side of the road that receives the upwind overhang
+	wind_vector wind_vec = new wind_vector(disp.getA(), disp.getP(), disp.getWind_angle());
+
+	wind_vec.rotate(geometry.getRotation_angle());
+
+	double lower, upper;
+
+	if (wind_vec.get_x_component() >= 0)
+	{
+	    lower = -geometry.getWidth() / 2.0 - profile.getCross_component_overhang_Down();
+	    upper = geometry.getWidth() / 2.0 + profile.getCross_component_overhang_UP();
+	}
+	else
+	{
+	    lower = -geometry.getWidth() / 2.0 - profile.getCross_component_overhang_UP();
+	    upper = geometry.getWidth() / 2.0 + profile.getCross_component_overhang_Down();
+	}
+
+	// the x-axis of the rotated link is the link direction turned 90 degrees clockwise
+	double cross_x = geometry.getUnit_y();
+	double cross_y = -geometry.getUnit_x();
+	double step = spacing / RASTER_SAMPLES;
+	int    fetch_samples = Math.max(1, (int) Math.ceil(geometry.getLength() / step));
+	int    cross_samples = Math.max(1, (int) Math.ceil((upper - lower) / step));
+	double fetch_step = geometry.getLength() / fetch_samples;
+	double cross_step = (upper - lower) / cross_samples;
+	double sample_emission = current_link.getLine_strength() * geometry.getLength()
+				 / ((double) fetch_samples * cross_samples);
+	double start_x = geometry.getStart_x();
+	double start_y = geometry.getStart_y();
+
+	for (int f = 0; f < fetch_samples; f++)
+	{
+	    double along = (f + 0.5) * fetch_step;
+
+	    for (int c = 0; c < cross_samples; c++)
+	    {
+		double across = lower + (c + 0.5) * cross_step;
+
+		// the sample location in grid spacings from the first raster node
+		double u = (start_x + along * geometry.getUnit_x() + across * cross_x - origin_x) / spacing - first_column;
+		double v = (start_y + along * geometry.getUnit_y() + across * cross_y - origin_y) / spacing - first_row;
+		int    i = Math.min((int) Math.floor(u), raster[0].length - 2);
+		int    j = Math.min((int) Math.floor(v), raster.length - 2);
+		double wu = u - i;
+		double wv = v - j;
+
+		// share the sample among the four nearest nodes (a single node raster keeps it all)
+		if (i < 0 || j < 0)
+		{
+		    raster[Math.max(j, 0)][Math.max(i, 0)] += sample_emission;
+		    continue;
+		}
+
+		raster[j][i] += sample_emission * (1.0 - wu) * (1.0 - wv);
+		raster[j][i + 1] += sample_emission * wu * (1.0 - wv);
+		raster[j + 1][i] += sample_emission * (1.0 - wu) * wv;
+		raster[j + 1][i + 1] += sample_emission * wu * wv;
+	    }
+	}
+    }
+
+    /**
+     * Create the kernel raster of a group of source heights, arranged for a circular convolution
+	* with an emission raster of <code>raster_columns</code> by <code>raster_rows</code> nodes that
+	* starts at <code>extent[0], extent[1]</code>.  Member [t mod rows][s mod columns] holds the mean
+	* contribution of a unit source to a receptor offset by (s - extent[0], t - extent[1]) grid
+	* spacings from it, for s from -(raster_columns - 1) to columns - 1 and t from
+	* -(raster_rows - 1) to rows - 1.
+     */
+    private double[][] create_kernel_raster(double[] heights, dispersion disp, int[] extent, int raster_columns,
+					    int raster_rows, int transform_columns, int transform_rows)
+    {
+	double[][] kernel = new double[transform_rows][transform_columns];
+	double	   cos_wind = Math.cos(disp.getWind_angle());
+	double	   sin_wind = Math.sin(disp.getWind_angle());
+	double	   weight = 1.0 / (heights.length * kernel_subsamples * kernel_subsamples);
+
+	for (int t = -(raster_rows - 1); t < rows; t++)
+	{
+	    double dy = (t - extent[1]) * spacing;
+	    int	   row = (t + transform_rows) % transform_rows;
+
+	    for (int s = -(raster_columns - 1); s < columns; s++)
+	    {
+		double dx = (s - extent[0]) * spacing;
+		double total = 0.0;
+
+		for (int a = 0; a < kernel_subsamples; a++)
+		{
+		    double sub_x = dx + ((a + 0.5) / kernel_subsamples - 0.5) * spacing;
+
+		    for (int b = 0; b < kernel_subsamples; b++)
+		    {
+			double sub_y = dy + ((b + 0.5) / kernel_subsamples - 0.5) * spacing;
+
+			for (int h = 0; h < heights.length; h++)
+			{
+			    total += point.contribution(0.0, 0.0, heights[h], 1.0, sub_x, sub_y, height, cos_wind,
+							sin_wind, null);
+			}
+		    }
+		}
+
+		kernel[row][(s + transform_columns) % transform_columns] = total * weight;
+	    }
+	}
+
+	kernel_evaluations += (long) (raster_rows + rows - 1) * (raster_columns + columns - 1) * heights.length
+			      * kernel_subsamples * kernel_subsamples;
+
+	return kernel;
+    }
+
+    /**
+     * Return the concentration of every receptor of the grid as <code>matrix[row][column]</code>.
+     *
+     * @param units indicates what units to return the concentration data in
+	* (see <code>site_description.get_conc_matrix</code>).
+     */
+    public double[][] get_conc_grid(int units)
+    {
+	if (conc_grid == null)
+	{
+	    System.err.println("The grid run must be run before its concentrations are available");
+	    debugging.exception_handeler();
+
+	    return null;
+	}
+
+	double	   factor = site.find_unit_conversion(units);
+	double[][] return_matrix = new double[rows][columns];
+
+	for (int j = 0; j < rows; j++)
+	{
+	    for (int i = 0; i < columns; i++)
+	    {
+		return_matrix[j][i] = conc_grid[j][i] * factor;
+	    }
+	}
+
+	return return_matrix;
+    }
+}
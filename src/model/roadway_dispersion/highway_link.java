@@ -178,10 +178,10 @@ public class highway_link extends link implements Cloneable
 	// set certain non-static base link properties of the return link = this link
 	return_link.naming = new default_naming(this.naming.getName());    // get name
 
-	return_link.setStart_location(this.getStart_location());	// start_location
-	return_link.setEnd_location(this.getEnd_location());		// end_location
-	return_link.setWidth(this.getWidth());				// width
-	return_link.determine_link_geometry();				// link_angle and  link_length
+	// start_location, end_location, width and the precomputed geometry
+	// are shared with this link rather than copied and recalculated
+	return_link.share_geometry(this);
+	return_link.setSpacing_profile(this.getSpacing_profile());    // profiles are immutable so they are shared
 	// do not set these base class properties
 	// point_array
 	// total_concentration
@@ -208,24 +208,165 @@ public class highway_link extends link implements Cloneable
     {
 	highway_point_spacing hps = null;    // highway spacing object to assist in point generation
 
-	this.getStart_location();
-	this.getEnd_location();
-	this.getWidth();
-	this.getLine_strength();
-	this.getReceptor_location();
-	this.getDisp_param().getA();            // the MET data is not currently used to determine point spacing
-	this.getDisp_param().getP();
-	this.getDisp_param().getWind_angle();
-
-	hps = new highway_point_spacing(this.getStart_location(), this.getEnd_location(), this.getWidth(),
-					this.getLine_strength(), this.getReceptor_location(),
-					this.getDisp_param().getA(), this.getDisp_param().getP(),
-					this.getDisp_param().getWind_angle());
-
-	this.setPoint_array(hps.return_point_array());    // get the point array from the hps object
+	// the MET data is only used to determine point spacing in the adaptive spacing mode
+	hps = new highway_point_spacing(this.getGeometry(), this.getLine_strength(), this.getEvaluation_location(),
+					this.getDisp_param(), this.getSpacing_profile());
+	hps.setRefinement(this.getFetch_refinement(), this.getCross_refinement(),
+			  this.getVertical_refinement());    // finer than the spacing tables when auto refining
+
+	double[][] cloud = cached_point_cloud(hps);
+
+	if (cloud == null)
+	{
+	    this.setPoint_array(hps.return_point_array());    // get the point array from the hps object
+	}
+	else
+	{
+	    point[] points = new point[cloud[0].length];
+
+	    for (int i = 0; i < points.length; i++)
+	    {
+		points[i] = new point(cloud[0][i], cloud[1][i], cloud[2][i], cloud[3][i]);
+	    }
+
+	    this.setPoint_array(points);
+	}
 	//System.out.println("points created = " + this.get_number_points());
     }
 
+    /**
+     * Find the points of the link in the point cloud cache, generating and caching them if they are
+	* not there.  Returns null if the cache is off or the points depend on the wind (see
+	* <code>point_cloud_cache</code>), in which case the caller generates the points itself.
+     */
+    private double[][] cached_point_cloud(highway_point_spacing hps)
+    {
+	if (!point_cloud_cache.is_enabled() || hps.is_wind_dependent())
+	{
+	    return null;
+	}
+
+	point_cloud_cache.key key = new point_cloud_cache.key(this.getEvaluation_location(), this.getGeometry(),
+							     this.getLine_strength(), hps.getProfile(),
+							     this.getFetch_refinement(), this.getCross_refinement(),
+							     this.getVertical_refinement(), hps.is_wind_x_component_positive());
+	double[][] cloud = point_cloud_cache.get(key);
+
+	if (cloud == null)
+	{
+	    cloud = hps.return_point_coordinates();
+	    point_cloud_cache.put(key, cloud);
+	}
+
+	return cloud;
+    }
+
+
+    /**
+     * Generate the point sources of the link with a highway_point_spacing object and send them
+	* to an accumulator in small blocks instead of storing them in the point array.  The points are
+	* identical to those of <code>create_point_array</code>.
+     *
+     * @return the number of points generated.
+     */
+    public int stream_point_array(point_accumulator accumulator)
+    {
+	highway_point_spacing hps = new highway_point_spacing(this.getGeometry(), this.getLine_strength(),
+							      this.getEvaluation_location(), this.getDisp_param(),
+							      this.getSpacing_profile());
+
+	hps.setRefinement(this.getFetch_refinement(), this.getCross_refinement(), this.getVertical_refinement());
+
+	double[][] cloud = cached_point_cloud(hps);
+
+	if (cloud == null)
+	{
+	    return hps.stream_points(accumulator);
+	}
+
+	// the cached points are sent as a single block
+	accumulator.accumulate(cloud[0], cloud[1], cloud[2], cloud[3], cloud[0].length);
+
+	return cloud[0].length;
+    }
+
+    /**
+     * Generate the point sources of the link and send them to an accumulator in the link coordinate
+	* system (see <code>highway_point_spacing.stream_local_points</code>).
+     *
+     * @return the number of points generated.
+     */
+    public int stream_local_point_array(local_point_accumulator accumulator)
+    {
+	highway_point_spacing hps = new highway_point_spacing(this.getGeometry(), this.getLine_strength(),
+							      this.getEvaluation_location(), this.getDisp_param(),
+							      this.getSpacing_profile());
+
+	hps.setRefinement(this.getFetch_refinement(), this.getCross_refinement(), this.getVertical_refinement());
+
+	return hps.stream_local_points(accumulator);
+    }
+
+    /**
+     * Count the point sources of the link without generating them
+	* (see <code>highway_point_spacing.count_points</code>).
+     *
+     * @return the number of points.
+     */
+    public int count_points()
+    {
+	highway_point_spacing hps = new highway_point_spacing(this.getGeometry(), this.getLine_strength(),
+							      this.getEvaluation_location(), this.getDisp_param(),
+							      this.getSpacing_profile());
+
+	return hps.count_points();
+    }
+
+    /**
+     * Create a tree of the point sources of the link with the same fetch and cross spacing
+	* everywhere, so the points do not depend on the receptor.  The zones, vertical points and
+	* overhang of the spacing profile of the link are kept.
+     *
+     * @param spacing the fetch and cross spacing of the points (m).
+     */
+    public source_tree create_source_tree(double spacing)
+    {
+	spacing_profile profile = (this.getSpacing_profile() != null) ? this.getSpacing_profile()
+									: highway_point_spacing.get_default_profile();
+	double[]	uniform = new double[profile.getNum_regions()];
+
+	for (int i = 0; i < uniform.length; i++)
+	{
+	    uniform[i] = spacing;
+	}
+
+	spacing_profile uniform_profile = new spacing_profile(profile.getZones(), uniform, uniform,
+							      profile.getVertical_density(),
+							      profile.getCross_component_overhang_UP(),
+							      profile.getCross_component_overhang_Down());
+
+	// the receptor only places the region boundaries, which do not change a uniform spacing
+	highway_point_spacing hps = new highway_point_spacing(this.getGeometry(), this.getLine_strength(),
+							      this.getGeometry().getStart_location(),
+							      this.getDisp_param(), uniform_profile);
+
+	return new source_tree(hps.return_point_coordinates());
+    }
+
+    /**
+     * Add the contribution of the link to the static receptor from a closed form line source
+	* if it is valid for the receptor (see <code>line_source</code>).
+     *
+     * @return the number of kernel evaluations, or -1 if the point sources must be used.
+     */
+    public int line_source_contribution(pairwise_sum sum)
+    {
+	spacing_profile profile = (this.getSpacing_profile() != null) ? this.getSpacing_profile()
+									: highway_point_spacing.get_default_profile();
+
+	return line_source.evaluate(this.getGeometry(), this.getLine_strength(), profile, this.getCross_refinement(),
+				    this.getVertical_refinement(), this.getEvaluation_location(), sum);
+    }
 
     /**
      * Get the value of line_strength in
@@ -49,6 +49,20 @@ public class highway_point_spacing
     private coordinate	 offset = null;
     // used to rotate coordinate system for point generation purposes
     private double	      rotation_angle_radians = -99.9;
+    // cosine and sine of the rotation angle so points can be rotated without trig functions
+    private double	      cos_rotation = 1.0;
+    private double	      sin_rotation = 0.0;
+    // cosine and sine of the wind angle in the rotated coordinate system (adaptive spacing only)
+    private double	      local_cos_wind = 1.0;
+    private double	      local_sin_wind = 0.0;
+    // largest distance points can extend from the link centerline (adaptive spacing only)
+    private double	      cross_extent = 0.0;
+    // precomputed link geometry (null if the link end points were passed directly)
+    private link_geometry	      geometry = null;
+    // the fetch, cross and vertical spacings are divided by these factors (see setRefinement)
+    private double	      fetch_refinement = 1.0;
+    private double	      cross_refinement = 1.0;
+    private double	      vertical_refinement = 1.0;
 
     /**
      * The wind vector object stores wind direction and wind speed at a reference elevation.
@@ -57,9 +71,54 @@ public class highway_point_spacing
     private wind_vector		      wind_vec = null;
 
     /**
-     * The <code>points</code> member is a vector used to store point objects that are created for each zone.
+     * The dispersion parameters of the site.  These are only used by the adaptive spacing mode
+	* and are null if the object was created with the wind parameters alone.
      */
-    private Vector	      points = new Vector();
+    private dispersion		      disp_param = null;
+
+    /**
+     * Members <code>point_x, point_y, point_z</code> and <code>point_ef</code> store the location and
+	* emission factor of each point that is created.  They are allocated at their final size once the
+	* points of every region have been counted (see <code>return_point_array</code>) and are null
+	* while the points are being counted.
+     */
+    private double[]	      point_x = null;
+    private double[]	      point_y = null;
+    private double[]	      point_z = null;
+    private double[]	      point_ef = null;
+
+    /**
+     * The number of points counted or created so far (the number in the current block
+	* when the points are streamed).
+     */
+    private int		      point_count = 0;
+
+    /**
+     * The accumulator that receives each block of points when the points are streamed
+	* (null when a complete point array is created).  See <code>stream_points</code>.
+     */
+    private point_accumulator	      accumulator = null;
+
+    /**
+     * The number of points sent to the <code>accumulator</code> so far.
+     */
+    private int		      streamed_points = 0;
+
+    /**
+     * The number of points in each block sent to an accumulator.
+     */
+    private static final int  STREAM_BLOCK_SIZE = 1024;
+
+    /**
+     * Indicates if streamed points are left in the link coordinate system (see <code>stream_local_points</code>).
+     */
+    private boolean	      local_frame = false;
+
+    /**
+     * The vertical location of the points in every cross section.  The vertical spacing is
+	* common to all regions so the profile is only found once.
+     */
+    private double[]	      vertical_profile = null;
 
     /**
      * If a calculation for travel time over the roadway has to be made,
@@ -68,10 +127,16 @@ public class highway_point_spacing
      */
     private static double     representative_wind_elevation = 4.5;
 
+    /**
+     * The spacing settings used by this object.  The zone and density members below are copied
+	* from this profile when the object is created.
+     */
+    private spacing_profile	      profile = null;
+
     /**
      * A read only member indicating the total number of regions with unique point densities.
      */
-    private static int	      num_regions;
+    private int		      num_regions;
 
     /**
      * The <code>zones</code> member specifies a region by its distance from the x-axis
@@ -84,7 +149,7 @@ public class highway_point_spacing
      * Region 2 is from y= -30 to -10 and 10 to 30       <br>
      * Region 3 is from y= -inf to -30 and 30 to +inf    <br>
      */
-    private static double[]   zones;
+    private double[]	      zones;
 
     /**
      * <code>fetch_density</code> indicates the spacing of points along the roadway centerline
@@ -99,7 +164,7 @@ public class highway_point_spacing
      * region 2 has points located every 5 m along the roadway centerline           <br>
      * region 3 has points located every 10 m along the roadway centerline          <br>
      */
-    private static double[]   fetch_density;
+    private double[]	      fetch_density;
 
     /**
      * <code>cross_density</code> indicates the spacing of points on a line normal
@@ -114,7 +179,7 @@ public class highway_point_spacing
      * region 2 has points located every 5 m along a line normal to the roadway centerline         <br>
      * region 3 has points located every 10 m along a line normal to the roadway centerline        <br>
      */
-    private static double[]   cross_density;
+    private double[]	      cross_density;
 
     /**
      * <code>vertical_density</code> specifies the location of points above the roadway.
@@ -130,7 +195,7 @@ public class highway_point_spacing
      * The first spacing segment starts at z=0 and has points every meter until z=5.
      * The second spacing segment starts at z=6 and has points every two meters until z=16.
      */
-    private static double[][] vertical_density;
+    private double[][]	      vertical_density;
 
     /**
 	* <code>cross_component_overhang_UP</code>
@@ -139,7 +204,7 @@ public class highway_point_spacing
 	* This code was originally designed to allow for asymetrical point placements
 	* that can be determined based on wind speed and direction and link orientation.
 	*/
-    private static double cross_component_overhang_UP=0.0;
+    private double cross_component_overhang_UP=0.0;
 
     /**
 	* <code>cross_component_overhang_Down</code>
@@ -148,89 +213,159 @@ public class highway_point_spacing
 	* This code was originally designed to allow for asymetrical point placements
 	* that can be determined based on wind speed and direction and link orientation.
 	*/
-    private static double cross_component_overhang_Down=0.0;
+    private double cross_component_overhang_Down=0.0;
+
+    /**
+     * Copy the settings of a spacing profile into the zone and density members of this object.
+     */
+    private void load_profile(spacing_profile profile)
+    {
+	this.profile = profile;
+	num_regions = profile.getNum_regions();
+	zones = profile.getZones();
+	fetch_density = profile.getFetch_density();
+	cross_density = profile.getCross_density();
+	vertical_density = profile.getVertical_density();
+	cross_component_overhang_UP = profile.getCross_component_overhang_UP();
+	cross_component_overhang_Down = profile.getCross_component_overhang_Down();
+	adaptive_spacing = profile.is_adaptive_spacing();
+	adaptive_tolerance = profile.getAdaptive_tolerance();
+	adaptive_min_spacing = profile.getAdaptive_min_spacing();
+	adaptive_max_spacing = profile.getAdaptive_max_spacing();
+    }
+
+    /**
+     * Return the spacing profile used by this object.
+     */
+    public spacing_profile getProfile()
+    {
+	return profile;
+    }
+
+    /* ------------------------- Default spacing profile --------------------------- */
+    // The static routines below describe the default spacing profile used by links that have
+    // not been given a profile of their own.  The settings are collected in the default_ members
+    // and only checked when the default profile is next needed, so the tables can be changed one
+    // at a time (for example new zones and then new densities) without the intermediate
+    // combinations being rejected.  Objects that have already been created keep the profile
+    // they were created with.
+
+    private static double[]	   default_zones;
+    private static double[]	   default_fetch_density;
+    private static double[]	   default_cross_density;
+    private static double[][]	   default_vertical_density;
+    private static double	   default_overhang_UP;
+    private static double	   default_overhang_Down;
+    private static boolean	   default_adaptive_spacing;
+    private static double	   default_adaptive_tolerance;
+    private static double	   default_adaptive_min_spacing;
+    private static double	   default_adaptive_max_spacing;
+
+    /**
+     * The default spacing profile built from the default_ members (null if a setting changed since it was built).
+     */
+    private static spacing_profile default_profile = null;
+
+    /**
+     * Return the spacing profile used by links that do not have a profile of their own.
+	* The profile is built from the settings of the static set routines the first time it is
+	* needed after a setting changes.
+     */
+    public static synchronized spacing_profile get_default_profile()
+    {
+	if (default_profile == null)
+	{
+	    default_profile = new spacing_profile(default_zones, default_fetch_density, default_cross_density,
+						  default_vertical_density, default_overhang_UP, default_overhang_Down,
+						  default_adaptive_spacing, default_adaptive_tolerance,
+						  default_adaptive_min_spacing, default_adaptive_max_spacing);
+	}
+
+	return default_profile;
+    }
+
+    /**
+     * Replace every default spacing setting with the settings of a profile.
+     */
+    public static synchronized void set_default_profile(spacing_profile profile)
+    {
+	default_zones = profile.getZones();
+	default_fetch_density = profile.getFetch_density();
+	default_cross_density = profile.getCross_density();
+	default_vertical_density = profile.getVertical_density();
+	default_overhang_UP = profile.getCross_component_overhang_UP();
+	default_overhang_Down = profile.getCross_component_overhang_Down();
+	default_adaptive_spacing = profile.is_adaptive_spacing();
+	default_adaptive_tolerance = profile.getAdaptive_tolerance();
+	default_adaptive_min_spacing = profile.getAdaptive_min_spacing();
+	default_adaptive_max_spacing = profile.getAdaptive_max_spacing();
+	default_profile = profile;
+    }
 
     /**
 	* Set the distance in meters that point can extend in the upwind lateral direction of a link.
 	*/
-    public static void set_cross_component_overhang_UP(double single_side_overhang)
+    public static synchronized void set_cross_component_overhang_UP(double single_side_overhang)
     {
-	 highway_point_spacing.cross_component_overhang_UP = single_side_overhang;
+	 default_overhang_UP = single_side_overhang;
+	 default_profile = null;
     }
     /**
 	* Set the distance in meters that point can extend in the downwind lateral direction of a link.
 	*/
-    public static void set_cross_component_overhang_Down(double single_side_overhang)
+    public static synchronized void set_cross_component_overhang_Down(double single_side_overhang)
     {
-	 highway_point_spacing.cross_component_overhang_Down = single_side_overhang;
+	 default_overhang_Down = single_side_overhang;
+	 default_profile = null;
     }
 
     /**
      * Routine to set the zone distances - see the member <code>zones</codes> for
 	* details on acceptable usage.
 	*/
-    public static void setZones(double[] new_zones)
+    public static synchronized void setZones(double[] new_zones)
     {
-	// set the total number of regions variable.  There is always one more region than zones.
-	num_regions = new_zones.length + 1;
-	// redim the zones member to the new size
-	zones = new double[new_zones.length];
-
-	for (int i = 0; i < new_zones.length; i++)
-	{
-	    highway_point_spacing.zones[i] = new_zones[i];
-	}
+	default_zones = new_zones.clone();
+	default_profile = null;
     }
 
     /**
      * Routine to set the the fetch density of highway points - see <code>fetch_density</code>
 	* for acceptable usage.
      */
-    public static void setFetch_density(double[] new_fetch_density)
+    public static synchronized void setFetch_density(double[] new_fetch_density)
     {
-	// set the total number of regions variable
-	num_regions = new_fetch_density.length;
-	// redim the fetch_density member to the new size
-	fetch_density = new double[new_fetch_density.length];
-
-	for (int i = 0; i < new_fetch_density.length; i++)
-	{
-	    highway_point_spacing.fetch_density[i] = new_fetch_density[i];
-	}
+	default_fetch_density = new_fetch_density.clone();
+	default_profile = null;
     }
 
     /**
      * Routine to set the the lateral density of highway points - see <code>cross_density</code>
 	* for acceptable usage.
      */
-    public static void setCross_density(double[] new_cross_density)
+    public static synchronized void setCross_density(double[] new_cross_density)
     {
-	// set the total number of regions variable
-	num_regions = new_cross_density.length;
-	// redim the cross_density member to the new size
-	cross_density = new double[new_cross_density.length];
-
-	for (int i = 0; i < new_cross_density.length; i++)
-	{
-	    highway_point_spacing.cross_density[i] = new_cross_density[i];
-	}
+	default_cross_density = new_cross_density.clone();
+	default_profile = null;
     }
     /**
      * Routine to set the the vertical density of highway points - see <code>vertical_density</code>
 	* for acceptable usage.
      */
-    public static void setVertical_density(double[][] new_vertical_density)
+    public static synchronized void setVertical_density(double[][] new_vertical_density)
     {
 	// redim the vertical_density member to the new size
-	vertical_density = new double[new_vertical_density.length][3];
+	default_vertical_density = new double[new_vertical_density.length][3];
 
 	for (int i = 0; i < new_vertical_density.length; i++)
 	{
 	    for (int j = 0; j < 3; j++)
 	    {
-		highway_point_spacing.vertical_density[i][j] = new_vertical_density[i][j];
+		default_vertical_density[i][j] = new_vertical_density[i][j];
 	    }
 	}
+
+	default_profile = null;
     }
 
     /**
@@ -248,48 +383,15 @@ public class highway_point_spacing
 	* contributions from parts of the link that are too far away from the receptor to merit extra
 	* resolutions.  <br>
 	* The default spacing specifies 4 zones with zones = [5.0, 20.0, 100.0.],
-	* the fetch desnisty is [0.5, 1.0, 5.0], the cross_density is  100.0This coresponds to
-	* zone A = 0 to +-5 m from
-	* .  Zone a is sets highway point spacing to default values.  These will be used if the user does not
+	* the fetch desnisty is [0.5, 1.0, 5.0, 100.0], the cross_density is [0.5, 1.0, 3.0, 5.0]
+	* and points extend 3.0 m past both sides of the traveled way (see the
+	* <code>spacing_profile</code> default constructor).  These will be used if the user does not
      * specify his or her own settings or if invalid settigns were attempted.
      *
      */
     public static void set_default_spacing()
     {
-	// four regions total for this configuration
-	double[]   zones ={ 5.0, 20.0, 100.0 };
-	double[]   fetch_density ={ 0.5, 1.0, 5.0, 100.0 };
-	double[]   cross_density ={ 0.5, 1.0, 3.0, 5.0 };    // only use a single point centered in the roadway at distant zones
-	//
-	double[][] vertical_density = {{0.0, 2.5, 0.5}};
-
-	num_regions = zones.length + 1;    //always one more region than zones
-	// set the object values to the matricies in this member function
-	highway_point_spacing.zones = zones;
-	highway_point_spacing.fetch_density = fetch_density;
-	highway_point_spacing.cross_density = cross_density;
-	highway_point_spacing.vertical_density = vertical_density;
-
-	// set the distance that points extend past the traveled way in the cross wise direction
-	// point extend 3.0 off the road in both the upwind and downwind direction
-	highway_point_spacing.set_cross_component_overhang_UP(3.0);
-	highway_point_spacing.set_cross_component_overhang_Down(3.0);
-    }
-
-    /**
-     * This routine makes sure that the lengths of the user specified zone location and
-	* point densities are valid.  If they are not the default scheme will be used.
-     */
-    private static void validate_zones()
-    {
-	if (num_regions != cross_density.length | num_regions != fetch_density.length
-		| num_regions != (zones.length + 1))
-	{
-	    System.err.println("Warning: a invalid set of highway point density parameters were specified, a default setting will be used instead");
-	    System.out.println("Invalid Settings are " + StatictoString());
-	    set_default_spacing();    // set to default
-	    System.out.println("Settings reset to the following " + StatictoString());
-	}
+	set_default_profile(new spacing_profile());
     }
 
     /**
@@ -304,6 +406,7 @@ public class highway_point_spacing
 	return_string += "\nFetch Density = " + format_matrix.array_2_str(fetch_density, true, "%4.3g\t");
 	return_string += "\nCross Density = " + format_matrix.array_2_str(cross_density, true, "%4.3g\t");
 	return_string += "\nVertical Density = " + format_matrix.array_2_str(vertical_density, true, "%4.3g\t");
+	return_string += "\nRefinement = " + fetch_refinement + " " + cross_refinement + " " + vertical_refinement;
 	return_string += "\nLink Width = " + width;
 	return_string += "\nLine Strength = " + line_strength;
 	return_string += "\nLink Start Point = " + link_start;
@@ -323,14 +426,7 @@ public class highway_point_spacing
      */
     public static String StatictoString()
     {
-	String return_string = "";
-
-	return_string += "Number of Regions = " + num_regions;
-	return_string += "\nFetch Density = " + format_matrix.array_2_str(fetch_density, true, "%4.3g\t");
-	return_string += "\nCross Density = " + format_matrix.array_2_str(cross_density, true, "%4.3g\t");
-	return_string += "\nVertical Density = " + format_matrix.array_2_str(vertical_density, true, "%4.3g\t");
-
-	return return_string;
+	return get_default_profile().toString();
     }
 
     /**
@@ -348,6 +444,64 @@ public class highway_point_spacing
 	this.link_angle = link_angle;
 	this.recept_location = new coordinate(recep);
 	this.wind_vec = new wind_vector(power_law_wind_a, p, wind_angle_in_radians);
+	load_profile(get_default_profile());
+    }
+
+    /**
+     * Constructor to create a new highway point spacing object based on the precomputed
+	* geometry of a link, the receptor location, and the site dispersion parameters.
+	* The link angle and the rotation onto the y-axis are taken from the geometry object
+	* instead of being recalculated.  The dispersion parameters are only used to place points
+	* when the adaptive spacing mode is turned on (see <code>set_adaptive_spacing</code>).
+	* Points are placed with the settings of <code>profile</code>, or with the default spacing
+	* profile if <code>profile</code> is null.
+     */
+    public highway_point_spacing(link_geometry geometry, double line_strength, coordinate recep,
+				 dispersion disp, spacing_profile profile)
+    {
+	this.geometry = geometry;
+	this.link_start = geometry.getStart_location();    // geometry returns copies of the end points
+	this.link_end = geometry.getEnd_location();
+	this.width = geometry.getWidth();
+	this.line_strength = line_strength;
+	this.link_angle = geometry.getAngle();
+	this.recept_location = new coordinate(recep);
+	this.disp_param = disp;
+	this.wind_vec = new wind_vector(disp.getA(), disp.getP(), disp.getWind_angle());
+	load_profile((profile != null) ? profile : get_default_profile());
+    }
+
+    /**
+     * Set the factor that the point density is increased by in every direction.  The fetch, cross
+	* and vertical spacings of the density tables (or of the adaptive spacing mode) are divided
+	* by the refinement, so a refinement of 2 halves every spacing.  This is used by the automatic
+	* refinement of <code>link.calculate_link_concentration</code> and must be set before
+	* <code>return_point_array</code> is called.
+     */
+    public void setRefinement(double refinement)
+    {
+	setRefinement(refinement, refinement, refinement);
+    }
+
+    /**
+     * Set the factors that the fetch, cross and vertical point densities are increased by
+	* (see <code>setRefinement(double)</code>).  The automatic refinement of
+	* <code>link.calculate_link_concentration</code> refines one direction at a time.
+     */
+    public void setRefinement(double fetch_refinement, double cross_refinement, double vertical_refinement)
+    {
+	if (fetch_refinement <= 0.0 || cross_refinement <= 0.0 || vertical_refinement <= 0.0)
+	{
+	    System.err.println("A point refinement of " + fetch_refinement + ", " + cross_refinement + ", "
+			       + vertical_refinement + " is invalid and will be ignored.");
+	    debugging.exception_handeler();
+
+	    return;
+	}
+
+	this.fetch_refinement = fetch_refinement;
+	this.cross_refinement = cross_refinement;
+	this.vertical_refinement = vertical_refinement;
     }
 
     /**
@@ -357,6 +511,80 @@ public class highway_point_spacing
     public static void main(String[] args)
     {
 	highway_point_spacing.debug1();
+	highway_point_spacing.debug_adaptive_convergence();
+    }
+
+    /**
+	* This routine is only used for debugging purposes.
+	* It checks that the adaptive spacing mode converges as the tolerance is tightened.  A long
+	* link of the GM data set is evaluated at a receptor next to the road and one about 100 m
+	* downwind with the adaptive spacing at tolerances of 1.0E-2 to 1.0E-5, and each result is
+	* compared with the density tables refined by 4 in every direction.  The error should not grow
+	* as the tolerance is tightened.
+	*/
+    public static void debug_adaptive_convergence()
+    {
+	dispersion    disp = site_description.create_gm_dispersion(1.76, 250.0, 4.5);
+	link_geometry geometry = new link_geometry(new coordinate(9.3, -2500.0, 0.0), new coordinate(9.3, 2500.0, 0.0), 6.8);
+	coordinate[]  receptors = { new coordinate(16.5, 5.12, 0.51), new coordinate(112.7, 34.96, 0.56) };
+	double[]      tolerances = { 1.0E-2, 1.0E-3, 1.0E-4, 1.0E-5 };
+
+	point.setDisp_param(disp);
+
+	for (int i = 0; i < receptors.length; i++)
+	{
+	    point.setReceptor_location(receptors[i]);
+
+	    highway_point_spacing reference_spacing = new highway_point_spacing(geometry, 1.0, receptors[i], disp,
+										 new spacing_profile());
+
+	    reference_spacing.setRefinement(4.0);
+
+	    double  reference = debug_sum_contributions(reference_spacing);
+	    double  last_error = Double.MAX_VALUE;
+	    boolean monotonic = true;
+
+	    System.out.println("receptor (" + receptors[i].getX() + ", " + receptors[i].getY() + ", "
+			       + receptors[i].getZ() + ") reference " + reference);
+
+	    for (int k = 0; k < tolerances.length; k++)
+	    {
+		spacing_profile profile = new spacing_profile().with_adaptive_spacing(true, tolerances[k]);
+		double		concentration = debug_sum_contributions(new highway_point_spacing(geometry, 1.0, receptors[i],
+												     disp, profile));
+		double		error = Math.abs(concentration - reference) / reference;
+
+		System.out.println("   tolerance " + tolerances[k] + " concentration " + concentration
+				   + " relative error " + error);
+
+		monotonic = monotonic && error <= last_error;
+		last_error = error;
+	    }
+
+	    System.out.println("   error decreases monotonically: " + monotonic);
+	}
+    }
+
+    /**
+	* Sum the contributions of the points of <code>spacing</code> to the receptor of the
+	* <code>point</code> class (used by <code>debug_adaptive_convergence</code>).
+	*/
+    private static double debug_sum_contributions(highway_point_spacing spacing)
+    {
+	final double[] sum = new double[1];
+
+	spacing.stream_points(new point_accumulator()
+	{
+	    public void accumulate(double[] x, double[] y, double[] z, double[] source_strength, int count)
+	    {
+		for (int i = 0; i < count; i++)
+		{
+		    sum[0] += point.contribution(x[i], y[i], z[i], source_strength[i]);
+		}
+	    }
+	});
+
+	return sum[0];
     }
     /**
 	* This routine is only used for debugging purposes.
@@ -420,19 +648,31 @@ public class highway_point_spacing
     */
     private void rotate_coordinate_system()
     {
-	// find the link angle by putting the start coordinate on the origin
-	// and finding the angle of the endpoint coordiante
-	coordinate temp_coord = new coordinate(link_end);
+	if (geometry != null)
+	{
+	    // the rotation angle was found once when the link geometry was created
+	    rotation_angle_radians = geometry.getRotation_angle();
+	    cos_rotation = geometry.getCos_rotation();
+	    sin_rotation = geometry.getSin_rotation();
+	}
+	else
+	{
+	    // find the link angle by putting the start coordinate on the origin
+	    // and finding the angle of the endpoint coordiante
+	    coordinate temp_coord = new coordinate(link_end);
 
-	temp_coord.subtract(link_start);
+	    temp_coord.subtract(link_start);
 
-	// angle that the coordinate system has to rotated so that the link will be coincident with the y-axis
-	rotation_angle_radians = constants.PI / 2 - temp_coord.horizontal_angle();
+	    // angle that the coordinate system has to rotated so that the link will be coincident with the y-axis
+	    rotation_angle_radians = constants.PI / 2 - temp_coord.horizontal_angle();
+	    cos_rotation = Math.cos(rotation_angle_radians);
+	    sin_rotation = Math.sin(rotation_angle_radians);
+	}
 
 	// rotate the end points and the wind vector
-	link_end.horizontal_rotation(rotation_angle_radians);
-	link_start.horizontal_rotation(rotation_angle_radians);
-	recept_location.horizontal_rotation(rotation_angle_radians);
+	link_end.horizontal_rotation(cos_rotation, sin_rotation);
+	link_start.horizontal_rotation(cos_rotation, sin_rotation);
+	recept_location.horizontal_rotation(cos_rotation, sin_rotation);
 	wind_vec.rotate(rotation_angle_radians);
 
 	// offset so that link end points are on the y-axis and receptor is on the x axis
@@ -443,6 +683,95 @@ public class highway_point_spacing
 	recept_location.subtract(offset);
     }
 
+    /**
+     * Indicates if point spacing is sized from the huang kernel (true) or from the fixed
+	* <code>zones</code> and density tables (false).  See <code>set_adaptive_spacing</code>.
+     */
+    private boolean	      adaptive_spacing = false;
+
+    /**
+     * The relative accuracy targeted by the adaptive spacing mode.
+     */
+    private double	      adaptive_tolerance = 1.0E-3;
+
+    /**
+     * The smallest fetch or cross spacing (m) the adaptive spacing mode will use.
+     */
+    private double	      adaptive_min_spacing = 0.5;
+
+    /**
+     * The largest fetch spacing (m) the adaptive spacing mode will use.
+     */
+    private double	      adaptive_max_spacing = 100.0;
+
+    /**
+     * The number of fetch intervals the adaptive spacing mode places in each region
+	* before the spacing is sized again.
+     */
+    private static final int  ADAPTIVE_INTERVALS_PER_REGION = 10;
+
+    /**
+     * The fraction of a fetch interval an adaptive region is allowed to be short of a whole number
+	* of intervals (see <code>permute_points</code>).
+     */
+    private static final double ADAPTIVE_FETCH_ROUNDING = 1.0E-9;
+
+    /**
+     * The shortest region the adaptive spacing mode creates.  <code>optimize_region_extents_and_fetch_spacing</code>
+	* drops regions shorter than 0.1 m, so shorter regions would leave gaps in the link.
+     */
+    private static final double ADAPTIVE_MIN_REGION_LENGTH = 0.2;
+
+    /**
+     * The relative accuracy the <code>vertical_density</code> segments are taken to resolve.  Tighter
+	* adaptive tolerances halve the vertical spacing until the midpoint error (which falls as the
+	* square of the spacing) is below the tolerance (see <code>create_vertical_profile</code>).
+     */
+    private static final double ADAPTIVE_VERTICAL_TOLERANCE = 1.0E-3;
+
+    /**
+     * Turn the adaptive spacing mode on or off.  In the adaptive mode the <code>zones</code>,
+	* <code>fetch_density</code> and <code>cross_density</code> tables are not used.  Instead, the
+	* fetch and cross spacing at each part of the link are sized from the local length scales of the
+	* huang equation - the lateral standard deviation sigma(x) and the downwind distance x - so that
+	* the lateral gaussian and the downwind decay are resolved to about the requested relative
+	* accuracy.  Parts of the link that are upwind of the receptor receive no points, and parts that
+	* are many standard deviations to the side of the plume centerline use the largest spacing.
+	* The vertical point placement is still taken from <code>vertical_density</code>, with the spacing
+	* halved for tolerances tighter than 1.0E-3 (see <code>create_vertical_profile</code>).
+	* The adaptive mode requires the dispersion parameters, so it is only used by objects created
+	* with the <code>link_geometry</code> constructor.
+	* This routine changes the default spacing profile, see <code>spacing_profile.with_adaptive_spacing</code>
+	* to turn on the adaptive mode for a single profile.
+     *
+     * @param adaptive true to size the spacing from the huang kernel, false to use the density tables.
+     * @param tolerance the relative accuracy to aim for (for example 1.0E-3).
+     */
+    public static synchronized void set_adaptive_spacing(boolean adaptive, double tolerance)
+    {
+	default_adaptive_spacing = adaptive;
+	default_adaptive_tolerance = tolerance;    // checked when the default profile is built
+	default_profile = null;
+    }
+
+    /**
+     * Set the smallest and largest spacing (m) that the adaptive spacing mode may use.
+     */
+    public static synchronized void set_adaptive_spacing_limits(double min_spacing, double max_spacing)
+    {
+	default_adaptive_min_spacing = min_spacing;
+	default_adaptive_max_spacing = max_spacing;
+	default_profile = null;
+    }
+
+    /**
+     * Returns true if the adaptive spacing mode of the default spacing profile is turned on.
+     */
+    public static boolean is_adaptive_spacing()
+    {
+	return get_default_profile().is_adaptive_spacing();
+    }
+
     /**
      * This routine is used to find the zone end points based on the link length
 	* and zone length specifications.  To ensure smooth transition at the
@@ -514,11 +843,203 @@ public class highway_point_spacing
 
 	for (int i = 0; i < num_regions; i++)
 	{
-	    fetch_spacing[num_regions - 1 - i] = fetch_density[i];    // negative regions
-	    cross_spacing[num_regions - 1 - i] = cross_density[i];
-	    fetch_spacing[num_regions + i] = fetch_density[i];	      // positive regions
-	    cross_spacing[num_regions + i] = cross_density[i];
+	    fetch_spacing[num_regions - 1 - i] = fetch_density[i] / fetch_refinement;    // negative regions
+	    cross_spacing[num_regions - 1 - i] = cross_density[i] / cross_refinement;
+	    fetch_spacing[num_regions + i] = fetch_density[i] / fetch_refinement;	 // positive regions
+	    cross_spacing[num_regions + i] = cross_density[i] / cross_refinement;
+	}
+    }
+
+    /**
+     * This routine is the adaptive counterpart of <code>find_end_points</code>.  The link is
+	* rotated onto the y-axis with the receptor on the x-axis and the wind direction is
+	* expressed in the same coordinate system.  The part of the link that is upwind of the receptor
+	* is removed, and the remainder is divided into regions whose fetch and cross spacing are sized
+	* by <code>adaptive_spacing_at</code>.  The regions are stored in the same
+	* <code>region_extents</code>, <code>fetch_spacing</code> and <code>cross_spacing</code>
+	* members used by the fixed spacing tables so the rest of the point generation is unchanged.
+     */
+    private void find_adaptive_end_points()
+    {
+	// rotate the coordinate system so that the link is on the y-axis and the receptor is on the x-axis
+	this.rotate_coordinate_system();
+
+	// the wind angle in the rotated coordinate system (direction the wind blows from)
+	double cos_wind = Math.cos(disp_param.getWind_angle());
+	double sin_wind = Math.sin(disp_param.getWind_angle());
+
+	local_cos_wind = cos_wind * cos_rotation - sin_wind * sin_rotation;
+	local_sin_wind = sin_wind * cos_rotation + cos_wind * sin_rotation;
+
+	// the widest the point cross section can be on either side of the centerline
+	cross_extent = width / 2.0 + Math.max(cross_component_overhang_UP, cross_component_overhang_Down);
+
+	double lower = link_start.getY();
+	double upper = link_end.getY();
+
+	// wind blows from the direction of the wind angle so it travels along -(cos, sin)
+	// and the receptor is downwind of a source at (xs, ys) by
+	//    x_d = -((receptor - source) dot (cos, sin)) = (xs - x_r) * cos + ys * sin
+	// keep every cross section with at least one source the distance tolerance upwind of the receptor
+	// that is, every ys with  ys * sin >= threshold  for the source xs that makes x_d largest
+	double best_source_x = (local_cos_wind > 0.0) ? cross_extent : -cross_extent;
+	double threshold = constants.DISTANCE_TOLERANCE + (recept_location.getX() - best_source_x) * local_cos_wind;
+
+	if (Math.abs(local_sin_wind) < 1.0E-12)
+	{
+	    if (threshold > 0.0)    // the whole link is upwind of the receptor
+	    {
+		upper = lower;
+	    }
+	}
+	else if (local_sin_wind > 0.0)
+	{
+	    lower = Math.max(lower, threshold / local_sin_wind);
+	}
+	else
+	{
+	    upper = Math.min(upper, threshold / local_sin_wind);
+	}
+
+	// the link crosses the plume centerline (lateral distance of zero) at centerline_y
+	// regions far to the side of the plume are coarse, so they must not step over this crossing
+	double centerline_y = (Math.abs(local_cos_wind) < 1.0E-12) ? Double.NaN
+			      : -recept_location.getX() * local_sin_wind / local_cos_wind;
+
+	Vector<double[]> regions = new Vector<double[]>();    // each member is {start, end, fetch spacing, cross spacing}
+	double start = lower;
+
+	while (upper - start > 0.0)
+	{
+	    double[] spacing = adaptive_spacing_at(start);
+	    double   length = ADAPTIVE_INTERVALS_PER_REGION * spacing[0];
+
+	    // approach the centerline crossing in steps no larger than half the remaining distance
+	    if (centerline_y > start && start + length > centerline_y)
+	    {
+		length = Math.max(Math.min(length, (centerline_y - start) / 2.0),
+				  Math.max(adaptive_min_spacing, ADAPTIVE_MIN_REGION_LENGTH));
+		spacing[0] = Math.min(spacing[0], length);
+	    }
+
+	    // the spacing can get finer inside the region (for example near the plume centerline)
+	    // so sample the region and shrink it until its spacing is the finest found in it
+	    for (int pass = 0; pass < 4; pass++)
+	    {
+		double[] finest = new double[] { spacing[0], spacing[1] };
+
+		for (int k = 1; k <= 4; k++)
+		{
+		    double[] sample = adaptive_spacing_at(Math.min(start + k * length / 4.0, upper));
+
+		    finest[0] = Math.min(finest[0], sample[0]);
+		    finest[1] = Math.min(finest[1], sample[1]);
+		}
+
+		if (finest[0] >= spacing[0] && finest[1] >= spacing[1])
+		{
+		    break;
+		}
+
+		spacing = finest;
+		length = Math.max(Math.min(length, ADAPTIVE_INTERVALS_PER_REGION * spacing[0]), ADAPTIVE_MIN_REGION_LENGTH);
+	    }
+
+	    double end = Math.min(start + length, upper);
+
+	    // do not leave a sliver region at the end of the link
+	    if (upper - end < Math.max(spacing[0], ADAPTIVE_MIN_REGION_LENGTH))
+	    {
+		end = upper;
+	    }
+
+	    spacing[0] /= fetch_refinement;
+	    spacing[1] /= cross_refinement;
+
+	    // keep at least five fetch intervals in every region so interior points always fit
+	    spacing[0] = Math.min(spacing[0], (end - start) / 5.0);
+
+	    regions.add(new double[] { start, end, spacing[0], spacing[1] });
+	    start = end;
+	}
+
+	region_extents = new double[regions.size()][2];
+	fetch_spacing = new double[regions.size()];
+	cross_spacing = new double[regions.size()];
+
+	for (int i = 0; i < regions.size(); i++)
+	{
+	    double[] region = regions.elementAt(i);
+
+	    region_extents[i][0] = region[0];
+	    region_extents[i][1] = region[1];
+	    fetch_spacing[i] = region[2];
+	    cross_spacing[i] = region[3];
+	}
+    }
+
+    /**
+     * Find the fetch and cross spacing needed at a location along the rotated link.
+	* The huang equation varies laterally over a length of sigma(x) (the modified BNL standard
+	* deviation) and in the downwind direction over a length of about x.  Moving along the link
+	* changes the lateral distance by |cos| and the downwind distance by |sin| of the angle between
+	* the link and the wind (and the other way around for moving across the link), so the spacing
+	* in each direction is the smaller of the two length scales divided by the rate of change.
+	* The lateral gaussian is sampled well enough when the spacing is a fraction of sigma that
+	* depends on the tolerance (the trapezoid error for a gaussian falls as exp(-2 pi^2 sigma^2 / h^2))
+	* and the downwind terms when the spacing is sqrt(12 tolerance) of x.  Both length scales are
+	* taken at the nearest downwind point of the cross section, where sigma(x) and x are smallest,
+	* so the spacing is fine enough for every point of the cross section.  Cross sections further
+	* than a few standard deviations to the side of the plume centerline contribute less than the
+	* tolerance and are given the largest spacing; this test uses sigma(x) at the farthest downwind
+	* point, where the plume is widest, so that no contributing cross section is treated as negligible.
+     *
+     * @param y location along the rotated link.
+     * @return a two member array of {fetch spacing, cross spacing}.
+     */
+    private double[] adaptive_spacing_at(double y)
+    {
+	double receptor_x = recept_location.getX();
+
+	// downwind and lateral distance from the link centerline at y to the receptor
+	double downwind = receptor_x * -local_cos_wind + y * local_sin_wind;
+	double lateral = Math.abs(receptor_x * local_sin_wind + y * local_cos_wind);
+
+	// range of these distances over the cross section
+	double nearest = Math.max(downwind - cross_extent * Math.abs(local_cos_wind), constants.DISTANCE_TOLERANCE);
+	double farthest = Math.max(downwind + cross_extent * Math.abs(local_cos_wind), constants.DISTANCE_TOLERANCE);
+	double closest_lateral = Math.max(lateral - cross_extent * Math.abs(local_sin_wind), 0.0);
+
+	double lateral_fraction = Math.min(1.0, constants.PI * Math.sqrt(2.0 / Math.log(2.0 / adaptive_tolerance)));
+	double downwind_fraction = Math.sqrt(12.0 * adaptive_tolerance);
+	double negligible_sigmas = Math.sqrt(2.0 * Math.log(1.0 / adaptive_tolerance)) + 1.0;
+
+	// the cross section is well off the plume centerline, use the coarsest spacing
+	if (closest_lateral > negligible_sigmas * find_sigma(farthest))
+	{
+	    return new double[] { adaptive_max_spacing, adaptive_max_spacing };
 	}
+
+	double lateral_scale = lateral_fraction * find_sigma(nearest);
+	double downwind_scale = downwind_fraction * nearest;
+
+	double fetch = Math.min(lateral_scale / Math.max(Math.abs(local_cos_wind), 1.0E-12),
+				downwind_scale / Math.max(Math.abs(local_sin_wind), 1.0E-12));
+	double cross = Math.min(lateral_scale / Math.max(Math.abs(local_sin_wind), 1.0E-12),
+				downwind_scale / Math.max(Math.abs(local_cos_wind), 1.0E-12));
+
+	fetch = Math.max(adaptive_min_spacing, Math.min(adaptive_max_spacing, fetch));
+	cross = Math.max(adaptive_min_spacing, Math.min(adaptive_max_spacing, cross));
+
+	return new double[] { fetch, cross };
+    }
+
+    /**
+     * The modified BNL lateral standard deviation sig(y) = c + d * x^e at a downwind distance x.
+     */
+    private double find_sigma(double x)
+    {
+	return disp_param.getC() + disp_param.getD() * Math.pow(x, disp_param.getE());
     }
 
     /**
@@ -541,6 +1062,12 @@ public class highway_point_spacing
 	double f_spacing = 0.0;    // fetch spacing for the the boundary point
 	double c_spacing = 0.0;    // cross spacing for the the boundary point
 
+	// a link that is completely upwind of the receptor in the adaptive mode has no regions
+	if (region_extents.length == 0)
+	{
+	    return;
+	}
+
 	// create the boundary points
 	for (int i = 0; i < region_extents.length + 1; i++)
 	{
@@ -601,67 +1128,81 @@ public class highway_point_spacing
 	}
     }
 
+    /**
+     * Find the vertical location of the points in each cross section from the
+	* <code>vertical_density</code> segments of the spacing profile
+	* (see <code>spacing_profile.vertical_locations</code>).  In the adaptive spacing mode the vertical
+	* spacing is also halved for tolerances tighter than <code>ADAPTIVE_VERTICAL_TOLERANCE</code>, so that
+	* tightening the tolerance refines the points in every direction.  Halving keeps a whole number of
+	* intervals in each segment.
+     */
+    private double[] create_vertical_profile()
+    {
+	double refinement = vertical_refinement;
+
+	if (is_wind_dependent())
+	{
+	    while (refinement * refinement * adaptive_tolerance < ADAPTIVE_VERTICAL_TOLERANCE * vertical_refinement * vertical_refinement)
+	    {
+		refinement *= 2.0;
+	    }
+	}
+
+	return profile.vertical_locations(refinement);
+    }
+
     /**
      * This routine is called from the <code>generate_interior_points</code> and
 	* <code>generate_boundary_points</code> routines to add points the the
-	* <code>highway_point_spacing</code> private member <points> with appropriately
+	* <code>highway_point_spacing</code> point arrays with appropriately
 	* weighted emission factors.  Each region has a a coresponding fetch and
 	* cross spacing, but the vertical spacing is common to all regions.  The emission
 	* factor for each point is based on the point density - the complexities of boundary and
 	* termal points are handeled in the <code>generate_interior_points</code> and
 	* <code>generate_boundary_points</code> routines by adjusting the <fetch_spacing>.
+	* <br>
+	* The number of fetch and cross points is found from the spacing with
+	* <code>point_vector.count_points</code>, and the point locations are calculated directly
+	* in the point arrays without building intermediate profiles.  If the point arrays have not
+	* been allocated the points are only counted.
      */
     private void permute_points(double start, double end, double fetch_spacing, double cross_spacing)
     {
-	point_vector vertical_vector = new point_vector();    // create a new vector to store the vertical points
-	point_vector cross_vector = new point_vector();       // create a new vector to store the cross roadway points
-	point_vector fetch_vector = new point_vector();       // create a new vector to store the fetch points
-	double[]     vertical_profile = null;		      // arrays to hold point locations
-	double[]     cross_profile = null;		      // relative to the rotated link
-	double[]     fetch_profile = null;
-	double       ef = 0;				      // emission factor for each point in this region
-
-	// loop through each of the start stop, spacing rows of the vertical_density arrays
-	for (int i = 0; i < vertical_density.length; i++)
-	{
-      // add poins from [i][0] to [i][1] with spacing [i][2]
-	 // if vertical spacing is zero then skip to the next spacing vector in the matrix
-	 if (vertical_density[i][2] != 0.0)
-					{
-	    vertical_vector.add_points(vertical_density[i][0], vertical_density[i][1], vertical_density[i][2]);
-
-					}
-					}
-
-	vertical_profile = vertical_vector.getPoint_array();    // return the point array for vertical spacing
+	int    cross_count;	  // number of points in the cross section and the first cross location
+	double cross_first;
+	int    fetch_count;	  // number of points along the fetch and the first fetch location
+	double fetch_first;
+	double ef = 0;		  // emission factor for each point in this region
 
 	// set the cross roadway spacing
 	// if the spacing is greater than the width then have a single point on the centerline
 	if (cross_spacing > width)
 	{
-	    cross_profile = new double[1];
-	    cross_profile[0] = 0.0;
+	    cross_count = 1;
+	    cross_first = 0.0;
 	}
 	else
 	{
 	    // space the points across the roadway - first need to determine which side of the
 	    // road is upwind.  if the x component of the wind is negative then the
 	    // wind is from the left to right since the link is oriented along the y axis
+	    double lower, upper;
 
 	    if (wind_vec.get_x_component() >= 0 )
 	    {
-		  //  wind from the right to left
-	    cross_vector.add_points( ( -width / 2.0 - cross_component_overhang_Down) ,
-	    ( width / 2.0 + cross_component_overhang_UP), cross_spacing);
+		//  wind from the right to left
+		lower = -width / 2.0 - cross_component_overhang_Down;
+		upper = width / 2.0 + cross_component_overhang_UP;
 	    }
 	    else
 	    {
-		  // wind from the right to left
-  	    cross_vector.add_points( ( -width / 2.0 - cross_component_overhang_UP) ,
-	    ( width / 2.0 + cross_component_overhang_Down), cross_spacing);
+		// wind from the right to left
+		lower = -width / 2.0 - cross_component_overhang_UP;
+		upper = width / 2.0 + cross_component_overhang_Down;
 	    }
 
-	    cross_profile = cross_vector.getPoint_array();
+	    cross_count = point_vector.count_points(lower, upper, cross_spacing);
+	    cross_first = point_vector.first_point(lower, upper, cross_spacing);
 	}
 
 	// space the points across the roadway symetric to the link centerline
@@ -671,14 +1212,29 @@ public class highway_point_spacing
 	// the fetch spacing (and cross section # of points will also determine the per point emission factor
 	if ( Math.abs(start - end) > 0.0001)    // interior point
 	{
-	    fetch_vector.add_points(start, end, fetch_spacing);
+	    // the adaptive regions hold a whole number of fetch intervals, so the end is moved out by a
+	    // rounding tolerance so that an interval is not lost when the division rounds just below it
+	    double fetch_end = is_wind_dependent() ? end + ADAPTIVE_FETCH_ROUNDING * fetch_spacing : end;
+
+	    fetch_count = point_vector.count_points(start, fetch_end, fetch_spacing);
+	    fetch_first = point_vector.first_point(start, fetch_end, fetch_spacing);
 	}
 	else		     // boundary point
 	{
-	    fetch_vector.add_points(start);
+	    fetch_count = 1;
+	    fetch_first = start;
+	}
+
+	int vertical_count = vertical_profile.length;
+
+	// first pass - only count the points
+	if (point_x == null)
+	{
+	    point_count += cross_count * fetch_count * vertical_count;
+
+	    return;
 	}
 
-	fetch_profile = fetch_vector.getPoint_array();
 	// to find the emission factor for each of the  points
 	// for each cross sectional area made perpendicular to the roadway centerline line
 	// the emission if there were only a single point along the centerline would be determined
@@ -688,25 +1244,29 @@ public class highway_point_spacing
 	ef = fetch_spacing * line_strength;
 	// since there will be more than one point per cross section, one has to devide by the
 	// total number of cross sectional points to determine the per point source strength
-	ef = ef / (vertical_profile.length * cross_profile.length);
-
-	// temporary point to be added to the vector with all the sub-element point
-	point temp_point;
+	ef = ef / (vertical_count * cross_count);
 
-	for (int i = 0; i < cross_profile.length; i++)
+	for (int i = 0; i < cross_count; i++)
 	{
-	    for (int j = 0; j < fetch_profile.length; j++)
+	    double x = cross_first + i * cross_spacing;
+
+	    for (int j = 0; j < fetch_count; j++)
 	    {
-		for (int k = 0; k < vertical_profile.length; k++)
+		double y = fetch_first + j * fetch_spacing;
+
+		for (int k = 0; k < vertical_count; k++)
 		{
-		    // create the point and increment the index
-		    temp_point = new point();
-
-		    temp_point.getPoint_location().set_all(cross_profile[i], fetch_profile[j],
-							   vertical_profile[k]);
-		    temp_point.setSource_strength(ef);
-		    // add the point to the points vector
-		    points.add(temp_point);
+		    // a full block is only possible when the points are streamed
+		    if (point_count == point_x.length)
+		    {
+			flush_block();
+		    }
+
+		    point_x[point_count] = x;
+		    point_y[point_count] = y;
+		    point_z[point_count] = vertical_profile[k];
+		    point_ef[point_count] = ef;
+		    point_count++;
 		}
 	    }
 	}
@@ -714,12 +1274,11 @@ public class highway_point_spacing
 
     /**
      * This routine to output the points locations and emission factors
-	* to the console for debugging purposes.
+	* to the console for debugging purposes.  The points are only available until
+	* <code>return_point_array</code> hands them over as point objects.
      */
     public void print_points()
     {
-	point point_ref;    // ref to point object
-
 	// System.out.println("(x,y,z,ef)");
 	// the first line is the x,y,z of the start coordinate with a zero pad
 	// the second line is the x,y,z of the end coordinate with a zero pad
@@ -728,13 +1287,14 @@ public class highway_point_spacing
 	System.out.println(link_end.getX() + " " + link_end.getY() + " " + link_end.getZ() + " 0.0 ");
 	System.out.println(width + " 0.0 0.0 0.0");
 
-	for (int i = 0; i < points.size(); i++)    // loop through all the points
+	if (point_x == null)
 	{
-	    point_ref = (point) points.get(i);     // get a ref to a point so that its coordiante can be printed
+	    return;
+	}
 
-	    System.out.println(point_ref.getPoint_location().getX() + "\t" + point_ref.getPoint_location().getY()
-			       + "\t" + point_ref.getPoint_location().getZ() + "\t"
-			       + point_ref.getSource_strength());
+	for (int i = 0; i < point_count; i++)    // loop through all the points
+	{
+	    System.out.println(point_x[i] + "\t" + point_y[i] + "\t" + point_z[i] + "\t" + point_ef[i]);
 	}
     }
 
@@ -827,51 +1387,220 @@ public class highway_point_spacing
 	link_end.add(offset);
 	link_start.add(offset);
 	recept_location.add(offset);
-	link_end.horizontal_rotation(-rotation_angle_radians);
-	link_start.horizontal_rotation(-rotation_angle_radians);
-	recept_location.horizontal_rotation(-rotation_angle_radians);
+	// the inverse rotation has the same cosine and the opposite sine
+	link_end.horizontal_rotation(cos_rotation, -sin_rotation);
+	link_start.horizontal_rotation(cos_rotation, -sin_rotation);
+	recept_location.horizontal_rotation(cos_rotation, -sin_rotation);
 	wind_vec.rotate(-rotation_angle_radians);
 
-	point curent_point = null;    // helps to have a reference to a single point
+	if (accumulator != null)
+	{
+	    flush_block();    // send the last partial block of streamed points
+	}
+	else
+	{
+	    // translate the coordinate system origin of every point to its original location and
+	    // rotate the points the oposite of how the coordinate system was originally rotated
+	    // (the offset has no z component so the point elevations do not change)
+	    coordinate.translate_and_rotate(point_x, point_y, point_count, offset.getX(), offset.getY(), cos_rotation,
+					    -sin_rotation);
+	}
+    }
 
-	for (int i = 0; i < points.size(); i++)
+    /**
+     * Rotate and translate the current block of streamed points back to the site coordinate
+	* system, send it to the <code>accumulator</code>, and start a new block.
+     */
+    private void flush_block()
+    {
+	if (!local_frame)
 	{
-	    curent_point = (point) points.get(i);
+	    coordinate.translate_and_rotate(point_x, point_y, point_count, offset.getX(), offset.getY(),
+					    cos_rotation, -sin_rotation);
+	}
 
-	    // translate the coordinate system origin to its original location
-	    curent_point.getPoint_location().add(offset);
-	    // rotate the points the oposite of how the coordinate system was originally rotated
-	    curent_point.getPoint_location().horizontal_rotation(-rotation_angle_radians);
+	accumulator.accumulate(point_x, point_y, point_z, point_ef, point_count);
+	streamed_points += point_count;
+	point_count = 0;
+    }
+
+    /**
+     * Find the regions, their spacing, and the vertical profile of the points.
+     */
+    private void prepare_regions()
+    {
+	// generate the point vector for this link
+	if (adaptive_spacing && disp_param != null)
+	{
+	    this.find_adaptive_end_points();
 	}
+	else
+	{
+	    this.find_end_points();
+	}
+
+	this.optimize_region_extents_and_fetch_spacing();
+	vertical_profile = create_vertical_profile();
     }
 
     /**
-     * This routine returns the vector of points created with the
+     * This routine returns the points created with the
 	* <code>highway_point_spacing</code> as an array of points.
+	* The points of every region are counted first so that the point arrays can be allocated
+	* at their final size, and then the regions are visited a second time to fill them.
      * This routine should only be used once in an objects lifetime, so the
-	* underlying point vector is explicitly nulled in this routine
-	* to save memory and avoid the temptation of using it twice.
+	* underlying point arrays are explicitly nulled in this routine
+	* to save memory and avoid the temptation of using them twice.
      */
     public point[] return_point_array()
     {
-	// generate the point vector for this link
-	this.find_end_points();
-	this.optimize_region_extents_and_fetch_spacing();
+	double[][] coordinates = this.return_point_coordinates();
+	point[]	   return_array = new point[coordinates[0].length];
+
+	for (int i = 0; i < return_array.length; i++)
+	{
+	    return_array[i] = new point(coordinates[0][i], coordinates[1][i], coordinates[2][i], coordinates[3][i]);
+	}
+
+	// System.out.println(this);      // print for debuggin purposes
+	return return_array;
+    }
+
+    /**
+     * This routine returns the points created with the <code>highway_point_spacing</code> as
+	* primitive arrays {x, y, z, emission factor} in the site coordinate system, without creating
+	* <code>point</code> objects.  Like <code>return_point_array</code> it should only be used once.
+     */
+    public double[][] return_point_coordinates()
+    {
+	this.prepare_regions();
+
+	// count the points
+	point_count = 0;
+	this.generate_interior_points();
+	this.generate_boundary_points();
+
+	// allocate the point arrays and create the points
+	point_x = new double[point_count];
+	point_y = new double[point_count];
+	point_z = new double[point_count];
+	point_ef = new double[point_count];
+	point_count = 0;
 	this.generate_interior_points();
 	this.generate_boundary_points();
 	this.re_rotate_coordinate_system();
 
-	point[] return_array = new point[points.size()];
+	double[][] coordinates = { point_x, point_y, point_z, point_ef };
 
-	for (int i = 0; i < points.size(); i++)
-	{
-	    return_array[i] = (point) points.get(i);
-	}
+	point_x = point_y = point_z = point_ef = null;    // the arrays now belong to the caller
 
-	// System.out.println(this);      // print for debuggin purposes
-	points = null;    // clear the vector reference
+	return coordinates;
+    }
 
-	return return_array;
+    /**
+     * This routine counts the points <code>return_point_coordinates</code> or the streaming routines
+	* would create, with the counting pass of <code>return_point_coordinates</code>, so no points
+	* are created.  Like <code>return_point_array</code> it should only be used once.
+     */
+    public int count_points()
+    {
+	this.prepare_regions();
+
+	point_count = 0;
+	this.generate_interior_points();
+	this.generate_boundary_points();
+
+	return point_count;
     }
-}
 
+    /**
+     * Returns true if the points depend on the wind speed and direction beyond the side of the
+	* road that receives the upwind overhang.  This is only the case in the adaptive spacing mode.
+     */
+    public boolean is_wind_dependent()
+    {
+	return adaptive_spacing && disp_param != null;
+    }
+
+    /**
+     * Returns true if the x component of the wind is positive once the link is rotated onto the
+	* y-axis.  This decides which side of the road receives the upwind overhang.  Only objects
+	* created from a link geometry and dispersion parameters can use this method.
+     */
+    public boolean is_wind_x_component_positive()
+    {
+	wind_vector rotated = new wind_vector(disp_param.getA(), disp_param.getP(), disp_param.getWind_angle());
+
+	rotated.rotate(geometry.getRotation_angle());
+
+	return rotated.get_x_component() >= 0;
+    }
+
+    /**
+     * This routine is the streaming counterpart of <code>return_point_array</code>.  The same
+	* points, in the same order, are generated in blocks of <code>STREAM_BLOCK_SIZE</code> and
+	* each block is sent to the accumulator as soon as it is full, so the memory used does not
+	* depend on the number of points representing the link.  No point objects are created.
+     * Like <code>return_point_array</code>, this routine should only be used once in an objects lifetime.
+     *
+     * @param accumulator receives each block of points in the site coordinate system.
+     * @return the number of points generated.
+     */
+    public int stream_points(point_accumulator accumulator)
+    {
+	this.prepare_regions();
+
+	local_frame = false;
+
+	return stream_blocks(accumulator);
+    }
+
+    /**
+     * Generate the points of the link in blocks like <code>stream_points</code>, but leave them in
+	* the coordinate system they are generated in (the link on the y-axis and the receptor on the
+	* x-axis) instead of rotating each point back to the site coordinate system.  The receptor and
+	* the wind angle in that coordinate system are sent to the accumulator once, before the first
+	* block.  Only objects created from a link geometry and dispersion parameters can use this method.
+     *
+     * @param accumulator receives the frame and then each block of points in the link coordinate system.
+     * @return the number of points generated.
+     */
+    public int stream_local_points(local_point_accumulator accumulator)
+    {
+	this.prepare_regions();
+
+	// the wind angle turns with the coordinate system
+	accumulator.set_frame(recept_location.getX(), recept_location.getY(), recept_location.getZ(),
+			      disp_param.getWind_angle() + rotation_angle_radians);
+	local_frame = true;
+
+	int points = stream_blocks(accumulator);
+
+	local_frame = false;
+
+	return points;
+    }
+
+    /**
+     * Generate the points of the prepared regions and send them to an accumulator in blocks.
+     */
+    private int stream_blocks(point_accumulator accumulator)
+    {
+	this.accumulator = accumulator;
+	point_x = new double[STREAM_BLOCK_SIZE];
+	point_y = new double[STREAM_BLOCK_SIZE];
+	point_z = new double[STREAM_BLOCK_SIZE];
+	point_ef = new double[STREAM_BLOCK_SIZE];
+	point_count = 0;
+	streamed_points = 0;
+
+	this.generate_interior_points();
+	this.generate_boundary_points();
+	this.re_rotate_coordinate_system();    // also sends the last partial block
+
+	point_x = point_y = point_z = point_ef = null;    // clear the block arrays
+	this.accumulator = null;
+
+	return streamed_points;
+    }
+}
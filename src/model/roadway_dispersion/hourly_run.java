@@ -0,0 +1,382 @@
+package roadway_dispersion;
+
+import java.util.*;    // access to the vector and hashtable classes
+import utilities.*;    // access to the debugging routines
+
+/**
+ * <b>Overview</b><br>
+ * The <code>hourly_run</code> class finds the concentrations of a sampling site for a long series
+ * of hours (for example the 8760 hours of a year) without a full simulation for each hour.
+ * Many hours of a year share nearly the same wind direction, wind speed, and stability, so the
+ * hours are placed in bins, one simulation is made for each bin, and the result of the bin is used
+ * for each of its hours.  A bin is made of:
+ * <ul>
+ * <li>a wind direction sector of width <code>sector_width</code> degrees</li>
+ * <li>a wind speed class - classes are spaced by the ratio <code>speed_class_ratio</code> of the
+ *     power law wind constant <code>a</code></li>
+ * <li>the stability parameters (<code>b, c, d, e, n, p</code>) of the hour, which must match exactly</li>
+ * </ul>
+ * The simulation of a bin is made at the center of its sector and speed class.  The concentration
+ * of each hour is then scaled by the ratio of the <code>a</code> of the bin to the <code>a</code> of
+ * the hour, which is the leading wind speed dependence of the huang equation (concentration varies as
+ * 1/a for a given plume spread), and by the emission scale of the hour.  When sector interpolation
+ * is on, the concentrations of the two sectors on either side of the hour are interpolated linearly
+ * in the wind direction.
+ * <br>
+ * The speed scaling is not exact because the lateral spread does not change with the wind speed,
+ * so the error grows with <code>speed_class_ratio</code>.  Use a ratio close to 1 for more speed
+ * classes and better accuracy.  The sector width usually matters more: for the GM site, 10 degree
+ * sectors give hourly errors of several percent for winds nearly parallel to the road, while 2
+ * degree sectors with interpolation keep them near 2 percent.  Averages over many hours are more
+ * accurate than single hours because the sector errors partly cancel.
+ *
+ * <br><br>
+ * <b>Notes:</b><br>
+ * All units in metric (MKS) unless otherwise stated.   <br>
+ * The dispersion parameters of the site are restored after <code>run</code>.
+ *
+ * @see site_description
+ * @see dispersion
+ */
+
+public class hourly_run
+{
+    /**
+     * The site whose concentrations are found.
+     */
+    private site_description site;
+
+    /**
+     * The width of a wind direction sector in degrees.
+     */
+    private double	     sector_width = 10.0;
+    private int		     sectors = 36;    // the number of sectors in a full circle
+
+    /**
+     * The ratio of the <code>a</code> of one wind speed class to the one below it.
+     */
+    private double	     speed_class_ratio = 1.1;
+
+    /**
+     * Indicates if the concentrations are interpolated between adjacent wind direction sectors.
+     */
+    private boolean	     interpolate_sectors = false;
+
+    /**
+     * The dispersion parameters and emission scale of each hour.
+     */
+    private Vector<dispersion> hour_dispersion = new Vector<dispersion>(0, 100);
+    private Vector<Double>     hour_emission_scale = new Vector<Double>(0, 100);
+
+    /**
+     * For each hour the bins used (one or two), their weights and the scale factor of the hour.
+     */
+    private String[][]	     hour_bins;
+    private double[][]	     hour_weights;
+    private double[]	     hour_scale;
+
+    /**
+     * The concentration matrix of each bin in g/m^3, keyed by the bin name.
+     */
+    private Hashtable<String, double[][]> bin_conc = new Hashtable<String, double[][]>();
+
+    /**
+     * Creates a new <code>hourly_run</code> for a site.  The links and receptors of the site must
+	* be set before <code>run</code> is called.
+     */
+    public hourly_run(site_description site)
+    {
+	this.site = site;
+    }
+
+    /**
+     * Add an hour with the dispersion parameters found by <code>site_description.setDispersion</code>
+	* from the wind speed (m/s) at a reference elevation (m) and the meteorological wind direction.
+     *
+     * @param emission_scale the factor that the line strength of every link is multiplied by in this hour.
+     */
+    public void add_hour(double wind_speed, double wind_direction, double wind_reference_elevation,
+			 double emission_scale)
+    {
+	add_hour(site_description.create_gm_dispersion(wind_speed, wind_direction, wind_reference_elevation),
+		 emission_scale);
+    }
+
+    /**
+     * Add an hour described by a complete set of dispersion parameters.
+     *
+     * @param emission_scale the factor that the line strength of every link is multiplied by in this hour.
+     */
+    public void add_hour(dispersion disp, double emission_scale)
+    {
+	if (disp.getA() <= 0.0)
+	{
+	    System.err.println("An hour with a non positive wind constant a = " + disp.getA()
+			       + " was added to an hourly run.\nIf you choose to continue the hour will be ignored");
+	    debugging.exception_handeler();
+
+	    return;
+	}
+
+	hour_dispersion.add(new dispersion(disp));
+	hour_emission_scale.add(Double.valueOf(emission_scale));
+    }
+
+    /**
+     * Remove all the hours and the bin results.
+     */
+    public void clear_hours()
+    {
+	hour_dispersion.clear();
+	hour_emission_scale.clear();
+	bin_conc.clear();
+	hour_bins = null;
+    }
+
+    /**
+     * Set the width of the wind direction sectors in degrees.  The width must divide 360 evenly so
+	* the last sector ends at north.
+     */
+    public void setSector_width(double degrees)
+    {
+	if (degrees <= 0.0 || degrees > 360.0)
+	{
+	    System.err.println("The sector width must be between 0 and 360 degrees, " + degrees
+			       + " is not allowed.\nIf you choose to continue the width will not be changed");
+	    debugging.exception_handeler();
+
+	    return;
+	}
+
+	long count = Math.round(360.0 / degrees);
+
+	if (Math.abs(count * degrees - 360.0) > 1.0E-9)
+	{
+	    System.err.println("The sector width must divide 360 degrees evenly, " + degrees
+			       + " is not allowed.\nIf you choose to continue the width will not be changed");
+	    debugging.exception_handeler();
+
+	    return;
+	}
+
+	sector_width = degrees;
+	sectors = (int) count;
+    }
+
+    /**
+     * Get the width of the wind direction sectors in degrees.
+     */
+    public double getSector_width()
+    {
+	return sector_width;
+    }
+
+    /**
+     * Set the ratio of the wind constant <code>a</code> of one speed class to the one below it.
+     */
+    public void setSpeed_class_ratio(double ratio)
+    {
+	if (ratio <= 1.0)
+	{
+	    System.err.println("The speed class ratio must be greater than 1, " + ratio
+			       + " is not allowed.\nIf you choose to continue the ratio will not be changed");
+	    debugging.exception_handeler();
+
+	    return;
+	}
+
+	speed_class_ratio = ratio;
+    }
+
+    /**
+     * Get the ratio of the wind constant <code>a</code> of one speed class to the one below it.
+     */
+    public double getSpeed_class_ratio()
+    {
+	return speed_class_ratio;
+    }
+
+    /**
+     * Set if the concentrations are interpolated between adjacent wind direction sectors.
+     */
+    public void setInterpolate_sectors(boolean interpolate)
+    {
+	interpolate_sectors = interpolate;
+    }
+
+    /**
+     * Returns true if the concentrations are interpolated between adjacent wind direction sectors.
+     */
+    public boolean isInterpolate_sectors()
+    {
+	return interpolate_sectors;
+    }
+
+    /**
+     * Get the number of hours.
+     */
+    public int getNum_hours()
+    {
+	return hour_dispersion.size();
+    }
+
+    /**
+     * Get the number of bins (full simulations) used by the last <code>run</code>.
+     */
+    public int getNum_bins()
+    {
+	return bin_conc.size();
+    }
+
+    /**
+     * Place each hour in its bins and run one simulation for each bin.
+     */
+    public void run()
+    {
+	int		 hours = hour_dispersion.size();
+	dispersion	 site_dispersion = site.getDispersion();
+	double		 log_ratio = Math.log(speed_class_ratio);
+
+	hour_bins = new String[hours][];
+	hour_weights = new double[hours][];
+	hour_scale = new double[hours];
+	bin_conc.clear();
+
+	for (int h = 0; h < hours; h++)
+	{
+	    dispersion disp = hour_dispersion.elementAt(h);
+
+	    // the speed class with the nearest a (on a log scale)
+	    long   speed_class = Math.round(Math.log(disp.getA()) / log_ratio);
+	    double class_a = Math.exp(speed_class * log_ratio);
+
+	    // the wind direction in sector widths from zero
+	    double direction = normalize_degrees(disp.getWind_angle() / constants.DEGREES_TO_RADIANS) / sector_width;
+
+	    long   lower = (long) Math.floor(direction);
+	    double weight = direction - lower;
+
+	    // the sector above is not needed when the wind is on the center of the lower sector
+	    if (interpolate_sectors && weight > 0.0)
+	    {
+		hour_bins[h] = new String[] { find_bin(disp, lower, speed_class, class_a),
+					      find_bin(disp, lower + 1, speed_class, class_a) };
+		hour_weights[h] = new double[] { 1.0 - weight, weight };
+	    }
+	    else
+	    {
+		hour_bins[h] = new String[] { find_bin(disp, Math.round(direction), speed_class, class_a) };
+		hour_weights[h] = new double[] { 1.0 };
+	    }
+
+	    hour_scale[h] = class_a / disp.getA() * hour_emission_scale.elementAt(h).doubleValue();
+	}
+
+	site.setDispersion(site_dispersion);    // restore the dispersion parameters of the site
+    }
+
+    /**
+     * Find the name of the bin of a sector, speed class and stability, running the simulation of
+	* the bin if it has not been run.
+     */
+    private String find_bin(dispersion disp, long sector, long speed_class, double class_a)
+    {
+	long   wrapped = ((sector % sectors) + sectors) % sectors;
+	String bin = wrapped + "|" + speed_class + "|" + disp.getB() + "|" + disp.getC() + "|" + disp.getD()
+		     + "|" + disp.getE() + "|" + disp.getN() + "|" + disp.getP();
+
+	if (!bin_conc.containsKey(bin))
+	{
+	    dispersion bin_disp = new dispersion(disp);
+
+	    bin_disp.setA(class_a);
+	    bin_disp.setWind_angle(wrapped * sector_width * constants.DEGREES_TO_RADIANS);
+	    site.setDispersion(bin_disp);
+	    site.run_simulation(false);
+	    bin_conc.put(bin, site.get_conc_matrix(1));
+	}
+
+	return bin;
+    }
+
+    /**
+     * Return an angle in degrees in the range [0, 360).
+     */
+    private static double normalize_degrees(double degrees)
+    {
+	double angle = degrees % 360.0;
+
+	return (angle < 0.0) ? angle + 360.0 : angle;
+    }
+
+    /**
+     * Return the concentration matrix of an hour in the form of
+	* <code>site_description.get_conc_matrix</code>.
+     *
+     * @param hour the index of the hour in the order it was added.
+     * @param units indicates what units to return the concentration data in
+	* (see <code>site_description.get_conc_matrix</code>).
+     */
+    public double[][] get_hour_conc_matrix(int hour, int units)
+    {
+	if (hour_bins == null)
+	{
+	    System.err.println("The hourly run must be run before its concentrations are available");
+	    debugging.exception_handeler();
+
+	    return null;
+	}
+
+	double	   factor = hour_scale[hour] * site.find_unit_conversion(units);
+	double[][] first = bin_conc.get(hour_bins[hour][0]);
+	double[][] return_matrix = new double[first.length][];
+
+	for (int i = 0; i < first.length; i++)
+	{
+	    return_matrix[i] = new double[first[i].length];
+
+	    for (int j = 0; j < first[i].length; j++)
+	    {
+		double conc = 0.0;
+
+		for (int b = 0; b < hour_bins[hour].length; b++)
+		{
+		    conc += hour_weights[hour][b] * bin_conc.get(hour_bins[hour][b])[i][j];
+		}
+
+		return_matrix[i][j] = conc * factor;
+	    }
+	}
+
+	return return_matrix;
+    }
+
+    /**
+     * Return the mean concentration matrix of all the hours in the form of
+	* <code>site_description.get_conc_matrix</code>.
+     */
+    public double[][] get_mean_conc_matrix(int units)
+    {
+	double[][] mean = null;
+
+	for (int h = 0; h < getNum_hours(); h++)
+	{
+	    double[][] hour_conc = get_hour_conc_matrix(h, units);
+
+	    if (mean == null)
+	    {
+		mean = new double[hour_conc.length][hour_conc[0].length];
+	    }
+
+	    for (int i = 0; i < mean.length; i++)
+	    {
+		for (int j = 0; j < mean[i].length; j++)
+		{
+		    mean[i][j] += hour_conc[i][j] / getNum_hours();
+		}
+	    }
+	}
+
+	return mean;
+    }
+}
@@ -0,0 +1,784 @@
+package roadway_dispersion;
+
+import java.util.*;    // access to the vector and hashtable classes
+import utilities.*;    // access to the debugging routines
+
+/**
+ * <b>Overview</b><br>
+ * The <code>influence_index</code> class finds the receptor and link pairs of a site that can be
+ * left out of a simulation because the link can not contribute more than a threshold concentration
+ * to the receptor.  It holds an influence model of the huang equation and a uniform grid index
+ * over the links.
+ * <br>
+ * The influence model estimates the largest concentration of a unit point source at a horizontal
+ * distance of at least R from a receptor, for any wind direction.  A source at downwind distance x
+ * and lateral distance y with <code>x^2 + y^2 &gt;= R^2</code> gives at most
+ * <tt><pre>
+ *   b(R) = max over x of  V(x, z, zs) * exp(-max(0, R^2 - x^2) / (2 sigma(x)^2))
+ * </pre></tt>
+ * with <code>V</code> the vertical terms of the huang equation (see <code>point.vertical_kernel</code>),
+ * which is also maximized over the source heights of the spacing profiles.  <code>b</code> is
+ * tabulated on a logarithmic grid of distances for each receptor height.  A link whose total
+ * emission is <code>Q = line strength * length</code> contributes at most <code>Q b(d)</code> to
+ * a receptor at a distance d from the edge of its point sources, so each link has an influence
+ * radius <code>R</code> beyond which it contributes less than the threshold.
+ * <br>
+ * The links are placed in every grid cell that their bounding rectangle, grown by the influence
+ * radius, overlaps.  The links of a receptor that must be evaluated are found from the links of its
+ * cell alone (see <code>find_links</code>), so the cost of preparing and evaluating a receptor grows
+ * with the number of links near it rather than with the number of links of the site.  Every other
+ * pair is pruned.  The links outside of a cell are all beyond their influence radius, so the sum of
+ * their bounds is found once for each cell and receptor height when the index is built.
+ * <br>
+ * The influence radius holds for every wind direction, and in light winds it can be several
+ * kilometers.  The links within the radius are therefore also bounded for the wind direction of
+ * the run: the ranges of the downwind and lateral distances of the link are found from the corners
+ * of its point sources, and the link is pruned if <code>V</code> over the downwind range, reduced by
+ * the gaussian at the smallest lateral distance, is below the threshold.  Links upwind of the
+ * receptor are bounded by 0.
+ *
+ * <br><br>
+ * <b>Notes:</b><br>
+ * All units in metric (MKS) unless otherwise stated.   <br>
+ * The bound is found for the dispersion parameters of <code>point</code> when the index is built.
+ * <code>V</code> is sampled at <code>NODES_PER_DECADE</code> downwind distances per decade and the
+ * samples are increased by <code>SAMPLING_MARGIN</code> to cover the change of V between them, so
+ * the bounds are estimates rather than proven bounds (see <code>SAMPLING_MARGIN</code>).  A
+ * vertical term that can not be evaluated (NaN) is taken as unbounded, so the links it affects are
+ * evaluated.  Links whose influence radius is beyond <code>MAX_DISTANCE</code> are never pruned.
+ *
+ * @see site_description
+ * @see point
+ */
+
+public final class influence_index
+{
+    /**
+     * The number of tabulated distances per decade.
+     */
+    public static final int NODES_PER_DECADE = 32;
+
+    /**
+     * The largest tabulated distance (m).
+     */
+    public static final double MAX_DISTANCE = 1.0E5;
+
+    /**
+     * The factor the sampled vertical terms are increased by to cover the terms between samples.
+	* Samples are 7.5 percent apart in distance, and over wind speeds of 0.2 to 8 m/s and heights of
+	* 0 to 20 m the largest term between two samples was within 0.1 percent of the larger sample,
+	* so the margin leaves room for conditions that were not sampled.  It is not a proven bound.
+     */
+    public static final double SAMPLING_MARGIN = 1.1;
+
+    /**
+     * Receptor heights closer than this (m) share the bounds of a height.
+     */
+    public static final double HEIGHT_TOLERANCE = 1.0E-6;
+
+    /**
+     * The tabulated distances (m), starting at the distance tolerance.
+     */
+    private final double[] distances;
+
+    /**
+     * The bound <code>b</code> at each tabulated distance for each receptor height.
+     */
+    private final double[][] bounds;
+
+    /**
+     * For each receptor height, the bound of the vertical terms between each tabulated distance
+	* and the next one, and the lateral standard deviation at the next distance.
+     */
+    private final double[][] peaks;
+    private final double[]   far_sigma;
+
+    /**
+     * The concentration (g/m^3) a link must be able to contribute for a pair to be evaluated.
+     */
+    private final double     threshold;
+
+    /**
+     * The receptor height of each row of <code>bounds</code>.  Heights within <code>HEIGHT_TOLERANCE</code>
+	* share a row (see <code>find_height</code>).
+     */
+    private final double[] table_heights;
+
+    /**
+     * The total emission (g/s), the distance from the centerline to the edge of the point sources
+	* and the influence radius (infinite if the link is never pruned) of each link.
+     */
+    private final double[] emission, reach, radius;
+
+    /**
+     * The start, unit direction and length of the centerline of each link.
+     */
+    private final double[] start_x, start_y, unit_x, unit_y, length;
+
+    /**
+     * The bound of a link beyond its influence radius, <code>far_bound[height][link]</code>.
+     */
+    private final double[][] far_bound;
+
+    /**
+     * The grid: its origin, cell size and number of columns and rows, and the links of each cell,
+	* those of cell k being <code>cell_links[cell_start[k] .. cell_start[k + 1])</code>.
+     */
+    private double origin_x, origin_y, cell_size;
+    private int	   columns = 0, rows = 0;
+    private int[]  cell_start, cell_links;
+
+    /**
+     * The links that are never pruned by radius (they are not in the grid).
+     */
+    private int[] unbounded_links;
+
+    /**
+     * The number of links in the grid, and the sum of the bounds of the grid links that are not in
+	* a cell, <code>far_error[height][cell]</code>.  The last member of each row is the sum of all
+	* of the grid links, for receptors outside of the grid.
+     */
+    private int	       grid_link_count = 0;
+    private double[][] far_error;
+
+    /**
+     * Build the influence model and index of a set of links.  The geometry of the links and the
+	* dispersion parameters of <code>point</code> must already be set.
+     *
+     * @param links the links of the site.
+     * @param receptor_heights the heights of the receptors (repeated heights are allowed).
+     * @param site_profile the spacing profile of links without their own (null for the default profile).
+     * @param threshold the concentration (g/m^3) a link must be able to contribute to a receptor
+	* for the pair to be evaluated.
+     */
+    public influence_index(Vector<?> links, double[] receptor_heights, spacing_profile site_profile, double threshold)
+    {
+	this.threshold = threshold;
+
+	int count = links.size();
+	int nodes = (int) Math.ceil(NODES_PER_DECADE * Math.log10(MAX_DISTANCE / constants.DISTANCE_TOLERANCE)) + 1;
+
+	distances = new double[nodes];
+
+	for (int k = 0; k < nodes; k++)
+	{
+	    distances[k] = constants.DISTANCE_TOLERANCE * Math.pow(10.0, (double) k / NODES_PER_DECADE);
+	}
+
+	emission = new double[count];
+	reach = new double[count];
+	radius = new double[count];
+	start_x = new double[count];
+	start_y = new double[count];
+	unit_x = new double[count];
+	unit_y = new double[count];
+	length = new double[count];
+
+	// the source heights and overhangs of every profile used by the links
+	Vector<Double> source_heights = new Vector<Double>(0, 10);
+
+	for (int j = 0; j < count; j++)
+	{
+	    link	    current = (link) links.elementAt(j);
+	    link_geometry   geometry = current.getGeometry();
+	    spacing_profile profile = (current.getSpacing_profile() != null) ? current.getSpacing_profile()
+				      : (site_profile != null) ? site_profile : highway_point_spacing.get_default_profile();
+	    double[]	    heights = profile.vertical_locations(1.0);
+
+	    for (int h = 0; h < heights.length; h++)
+	    {
+		Double height = Double.valueOf(heights[h]);
+
+		if (!source_heights.contains(height))
+		{
+		    source_heights.add(height);
+		}
+	    }
+
+	    emission[j] = Math.abs(current.getLine_strength()) * geometry.getLength();
+	    reach[j] = geometry.getWidth() / 2.0
+		       + Math.max(profile.getCross_component_overhang_UP(), profile.getCross_component_overhang_Down());
+	    start_x[j] = geometry.getStart_x();
+	    start_y[j] = geometry.getStart_y();
+	    unit_x[j] = geometry.getUnit_x();
+	    unit_y[j] = geometry.getUnit_y();
+	    length[j] = geometry.getLength();
+	}
+
+	far_sigma = new double[nodes];
+
+	for (int k = 0; k < nodes; k++)
+	{
+	    far_sigma[k] = point.find_sigma(distances[Math.min(k + 1, nodes - 1)]);
+	}
+
+	// tabulate the bound of each distinct receptor height
+	Vector<double[]> tables = new Vector<double[]>(0, 5);
+	double[]	 heights = new double[receptor_heights.length];
+
+	for (int i = 0; i < receptor_heights.length; i++)
+	{
+	    if (find_height(heights, tables.size(), receptor_heights[i]) < 0)
+	    {
+		heights[tables.size()] = receptor_heights[i];
+		tables.add(tabulate_peaks(receptor_heights[i], source_heights));
+	    }
+	}
+
+	table_heights = Arrays.copyOf(heights, tables.size());
+	peaks = tables.toArray(new double[tables.size()][]);
+	bounds = new double[peaks.length][];
+
+	for (int h = 0; h < peaks.length; h++)
+	{
+	    bounds[h] = tabulate_bound(peaks[h]);
+	}
+
+	far_bound = new double[bounds.length][count];
+
+	// the influence radius of a link is the largest distance at which any receptor height could
+	// still receive the threshold concentration from it
+	for (int j = 0; j < count; j++)
+	{
+	    int outer = 0;
+
+	    for (int h = 0; h < bounds.length; h++)
+	    {
+		int m = 0;
+
+		while (m < nodes && emission[j] * bounds[h][m] > threshold)
+		{
+		    m++;
+		}
+
+		outer = Math.max(outer, m);
+	    }
+
+	    radius[j] = (outer < nodes) ? distances[outer] : Double.POSITIVE_INFINITY;
+
+	    for (int h = 0; h < bounds.length; h++)
+	    {
+		far_bound[h][j] = (outer < nodes) ? emission[j] * bounds[h][outer] : Double.NaN;
+	    }
+	}
+
+	build_grid();
+	sum_far_error();
+    }
+
+    /**
+     * Tabulate, for a receptor height, the bound of the vertical terms of a unit point source
+	* between each tabulated distance and the next.
+     */
+    private double[] tabulate_peaks(double receptor_height, Vector<Double> source_heights)
+    {
+	int	 nodes = distances.length;
+	double[] vertical = new double[nodes];
+	double	 z = (receptor_height == 0) ? 0.001 : receptor_height;
+
+	for (int k = 0; k < nodes; k++)
+	{
+	    for (int h = 0; h < source_heights.size(); h++)
+	    {
+		double zs = source_heights.elementAt(h).doubleValue();
+		double v = point.vertical_kernel(distances[k], z, (zs == 0) ? 0.001 : zs);
+
+		if (Double.isNaN(v))
+		{
+		    vertical[k] = Double.POSITIVE_INFINITY;    // a term that can not be evaluated is not bounded
+		}
+		else if (v > vertical[k])
+		{
+		    vertical[k] = v;
+		}
+	    }
+	}
+
+	double[] peak = new double[nodes];
+
+	for (int k = 0; k < nodes; k++)
+	{
+	    peak[k] = SAMPLING_MARGIN * Math.max(vertical[k], vertical[Math.min(k + 1, nodes - 1)]);
+	}
+
+	return peak;
+    }
+
+    /**
+     * Tabulate the bound <code>b</code> of a unit point source at each tabulated distance from the
+	* peaks of a receptor height.
+     */
+    private double[] tabulate_bound(double[] peak)
+    {
+	int	 nodes = distances.length;
+	double[] table = new double[nodes];
+
+	for (int m = 0; m < nodes; m++)
+	{
+	    double r = distances[m];
+
+	    // each interval [x(k), x(k+1)] is bounded by its peak and the gaussian at its far end,
+	    // where sigma is larger and the lateral distance smaller
+	    for (int k = 0; k < nodes; k++)
+	    {
+		double far = distances[Math.min(k + 1, nodes - 1)];
+		double lateral = Math.max(0.0, r * r - far * far);
+
+		table[m] = Math.max(table[m], peak[k] * Math.exp(-lateral / (2.0 * far_sigma[k] * far_sigma[k])));
+	    }
+	}
+
+	return table;
+    }
+
+    /**
+     * Place each link that can be pruned in the grid cells its influence rectangle overlaps.
+     */
+    private void build_grid()
+    {
+	int    count = radius.length;
+	double min_x = Double.MAX_VALUE, min_y = Double.MAX_VALUE;
+	double max_x = -Double.MAX_VALUE, max_y = -Double.MAX_VALUE;
+	double total_radius = 0.0;
+	int    prunable = 0;
+
+	for (int j = 0; j < count; j++)
+	{
+	    if (Double.isInfinite(radius[j]))
+	    {
+		continue;
+	    }
+
+	    double grow = radius[j] + reach[j];
+	    double end_x = start_x[j] + length[j] * unit_x[j];
+	    double end_y = start_y[j] + length[j] * unit_y[j];
+
+	    min_x = Math.min(min_x, Math.min(start_x[j], end_x) - grow);
+	    max_x = Math.max(max_x, Math.max(start_x[j], end_x) + grow);
+	    min_y = Math.min(min_y, Math.min(start_y[j], end_y) - grow);
+	    max_y = Math.max(max_y, Math.max(start_y[j], end_y) + grow);
+	    total_radius += grow;
+	    prunable++;
+	}
+
+	if (prunable == 0)
+	{
+	    return;
+	}
+
+	// cells about the size of an influence radius, with no more than a few cells per link
+	int max_cells = Math.max(1024, 4 * count);
+
+	cell_size = Math.max(total_radius / prunable, 1.0);
+	cell_size = Math.max(cell_size, Math.sqrt((max_x - min_x) * (max_y - min_y) / max_cells));
+	origin_x = min_x;
+	origin_y = min_y;
+	columns = (int) ((max_x - min_x) / cell_size) + 1;
+	rows = (int) ((max_y - min_y) / cell_size) + 1;
+	cell_start = new int[columns * rows + 1];
+
+	// count the links of each cell, then fill the cells
+	for (int pass = 0; pass < 2; pass++)
+	{
+	    int[] fill = (pass == 1) ? new int[columns * rows] : null;
+
+	    for (int j = 0; j < count; j++)
+	    {
+		if (Double.isInfinite(radius[j]))
+		{
+		    continue;
+		}
+
+		double grow = radius[j] + reach[j];
+		double end_x = start_x[j] + length[j] * unit_x[j];
+		double end_y = start_y[j] + length[j] * unit_y[j];
+		int    first_column = column_of(Math.min(start_x[j], end_x) - grow);
+		int    last_column = column_of(Math.max(start_x[j], end_x) + grow);
+		int    first_row = row_of(Math.min(start_y[j], end_y) - grow);
+		int    last_row = row_of(Math.max(start_y[j], end_y) + grow);
+
+		for (int r = first_row; r <= last_row; r++)
+		{
+		    for (int c = first_column; c <= last_column; c++)
+		    {
+			int cell = r * columns + c;
+
+			if (pass == 0)
+			{
+			    cell_start[cell + 1]++;
+			}
+			else
+			{
+			    cell_links[cell_start[cell] + fill[cell]++] = j;
+			}
+		    }
+		}
+	    }
+
+	    if (pass == 0)
+	    {
+		for (int k = 0; k < columns * rows; k++)
+		{
+		    cell_start[k + 1] += cell_start[k];
+		}
+
+		cell_links = new int[cell_start[columns * rows]];
+	    }
+	}
+    }
+
+    /**
+     * Find the links that are not in the grid, and the sum of the bounds of the grid links outside
+	* of each cell for each receptor height.  The sum outside a cell is the sum of every grid link
+	* less the sum of the links of the cell.
+     */
+    private void sum_far_error()
+    {
+	int    count = radius.length;
+	int    cells = columns * rows;
+	Vector<Integer> unbounded = new Vector<Integer>(0, 10);
+
+	for (int j = 0; j < count; j++)
+	{
+	    if (Double.isInfinite(radius[j]))
+	    {
+		unbounded.add(Integer.valueOf(j));
+	    }
+	}
+
+	unbounded_links = new int[unbounded.size()];
+
+	for (int k = 0; k < unbounded_links.length; k++)
+	{
+	    unbounded_links[k] = unbounded.elementAt(k).intValue();
+	}
+
+	grid_link_count = count - unbounded_links.length;
+	far_error = new double[far_bound.length][cells + 1];
+
+	for (int h = 0; h < far_bound.length; h++)
+	{
+	    pairwise_sum total = new pairwise_sum();
+
+	    for (int j = 0; j < count; j++)
+	    {
+		if (!Double.isInfinite(radius[j]))
+		{
+		    total.add(far_bound[h][j]);
+		}
+	    }
+
+	    far_error[h][cells] = total.get_sum();
+
+	    for (int cell = 0; cell < cells; cell++)
+	    {
+		pairwise_sum near = new pairwise_sum();
+
+		for (int k = cell_start[cell]; k < cell_start[cell + 1]; k++)
+		{
+		    near.add(far_bound[h][cell_links[k]]);
+		}
+
+		far_error[h][cell] = Math.max(0.0, far_error[h][cells] - near.get_sum());
+	    }
+	}
+    }
+
+    private int column_of(double x)
+    {
+	return Math.max(0, Math.min(columns - 1, (int) ((x - origin_x) / cell_size)));
+    }
+
+    private int row_of(double y)
+    {
+	return Math.max(0, Math.min(rows - 1, (int) ((y - origin_y) / cell_size)));
+    }
+
+    /**
+     * Get the influence radius of a link (m), measured from the edge of its point sources.
+     * The radius is infinite for links that are never pruned.
+     */
+    public double getRadius(int link_index)
+    {
+	return radius[link_index];
+    }
+
+    /**
+     * Find the links that must be evaluated for a receptor.  Only the links that are never pruned by
+	* radius and the links of the grid cell of the receptor are examined, and the bound of the grid
+	* links outside of the cell is the sum found when the index was built.
+     *
+     * @param receptor_location the location of the receptor, at one of the heights the index was built for.
+     * @param pruned receives the number of links left out and the bound (g/m^3) of their total contribution.
+     * @return the index of each link that must be evaluated, in increasing order.
+     */
+    public int[] find_links(coordinate receptor_location, double[] pruned)
+    {
+	int h = find_height(table_heights, table_heights.length, receptor_location.getZ());
+
+	if (h < 0)
+	{
+	    System.err.println("The influence index was not built for a receptor height of "
+			       + receptor_location.getZ() + " m.\nIf you choose to continue every link will be "
+			       + "evaluated for the receptor");
+	    debugging.exception_handeler();
+
+	    int[] every_link = new int[radius.length];
+
+	    for (int j = 0; j < every_link.length; j++)
+	    {
+		every_link[j] = j;
+	    }
+
+	    pruned[0] = 0.0;
+	    pruned[1] = 0.0;
+
+	    return every_link;
+	}
+
+	double	     wind_angle = point.disp_param.getWind_angle();
+	double	     cos_wind = Math.cos(wind_angle);
+	double	     sin_wind = Math.sin(wind_angle);
+	double	     x = receptor_location.getX();
+	double	     y = receptor_location.getY();
+	int	     cell = find_cell(x, y);
+	int	     first = (cell < 0) ? 0 : cell_start[cell];
+	int	     last = (cell < 0) ? 0 : cell_start[cell + 1];
+	int[]	     candidates = new int[unbounded_links.length + last - first];
+	int	     count = 0;
+	int	     left_out = grid_link_count - (last - first);
+	pairwise_sum error_sum = new pairwise_sum();
+
+	// the grid links outside of the cell of the receptor are beyond their influence radius
+	error_sum.add(far_error[h][(cell < 0) ? columns * rows : cell]);
+
+	// links that are never pruned by radius may still be pruned for the wind direction
+	for (int k = 0; k < unbounded_links.length; k++)
+	{
+	    int	   j = unbounded_links[k];
+	    double bound = wind_bound(j, x, y, cos_wind, sin_wind, peaks[h]);
+
+	    if (bound < 0.0)
+	    {
+		candidates[count++] = j;
+	    }
+	    else
+	    {
+		error_sum.add(bound);
+		left_out++;
+	    }
+	}
+
+	for (int k = first; k < last; k++)
+	{
+	    int	   j = cell_links[k];
+	    double bound = cell_bound(j, h, x, y, cos_wind, sin_wind);
+
+	    if (bound < 0.0)
+	    {
+		candidates[count++] = j;
+	    }
+	    else
+	    {
+		error_sum.add(bound);
+		left_out++;
+	    }
+	}
+
+	int[] result = new int[count];
+
+	System.arraycopy(candidates, 0, result, 0, count);
+	Arrays.sort(result);
+
+	pruned[0] = left_out;
+	pruned[1] = error_sum.get_sum();
+
+	return result;
+    }
+
+    /**
+     * Find the bound of the contribution of every link to a receptor.  This examines every link, so
+	* it is only used to report the bound of each pruned pair (see <code>find_links</code>).
+     *
+     * @param receptor_location the location of the receptor, at one of the heights the index was built for.
+     * @return for each link, -1 if the pair must be evaluated, or otherwise the bound (g/m^3) of the
+	* contribution of the link to the receptor.
+     */
+    public double[] find_bounds(coordinate receptor_location)
+    {
+	int	 h = find_height(table_heights, table_heights.length, receptor_location.getZ());
+	double[] result = new double[radius.length];
+
+	if (h < 0)    // find_links evaluates every link
+	{
+	    for (int j = 0; j < result.length; j++)
+	    {
+		result[j] = -1.0;
+	    }
+
+	    return result;
+	}
+
+	double	 wind_angle = point.disp_param.getWind_angle();
+	double	 cos_wind = Math.cos(wind_angle);
+	double	 sin_wind = Math.sin(wind_angle);
+	double	 x = receptor_location.getX();
+	double	 y = receptor_location.getY();
+
+	// links outside of the cell of the receptor are beyond their influence radius, and links
+	// that are never pruned by radius may still be pruned for the wind direction
+	for (int j = 0; j < result.length; j++)
+	{
+	    result[j] = Double.isInfinite(radius[j]) ? wind_bound(j, x, y, cos_wind, sin_wind, peaks[h])
+			: far_bound[h][j];
+	}
+
+	int cell = find_cell(x, y);
+
+	if (cell >= 0)
+	{
+	    for (int k = cell_start[cell]; k < cell_start[cell + 1]; k++)
+	    {
+		result[cell_links[k]] = cell_bound(cell_links[k], h, x, y, cos_wind, sin_wind);
+	    }
+	}
+
+	return result;
+    }
+
+    /**
+     * Find the grid cell of a location, or -1 if it is outside of the grid.
+     */
+    private int find_cell(double x, double y)
+    {
+	if (columns == 0 || x < origin_x || y < origin_y || x >= origin_x + columns * cell_size
+		|| y >= origin_y + rows * cell_size)
+	{
+	    return -1;
+	}
+
+	return row_of(y) * columns + column_of(x);
+    }
+
+    /**
+     * Bound the contribution of a link in the cell of a receptor.  Within its influence radius the
+	* link is bounded for the wind direction, and beyond it by the bound at the largest tabulated
+	* distance not beyond the receptor.
+     *
+     * @return the bound (g/m^3), or -1 if the pair must be evaluated.
+     */
+    private double cell_bound(int j, int h, double x, double y, double cos_wind, double sin_wind)
+    {
+	double distance = Math.max(0.0, centerline_distance(j, x, y) - reach[j]);
+
+	if (distance < radius[j])
+	{
+	    return wind_bound(j, x, y, cos_wind, sin_wind, peaks[h]);
+	}
+
+	return emission[j] * bounds[h][node_below(distance)];
+    }
+
+    /**
+     * Bound the contribution of a link to a receptor for the wind direction.  Across the rectangle
+	* of the point sources of the link the downwind distance x and the lateral distance y are
+	* linear, so their ranges are found from the corners, and the contribution is at most
+	* <code>Q * max V(x) * exp(-min(y^2) / (2 sigma(max x)^2))</code>.  A link that is entirely
+	* upwind of the receptor contributes nothing.
+     *
+     * @return the bound (g/m^3) if it is below the threshold, otherwise -1.
+     */
+    private double wind_bound(int j, double x, double y, double cos_wind, double sin_wind, double[] peak)
+    {
+	double min_downwind = Double.MAX_VALUE, max_downwind = -Double.MAX_VALUE;
+	double min_lateral = Double.MAX_VALUE, max_lateral = -Double.MAX_VALUE;
+
+	for (int corner = 0; corner < 4; corner++)
+	{
+	    double along = (corner < 2) ? 0.0 : length[j];
+	    double cross = (corner % 2 == 0) ? -reach[j] : reach[j];
+	    double offset_x = x - (start_x[j] + along * unit_x[j] + cross * unit_y[j]);
+	    double offset_y = y - (start_y[j] + along * unit_y[j] - cross * unit_x[j]);
+	    double downwind = -(offset_x * cos_wind + offset_y * sin_wind);    // see point.normalize
+	    double lateral = offset_y * cos_wind - offset_x * sin_wind;
+
+	    min_downwind = Math.min(min_downwind, downwind);
+	    max_downwind = Math.max(max_downwind, downwind);
+	    min_lateral = Math.min(min_lateral, lateral);
+	    max_lateral = Math.max(max_lateral, lateral);
+	}
+
+	if (max_downwind < constants.DISTANCE_TOLERANCE)
+	{
+	    return 0.0;
+	}
+
+	if (max_downwind >= MAX_DISTANCE)
+	{
+	    return -1.0;
+	}
+
+	int    first = node_below(Math.max(min_downwind, constants.DISTANCE_TOLERANCE));
+	int    last = node_below(max_downwind);
+	double largest = 0.0;
+
+	for (int k = first; k <= last; k++)
+	{
+	    largest = Math.max(largest, peak[k]);
+	}
+
+	double lateral = (min_lateral > 0.0) ? min_lateral : (max_lateral < 0.0) ? -max_lateral : 0.0;
+	double bound = emission[j] * largest * Math.exp(-lateral * lateral / (2.0 * far_sigma[last] * far_sigma[last]));
+
+	return (bound <= threshold) ? bound : -1.0;
+    }
+
+    /**
+     * Find the largest tabulated distance that is not beyond a distance.
+     */
+    private int node_below(double distance)
+    {
+	int m = (int) Math.floor(NODES_PER_DECADE * Math.log10(distance / constants.DISTANCE_TOLERANCE));
+
+	m = Math.max(0, Math.min(m, distances.length - 1));
+
+	if (m > 0 && distances[m] > distance)    // rounding of the logarithm
+	{
+	    m--;
+	}
+
+	return m;
+    }
+
+    /**
+     * Find the horizontal distance from a location to the centerline of a link.
+     */
+    private double centerline_distance(int j, double x, double y)
+    {
+	double along = (x - start_x[j]) * unit_x[j] + (y - start_y[j]) * unit_y[j];
+
+	along = Math.max(0.0, Math.min(length[j], along));
+
+	double dx = x - (start_x[j] + along * unit_x[j]);
+	double dy = y - (start_y[j] + along * unit_y[j]);
+
+	return Math.sqrt(dx * dx + dy * dy);
+    }
+
+    /**
+     * Find the row of a receptor height among the first <code>count</code> heights of the rows, or
+	* -1 if no row is within <code>HEIGHT_TOLERANCE</code> of the height.
+     */
+    private static int find_height(double[] heights, int count, double height)
+    {
+	for (int h = 0; h < count; h++)
+	{
+	    if (Math.abs(heights[h] - height) <= HEIGHT_TOLERANCE)
+	    {
+		return h;
+	    }
+	}
+
+	return -1;
+    }
+}
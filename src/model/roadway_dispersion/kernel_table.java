@@ -0,0 +1,466 @@
+package roadway_dispersion;
+
+import utilities.*;    // access to the debugging routines
+
+/**
+ * <b>Overview</b><br>
+ * The <code>kernel_table</code> class replaces most evaluations of the huang equation with an
+ * interpolation.  In the wind frame of <code>point</code> the concentration of a source of
+ * strength q at a downwind distance x and a lateral distance y is
+ * <tt><pre>
+ *   q * exp(-y^2 / (2 * sigma(x)^2)) * V(x, z, zs)
+ * </pre></tt>
+ * where only the vertical terms <code>V</code> need the Bessel function, and they depend on the
+ * lateral distance not at all.  For one set of dispersion parameters (one met hour) a table of
+ * <code>ln V</code> is kept for each pair of receptor and source heights, at downwind distances
+ * spaced evenly in <code>ln x</code> from <code>constants.DISTANCE_TOLERANCE</code> to
+ * <code>MAX_DISTANCE</code>, so the nodes are closest together near the source where the kernel
+ * changes fastest.  A lookup interpolates <code>ln V</code> linearly between the two nearest nodes and
+ * finds the lateral gaussian and <code>sigma</code> directly, which costs a logarithm, a power
+ * and an exponential instead of the Bessel function.
+ * <br>
+ * The node spacing of each table is chosen when the table is built: it starts at
+ * <code>START_NODES_PER_DECADE</code> and is halved until the interpolated value at the midpoint
+ * of every interval is within the tolerance (see <code>set_tolerance</code>) of the huang equation,
+ * or the spacing reaches <code>MAX_NODES_PER_DECADE</code>.  The midpoints of each check become the
+ * new nodes, so no evaluation is wasted.  Values smaller than the tolerance times 1E-9 of the
+ * largest value of the table are only held to that absolute accuracy, since they can not change a
+ * concentration noticeably.  Downwind distances beyond <code>MAX_DISTANCE</code> are evaluated
+ * directly.
+ * <br>
+ * The tables are found the first time a pair of heights is used and are dropped when the
+ * dispersion parameters change, so a run with many receptors at the same heights (for example
+ * a receptor grid) builds each table once per met hour.  The tables of one set of dispersion
+ * parameters make up a table set, which also holds the parameters it was built for.
+ * <br>
+ * The lookup is experimental and off by default.  On the GM site, whose 20 receptors are at
+ * many heights, a run with the tables on takes about 2.4 times as long as one without them,
+ * since most tables are built for only a few receptors.  It only pays off when many receptors
+ * share a few heights.
+ *
+ * <br><br>
+ * <b>Notes:</b><br>
+ * All units in metric (MKS) unless otherwise stated.   <br>
+ * Tables and table sets are immutable.  A new table is added to a copy of the current set, and
+ * new dispersion parameters start a new empty set, which is then published through a volatile
+ * reference, so a lookup reads one set without a lock and is never affected by another thread
+ * replacing it.  Building a table and starting a new set take the class lock.
+ *
+ * @see point
+ */
+
+public final class kernel_table
+{
+    /**
+     * The largest downwind distance of the tables (m).  Points farther downwind are evaluated directly.
+     */
+    public static final double MAX_DISTANCE = 1.0E4;
+
+    /**
+     * The number of nodes per decade of downwind distance a table starts with.
+     */
+    public static final int    START_NODES_PER_DECADE = 16;
+
+    /**
+     * The largest number of nodes per decade of downwind distance a table may use.
+     */
+    public static final int    MAX_NODES_PER_DECADE = 4096;
+
+    /**
+     * Indicates if the tables are used - package access so the kernel can check it directly.
+     */
+    static volatile boolean    enabled = false;
+
+    private static double      tolerance = 1.0E-4;
+
+    /**
+     * The tables of the current dispersion parameters.  The set is replaced rather than changed.
+     */
+    private static volatile table_set current = new table_set(null);
+
+    /**
+     * The receptor and source heights of this table.
+     */
+    private final double   z, zs;
+
+    /**
+     * The number of nodes per unit of <code>ln x</code>.
+     */
+    private final double   node_density;
+
+    /**
+     * <code>V</code> and <code>ln V</code> at each node.
+     */
+    private final double[] values;
+    private final double[] log_values;
+
+    /**
+     * Turn the table lookup on or off.  Turning it off drops the tables.
+     */
+    public static synchronized void set_enabled(boolean enable)
+    {
+	enabled = enable;
+
+	if (!enable)
+	{
+	    clear();
+	}
+    }
+
+    /**
+     * Returns true if the table lookup is on.
+     */
+    public static boolean is_enabled()
+    {
+	return enabled;
+    }
+
+    /**
+     * Set the relative accuracy of the interpolated vertical terms.  The tables are rebuilt
+	* the next time they are used.
+     */
+    public static synchronized void set_tolerance(double relative_tolerance)
+    {
+	if (relative_tolerance <= 0.0 || relative_tolerance >= 1.0)
+	{
+	    System.err.println("The kernel table tolerance must be between 0 and 1, " + relative_tolerance
+			       + " is not allowed.\nIf you choose to continue the tolerance will not be changed");
+	    debugging.exception_handeler();
+
+	    return;
+	}
+
+	tolerance = relative_tolerance;
+	clear();
+    }
+
+    /**
+     * Get the relative accuracy of the interpolated vertical terms.
+     */
+    public static synchronized double getTolerance()
+    {
+	return tolerance;
+    }
+
+    /**
+     * Get the number of tables (pairs of heights) built for the current dispersion parameters.
+     */
+    public static int getTable_count()
+    {
+	return current.count;
+    }
+
+    /**
+     * Get the total number of nodes of the tables built for the current dispersion parameters.
+     */
+    public static long getNode_count()
+    {
+	long	       count = 0;
+	kernel_table[] tables = current.tables;
+
+	for (int i = 0; i < tables.length; i++)
+	{
+	    if (tables[i] != null)
+	    {
+		count += tables[i].values.length;
+	    }
+	}
+
+	return count;
+    }
+
+    /**
+     * Drop every table.
+     */
+    public static synchronized void clear()
+    {
+	current = new table_set(null);
+    }
+
+    /**
+     * Find the concentration of a source of strength q from its downwind and lateral distance
+	* and the receptor and source heights, for the dispersion parameters of <code>point</code>.
+	* The heights must already be moved away from zero (see <code>point.huang_concentration</code>).
+     *
+     * @return the concentration (g/m^3), or -1 if the downwind distance is outside of the tables.
+     */
+    static double lookup(double x, double y, double z, double zs, double q)
+    {
+	if (x > MAX_DISTANCE)
+	{
+	    return -1.0;
+	}
+
+	table_set    set = current;
+	kernel_table table = set.is_for(point.disp_param) ? set.find(z, zs) : null;
+
+	if (table == null)
+	{
+	    table = build(point.disp_param, z, zs);
+	}
+
+	double sigma = point.find_sigma(x);
+
+	return q * table.interpolate(x, Math.pow(y, 2.0) / (2.0 * Math.pow(sigma, 2.0)));
+    }
+
+    /**
+     * The first slot of the probe sequence of a pair of heights.
+     */
+    private static int slot(double z, double zs, int length)
+    {
+	long bits = Double.doubleToLongBits(z) * 31 + Double.doubleToLongBits(zs);
+	int  hash = (int) (bits ^ (bits >>> 32));
+
+	return (hash ^ (hash >>> 16)) & (length - 1);
+    }
+
+    /**
+     * Build the table of a pair of heights and publish a table set holding it, starting a new
+	* set if the dispersion parameters changed.
+     */
+    private static synchronized kernel_table build(dispersion disp, double z, double zs)
+    {
+	table_set set = current;
+
+	if (!set.is_for(disp))
+	{
+	    set = new table_set(disp);
+	}
+
+	kernel_table table = set.find(z, zs);
+
+	if (table != null)    // built by another thread
+	{
+	    return table;
+	}
+
+	table = new kernel_table(z, zs, tolerance);
+	current = set.add(table);
+
+	return table;
+    }
+
+    /**
+     * Place a table in the first free slot of its probe sequence.
+     */
+    private static void insert(kernel_table[] set, kernel_table table)
+    {
+	int i = slot(table.z, table.zs, set.length);
+
+	while (set[i] != null)
+	{
+	    i = (i + 1) & (set.length - 1);
+	}
+
+	set[i] = table;
+    }
+
+    /**
+     * The tables built for one set of dispersion parameters, placed by hash of their pair of
+	* heights with linear probing.  A set is never changed once published.
+     */
+    private static final class table_set
+    {
+	/**
+	 * The dispersion parameters the tables were built with, or null for the empty set.
+	 */
+	final dispersion     disp;
+	final double	     a, b, c, d, e, n, p;
+
+	final kernel_table[] tables;
+	final int	     count;
+
+	/**
+	 * An empty set for a set of dispersion parameters.
+	 */
+	table_set(dispersion disp)
+	{
+	    this.disp = disp;
+	    this.a = (disp == null) ? 0.0 : disp.getA();
+	    this.b = (disp == null) ? 0.0 : disp.getB();
+	    this.c = (disp == null) ? 0.0 : disp.getC();
+	    this.d = (disp == null) ? 0.0 : disp.getD();
+	    this.e = (disp == null) ? 0.0 : disp.getE();
+	    this.n = (disp == null) ? 0.0 : disp.getN();
+	    this.p = (disp == null) ? 0.0 : disp.getP();
+	    this.tables = new kernel_table[64];
+	    this.count = 0;
+	}
+
+	/**
+	 * A copy of a set with its tables placed in a new array.
+	 */
+	private table_set(table_set set, kernel_table[] tables, int count)
+	{
+	    this.disp = set.disp;
+	    this.a = set.a;
+	    this.b = set.b;
+	    this.c = set.c;
+	    this.d = set.d;
+	    this.e = set.e;
+	    this.n = set.n;
+	    this.p = set.p;
+	    this.tables = tables;
+	    this.count = count;
+	}
+
+	/**
+	 * Returns true if the tables were built with the same values as a set of dispersion parameters.
+	 */
+	boolean is_for(dispersion other)
+	{
+	    return other != null && other == disp && other.getA() == a && other.getB() == b && other.getC() == c
+		   && other.getD() == d && other.getE() == e && other.getN() == n && other.getP() == p;
+	}
+
+	/**
+	 * Return the table of a pair of heights, or null if it has not been built.
+	 */
+	kernel_table find(double z, double zs)
+	{
+	    for (int i = slot(z, zs, tables.length); tables[i] != null; i = (i + 1) & (tables.length - 1))
+	    {
+		if (tables[i].z == z && tables[i].zs == zs)
+		{
+		    return tables[i];
+		}
+	    }
+
+	    return null;
+	}
+
+	/**
+	 * Return a copy of the set with a table added, doubling the array when it is half full.
+	 */
+	table_set add(kernel_table table)
+	{
+	    kernel_table[] added = new kernel_table[(count + 1) * 2 > tables.length ? tables.length * 2
+										    : tables.length];
+
+	    for (int i = 0; i < tables.length; i++)
+	    {
+		if (tables[i] != null)
+		{
+		    insert(added, tables[i]);
+		}
+	    }
+
+	    insert(added, table);
+
+	    return new table_set(this, added, count + 1);
+	}
+    }
+
+    /**
+     * Build the table of a pair of heights for the dispersion parameters of <code>point</code>.
+     */
+    private kernel_table(double z, double zs, double relative_tolerance)
+    {
+	this.z = z;
+	this.zs = zs;
+
+	double decades = Math.log(MAX_DISTANCE / constants.DISTANCE_TOLERANCE) / Math.log(10.0);
+	int    intervals = (int) Math.ceil(decades * START_NODES_PER_DECADE);
+	int    max_intervals = (int) Math.ceil(decades * MAX_NODES_PER_DECADE);
+	double[] nodes = new double[intervals + 1];
+
+	for (int i = 0; i <= intervals; i++)
+	{
+	    nodes[i] = point.vertical_kernel(distance(i, intervals), z, zs);
+	}
+
+	// halve the spacing until the midpoint of every interval is interpolated within the tolerance
+	while (true)
+	{
+	    double   largest = 0.0;
+	    double[] midpoints = new double[intervals];
+	    boolean  accurate = true;
+
+	    for (int i = 0; i <= intervals; i++)
+	    {
+		largest = Math.max(largest, nodes[i]);
+	    }
+
+	    for (int i = 0; i < intervals; i++)
+	    {
+		midpoints[i] = point.vertical_kernel(distance(2 * i + 1, 2 * intervals), z, zs);
+
+		double error = Math.abs(interpolate(nodes[i], nodes[i + 1], 0.5) - midpoints[i]);
+
+		if (error > relative_tolerance * (midpoints[i] + 1.0E-9 * largest))
+		{
+		    accurate = false;
+		}
+	    }
+
+	    if (accurate || intervals * 2 > max_intervals)
+	    {
+		break;
+	    }
+
+	    // the midpoints become the new nodes
+	    double[] refined = new double[2 * intervals + 1];
+
+	    for (int i = 0; i < intervals; i++)
+	    {
+		refined[2 * i] = nodes[i];
+		refined[2 * i + 1] = midpoints[i];
+	    }
+
+	    refined[2 * intervals] = nodes[intervals];
+	    nodes = refined;
+	    intervals *= 2;
+	}
+
+	values = nodes;
+	log_values = new double[nodes.length];
+
+	for (int i = 0; i < nodes.length; i++)
+	{
+	    log_values[i] = (nodes[i] > 0.0) ? Math.log(nodes[i]) : Double.NEGATIVE_INFINITY;
+	}
+
+	node_density = intervals / Math.log(MAX_DISTANCE / constants.DISTANCE_TOLERANCE);
+    }
+
+    /**
+     * The downwind distance of node i of a table with the given number of intervals.
+     */
+    private static double distance(int i, int intervals)
+    {
+	return constants.DISTANCE_TOLERANCE * Math.exp(Math.log(MAX_DISTANCE / constants.DISTANCE_TOLERANCE) * i / intervals);
+    }
+
+    /**
+     * Interpolate between two values of <code>V</code> linearly in <code>ln V</code>, or in
+	* <code>V</code> if either is zero.
+     */
+    private static double interpolate(double lower, double upper, double fraction)
+    {
+	if (lower > 0.0 && upper > 0.0)
+	{
+	    return Math.exp(Math.log(lower) + fraction * (Math.log(upper) - Math.log(lower)));
+	}
+
+	return lower + fraction * (upper - lower);
+    }
+
+    /**
+     * Interpolate <code>V</code> at a downwind distance and multiply it by
+	* <code>exp(-lateral_exponent)</code>.
+     */
+    private double interpolate(double x, double lateral_exponent)
+    {
+	double position = Math.log(x / constants.DISTANCE_TOLERANCE) * node_density;
+	int    i = Math.min((int) position, values.length - 2);
+	double fraction = position - i;
+
+	if (log_values[i] == Double.NEGATIVE_INFINITY || log_values[i + 1] == Double.NEGATIVE_INFINITY)
+	{
+	    return (values[i] + fraction * (values[i + 1] - values[i])) * Math.exp(-lateral_exponent);
+	}
+
+	return Math.exp(log_values[i] + fraction * (log_values[i + 1] - log_values[i]) - lateral_exponent);
+    }
+}
@@ -0,0 +1,221 @@
+package roadway_dispersion;
+
+/**
+ * <b>Overview</b><br>
+ * The <code>line_source</code> class finds the concentration contribution of a long straight
+ * highway link by integrating the huang equation along the road in closed form, instead of
+ * placing point sources out to the ends of the link.  The traveled way is represented as a set of
+ * parallel lines, one for each cross road and vertical location of the spacing profile, and the
+ * line strength is shared equally among them.
+ * <br>
+ * In the wind frame of <code>point</code> a line crosses the plume centerline of the receptor at a
+ * downwind distance <code>x_c</code>.  Along the line the lateral distance y and the downwind
+ * distance x change together, <code>x = x_c - y * cot(psi)</code>, where psi is the angle
+ * between the road and the wind, and an element of road of length <code>dy / |sin(psi)|</code>
+ * holds the lateral distances dy.  The contribution of the line is therefore
+ * <tt><pre>
+ *             q         /
+ *   C = ------------   | exp(-y^2 / (2 sigma(x)^2)) * V(x, z, zs) dy
+ *        |sin(psi)|   /
+ * </pre></tt>
+ * with <code>V</code> the vertical terms of the huang equation (see <code>point.vertical_kernel</code>).
+ * With sigma and V taken at <code>x_c</code> this is the classic crosswind line source,
+ * <code>q * sqrt(2 pi) * sigma(x_c) * V(x_c) / |sin(psi)|</code>.  The change of sigma and V across
+ * the plume is kept by integrating with an eight point Gauss-Hermite rule whose weight is the
+ * gaussian at <code>sigma(x_c)</code>, so each line costs eight kernel evaluations.
+ * <br>
+ * The closed form assumes that the link reaches past the plume on both sides and that every
+ * part of the line within the plume is downwind of the receptor.  Before a link is evaluated each
+ * line is checked:
+ * <ul>
+ * <li>the road must extend <code>PLUME_WIDTHS</code> lateral standard deviations (at
+ *     <code>x_c</code>) past the crossing point in both directions</li>
+ * <li>the downwind distance across that width may not change by more than
+ *     <code>MAX_FETCH_CHANGE</code> of <code>x_c</code>, which rules out winds nearly parallel to
+ *     the road and receptors on or next to the traveled way</li>
+ * </ul>
+ * If any line fails, the link is evaluated with its point sources as before.
+ *
+ * <br><br>
+ * <b>Notes:</b><br>
+ * All units in metric (MKS) unless otherwise stated.   <br>
+ * The lines are spaced at the finest cross road spacing of the spacing profile.
+ *
+ * @see highway_link
+ * @see point
+ */
+
+public final class line_source
+{
+    /**
+     * The number of lateral standard deviations the road must reach past the crossing point on each side.
+     */
+    public static final double PLUME_WIDTHS = 4.2;
+
+    /**
+     * The largest fraction of the crossing distance that the downwind distance may change across the plume.
+     */
+    public static final double MAX_FETCH_CHANGE = 0.9;
+
+    /**
+     * The positive nodes and weights of the eight point Gauss-Hermite rule (weight exp(-t^2)).
+     */
+    private static final double[] HERMITE_NODES = { 0.381186990207322, 1.157193712446780, 1.981656756695843,
+						    2.930637420257244 };
+    private static final double[] HERMITE_WEIGHTS = { 0.661147012558241, 0.207802325814892, 0.017077983007413,
+						      0.000199604072211 };
+
+    /**
+     * The line source is only used through the static methods.
+     */
+    private line_source() {}
+
+    /**
+     * Add the contribution of a highway link to a receptor for the dispersion parameters of
+	* <code>point</code>, if the closed form is valid for every line of the link.
+     *
+     * @param geometry the geometry of the link.
+     * @param line_strength the line strength of the link (g/m-s).
+     * @param profile the spacing profile that places the lines across the road and vertically.
+     * @param cross_refinement the factor the cross spacings are divided by.
+     * @param vertical_refinement the factor the vertical spacings are divided by.
+     * @param receptor the location of the receptor.
+     * @param sum receives the contribution of each line.
+     * @return the number of kernel evaluations, or -1 if the closed form is not valid (nothing is added).
+     */
+    static int evaluate(link_geometry geometry, double line_strength, spacing_profile profile,
+			double cross_refinement, double vertical_refinement, coordinate receptor, pairwise_sum sum)
+    {
+	dispersion disp = point.disp_param;
+	double	   cos_wind = Math.cos(disp.getWind_angle());
+	double	   sin_wind = Math.sin(disp.getWind_angle());
+
+	// the rate the lateral distance (sin psi) and downwind distance (cos psi) change along the road
+	double lateral_rate = geometry.getUnit_y() * cos_wind - geometry.getUnit_x() * sin_wind;
+	double downwind_rate = geometry.getUnit_x() * cos_wind + geometry.getUnit_y() * sin_wind;
+
+	if (Math.abs(lateral_rate) < 1.0E-6)
+	{
+	    return -1;	  // the wind is parallel to the road
+	}
+
+	double[] cross = cross_locations(geometry, profile, cross_refinement, disp);
+	double[] heights = profile.vertical_locations(vertical_refinement);
+	double[] crossing = new double[cross.length];	 // x_c of each line
+	double	 cross_x = geometry.getUnit_y();		 // the cross road direction (see highway_point_spacing)
+	double	 cross_y = -geometry.getUnit_x();
+	double	 start_x = geometry.getStart_x();
+	double	 start_y = geometry.getStart_y();
+
+	// check every line before anything is added to the sum
+	for (int c = 0; c < cross.length; c++)
+	{
+	    // offset from the start of the line to the receptor
+	    double offset_x = receptor.getX() - start_x - cross[c] * cross_x;
+	    double offset_y = receptor.getY() - start_y - cross[c] * cross_y;
+	    double start_downwind = -(offset_x * cos_wind + offset_y * sin_wind);
+	    double start_lateral = offset_y * cos_wind - offset_x * sin_wind;
+
+	    // distance along the road to the point where the line crosses the plume centerline
+	    double along = start_lateral / lateral_rate;
+
+	    crossing[c] = start_downwind + along * downwind_rate;
+
+	    if (crossing[c] < constants.DISTANCE_TOLERANCE)
+	    {
+		return -1;
+	    }
+
+	    double half_width = PLUME_WIDTHS * point.find_sigma(crossing[c]);
+
+	    if (along - half_width / Math.abs(lateral_rate) < 0.0
+		    || along + half_width / Math.abs(lateral_rate) > geometry.getLength()
+		    || half_width * Math.abs(downwind_rate / lateral_rate) > MAX_FETCH_CHANGE * crossing[c])
+	    {
+		return -1;
+	    }
+	}
+
+	double line_share = line_strength / (cross.length * heights.length * Math.abs(lateral_rate));
+	double z = (receptor.getZ() == 0) ? 0.001 : receptor.getZ();
+
+	for (int c = 0; c < cross.length; c++)
+	{
+	    double sigma_c = point.find_sigma(crossing[c]);
+	    double scale = Math.sqrt(2.0) * sigma_c;
+
+	    for (int h = 0; h < heights.length; h++)
+	    {
+		double zs = (heights[h] == 0) ? 0.001 : heights[h];
+		double integral = 0.0;
+
+		for (int k = 0; k < HERMITE_NODES.length; k++)
+		{
+		    for (int side = -1; side <= 1; side += 2)
+		    {
+			double t = side * HERMITE_NODES[k];
+			double y = scale * t;
+			double x = crossing[c] - y * downwind_rate / lateral_rate;
+			double sigma = point.find_sigma(x);
+
+			// the gaussian of the rule is divided out of the true lateral gaussian
+			integral += HERMITE_WEIGHTS[k] * scale * Math.exp(t * t - y * y / (2.0 * sigma * sigma))
+				    * point.vertical_kernel(x, z, zs);
+		    }
+		}
+
+		sum.add(line_share * integral);
+	    }
+	}
+
+	return cross.length * heights.length * 2 * HERMITE_NODES.length;
+    }
+
+    /**
+     * Find the cross road location of each line, spaced at the finest cross spacing of the profile
+	* and placed with the upwind overhang on the upwind side as in <code>highway_point_spacing</code>.
+     */
+    private static double[] cross_locations(link_geometry geometry, spacing_profile profile, double refinement,
+					    dispersion disp)
+    {
+	double spacing = Double.MAX_VALUE;
+	double width = geometry.getWidth();
+
+	for (int i = 0; i < profile.getNum_regions(); i++)
+	{
+	    spacing = Math.min(spacing, profile.getCross_density()[i] / refinement);
+	}
+
+	// a single line on the centerline if the spacing is wider than the road
+	if (spacing > width)
+	{
+	    return new double[] { 0.0 };
+	}
+
+	// the x component of the wind once the link is rotated onto the y-axis
+	double wind_x = Math.cos(disp.getWind_angle() + geometry.getRotation_angle());
+	double lower, upper;
+
+	if (wind_x >= 0)
+	{
+	    lower = -width / 2.0 - profile.getCross_component_overhang_Down();
+	    upper = width / 2.0 + profile.getCross_component_overhang_UP();
+	}
+	else
+	{
+	    lower = -width / 2.0 - profile.getCross_component_overhang_UP();
+	    upper = width / 2.0 + profile.getCross_component_overhang_Down();
+	}
+
+	int	 count = point_vector.count_points(lower, upper, spacing);
+	double	 first = point_vector.first_point(lower, upper, spacing);
+	double[] locations = new double[count];
+
+	for (int i = 0; i < count; i++)
+	{
+	    locations[i] = first + i * spacing;
+	}
+
+	return locations;
+    }
+}
@@ -45,15 +45,190 @@ public abstract class link implements Cloneable
      * Routine to determine the concentration contribution
 	* from each point source used to represent the link and to superposition all the concentration
 	* contributions to the <code>total_concentration</code> data member.
+	* If the automatic refinement mode is on (see <code>set_auto_refine</code>) the link is
+	* evaluated at successively finer point densities until the contribution converges.
+	* The point array is kept so that it can be examined or printed afterwards.
      */
     public void calculate_link_concentration()
     {
+	calculate_link_concentration(true);
+    }
+
+    /**
+     * Routine to determine the concentration contribution of the link, see
+	* <code>calculate_link_concentration()</code>.  If <code>keep_points</code> is false and
+	* the streaming mode is on (see <code>set_stream_points</code>) the points are evaluated in
+	* small blocks as they are generated and the point array is never stored.
+     *
+     * @param keep_points true if the point array must be available after the calculation
+	* (for example to print it to a file).
+     */
+    public void calculate_link_concentration(boolean keep_points)
+    {
+	// a link beyond its influence radius contributes nothing (see setInfluence_bound)
+	if (influence_bound >= 0.0)
+	{
+	    point_array = null;
+	    total_concentration = 0.0;
+	    points_used = 0;
+	    estimated_error = influence_bound;
+
+	    return;
+	}
+
+	// the points of a shared tree are used as they are (see setSource_tree)
+	if (source_tree != null && !keep_points)
+	{
+	    points_used = sum_tree_contributions();
+	    estimated_error = Double.NaN;
+
+	    return;
+	}
+
+	// long links are integrated along the road where the closed form is valid (see line_source)
+	if (line_source_evaluation && !keep_points)
+	{
+	    contribution_sum.reset();
+
+	    int evaluations = line_source_contribution(contribution_sum);
+
+	    if (evaluations >= 0)
+	    {
+		point_array = null;
+		total_concentration = contribution_sum.get_sum();
+		points_used = evaluations;
+		estimated_error = Double.NaN;
+
+		return;
+	    }
+	}
+
+	if (auto_refine)
+	{
+	    calculate_refined_link_concentration(keep_points);
+
+	    return;
+	}
+
+	// evaluate the link once at the point densities of the spacing tables
+	reset_refinement();
+	points_used = sum_point_contributions(keep_points);
+	estimated_error = Double.NaN;    // the error is only estimated in the automatic refinement mode or for pruned links
+    }
+
+    /**
+     * Create the points at the current <code>refinement</code> and superposition the
+	* concentration contribution of every point into <code>total_concentration</code>.
+     *
+     * @param keep_points true if the point array must be stored, false if it may be streamed.
+     * @return the number of points used.
+     */
+    private int sum_point_contributions(boolean keep_points)
+    {
+	// metrics are only recorded when they are turned on (see run_metrics)
+	final run_metrics metrics = run_metrics.enabled ? run_metrics.current() : null;
+	long		  start = 0;
+	long		  kernel_before = 0;
+
+	if (metrics != null)
+	{
+	    start = System.nanoTime();
+	    kernel_before = metrics.kernel_time;
+	}
+
+	if (!keep_points && stream_points)
+	{
+	    point_array = null;
+	    contribution_sum.reset();    // reset the total concentration for this link
+
+	    // add each point's concentration to the total link concentraiton as the points are generated
+	    int streamed = -1;
+
+	    if (local_frame && !point_cloud_cache.is_enabled())
+	    {
+		streamed = stream_local_point_array(new local_point_accumulator()
+		{
+		    private double receptor_x, receptor_y, receptor_z, cos_wind, sin_wind;
+
+		    public void set_frame(double x, double y, double z, double wind_angle)
+		    {
+			receptor_x = x;
+			receptor_y = y;
+			receptor_z = z;
+			cos_wind = Math.cos(wind_angle);
+			sin_wind = Math.sin(wind_angle);
+		    }
+
+		    public void accumulate(double[] x, double[] y, double[] z, double[] source_strength, int count)
+		    {
+			long block_start = (metrics != null) ? System.nanoTime() : 0;
+
+			for (int i = 0; i < count; i++)
+			{
+			    contribution_sum.add(point.contribution(x[i], y[i], z[i], source_strength[i], receptor_x,
+								    receptor_y, receptor_z, cos_wind, sin_wind, metrics));
+			}
+
+			if (metrics != null)
+			{
+			    metrics.kernel_time += System.nanoTime() - block_start;
+			}
+		    }
+		});
+	    }
+
+	    if (streamed < 0)
+	    {
+		streamed = stream_point_array(new point_accumulator()
+		{
+		    public void accumulate(double[] x, double[] y, double[] z, double[] source_strength, int count)
+		    {
+			long block_start = (metrics != null) ? System.nanoTime() : 0;
+
+			for (int i = 0; i < count; i++)
+			{
+			    contribution_sum.add(point.contribution(x[i], y[i], z[i], source_strength[i], metrics));
+			}
+
+			if (metrics != null)
+			{
+			    metrics.kernel_time += System.nanoTime() - block_start;
+			}
+		    }
+		});
+	    }
+
+	    if (streamed >= 0)
+	    {
+		total_concentration = contribution_sum.get_sum();
+
+		if (metrics != null)
+		{
+		    // the time outside the accumulator was spent generating the points
+		    metrics.generation_time += System.nanoTime() - start - (metrics.kernel_time - kernel_before);
+		    metrics.points_generated += streamed;
+		}
+
+		return streamed;
+	    }
+	    // this link type can not stream its points so create the point array
+	}
+
 	// create the point array for the link type
 	create_point_array();
 
 	int total_points = point_array.length;    // total number of points in the point array
 
-	this.total_concentration = 0.0;    // reset the total concentration for this link
+	if (metrics != null)
+	{
+	    long generated = System.nanoTime();
+
+	    metrics.generation_time += generated - start;
+	    metrics.points_generated += total_points;
+	    start = generated;
+	}
+
+	contribution_sum.reset();    // reset the total concentration for this link
 
 	// loop through each point and find the concentraiton associated with the common receptor
 	// add each point's concentration to the total link concentraiton
@@ -61,11 +236,764 @@ public abstract class link implements Cloneable
 	{
 	    point_array[i].calculate_contribution();
 
-	    total_concentration += point_array[i].getConcentration();
+	    contribution_sum.add(point_array[i].getConcentration());
 	    // debug_output
 	    // System.out.println("point " + i + " cumulative concentrtion = " + total_concentration+ point_array[i].getPoint_location().x_y_z() );
 	    // System.out.println(i);
 	}
+
+	total_concentration = contribution_sum.get_sum();
+
+	if (metrics != null)
+	{
+	    metrics.kernel_time += System.nanoTime() - start;
+	}
+
+	return total_points;
+    }
+
+    /**
+     * The point contributions are added with blocked pairwise summation so the link total does
+	* not depend on the order the points were evaluated in (see <code>pairwise_sum</code>).
+     */
+    private pairwise_sum contribution_sum = new pairwise_sum();
+
+    /**
+     * The concentration contribution of the link to each receptor of a vertical column
+	* (see <code>calculate_column_concentration</code>).
+     */
+    private double[] column_concentrations = null;
+
+    /**
+     * Find the concentration contribution of the link to every receptor of a vertical column
+	* located at the horizontal position of the static receptor.  The points do not depend on the
+	* receptor height, so they are generated once for the whole column and only the height
+	* dependent terms of the huang equation are found for each receptor (see
+	* <code>point.column_contributions</code>).  The contributions are available from
+	* <code>getColumn_concentrations</code>.  Automatic refinement is not used for columns.
+     *
+     * @param heights the elevation of each receptor of the column.
+     */
+    public void calculate_column_concentration(double[] heights)
+    {
+	final double[][]     height_terms = point.column_height_terms(heights);
+	final double[]	     contributions = new double[heights.length];
+	final pairwise_sum[] sums = new pairwise_sum[heights.length];
+
+	// metrics are only recorded when they are turned on (see run_metrics)
+	final run_metrics metrics = run_metrics.enabled ? run_metrics.current() : null;
+	long		  start = 0;
+	long		  kernel_before = 0;
+
+	if (metrics != null)
+	{
+	    start = System.nanoTime();
+	    kernel_before = metrics.kernel_time;
+	}
+
+	for (int h = 0; h < heights.length; h++)
+	{
+	    sums[h] = new pairwise_sum();
+	}
+
+	reset_refinement();
+	point_array = null;
+
+	// add each point's contribution to each receptor of the column as the points are generated
+	int streamed = stream_point_array(new point_accumulator()
+	{
+	    public void accumulate(double[] x, double[] y, double[] z, double[] source_strength, int count)
+	    {
+		long block_start = (metrics != null) ? System.nanoTime() : 0;
+
+		for (int i = 0; i < count; i++)
+		{
+		    point.column_contributions(x[i], y[i], z[i], source_strength[i], height_terms, contributions);
+
+		    for (int h = 0; h < contributions.length; h++)
+		    {
+			sums[h].add(contributions[h]);
+		    }
+		}
+
+		if (metrics != null)
+		{
+		    metrics.kernel_time += System.nanoTime() - block_start;
+		}
+	    }
+	});
+
+	if (streamed < 0)
+	{
+	    // this link type can not stream its points so create the point array
+	    create_point_array();
+
+	    for (int i = 0; i < point_array.length; i++)
+	    {
+		coordinate location = point_array[i].getPoint_location();
+
+		point.column_contributions(location.getX(), location.getY(), location.getZ(),
+					   point_array[i].getSource_strength(), height_terms, contributions);
+
+		for (int h = 0; h < heights.length; h++)
+		{
+		    sums[h].add(contributions[h]);
+		}
+	    }
+
+	    streamed = point_array.length;
+	    clear_points();
+	}
+
+	column_concentrations = new double[heights.length];
+
+	for (int h = 0; h < heights.length; h++)
+	{
+	    column_concentrations[h] = sums[h].get_sum();
+	}
+
+	if (metrics != null)
+	{
+	    // the time outside the accumulator was spent generating the points
+	    metrics.generation_time += System.nanoTime() - start - (metrics.kernel_time - kernel_before);
+	    metrics.points_generated += streamed;
+	}
+
+	points_used = streamed;
+	estimated_error = Double.NaN;
+    }
+
+    /**
+     * Get the contribution of the link to each receptor of the column of the last
+	* <code>calculate_column_concentration</code>.
+     */
+    public double[] getColumn_concentrations()
+    {
+	return column_concentrations;
+    }
+
+    /**
+     * The terms of each downwind point of the link that do not depend on the wind constant
+	* <code>a</code>, three per point (see <code>point.speed_terms</code>).  They are only
+	* stored between <code>prepare_speed_terms</code> and <code>clear_speed_terms</code>.
+     */
+    private double[] speed_terms = null;
+    private int	     speed_term_points = 0;
+
+    /**
+     * The speed terms of a pruned link, which has no points.
+     */
+    private static final double[] NO_SPEED_TERMS = new double[0];
+
+    /**
+     * Generate the points of the link for the static receptor and store the terms of each
+	* point that do not depend on the wind constant <code>a</code>.  The link concentration
+	* can then be found for any <code>a</code> (with the same wind direction and other dispersion
+	* parameters) with <code>calculate_speed_scaled_concentration</code> without generating the
+	* points again.  Upwind points are not stored.
+     */
+    public void prepare_speed_terms()
+    {
+	speed_term_points = 0;
+
+	if (influence_bound >= 0.0)    // pruned links contribute nothing at any speed
+	{
+	    speed_terms = NO_SPEED_TERMS;
+
+	    return;
+	}
+
+	speed_terms = new double[3 * 1024];
+
+	int streamed = stream_point_array(new point_accumulator()
+	{
+	    public void accumulate(double[] x, double[] y, double[] z, double[] source_strength, int count)
+	    {
+		for (int i = 0; i < count; i++)
+		{
+		    add_speed_terms(x[i], y[i], z[i], source_strength[i]);
+		}
+	    }
+	});
+
+	if (streamed < 0)
+	{
+	    // this link type can not stream its points so create the point array
+	    create_point_array();
+
+	    for (int i = 0; i < point_array.length; i++)
+	    {
+		coordinate location = point_array[i].getPoint_location();
+
+		add_speed_terms(location.getX(), location.getY(), location.getZ(),
+				point_array[i].getSource_strength());
+	    }
+
+	    clear_points();
+	}
+    }
+
+    /**
+     * Store the speed independent terms of one point if it is downwind of the receptor.
+     */
+    private void add_speed_terms(double x, double y, double z, double q)
+    {
+	if (3 * (speed_term_points + 1) > speed_terms.length)
+	{
+	    double[] larger = new double[2 * speed_terms.length];
+
+	    System.arraycopy(speed_terms, 0, larger, 0, 3 * speed_term_points);
+	    speed_terms = larger;
+	}
+
+	if (point.speed_terms(x, y, z, q, speed_terms, 3 * speed_term_points))
+	{
+	    speed_term_points++;
+	}
+    }
+
+    /**
+     * Find the link concentration at the wind constant <code>a</code> from the terms stored by
+	* <code>prepare_speed_terms</code> and store it in <code>total_concentration</code>.
+     */
+    public void calculate_speed_scaled_concentration(double a)
+    {
+	if (speed_terms == null)
+	{
+	    System.err.println("The speed terms of a link must be prepared before its concentration "
+			       + "can be found for a new wind speed\nIf you choose to continue the concentration will be 0");
+	    debugging.exception_handeler();
+	    total_concentration = 0.0;
+
+	    return;
+	}
+
+	contribution_sum.reset();
+
+	for (int i = 0; i < speed_term_points; i++)
+	{
+	    contribution_sum.add(point.speed_scaled_contribution(a, speed_terms[3 * i], speed_terms[3 * i + 1],
+								  speed_terms[3 * i + 2]));
+	}
+
+	total_concentration = contribution_sum.get_sum();
+	points_used = speed_term_points;
+	estimated_error = Double.NaN;
+    }
+
+    /**
+     * Remove the terms stored by <code>prepare_speed_terms</code> to free up memory.
+     */
+    public void clear_speed_terms()
+    {
+	speed_terms = null;
+	speed_term_points = 0;
+    }
+
+    /**
+     * Generate the points representing the link in blocks and send each block to an accumulator
+	* instead of storing a point array.  Link types that can not stream their points return -1,
+	* in which case the point array is created with <code>create_point_array</code>.
+     *
+     * @return the number of points generated, or -1 if streaming is not supported.
+     */
+    public int stream_point_array(point_accumulator accumulator)
+    {
+	return -1;
+    }
+
+    /**
+     * Generate the points representing the link in blocks and send them to an accumulator in the
+	* coordinate system of the link, with the receptor and wind angle given once in the same system.
+	* Link types that can not do this return -1.
+     *
+     * @return the number of points generated, or -1 if the link coordinate system is not supported.
+     */
+    public int stream_local_point_array(local_point_accumulator accumulator)
+    {
+	return -1;
+    }
+
+    /**
+     * Count the points <code>stream_local_point_array</code> would generate for the receptor of
+	* the link at the point densities of the spacing tables, without generating them.  Link types
+	* that can not do this return -1.
+     *
+     * @return the number of points, or -1 if the points can not be counted.
+     */
+    public int count_points()
+    {
+	return -1;
+    }
+
+    /**
+     * Estimate the number of kernel evaluations <code>calculate_link_concentration(false)</code>
+	* will make for the receptor of the link.  This is only used to share the work of a run
+	* between threads (see <code>parallel_evaluation</code>).
+     *
+     * @return the estimate, or -1 if the link type can not count its points.
+     */
+    int estimate_points()
+    {
+	if (influence_bound >= 0.0)
+	{
+	    return 0;
+	}
+
+	if (source_tree != null)
+	{
+	    return source_tree.getNum_nodes();    // a walk opens a fraction of the nodes
+	}
+
+	int points = count_points();
+
+	// the automatic refinement evaluates the table densities and three trials at twice the points
+	return (auto_refine && points > 0) ? 7 * points : points;
+    }
+
+    /**
+     * Returns true if <code>calculate_link_concentration(false)</code> would stream the points of
+	* this link once in the link coordinate system, so the caller may stream and evaluate them
+	* itself and hand the sum back with <code>set_streamed_contribution</code>.
+     */
+    boolean is_streamed_once()
+    {
+	return influence_bound < 0.0 && source_tree == null && !line_source_evaluation && !auto_refine
+	       && stream_points && local_frame && !point_cloud_cache.is_enabled();
+    }
+
+    /**
+     * Keep a contribution found by streaming the points of the link outside the link, as
+	* <code>calculate_link_concentration(false)</code> would have kept it.
+     *
+     * @param contribution the sum of the point contributions (g/m^3).
+     * @param points the number of points streamed.
+     */
+    void set_streamed_contribution(double contribution, int points)
+    {
+	reset_refinement();
+	point_array = null;
+	total_concentration = contribution;
+	points_used = points;
+	estimated_error = Double.NaN;
+    }
+
+    /**
+     * Create a tree of point sources that represents the link for every receptor, with a uniform
+	* point spacing instead of the receptor centered spacing of the point arrays (see
+	* <code>source_tree</code>).  Link types that can not do this return null.
+     *
+     * @param spacing the fetch and cross spacing of the points (m).
+     */
+    public source_tree create_source_tree(double spacing)
+    {
+	return null;
+    }
+
+    /**
+     * Add the contribution of the link to the static receptor from a closed form line source
+	* (see <code>line_source</code>).  Link types that can not do this, and links for which the
+	* closed form is not valid at the receptor, add nothing and return -1.
+     *
+     * @return the number of kernel evaluations, or -1 if the point sources must be used.
+     */
+    public int line_source_contribution(pairwise_sum sum)
+    {
+	return -1;
+    }
+
+    /**
+     * Indicates if long straight links are evaluated as closed form line sources where it is
+	* valid (see <code>line_source</code>).
+     */
+    private static boolean line_source_evaluation = false;
+
+    /**
+     * Turn the closed form line source evaluation on or off.  This is a setting common to all links.
+	* Links where the closed form is not valid for a receptor still use their point sources.
+     */
+    public static void set_line_source(boolean line)
+    {
+	line_source_evaluation = line;
+    }
+
+    /**
+     * Returns true if links are evaluated as closed form line sources where it is valid.
+     */
+    public static boolean is_line_source()
+    {
+	return line_source_evaluation;
+    }
+
+    /**
+     * The bound (g/m^3) of the contribution of the link to the static receptor if the link is
+	* beyond its influence radius, or -1 if the link is evaluated (see <code>influence_index</code>).
+     */
+    private double influence_bound = -1.0;
+
+    /**
+     * Leave the link out of the evaluation of the receptor because it can contribute at most
+	* <code>bound</code>, or set the bound to -1 to evaluate the link again.  A pruned link
+	* reports a contribution of 0, no points and the bound as its estimated error.
+     */
+    public void setInfluence_bound(double bound)
+    {
+	influence_bound = bound;
+    }
+
+    /**
+     * Returns the bound of the contribution of a pruned link, or -1 if the link is evaluated.
+     */
+    public double getInfluence_bound()
+    {
+	return influence_bound;
+    }
+
+    /**
+     * The tree that the concentration contribution of the link is found from, or null if the
+	* points are generated for each receptor (see <code>site_description.setSource_tree</code>).
+	* Trees are shared by the copies of a link given to every receptor.
+     */
+    private source_tree source_tree = null;
+
+    /**
+     * The opening angle used with the <code>source_tree</code>.
+     */
+    private double	source_tree_opening_angle = 0.0;
+
+    /**
+     * Find the contribution of the link from a tree of point sources instead of generating the
+	* points for each receptor, or set the tree to null to generate the points again.
+     *
+     * @param opening_angle see <code>source_tree.evaluate</code>.
+     */
+    public void setSource_tree(source_tree tree, double opening_angle)
+    {
+	source_tree = tree;
+	source_tree_opening_angle = opening_angle;
+    }
+
+    /**
+     * Find the contribution of the link to the static receptor from its <code>source_tree</code>.
+     *
+     * @return the number of kernel evaluations.
+     */
+    private int sum_tree_contributions()
+    {
+	run_metrics metrics = run_metrics.enabled ? run_metrics.current() : null;
+	long	    start = (metrics != null) ? System.nanoTime() : 0;
+	double	    wind_angle = disp_param.getWind_angle();
+
+	point_array = null;
+	contribution_sum.reset();
+
+	coordinate  location = getEvaluation_location();
+
+	int evaluations = source_tree.evaluate(location.getX(), location.getY(), location.getZ(),
+					       Math.cos(wind_angle), Math.sin(wind_angle),
+					       source_tree_opening_angle, contribution_sum, metrics);
+
+	total_concentration = contribution_sum.get_sum();
+
+	if (metrics != null)
+	{
+	    metrics.kernel_time += System.nanoTime() - start;
+	}
+
+	return evaluations;
+    }
+
+    /**
+     * Indicates if streamed points are evaluated in the coordinate system of their link, so only
+	* the receptor and the wind angle are rotated (once for each receptor and link) instead of
+	* every point being rotated back to the site coordinate system.  The results equal those in the
+	* site coordinate system to rounding (about 1e-14 relative), so it is off by default and the
+	* default results stay bit for bit those of the site coordinate system.  The parallel evaluation
+	* of the pairs needs it (see <code>parallel_evaluation.is_supported</code>).  Cached point clouds
+	* (see <code>point_cloud_cache</code>) are kept in the site coordinate system, so this is not used
+	* while the cache is on.
+     */
+    private static boolean local_frame = false;
+
+    /**
+     * Turn the evaluation of streamed points in the link coordinate system on or off.  This is a
+	* setting common to all links.
+     */
+    public static void set_local_frame(boolean local)
+    {
+	local_frame = local;
+    }
+
+    /**
+     * Returns true if streamed points are evaluated in the link coordinate system.
+     */
+    public static boolean is_local_frame()
+    {
+	return local_frame;
+    }
+
+    /**
+     * Indicates if link contributions are found by streaming the points into the kernel
+	* when the point array is not needed afterwards.  This is a setting common to all links.
+     */
+    private static boolean stream_points = true;
+
+    /**
+     * Turn the streaming of points on or off for all links.  Streaming gives identical results
+	* while keeping only a small block of points in memory at a time; it is only used when the
+	* point array does not have to be kept (see <code>calculate_link_concentration(boolean)</code>).
+     */
+    public static void set_stream_points(boolean stream)
+    {
+	stream_points = stream;
+    }
+
+    /**
+     * Returns true if points are streamed into the kernel when the point array is not needed.
+     */
+    public static boolean is_stream_points()
+    {
+	return stream_points;
+    }
+
+    /**
+     * Evaluate the link at the point densities of the spacing tables and then refine the density
+	* one direction at a time.  At each level the fetch, cross and vertical spacings are halved in
+	* turn and the change in the contribution from each trial is found.  When the sum of the three
+	* changes is within <code>auto_refine_tolerance</code> of the contribution, or
+	* <code>auto_refine_max_levels</code> levels have been made, the refinement stops; otherwise the
+	* direction with the largest change is kept halved and the next level starts from there.  Only
+	* the dominant direction is refined, so the points double at each level instead of increasing
+	* eightfold.  The finest trial is kept as the link contribution and the sum of the changes is
+	* kept as its <code>estimated_error</code>.  A link that contributes nothing at every trial is
+	* taken as converged.
+     */
+    private void calculate_refined_link_concentration(boolean keep_points)
+    {
+	reset_refinement();
+	points_used = sum_point_contributions(keep_points);
+
+	double	 current = total_concentration;    // contribution at the refinement kept so far
+	double[] trial = new double[3];		   // contribution of each direction trial
+	int[]	 trial_points = new int[3];
+
+	estimated_error = Double.NaN;
+
+	for (int level = 1; level <= auto_refine_max_levels; level++)
+	{
+	    double change = 0.0;    // sum of the changes of the three trials
+	    int	   dominant = 0;    // the direction whose trial changed the contribution the most
+
+	    for (int direction = 0; direction < 3; direction++)
+	    {
+		clear_points();    // release the previous points before the finer array is built
+		scale_refinement(direction, 2.0);
+		trial_points[direction] = sum_point_contributions(false);
+		trial[direction] = total_concentration;
+		scale_refinement(direction, 0.5);
+
+		change += Math.abs(trial[direction] - current);
+
+		if (Math.abs(trial[direction] - current) > Math.abs(trial[dominant] - current))
+		{
+		    dominant = direction;
+		}
+	    }
+
+	    // keep the dominant direction refined
+	    scale_refinement(dominant, 2.0);
+	    current = trial[dominant];
+	    points_used = trial_points[dominant];
+	    estimated_error = change;
+
+	    if (change <= auto_refine_tolerance * Math.abs(current))
+	    {
+		break;    // converged - this includes a link that contributes nothing
+	    }
+	}
+
+	total_concentration = current;
+
+	// the trials were streamed, so the points of the kept refinement are created once more if needed
+	if (keep_points)
+	{
+	    clear_points();
+	    points_used = sum_point_contributions(true);
+	}
+    }
+
+    /**
+     * Indicates if link contributions are found by automatic refinement of the point density.
+	* This is a setting common to all links.  See <code>set_auto_refine</code>.
+     */
+    private static boolean auto_refine = false;
+
+    /**
+     * The relative change in a link contribution between successive point densities
+	* below which the automatic refinement stops.
+     */
+    private static double  auto_refine_tolerance = 1.0E-3;
+
+    /**
+     * The largest number of refinement levels of the automatic refinement.  Each level halves the
+	* spacing in one direction, so the points double at each level.
+     */
+    private static int	   auto_refine_max_levels = 3;
+
+    /**
+     * Turn the automatic point density refinement on or off for all links.  When it is on,
+	* each link contribution is found at the density of the spacing tables and then the spacing
+	* is halved in the fetch, cross or vertical direction, whichever changes the contribution the
+	* most, until the changes are less than the relative <code>tolerance</code> or
+	* <code>max_levels</code> levels have been made (see <code>calculate_link_concentration</code>).
+	* A link evaluated to the last level uses about 2^<code>max_levels</code> times the points of
+	* the spacing tables, and each level costs three trials, so the total work is about
+	* 6 * 2^<code>max_levels</code> table evaluations.  Levels beyond about 8 are rarely useful.
+	* The number of points used and the estimated error of each link contribution are available
+	* from <code>getPoints_used</code> and <code>getEstimated_error</code>.
+     *
+     * @param refine true to refine the point density automatically.
+     * @param tolerance the relative change that indicates a converged contribution (for example 1.0E-3).
+     * @param max_levels the largest number of refinement levels (see above for the cost).
+     */
+    public static void set_auto_refine(boolean refine, double tolerance, int max_levels)
+    {
+	if (tolerance <= 0.0 || max_levels < 1)
+	{
+	    System.err.println("Invalid automatic refinement settings (tolerance = " + tolerance
+			       + ", levels = " + max_levels + ") were specified and will be ignored.");
+	    debugging.exception_handeler();
+
+	    return;
+	}
+
+	auto_refine = refine;
+	auto_refine_tolerance = tolerance;
+	auto_refine_max_levels = max_levels;
+    }
+
+    /**
+     * Returns true if the automatic point density refinement is turned on.
+     */
+    public static boolean is_auto_refine()
+    {
+	return auto_refine;
+    }
+
+    /**
+     * Returns the relative change that indicates a converged contribution in the automatic refinement.
+     */
+    public static double get_auto_refine_tolerance()
+    {
+	return auto_refine_tolerance;
+    }
+
+    /**
+     * Returns the largest number of refinement levels of the automatic refinement.
+     */
+    public static int get_auto_refine_max_levels()
+    {
+	return auto_refine_max_levels;
+    }
+
+    /**
+     * The factors the fetch, cross and vertical point densities of the spacing tables are
+	* multiplied by when the point array is created.  A refinement of 2 halves the spacing in
+	* that direction.
+     */
+    private double fetch_refinement = 1.0;
+    private double cross_refinement = 1.0;
+    private double vertical_refinement = 1.0;
+
+    /**
+     * Returns the largest of the factors the fetch, cross and vertical point densities are
+	* multiplied by when the point array is created.
+     */
+    public double getRefinement()
+    {
+	return Math.max(fetch_refinement, Math.max(cross_refinement, vertical_refinement));
+    }
+
+    /**
+     * Returns the factor the fetch point density is multiplied by when the point array is created.
+     */
+    public double getFetch_refinement()
+    {
+	return fetch_refinement;
+    }
+
+    /**
+     * Returns the factor the cross point density is multiplied by when the point array is created.
+     */
+    public double getCross_refinement()
+    {
+	return cross_refinement;
+    }
+
+    /**
+     * Returns the factor the vertical point density is multiplied by when the point array is created.
+     */
+    public double getVertical_refinement()
+    {
+	return vertical_refinement;
+    }
+
+    /**
+     * Use the point densities of the spacing tables in every direction.
+     */
+    private void reset_refinement()
+    {
+	fetch_refinement = 1.0;
+	cross_refinement = 1.0;
+	vertical_refinement = 1.0;
+    }
+
+    /**
+     * Multiply the refinement of one direction (0 fetch, 1 cross, 2 vertical) by <code>factor</code>.
+     */
+    private void scale_refinement(int direction, double factor)
+    {
+	if (direction == 0)
+	{
+	    fetch_refinement *= factor;
+	}
+	else if (direction == 1)
+	{
+	    cross_refinement *= factor;
+	}
+	else
+	{
+	    vertical_refinement *= factor;
+	}
+    }
+
+    /**
+     * The number of point sources used for the last calculated link contribution.
+     */
+    private int	   points_used = 0;
+
+    /**
+     * Returns the number of point sources used for the last calculated link contribution.
+     */
+    public int getPoints_used()
+    {
+	return points_used;
+    }
+
+    /**
+     * The estimated absolute error (g/m^3) of the last calculated link contribution.  This is
+	* the change of the last refinement level in the automatic refinement mode, the bound of the
+	* contribution for a link left out with <code>setInfluence_bound</code>, and NaN otherwise.
+     */
+    private double estimated_error = Double.NaN;
+
+    /**
+     * Returns the estimated absolute error (g/m^3) of the last calculated link contribution
+	* (see <code>estimated_error</code>).
+     */
+    public double getEstimated_error()
+    {
+	return estimated_error;
     }
 
     /**
@@ -88,6 +1016,18 @@ public abstract class link implements Cloneable
      */
     public abstract void create_point_array();
 
+    /**
+     * Get the line source strength the points of the link are generated with
+	* [(grams of pollutant) / (m-s)].  The link concentration is proportional to it.
+     */
+    public abstract double getLine_strength();
+
+    /**
+     * Set the line source strength the points of the link are generated with
+	* [(grams of pollutant) / (m-s)].
+     */
+    public abstract void setLine_strength(double v);
+
     /**
      * This routine returns the <code>point_array</code> contents
 	* as a 2-d double matrix in a form that facilitates analysis in an external program
@@ -161,6 +1101,32 @@ public abstract class link implements Cloneable
 	return receptor_location;
     }
 
+    /**
+     * The receptor location of this link when several receptors are evaluated at the same time
+	* on different threads, or null to use the static <code>receptor_location</code>
+	* (see <code>parallel_evaluation</code>).
+     */
+    private coordinate	  evaluation_location = null;
+
+    /**
+     * Evaluate this link for a receptor location of its own instead of the static receptor
+	* location, or set the location to null to use the static location again.  Only the link
+	* coordinate system, tree and line source evaluations use this location.
+     */
+    void setEvaluation_location(coordinate location)
+    {
+	evaluation_location = location;
+    }
+
+    /**
+     * Returns the receptor location this link is evaluated for: its own location if one was set
+	* with <code>setEvaluation_location</code>, the static receptor location otherwise.
+     */
+    public coordinate getEvaluation_location()
+    {
+	return (evaluation_location != null) ? evaluation_location : receptor_location;
+    }
+
     /**
      * <code>disp_param</code> holds all the model parameters (such as wind profile constants).
 	* The dispersion parameters are not currently used by the link class in the UCD 2001 model.
@@ -191,44 +1157,82 @@ public abstract class link implements Cloneable
     private point[] point_array;
 
     /**
-	* Returns the number of point sources representing the link.
+	* Returns the number of point sources representing the link: the size of the point array if
+	* it was kept, otherwise the number of points used by the last calculation (the points are
+	* usually streamed and never stored, see <code>calculate_link_concentration</code>).
 	*/
     public int get_number_points()
     {
-    return point_array.length;
+    return (point_array != null) ? point_array.length : points_used;
     }
 
     /**
-     * Represents the length of the link along the centerline based on the
-	* <code>start_location</code> and <code>end_location</code> coordinates.
-	* This member is private and can only be determined by the
-	*  <code>determine_link_geometry</code> routine.
-     */
-    private double  link_length;
-
-     /**
-     * Represents the angle that the link makes with the x-axis based on the
-	* <code>start_location</code> and <code>end_location</code> coordinates.
-	* This member is private and can only be determined by the
-	*  <code>determine_link_geometry</code> routine.
+     * The <code>geometry</code> member stores the link length, angle, direction and corners
+	* based on the <code>start_location</code>, <code>end_location</code>, and <code>width</code>.
+	* It is built by the <code>determine_link_geometry</code> routine and can not be modified,
+	* so copies of a link made for each receptor share a single geometry object.
      */
-     double	    link_angle;
+    private link_geometry geometry;
 
     /**
      * Determines the link length and angle based on the
 	* <code>start_location</code> and <code>end_location</code> coordinates.
+	* A new <code>link_geometry</code> object is created each time this routine is called.
      */
     public void determine_link_geometry()
     {
-	coordinate temp_coord;    // temporary coordinate to make calculations clearer
+	geometry = new link_geometry(start_location, end_location, width);
+    }
+
+    /**
+     * Returns the precomputed geometry of the link.  The geometry is determined
+	* if the end points or width have changed since it was last found.
+     */
+    public link_geometry getGeometry()
+    {
+	if (geometry == null)
+	{
+	    determine_link_geometry();
+	}
 
-	temp_coord = new coordinate(end_location);    // temp_coord is a copy of the end point location
+	return geometry;
+    }
+
+    /**
+     * The point spacing settings used to create the point array of the link.  If this is null
+	* the default profile of <code>highway_point_spacing.get_default_profile</code> is used.
+	* Profiles can not be changed, so copies of a link share the profile of the original.
+     */
+    private spacing_profile spacing_profile = null;
+
+    /**
+     * Get the point spacing settings of the link (null if the default profile is used).
+     */
+    public spacing_profile getSpacing_profile()
+    {
+	return spacing_profile;
+    }
 
-	// offset the location so that start of link is at the origin
-	temp_coord.subtract(start_location);
+    /**
+     * Set the point spacing settings of the link.  Use null to return to the default profile.
+     */
+    public void setSpacing_profile(spacing_profile v)
+    {
+	this.spacing_profile = v;
+    }
 
-	link_length = temp_coord.horizontal_norm();    // determine length of link
-	link_angle = temp_coord.horizontal_angle();    // find angle link makes in radians
+    /**
+     * Make the calling link share the end points, width, and geometry of another link.
+	* This is used when a link is cloned so that the geometry is not recalculated for
+	* every copy.  The coordinates are not copied; they are only replaced (never
+	* modified) by the set routines and the get routines return copies, so sharing them is safe.
+     */
+    void share_geometry(link source)
+    {
+	this.start_location = source.start_location;
+	this.end_location = source.end_location;
+	this.width = source.width;
+	this.geometry = source.getGeometry();
     }
 
     /**
@@ -237,27 +1241,7 @@ public abstract class link implements Cloneable
      */
     public coordinate[] getCorners()
     {
-	coordinate[] corners = new coordinate[4];
-	// this coordinate will be added and subtracted from the start and end points to find the link corners
-	coordinate   offset = new coordinate();
-	// find angle that is perpendicular to the link centerline
-	double       perp_angle = link_angle + 90. * constants.DEGREES_TO_RADIANS;
-
-	offset.set_all(Math.cos(perp_angle), Math.sin(perp_angle), 0.0);    // make a unit vector
-	offset.multiply(width / 2.0);					    // extend the unit vector half the width of the link
-
-	corners[0] = new coordinate(start_location);    // initialize the corner points
-	corners[1] = new coordinate(end_location);
-	corners[2] = new coordinate(end_location);
-	corners[3] = new coordinate(start_location);
-
-	corners[0].add(offset);			     // add the offset to the begin and end points
-	corners[1].add(offset);
-	offset.horizontal_rotation(constants.PI);    // rotate the offset around 180 degrees
-	corners[2].add(offset);			     // add the offset to the begin and end points
-	corners[3].add(offset);
-
-	return corners;
+	return getGeometry().getCorners();
     }
 
     /**
@@ -282,7 +1266,7 @@ public abstract class link implements Cloneable
      */
     public double getLink_length()
     {
-	return link_length;
+	return getGeometry().getLength();
     }
 
     /**
@@ -290,17 +1274,18 @@ public abstract class link implements Cloneable
      */
     public double getLink_angle()
     {
-	return link_angle;
+	return getGeometry().getAngle();
     }
     /* -----------------------------Get-Set Pairs--------------------------------- */
 
     /**
-     * Get the value of start_location.
+     * Get a copy of the value of start_location (the coordinate is shared by the copies of the link,
+	* see <code>share_geometry</code>).
      * @return value of start_location.
      */
     public coordinate getStart_location()
     {
-	return start_location;
+	return new coordinate(start_location);
     }
 
     /**
@@ -310,15 +1295,17 @@ public abstract class link implements Cloneable
     public void setStart_location(coordinate v)
     {
 	this.start_location = new coordinate(v);    // make a copy of the coordinate
+	this.geometry = null;			    // geometry has to be determined again
     }
 
     /**
-     * Get the value of end_location.
+     * Get a copy of the value of end_location (the coordinate is shared by the copies of the link,
+	* see <code>share_geometry</code>).
      * @return value of end_location.
      */
     public coordinate getEnd_location()
     {
-	return end_location;
+	return new coordinate(end_location);
     }
 
     /**
@@ -328,6 +1315,7 @@ public abstract class link implements Cloneable
     public void setEnd_location(coordinate v)
     {
 	this.end_location = new coordinate(v);
+	this.geometry = null;    // geometry has to be determined again
     }
 
     /**
@@ -346,6 +1334,7 @@ public abstract class link implements Cloneable
     public void setWidth(double v)
     {
 	this.width = v;
+	this.geometry = null;    // corners have to be determined again
     }
 
     /**
@@ -0,0 +1,314 @@
+package roadway_dispersion;
+
+/**
+ * <b>Overview</b><br>
+ * The <code>link_geometry</code> class stores the geometric properties of a roadway link
+ * that do not depend on the receptor or the meteorology.  The link length, angle,
+ * unit direction and normal vectors, corner coordinates, and the rotation that places the
+ * link on the y-axis are all found once when the object is created.
+ * <br>
+ * A <code>link_geometry</code> object can not be changed once it has been created.  This allows
+ * a single geometry object to be referenced by every copy of a link that a site hands out to its
+ * receptors (see <code>receptor.addLinkCopy</code>) instead of each copy rebuilding its coordinates
+ * and recalculating its length and angle.  If the end points or width of a link change, the link
+ * builds a new geometry object rather than modifying the old one.
+ *
+ * <br><br>
+ * <b>Notes:</b><br>
+ * All units in metric (MKS) unless otherwise stated.   <br>
+ * Angles use the standard geometric orientation (positive x axis is 0 and angles are
+ * measured counter-clockwise).
+ *
+ * @see link
+ * @see highway_point_spacing
+ */
+
+public final class link_geometry
+{
+    /**
+     * The centerpoint of the start of the roadway link.
+     */
+    private final coordinate start_location;
+
+    /**
+     * The centerpoint of the end of the roadway link.
+     */
+    private final coordinate end_location;
+
+    /**
+     * The width of the traveled way (meters).
+     */
+    private final double     width;
+
+    /**
+     * The length of the link along the centerline (meters).
+     */
+    private final double     length;
+
+    /**
+     * The angle that the link makes with the x-axis in radians (0 to 2 pi).
+     */
+    private final double     angle;
+
+    /**
+     * Members <code>unit_x, unit_y</code> are the components of the unit vector pointing
+     * from the start of the link to the end of the link.
+     */
+    private final double     unit_x;
+
+    /**
+     * Members <code>unit_x, unit_y</code> are the components of the unit vector pointing
+     * from the start of the link to the end of the link.
+     */
+    private final double     unit_y;
+
+    /**
+     * Members <code>normal_x, normal_y</code> are the components of the unit vector normal to the
+     * link centerline, 90 degrees counter-clockwise from the link direction.
+     */
+    private final double     normal_x;
+
+    /**
+     * Members <code>normal_x, normal_y</code> are the components of the unit vector normal to the
+     * link centerline, 90 degrees counter-clockwise from the link direction.
+     */
+    private final double     normal_y;
+
+    /**
+     * The four corners of the traveled way in the same order as <code>link.getCorners</code>.
+     */
+    private final coordinate[] corners;
+
+    /**
+     * The angle in radians that the coordinate system has to be rotated so that the link
+     * is parallel to the y-axis (pi/2 minus the link angle).
+     */
+    private final double     rotation_angle;
+
+    /**
+     * Cosine of <code>rotation_angle</code>.
+     */
+    private final double     cos_rotation;
+
+    /**
+     * Sine of <code>rotation_angle</code>.
+     */
+    private final double     sin_rotation;
+
+    /**
+     * Creates a new <code>link_geometry</code> instance from the link end points and width.
+     * Copies of the end point coordinates are stored so later changes to the arguments
+     * will not affect the geometry.
+     *
+     * @param start_location a <code>coordinate</code> value representing the begining of the link.
+     * @param end_location a <code>coordinate</code> value representing the end of the link.
+     * @param width a <code>double</code> value representing the width of the traveled way.
+     */
+    public link_geometry(coordinate start_location, coordinate end_location, double width)
+    {
+	this.start_location = new coordinate(start_location);
+	this.end_location = new coordinate(end_location);
+	this.width = width;
+
+	// offset the end point so that start of link is at the origin
+	coordinate temp_coord = new coordinate(end_location);
+
+	temp_coord.subtract(start_location);
+
+	length = temp_coord.horizontal_norm();    // determine length of link
+	angle = temp_coord.horizontal_angle();    // find angle link makes in radians
+
+	// a zero length link has no direction so treat it as if it lies along the x-axis
+	// which is the same angle horizontal_angle returns for a zero length vector
+	if (length > 0.0)
+	{
+	    unit_x = temp_coord.getX() / length;
+	    unit_y = temp_coord.getY() / length;
+	}
+	else
+	{
+	    unit_x = 1.0;
+	    unit_y = 0.0;
+	}
+
+	// the normal is the unit vector rotated 90 degrees counter-clockwise
+	normal_x = -unit_y;
+	normal_y = unit_x;
+
+	// rotating by pi/2 - angle puts the link on the y-axis
+	// cos(pi/2 - angle) = sin(angle) and sin(pi/2 - angle) = cos(angle)
+	rotation_angle = constants.PI / 2 - angle;
+	cos_rotation = unit_y;
+	sin_rotation = unit_x;
+
+	// extend the normal half the width of the link to find the corners
+	coordinate offset = new coordinate(normal_x * width / 2.0, normal_y * width / 2.0, 0.0);
+
+	corners = new coordinate[4];
+	corners[0] = new coordinate(start_location);    // initialize the corner points
+	corners[1] = new coordinate(end_location);
+	corners[2] = new coordinate(end_location);
+	corners[3] = new coordinate(start_location);
+
+	corners[0].add(offset);			   // add the offset to the begin and end points
+	corners[1].add(offset);
+	corners[2].subtract(offset);		   // subtract the offset for the other side of the link
+	corners[3].subtract(offset);
+    }
+
+    /**
+     * Get a copy of the start location of the link.
+     */
+    public coordinate getStart_location()
+    {
+	return new coordinate(start_location);
+    }
+
+    /**
+     * Get a copy of the end location of the link.
+     */
+    public coordinate getEnd_location()
+    {
+	return new coordinate(end_location);
+    }
+
+    /**
+     * Get the coordinates of the start and end locations of the link without copying them
+	* (for loops that only need the numbers).
+     */
+    public double getStart_x()
+    {
+	return start_location.getX();
+    }
+
+    public double getStart_y()
+    {
+	return start_location.getY();
+    }
+
+    public double getStart_z()
+    {
+	return start_location.getZ();
+    }
+
+    public double getEnd_x()
+    {
+	return end_location.getX();
+    }
+
+    public double getEnd_y()
+    {
+	return end_location.getY();
+    }
+
+    public double getEnd_z()
+    {
+	return end_location.getZ();
+    }
+
+    /**
+     * Get the width of the traveled way.
+     */
+    public double getWidth()
+    {
+	return width;
+    }
+
+    /**
+     * Get the length of the link along the centerline.
+     */
+    public double getLength()
+    {
+	return length;
+    }
+
+    /**
+     * Get the angle the link makes with the x-axis in radians.
+     */
+    public double getAngle()
+    {
+	return angle;
+    }
+
+    /**
+     * Get the x component of the unit vector along the link.
+     */
+    public double getUnit_x()
+    {
+	return unit_x;
+    }
+
+    /**
+     * Get the y component of the unit vector along the link.
+     */
+    public double getUnit_y()
+    {
+	return unit_y;
+    }
+
+    /**
+     * Get the x component of the unit vector normal to the link.
+     */
+    public double getNormal_x()
+    {
+	return normal_x;
+    }
+
+    /**
+     * Get the y component of the unit vector normal to the link.
+     */
+    public double getNormal_y()
+    {
+	return normal_y;
+    }
+
+    /**
+     * Get copies of the four corners of the traveled way.
+     */
+    public coordinate[] getCorners()
+    {
+	coordinate[] return_corners = new coordinate[4];
+
+	for (int i = 0; i < 4; i++)
+	{
+	    return_corners[i] = new coordinate(corners[i]);
+	}
+
+	return return_corners;
+    }
+
+    /**
+     * Get the angle in radians that places the link parallel to the y-axis.
+     */
+    public double getRotation_angle()
+    {
+	return rotation_angle;
+    }
+
+    /**
+     * Get the cosine of the rotation angle that places the link parallel to the y-axis.
+     */
+    public double getCos_rotation()
+    {
+	return cos_rotation;
+    }
+
+    /**
+     * Get the sine of the rotation angle that places the link parallel to the y-axis.
+     */
+    public double getSin_rotation()
+    {
+	return sin_rotation;
+    }
+
+    /**
+     * This routine is only used for debuggin purposes.  It returns the geometry as a string.
+     */
+    public String toString()
+    {
+	return "\nLink Geometry" + "\nBegin Point " + start_location + "\nEnd Point " + end_location
+	       + "\nWidth " + width + "\nLength " + length + "\nAngle " + angle
+	       + "\nUnit Vector (" + unit_x + ", " + unit_y + ")" + "\nNormal Vector (" + normal_x + ", "
+	       + normal_y + ")" + "\nRotation Angle " + rotation_angle;
+    }
+}
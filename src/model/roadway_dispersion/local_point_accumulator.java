@@ -0,0 +1,32 @@
+package roadway_dispersion;
+
+/**
+ * <b>Overview</b><br>
+ * A <code>local_point_accumulator</code> receives the point sources of a link in the coordinate
+ * system the points are generated in, where the link lies on the y-axis and the receptor on the
+ * x-axis (see <code>highway_point_spacing.stream_local_points</code>).  The receptor and the wind
+ * angle are given in the same coordinate system once, before the first block of points, so the
+ * points never have to be rotated back to the site coordinate system.
+ *
+ * <br><br>
+ * <b>Notes:</b><br>
+ * All units in metric (MKS) unless otherwise stated.   <br>
+ * Distances and angles are unchanged by the rotation, so the contribution of a point found in the
+ * link coordinate system equals the one found in the site coordinate system to rounding.
+ *
+ * @see point_accumulator
+ * @see highway_point_spacing
+ */
+
+public interface local_point_accumulator extends point_accumulator
+{
+    /**
+     * Receive the receptor location and the wind angle in the link coordinate system.
+     *
+     * @param receptor_x the x coordinate of the receptor.
+     * @param receptor_y the y coordinate of the receptor.
+     * @param receptor_z the elevation of the receptor.
+     * @param wind_angle the wind angle in radians (as <code>dispersion.getWind_angle</code>).
+     */
+    public void set_frame(double receptor_x, double receptor_y, double receptor_z, double wind_angle);
+}
@@ -0,0 +1,250 @@
+package roadway_dispersion;
+
+import utilities.*;    // access to the debugging routines
+
+/**
+ * <b>Overview</b><br>
+ * The <code>pairwise_sum</code> class adds a sequence of concentration contributions with
+ * blocked pairwise summation.  The values are split into blocks of <code>BLOCK_SIZE</code>
+ * values, each block is added with compensated (Kahan-Babuska) summation, and the block sums
+ * are combined with a binary tree whose shape depends only on the number of blocks.
+ * <br>
+ * The contributions of a link can span many orders of magnitude, and adding them one at a time to
+ * a single <code>double</code> loses the small contributions and makes the total depend on the
+ * order the work was done in.  With a <code>pairwise_sum</code> the rounding error grows with the
+ * logarithm of the number of values rather than the number itself, and because the blocks and the
+ * reduction tree are fixed by the position of each value in the sequence, the total is the same
+ * bit for bit however the block sums were found.  A parallel evaluation that finds the sum of
+ * each block separately (with <code>block_sum</code>) and passes the block sums to
+ * <code>add_block_sum</code> in block order gets exactly the same total as a serial evaluation
+ * that passes every value to <code>add</code>.
+ *
+ * <br><br>
+ * <b>Notes:</b><br>
+ * The reduction tree is built incrementally like a binary counter, so only about
+ * log2(number of blocks) partial sums are stored at any time.
+ *
+ * @see link
+ * @see receptor
+ */
+
+public class pairwise_sum
+{
+    /**
+     * The number of values added with compensated summation before the block sum is
+	* passed to the reduction tree.
+     */
+    public static final int BLOCK_SIZE = 256;
+
+    /**
+     * Running sum and compensation of the current block.
+     */
+    private double	    block_total = 0.0;
+    private double	    block_compensation = 0.0;
+
+    /**
+     * The number of values in the current block.
+     */
+    private int		    block_count = 0;
+
+    /**
+     * Partial sums of the reduction tree.  <code>partial_sums[i]</code> covers
+	* 2^<code>partial_levels[i]</code> blocks and the levels decrease from the bottom of the stack.
+     */
+    private double[]	    partial_sums = new double[64];
+    private int[]	    partial_levels = new int[64];
+    private int		    partials = 0;
+
+    /**
+     * Creates a new <code>pairwise_sum</code> with a total of zero.
+     */
+    public pairwise_sum() {}
+
+    /**
+     * Remove every value from the sum.
+     */
+    public void reset()
+    {
+	block_total = 0.0;
+	block_compensation = 0.0;
+	block_count = 0;
+	partials = 0;
+    }
+
+    /**
+     * Add the next value of the sequence.
+     */
+    public void add(double value)
+    {
+	// Kahan-Babuska compensated summation within the block
+	double t = block_total + value;
+
+	if (Math.abs(block_total) >= Math.abs(value))
+	{
+	    block_compensation += (block_total - t) + value;
+	}
+	else
+	{
+	    block_compensation += (value - t) + block_total;
+	}
+
+	block_total = t;
+	block_count++;
+
+	if (block_count == BLOCK_SIZE)
+	{
+	    push(block_total + block_compensation);
+	    block_total = 0.0;
+	    block_compensation = 0.0;
+	    block_count = 0;
+	}
+    }
+
+    /**
+     * Add a complete block of <code>BLOCK_SIZE</code> values whose sum was found with
+	* <code>block_sum</code>.  This may only be used when no values of a partial block have
+	* been added with <code>add</code>.
+     */
+    public void add_block_sum(double block_sum)
+    {
+	if (block_count != 0)
+	{
+	    System.err.println("A block sum can not be added to a pairwise sum with a partial block");
+	    debugging.exception_handeler();
+	}
+
+	push(block_sum);
+    }
+
+    /**
+     * Find the sum of <code>count</code> values starting at <code>start</code> exactly as
+	* <code>add</code> finds the sum of a block.  <code>count</code> should be
+	* <code>BLOCK_SIZE</code> except for the last block of a sequence.
+     */
+    public static double block_sum(double[] values, int start, int count)
+    {
+	double total = 0.0;
+	double compensation = 0.0;
+
+	for (int i = start; i < start + count; i++)
+	{
+	    double t = total + values[i];
+
+	    if (Math.abs(total) >= Math.abs(values[i]))
+	    {
+		compensation += (total - t) + values[i];
+	    }
+	    else
+	    {
+		compensation += (values[i] - t) + total;
+	    }
+
+	    total = t;
+	}
+
+	return total + compensation;
+    }
+
+    /**
+     * Place a block sum on the reduction tree, combining equal sized subtrees.
+     */
+    private void push(double block_sum)
+    {
+	double sum = block_sum;
+	int    level = 0;
+
+	while (partials > 0 && partial_levels[partials - 1] == level)
+	{
+	    partials--;
+	    sum = partial_sums[partials] + sum;    // earlier blocks are always on the left
+	    level++;
+	}
+
+	partial_sums[partials] = sum;
+	partial_levels[partials] = level;
+	partials++;
+    }
+
+    /**
+     * Return the sum of every value added so far.  The sum can be found at any time and
+	* more values can be added afterwards.
+     */
+    public double get_sum()
+    {
+	double sum;
+	int    i;
+
+	if (block_count > 0)	    // the partial block is the right most subtree
+	{
+	    sum = block_total + block_compensation;
+	    i = partials - 1;
+	}
+	else if (partials > 0)
+	{
+	    sum = partial_sums[partials - 1];
+	    i = partials - 2;
+	}
+	else
+	{
+	    return 0.0;
+	}
+
+	for (; i >= 0; i--)
+	{
+	    sum = partial_sums[i] + sum;
+	}
+
+	return sum;
+    }
+
+    /**
+     * Find the blocked pairwise sum of an array of values.
+     */
+    public static double sum(double[] values, int count)
+    {
+	pairwise_sum total = new pairwise_sum();
+
+	for (int start = 0; start < count; start += BLOCK_SIZE)
+	{
+	    int block = Math.min(BLOCK_SIZE, count - start);
+
+	    if (block == BLOCK_SIZE)
+	    {
+		total.add_block_sum(block_sum(values, start, block));
+	    }
+	    else
+	    {
+		for (int i = start; i < start + block; i++)
+		{
+		    total.add(values[i]);
+		}
+	    }
+	}
+
+	return total.get_sum();
+    }
+
+    /**
+     * main is only used for debugging.  It compares the pairwise sum of values spanning many
+	* orders of magnitude with the plain sum and with the sum of the blocks found separately.
+     */
+    public static void main(String[] args)
+    {
+	int	 count = 100003;
+	double[] values = new double[count];
+	double	 plain = 0.0;
+	pairwise_sum serial = new pairwise_sum();
+
+	for (int i = 0; i < count; i++)
+	{
+	    values[i] = Math.pow(10.0, -(i % 17)) / 3.0;
+	    plain += values[i];
+	    serial.add(values[i]);
+	}
+
+	System.out.println("plain sum          = " + plain);
+	System.out.println("pairwise sum       = " + serial.get_sum());
+	System.out.println("sum of block sums  = " + sum(values, count));
+	System.out.println("identical          = " + (serial.get_sum() == sum(values, count)));
+    }
+}
@@ -0,0 +1,540 @@
+package roadway_dispersion;
+
+import java.util.*;		    // access to the vector class
+import java.util.concurrent.*;	    // access to the fork-join pool and tasks
+
+/**
+ * <b>Overview</b><br>
+ * The <code>parallel_evaluation</code> class finds the contributions of the links of a group of
+ * receptors on several threads.  Each receptor and link copy is a pair, and the work of a pair is
+ * estimated before anything is evaluated from the number of points its spacing profile places for
+ * the receptor (see <code>link.estimate_points</code>), which costs the counting pass of the point
+ * generation only.  The pairs are then split with a fork-join pool, so idle threads steal the
+ * remaining work of busy ones, at three levels:
+ * <ul>
+ * <li>a range of pairs is split in two halves of equal estimated work, at a receptor boundary if
+ *     the range holds more than one receptor, so many receptors with short links are shared out
+ *     a few receptors at a time</li>
+ * <li>within a receptor the range is split between its links, so a receptor next to a few large
+ *     links does not hold up the run</li>
+ * <li>a single link with more work than a task should hold is streamed by the thread that owns it
+ *     and each block of points is evaluated as a task of its own, so one long link is shared by
+ *     every thread</li>
+ * </ul>
+ * A range is not split further once it holds less than <code>MIN_TASK_POINTS</code> points or
+ * the share of <code>TASKS_PER_THREAD</code> tasks per thread, whichever is larger.
+ * <br>
+ * The results do not depend on the number of threads or on which thread evaluated what.  The
+ * block tasks of a link keep the sum of each <code>pairwise_sum.BLOCK_SIZE</code> values, and the
+ * sums are combined in the order the blocks were generated exactly as the link would have added
+ * its points one at a time.  The link contributions are added to each receptor in link order once
+ * every task has finished (see <code>receptor.record_link_results</code>).
+ *
+ * <br><br>
+ * <b>Notes:</b><br>
+ * All units in metric (MKS) unless otherwise stated.   <br>
+ * The links of a pair are evaluated for their own receptor location (see
+ * <code>link.setEvaluation_location</code>), so only the link coordinate system, tree and line
+ * source evaluations can run in parallel.  Links whose points can not be counted are evaluated
+ * one at a time on the calling thread after the parallel pairs.  The time of each link and the
+ * bytes allocated while generating and evaluating its points are recorded in the run metrics,
+ * but the time of each receptor is not.  The allocation is measured around work that does not
+ * join other tasks, so a worker that runs a stolen task while it waits does not count it twice.
+ *
+ * @see site_description
+ * @see pairwise_sum
+ */
+
+public final class parallel_evaluation
+{
+    /**
+     * The smallest number of points a task is split into.
+     */
+    public static final int MIN_TASK_POINTS = 4096;
+
+    /**
+     * The number of tasks a run is split into for each thread, so threads that finish early can
+	* steal work from the others.
+     */
+    public static final int TASKS_PER_THREAD = 8;
+
+    /**
+     * The number of pairs the point counts are estimated for in one task.
+     */
+    private static final int ESTIMATE_PAIRS = 16;
+
+    /**
+     * The pool of the last run, kept for the next run with the same number of threads.
+     */
+    private static ForkJoinPool pool = null;
+
+    /**
+     * The pairs of the run: the link copy, its receptor, its index in the receptor, and the first
+	* pair of each receptor (one more entry than receptors).
+     */
+    private final link[]     pair_links;
+    private final receptor[] pair_receptors;
+    private final int[]	     pair_index;
+    private final int[]	     receptor_start;
+
+    /**
+     * The estimated points of the pairs before each pair (one more entry than pairs), and the
+	* number of points a task must hold to be split.
+     */
+    private final long[]     work_before;
+    private long	     grain;
+
+    /**
+     * Find the pairs of a group of receptors that already hold their link copies.
+     */
+    private parallel_evaluation(Vector<?> receptors)
+    {
+	receptor_start = new int[receptors.size() + 1];
+
+	for (int i = 0; i < receptors.size(); i++)
+	{
+	    receptor_start[i + 1] = receptor_start[i] + ((receptor) receptors.elementAt(i)).known_links();
+	}
+
+	int pairs = receptor_start[receptors.size()];
+
+	pair_links = new link[pairs];
+	pair_receptors = new receptor[pairs];
+	pair_index = new int[pairs];
+	work_before = new long[pairs + 1];
+
+	for (int i = 0; i < receptors.size(); i++)
+	{
+	    receptor current_receptor = (receptor) receptors.elementAt(i);
+
+	    for (int j = 0; j < current_receptor.known_links(); j++)
+	    {
+		int p = receptor_start[i] + j;
+
+		pair_links[p] = current_receptor.getLink(j);
+		pair_receptors[p] = current_receptor;
+		pair_index[p] = j;
+		pair_links[p].setEvaluation_location(current_receptor.getLocation());
+	    }
+	}
+    }
+
+    /**
+     * Returns true if the link settings let the pairs be evaluated in parallel: the points must be
+	* streamed in the link coordinate system, and the point cloud cache must be off since its
+	* points are kept in the site coordinate system.
+     */
+    public static boolean is_supported()
+    {
+	return link.is_stream_points() && link.is_local_frame() && !point_cloud_cache.is_enabled();
+    }
+
+    /**
+     * Find the contribution of every link to every receptor of a group on <code>threads</code>
+	* threads.  The receptors must hold their link copies (see <code>receptor.addLinkCopy</code>),
+	* and the results are those of <code>receptor.calculate_concentration(false)</code>.
+     *
+     * @param receptors the receptors of the group.
+     * @param threads the number of threads to use.
+     */
+    static void evaluate(Vector<?> receptors, int threads)
+    {
+	parallel_evaluation run = new parallel_evaluation(receptors);
+	ForkJoinPool	    workers = find_pool(threads);
+	int		    pairs = run.pair_links.length;
+
+	// the estimates are found in parallel as well since counting costs about as much as a short link
+	long[] estimates = new long[pairs];
+
+	workers.invoke(run.new estimate_task(estimates, 0, pairs));
+
+	boolean[] serial = new boolean[pairs];
+
+	for (int p = 0; p < pairs; p++)
+	{
+	    // a link type that can not count its points can not stream them in its own coordinate system
+	    serial[p] = estimates[p] < 0;
+
+	    // every pair costs something, even a pruned one
+	    run.work_before[p + 1] = run.work_before[p] + (serial[p] ? 0 : Math.max(1, estimates[p]));
+	}
+
+	run.grain = Math.max(MIN_TASK_POINTS, run.work_before[pairs] / ((long) threads * TASKS_PER_THREAD));
+
+	if (run.work_before[pairs] > 0)
+	{
+	    workers.invoke(run.new pair_task(0, pairs, serial));
+	}
+
+	// the links that use the static receptor location are evaluated here, one receptor at a time
+	for (int p = 0; p < pairs; p++)
+	{
+	    if (serial[p])
+	    {
+		link.setReceptor_location(run.pair_receptors[p].getLocation());
+		point.setReceptor_location(run.pair_receptors[p].getLocation());
+		run.pair_links[p].setEvaluation_location(null);
+		run.evaluate_pair(p, false);
+	    }
+	}
+
+	// the contributions are added to each receptor in link order
+	for (int i = 0; i < receptors.size(); i++)
+	{
+	    ((receptor) receptors.elementAt(i)).record_link_results();
+	}
+    }
+
+    /**
+     * Returns the pool for a number of threads, replacing the pool of an earlier run that used
+	* another number of threads.  The pool threads are daemon threads.
+     */
+    private static synchronized ForkJoinPool find_pool(int threads)
+    {
+	if (pool == null || pool.getParallelism() != threads)
+	{
+	    if (pool != null)
+	    {
+		pool.shutdown();
+	    }
+
+	    pool = new ForkJoinPool(threads);
+	}
+
+	return pool;
+    }
+
+    /**
+     * Evaluate a pair, splitting the points of its link into block tasks if <code>split</code> is true.
+     */
+    private void evaluate_pair(int p, boolean split)
+    {
+	link			   current_link = pair_links[p];
+	run_metrics		   metrics = run_metrics.enabled ? run_metrics.current() : null;
+	long			   start = (metrics != null) ? System.nanoTime() : 0;
+	run_events.link_evaluation link_event = new run_events.link_evaluation();
+
+	link_event.begin();
+
+	if (split)
+	{
+	    evaluate_blocks(current_link, metrics);
+	}
+	else
+	{
+	    long allocated_before = (metrics != null) ? run_metrics.thread_allocated_bytes() : 0;
+
+	    current_link.calculate_link_concentration(false);
+
+	    if (metrics != null)
+	    {
+		metrics.add_allocation(allocated_before, run_metrics.thread_allocated_bytes());
+	    }
+	}
+
+	link_event.end();
+
+	if (link_event.shouldCommit())
+	{
+	    link_event.receptor = pair_receptors[p].naming.getName();
+	    link_event.link = pair_receptors[p].getLink_name(pair_index[p]);
+	    link_event.points = current_link.getPoints_used();
+	    link_event.commit();
+	}
+
+	if (metrics != null)
+	{
+	    metrics.add_link_time(pair_receptors[p].getLink_name(pair_index[p]), System.nanoTime() - start);
+	    metrics.links_evaluated++;
+	}
+    }
+
+    /**
+     * Stream the points of a link and evaluate each block as a task of its own.  The block sums are
+	* combined in the order the blocks were generated, with the values of the last partial block
+	* added one at a time, as the link itself adds them (see <code>pairwise_sum</code>).
+     */
+    private static void evaluate_blocks(link current_link, final run_metrics metrics)
+    {
+	final Vector<block_task> blocks = new Vector<block_task>();
+	final double[]		 frame = new double[5];    // the receptor and the cosine and sine of the wind
+	long			 start = (metrics != null) ? System.nanoTime() : 0;
+	long			 allocated_before = (metrics != null) ? run_metrics.thread_allocated_bytes() : 0;
+
+	int points = current_link.stream_local_point_array(new local_point_accumulator()
+	{
+	    public void set_frame(double x, double y, double z, double wind_angle)
+	    {
+		frame[0] = x;
+		frame[1] = y;
+		frame[2] = z;
+		frame[3] = Math.cos(wind_angle);
+		frame[4] = Math.sin(wind_angle);
+	    }
+
+	    public void accumulate(double[] x, double[] y, double[] z, double[] source_strength, int count)
+	    {
+		// the block arrays are reused by the generator so the task keeps copies
+		block_task task = new block_task(x, y, z, source_strength, count, frame);
+
+		task.fork();
+		blocks.add(task);
+	    }
+	});
+
+	if (metrics != null)
+	{
+	    // the blocks are evaluated by other threads while the points are generated
+	    metrics.generation_time += System.nanoTime() - start;
+	    metrics.points_generated += points;
+	    metrics.add_allocation(allocated_before, run_metrics.thread_allocated_bytes());
+	}
+
+	pairwise_sum sum = new pairwise_sum();
+
+	for (int b = 0; b < blocks.size(); b++)
+	{
+	    block_task task = blocks.elementAt(b);
+
+	    task.join();
+
+	    for (int k = 0; k < task.block_sums.length; k++)
+	    {
+		sum.add_block_sum(task.block_sums[k]);
+	    }
+
+	    for (int k = 0; k < task.tail.length; k++)
+	    {
+		sum.add(task.tail[k]);
+	    }
+	}
+
+	current_link.set_streamed_contribution(sum.get_sum(), points);
+    }
+
+    /**
+     * Find the point counts of the pairs [first, last).
+     */
+    private final class estimate_task extends RecursiveAction
+    {
+	private static final long serialVersionUID = 1L;
+
+	private final long[] estimates;
+	private final int    first, last;
+
+	estimate_task(long[] estimates, int first, int last)
+	{
+	    this.estimates = estimates;
+	    this.first = first;
+	    this.last = last;
+	}
+
+	protected void compute()
+	{
+	    if (last - first > ESTIMATE_PAIRS)
+	    {
+		int middle = (first + last) >>> 1;
+
+		invokeAll(new estimate_task(estimates, first, middle), new estimate_task(estimates, middle, last));
+
+		return;
+	    }
+
+	    for (int p = first; p < last; p++)
+	    {
+		estimates[p] = pair_links[p].estimate_points();
+	    }
+	}
+    }
+
+    /**
+     * Evaluate the pairs [first, last), splitting them while they hold more than <code>grain</code> points.
+     */
+    private final class pair_task extends RecursiveAction
+    {
+	private static final long serialVersionUID = 1L;
+
+	private final int	first, last;
+	private final boolean[] serial;
+
+	pair_task(int first, int last, boolean[] serial)
+	{
+	    this.first = first;
+	    this.last = last;
+	    this.serial = serial;
+	}
+
+	protected void compute()
+	{
+	    long work = work_before[last] - work_before[first];
+
+	    if (last - first == 1)
+	    {
+		if (!serial[first])
+		{
+		    evaluate_pair(first, work > grain && pair_links[first].is_streamed_once());
+		}
+
+		return;
+	    }
+
+	    if (work <= grain)
+	    {
+		for (int p = first; p < last; p++)
+		{
+		    if (!serial[p])
+		    {
+			evaluate_pair(p, false);
+		    }
+		}
+
+		return;
+	    }
+
+	    int middle = split_point();
+
+	    invokeAll(new pair_task(first, middle, serial), new pair_task(middle, last, serial));
+	}
+
+	/**
+	 * Find the pair that splits the range into two halves of equal work, moved to the nearest
+	    * receptor boundary if the range holds more than one receptor.
+	 */
+	private int split_point()
+	{
+	    long target = work_before[first] + (work_before[last] - work_before[first]) / 2;
+	    int	 lower = first + 1;
+	    int	 upper = last - 1;
+
+	    // the first pair whose preceding work reaches the target
+	    while (lower < upper)
+	    {
+		int middle = (lower + upper) >>> 1;
+
+		if (work_before[middle] < target)
+		{
+		    lower = middle + 1;
+		}
+		else
+		{
+		    upper = middle;
+		}
+	    }
+
+	    int split = lower;
+	    int first_receptor = receptor_of(first);
+	    int last_receptor = receptor_of(last - 1);
+
+	    if (first_receptor == last_receptor)
+	    {
+		return split;
+	    }
+
+	    // the receptor boundaries on either side of the split, within the range
+	    int below = Math.max(receptor_start[receptor_of(split)], receptor_start[first_receptor + 1]);
+	    int above = Math.min(receptor_start[receptor_of(split) + 1], receptor_start[last_receptor]);
+
+	    if (below == split || above == split)
+	    {
+		return split;
+	    }
+
+	    return (target - work_before[below] <= work_before[above] - target) ? below : above;
+	}
+
+	/**
+	 * Returns the receptor of a pair.
+	 */
+	private int receptor_of(int p)
+	{
+	    int lower = 0;
+	    int upper = receptor_start.length - 2;
+
+	    // the last receptor that starts at or before the pair
+	    while (lower < upper)
+	    {
+		int middle = (lower + upper + 1) >>> 1;
+
+		if (receptor_start[middle] <= p)
+		{
+		    lower = middle;
+		}
+		else
+		{
+		    upper = middle - 1;
+		}
+	    }
+
+	    return lower;
+	}
+    }
+
+    /**
+     * Evaluate one block of points and keep the sum of each complete summation block, and the
+	* values of a last partial one.
+     */
+    private static final class block_task extends RecursiveAction
+    {
+	private static final long serialVersionUID = 1L;
+
+	private double[] x, y, z, source_strength;
+	private final double[] frame;
+	private final int      count;
+
+	double[]	       block_sums;
+	double[]	       tail;
+
+	block_task(double[] x, double[] y, double[] z, double[] source_strength, int count, double[] frame)
+	{
+	    this.x = copy(x, count);
+	    this.y = copy(y, count);
+	    this.z = copy(z, count);
+	    this.source_strength = copy(source_strength, count);
+	    this.count = count;
+	    this.frame = frame;
+	}
+
+	private static double[] copy(double[] array, int count)
+	{
+	    double[] copied = new double[count];
+
+	    System.arraycopy(array, 0, copied, 0, count);
+
+	    return copied;
+	}
+
+	protected void compute()
+	{
+	    run_metrics metrics = run_metrics.enabled ? run_metrics.current() : null;
+	    long	start = (metrics != null) ? System.nanoTime() : 0;
+	    long	allocated_before = (metrics != null) ? run_metrics.thread_allocated_bytes() : 0;
+	    double[]	values = new double[count];
+
+	    for (int i = 0; i < count; i++)
+	    {
+		values[i] = point.contribution(x[i], y[i], z[i], source_strength[i], frame[0], frame[1], frame[2],
+					       frame[3], frame[4], metrics);
+	    }
+
+	    int full = count / pairwise_sum.BLOCK_SIZE;
+
+	    block_sums = new double[full];
+
+	    for (int k = 0; k < full; k++)
+	    {
+		block_sums[k] = pairwise_sum.block_sum(values, k * pairwise_sum.BLOCK_SIZE, pairwise_sum.BLOCK_SIZE);
+	    }
+
+	    tail = new double[count - full * pairwise_sum.BLOCK_SIZE];
+	    System.arraycopy(values, full * pairwise_sum.BLOCK_SIZE, tail, 0, tail.length);
+
+	    x = y = z = source_strength = null;    // only the sums are kept until the link is combined
+
+	    if (metrics != null)
+	    {
+		metrics.kernel_time += System.nanoTime() - start;
+		metrics.add_allocation(allocated_before, run_metrics.thread_allocated_bytes());
+	    }
+	}
+    }
+}
@@ -79,6 +79,47 @@ public class point
      */
     public static coordinate receptor_location;
 
+    /**
+     * The rotation into the wind aligned coordinate system for the last wind angle found.  It is
+	* only recalculated when the dispersion wind angle changes, and is replaced rather than changed
+	* so that threads evaluating points at the same time always read a matching angle, cosine and sine.
+     */
+    private static volatile wind_rotation wind = new wind_rotation(0.0);
+
+    /**
+     * The cosine and sine of a wind angle, used to rotate receptors into the wind aligned coordinate system.
+     */
+    private static final class wind_rotation
+    {
+	final double angle;
+	final double cos_wind;
+	final double sin_wind;
+
+	wind_rotation(double angle)
+	{
+	    this.angle = angle;
+	    this.cos_wind = Math.cos(angle);
+	    this.sin_wind = Math.sin(angle);
+	}
+    }
+
+    /**
+     * Get the rotation for the wind angle of the dispersion parameters, finding it if the angle changed.
+     */
+    private static wind_rotation find_wind_rotation()
+    {
+	double	      wind_angle = disp_param.getWind_angle();
+	wind_rotation rotation = wind;
+
+	if (rotation.angle != wind_angle)
+	{
+	    rotation = new wind_rotation(wind_angle);
+	    wind = rotation;
+	}
+
+	return rotation;
+    }
+
     /**
      * set the receptor location that is common to all points equal to a receptor's coordinate
      */
@@ -159,6 +200,18 @@ public class point
 	concentration = 0.0;
     }
 
+    /**
+     * Creates a new <code>point</code> instance at the location (x, y, z) with a given emission factor.
+	* This constructor will intialize the huang parameters and concentration contribution to 0.0.
+     */
+    public point(double x, double y, double z, double source_strength)
+    {
+	this.point_location = new coordinate(x, y, z);
+	this.source_strength = source_strength;
+	huang_parameters = new huang();
+	concentration = 0.0;
+    }
+
     /**
      * Creates a new <code>point</code> instance.  Default point location and emission factor
 	* are assumed. This constructor will intialize the huang parameters and concentration
@@ -215,15 +268,17 @@ public class point
 	 * this means that the wind will always be coming from the -x direction)
 	 * 4. The polar coordinates are converted back to rectanglar.  If the sign of the x coordainte
 	 * is negative, then the downwind fetch is positive.  The sign on the later distance does not matter.
+	 * <br>Steps 2 through 4 are carried out as a single rotation by minus the wind angle using the
+	 * cosine and sine of the wind angle, which are only found when the wind angle changes.
     *
      */
     private void normalize()
     {
-
-
-	double offset_angle = 0;       // angle between the offset receptor and the x axis in radians
 	// coordinate system will be rotated so that the wind vector points at +x
-	double receptor_length = 0;    // magnitude of the receptor vector
+	// only recalculate the rotation when the wind direction changes
+	wind_rotation rotation = find_wind_rotation();
+	double	      cos_wind = rotation.cos_wind;
+	double	      sin_wind = rotation.sin_wind;
 
 	// point source elevation is the huang release elevation
 	// huang receptor elevation is the receptor elevation common to all points
@@ -232,19 +287,14 @@ public class point
 	huang_parameters.setZs(point_location.getZ());
 	huang_parameters.setZ(receptor_location.getZ());
 	// offset the receptor so that the point source is at the horizontal origin
-	huang_parameters.setX(receptor_location.getX() - point_location.getX());
-	huang_parameters.setY(receptor_location.getY() - point_location.getY());
-
-	// find the angle from the origin to the offset receptor in radians
-	offset_angle = huang_parameters.horizontal_angle() - disp_param.getWind_angle();
-	// find horizontal distance from the receptor to the point source
-	receptor_length = huang_parameters.horizontal_norm();
+	double offset_x = receptor_location.getX() - point_location.getX();
+	double offset_y = receptor_location.getY() - point_location.getY();
 
 	// determine along wind component ( fetch along wind vector )
 	// negative because wind vector points to direction wind comes from
-	huang_parameters.setX(-receptor_length * Math.cos(offset_angle));
+	huang_parameters.setX(-(offset_x * cos_wind + offset_y * sin_wind));
 	// lateral distance from wind vector centerline - always positive
-	huang_parameters.setY(Math.abs(receptor_length * Math.sin(offset_angle)));
+	huang_parameters.setY(Math.abs(offset_y * cos_wind - offset_x * sin_wind));
     }
 
     /**
@@ -258,64 +308,350 @@ public class point
 	// the huang object values
 	normalize();
 
+	concentration = huang_concentration(huang_parameters.getX(), huang_parameters.getY(), huang_parameters.getZ(),
+					    huang_parameters.getZs(), source_strength,
+					    run_metrics.enabled ? run_metrics.current() : null);
+    }
+
+    /**
+     * Find the concentration contribution to the static receptor from a point source at (x, y, z)
+	* with a source strength q, without creating a <code>point</code> object.  The result is
+	* identical to that of <code>calculate_contribution</code> for a point at the same location.
+	* This allows point locations generated in primitive arrays to be evaluated directly
+	* (see <code>highway_point_spacing.stream_points</code>).
+     *
+     * @return the concentration contribution (g/m^3).
+     */
+    public static double contribution(double x, double y, double z, double q)
+    {
+	return contribution(x, y, z, q, null);
+    }
+
+    /**
+     * Same as <code>contribution(x, y, z, q)</code> but the upwind points and Bessel function
+	* evaluations are counted in <code>metrics</code> (unless it is null).  The caller looks up the
+	* metrics of its thread once for a block of points (see <code>run_metrics</code>).
+     */
+    static double contribution(double x, double y, double z, double q, run_metrics metrics)
+    {
+	wind_rotation rotation = find_wind_rotation();
+	double	      cos_wind = rotation.cos_wind;
+	double	      sin_wind = rotation.sin_wind;
+
+	return contribution(x, y, z, q, receptor_location.getX(), receptor_location.getY(), receptor_location.getZ(),
+			    cos_wind, sin_wind, metrics);
+    }
+
+    /**
+     * Find the concentration contribution of a point source at (x, y, z) with a source strength q to
+	* a receptor at (receptor_x, receptor_y, receptor_z) for a wind angle with the given cosine and
+	* sine, all in any one coordinate system.  This allows points to be evaluated in the coordinate
+	* system of their link (see <code>local_point_accumulator</code>).
+     *
+     * @return the concentration contribution (g/m^3).
+     */
+    static double contribution(double x, double y, double z, double q, double receptor_x, double receptor_y,
+			       double receptor_z, double cos_wind, double sin_wind, run_metrics metrics)
+    {
+	// offset the receptor so that the point source is at the horizontal origin and rotate
+	// the offset so the wind vector points along +x (see <code>normalize</code>)
+	double offset_x = receptor_x - x;
+	double offset_y = receptor_y - y;
+
+	return huang_concentration(-(offset_x * cos_wind + offset_y * sin_wind),
+				   Math.abs(offset_y * cos_wind - offset_x * sin_wind), receptor_z, z, q, metrics);
+    }
+
+    /**
+     * Evaluate the huang equation for a point source with the common dispersion parameters.
+     *
+     * @param x the downwind distance from the source to the receptor.
+     * @param y the lateral distance from the plume centerline to the receptor.
+     * @param z the receptor elevation.
+     * @param zs the source elevation.
+     * @param q the source strength.
+     * @param metrics the metrics of the calling thread (null if metrics are not recorded).
+     * @return the concentration contribution (g/m^3).
+     */
+    private static double huang_concentration(double x, double y, double z, double zs, double q,
+					      run_metrics metrics)
+    {
 	// the receptor must be at least the distance tolerance from the point source in the downwind direction
 	// otherwise the concentration contribution of this point to the static receptor is 0
 	/** @todo check out what happens if i change this */
-	if (huang_parameters.getX() < constants.DISTANCE_TOLERANCE)
+	if (x < constants.DISTANCE_TOLERANCE)
 	{
+	    if (metrics != null)
+	    {
+		metrics.points_upwind++;
+	    }
+
 	    // if the point is upwind then its contribution is =0
-	    concentration = 0.0;
+	    return 0.0;
 	    // otherwise find the contribution from the huang equation (6) from the
 	    // 1979 AE article titled theory of dispersion in shear flow
 	}
-	else
+
+	// Form of the equation is given at the top of this text file
+	// store values need to compute X to reduce redundant function calls
+	double b = disp_param.getB();
+	double a = disp_param.getA();
+	double p = disp_param.getP();
+	double n = disp_param.getN();
+	double sigma = find_sigma(x);    // horizontal disperison
+	double alpha = 2 + p - n;
+	double v = (1 - n) / alpha;     // determines bessel function order
+
+	// make sure that zs and z are not exactly zero to avoid numerical stability problems
+	if (z == 0)
 	{
-	    // Form of the equation is given at the top of this text file
-	    // store values need to compute X to reduce redundant function calls
-	    double x = huang_parameters.getX();
-	    double y = huang_parameters.getY();
-	    double z = huang_parameters.getZ();
-	    double zs = huang_parameters.getZs();
-	    double q = source_strength;
-	    double b = disp_param.getB();
-	    double a = disp_param.getA();
-	    double p = disp_param.getP();
-	    double n = disp_param.getN();
-	    double sigma = find_sigma();    // horizontal disperison
-	    double alpha = 2 + p - n;
-	    double v = (1 - n) / alpha;     // determines bessel function order
-
-	    // make sure that zs and z are not exactly zero to avoid numerical stability problems
-	    if (z == 0)
+	    z = 0.001;
+	}
+
+	if (zs == 0)
+	{
+	    zs = 0.001;
+	}
+
+	// interpolate the vertical terms from the kernel table of the heights when it is on
+	if (kernel_table.enabled)
+	{
+	    double table_concentration = kernel_table.lookup(x, y, z, zs, q);
+
+	    if (table_concentration >= 0.0)    // negative outside of the table
 	    {
-		z = 0.001;
+		return table_concentration;
 	    }
+	}
 
-	    if (zs == 0)
+	// to make the bessel function evaluation more clear and to simply the debugging
+	// the concentration will be calculated in the following way
+	// concentration = tmp1 * bessel_function(tmp2,-v,1)
+	double temp1 = (q / (constants.HUANG_1 * sigma))
+		       * Math.exp(-Math.pow(y, 2.0) / (2.0 * Math.pow(sigma, 2.0)))
+		       * Math.pow(z * zs, ((1.0 - n) / 2.0)) / (b * alpha * x)
+		       * Math.exp(-a * (Math.pow(z, alpha) + Math.pow(zs, alpha))
+				  / (b * Math.pow(alpha, 2.0) * x));
+	double temp2 = 2.0 * a * Math.pow(z * zs, (alpha / 2.0)) / (b * Math.pow(alpha, 2.0) * x);
+
+	if ( Math.abs(temp1) < 1E-200)     // equation blows up if temp1 is 0 and temp2 -> inf
+	{
+	    return 0.0;
+	}
+
+	if (metrics != null && metrics.count_bessel_call())
+	{
+	    // time a sample of the bessel function evaluations (see run_metrics)
+	    long   start = System.nanoTime();
+	    double bessel = numerics.hyperbolics.bessel.bessel_function(temp2, -v, 1);
+
+	    metrics.add_bessel_sample(System.nanoTime() - start);
+
+	    return temp1 * bessel;
+	}
+
+	return temp1 * numerics.hyperbolics.bessel.bessel_function(temp2, -v, 1);
+    }
+
+    /**
+     * Evaluate the terms of the huang equation that depend on the downwind distance for a unit
+	* source on the plume centerline (y = 0), so that the concentration of a source of strength q
+	* is <code>q * exp(-y^2 / (2 sigma^2)) * vertical_kernel(x, z, zs)</code>.  The heights must
+	* already be moved away from zero.  This is used to fill the tables of <code>kernel_table</code>.
+     */
+    static double vertical_kernel(double x, double z, double zs)
+    {
+	double b = disp_param.getB();
+	double a = disp_param.getA();
+	double p = disp_param.getP();
+	double n = disp_param.getN();
+	double sigma = find_sigma(x);
+	double alpha = 2 + p - n;
+	double v = (1 - n) / alpha;
+
+	double temp1 = (1.0 / (constants.HUANG_1 * sigma)) * Math.pow(z * zs, ((1.0 - n) / 2.0)) / (b * alpha * x)
+		       * Math.exp(-a * (Math.pow(z, alpha) + Math.pow(zs, alpha)) / (b * Math.pow(alpha, 2.0) * x));
+	double temp2 = 2.0 * a * Math.pow(z * zs, (alpha / 2.0)) / (b * Math.pow(alpha, 2.0) * x);
+
+	if (Math.abs(temp1) < 1E-200)	  // equation blows up if temp1 is 0 and temp2 -> inf
+	{
+	    return 0.0;
+	}
+
+	return temp1 * numerics.hyperbolics.bessel.bessel_function(temp2, -v, 1);
+    }
+
+    /**
+     * Find the terms of the huang equation for a point source at (x, y, z) with a source strength q
+	* that do not depend on the wind constant <code>a</code>.  With the terms
+	* <code>lateral, s, t</code> the concentration at any <code>a</code> (and the same wind
+	* direction and other dispersion parameters) is
+	* <code>lateral * exp(-a * s) * I[-v](a * t)</code>, which is found with
+	* <code>speed_scaled_contribution</code>.  The terms are the factors of
+	* <code>huang_concentration</code> with <code>a</code> taken out.
+     *
+     * @param terms the array that receives the terms <code>lateral, s, t</code> starting at <code>offset</code>.
+     * @return false if the point is upwind of the receptor (it contributes nothing at any speed).
+     */
+    static boolean speed_terms(double x, double y, double z, double q, double[] terms, int offset)
+    {
+	wind_rotation rotation = find_wind_rotation();
+	double	      cos_wind = rotation.cos_wind;
+	double	      sin_wind = rotation.sin_wind;
+
+	// normalize the point as in <code>contribution</code>
+	double offset_x = receptor_location.getX() - x;
+	double offset_y = receptor_location.getY() - y;
+	double downwind = -(offset_x * cos_wind + offset_y * sin_wind);
+	double crosswind = Math.abs(offset_y * cos_wind - offset_x * sin_wind);
+	double zr = receptor_location.getZ();
+	double zs = z;
+
+	if (downwind < constants.DISTANCE_TOLERANCE)
+	{
+	    return false;
+	}
+
+	double b = disp_param.getB();
+	double p = disp_param.getP();
+	double n = disp_param.getN();
+	double sigma = find_sigma(downwind);
+	double alpha = 2 + p - n;
+
+	if (zr == 0)
+	{
+	    zr = 0.001;
+	}
+
+	if (zs == 0)
+	{
+	    zs = 0.001;
+	}
+
+	terms[offset] = (q / (constants.HUANG_1 * sigma))
+			* Math.exp(-Math.pow(crosswind, 2.0) / (2.0 * Math.pow(sigma, 2.0)))
+			* Math.pow(zr * zs, ((1.0 - n) / 2.0)) / (b * alpha * downwind);
+	terms[offset + 1] = (Math.pow(zr, alpha) + Math.pow(zs, alpha)) / (b * Math.pow(alpha, 2.0) * downwind);
+	terms[offset + 2] = 2.0 * Math.pow(zr * zs, (alpha / 2.0)) / (b * Math.pow(alpha, 2.0) * downwind);
+
+	return true;
+    }
+
+    /**
+     * Find the concentration contribution of a point source at the wind constant <code>a</code>
+	* from the terms found by <code>speed_terms</code>.
+     *
+     * @return the concentration contribution (g/m^3).
+     */
+    static double speed_scaled_contribution(double a, double lateral, double s, double t)
+    {
+	double temp1 = lateral * Math.exp(-a * s);
+
+	if (Math.abs(temp1) < 1E-200)    // equation blows up if temp1 is 0 and temp2 -> inf
+	{
+	    return 0.0;
+	}
+
+	double v = (1 - disp_param.getN()) / (2 + disp_param.getP() - disp_param.getN());
+
+	return temp1 * numerics.hyperbolics.bessel.bessel_function(a * t, -v, 1);
+    }
+
+    /**
+     * Find the powers of each receptor height of a vertical receptor column that
+	* <code>column_contributions</code> uses.  Heights of zero are moved to 0.001 m as in
+	* <code>huang_concentration</code>.
+     *
+     * @param heights the elevation of each receptor of the column.
+     * @return {z^((1-n)/2), z^alpha, z^(alpha/2)} for each height.
+     */
+    static double[][] column_height_terms(double[] heights)
+    {
+	double	   n = disp_param.getN();
+	double	   alpha = 2 + disp_param.getP() - n;
+	double[][] terms = new double[3][heights.length];
+
+	for (int h = 0; h < heights.length; h++)
+	{
+	    double z = (heights[h] == 0) ? 0.001 : heights[h];
+
+	    terms[0][h] = Math.pow(z, ((1.0 - n) / 2.0));
+	    terms[1][h] = Math.pow(z, alpha);
+	    terms[2][h] = Math.pow(z, (alpha / 2.0));
+	}
+
+	return terms;
+    }
+
+    /**
+     * Find the concentration contribution of a point source at (x, y, z) with a source strength q
+	* to every receptor of a vertical column located at the horizontal position of the static
+	* receptor.  The downwind and lateral distances, sigma, and the lateral gaussian are found once
+	* for the point, and only the terms of the huang equation that depend on the receptor height
+	* are found for each receptor.  The results equal those of <code>contribution</code> for each
+	* height to rounding.
+     *
+     * @param height_terms the powers of the receptor heights from <code>column_height_terms</code>.
+     * @param contributions receives the contribution to each receptor of the column (g/m^3).
+     */
+    static void column_contributions(double x, double y, double z, double q, double[][] height_terms,
+				     double[] contributions)
+    {
+	int heights = contributions.length;
+
+	wind_rotation rotation = find_wind_rotation();
+	double	      cos_wind = rotation.cos_wind;
+	double	      sin_wind = rotation.sin_wind;
+
+	// normalize the point as in <code>contribution</code>
+	double offset_x = receptor_location.getX() - x;
+	double offset_y = receptor_location.getY() - y;
+	double downwind = -(offset_x * cos_wind + offset_y * sin_wind);
+	double crosswind = Math.abs(offset_y * cos_wind - offset_x * sin_wind);
+
+	if (downwind < constants.DISTANCE_TOLERANCE)
+	{
+	    // the point is upwind of every receptor of the column
+	    for (int h = 0; h < heights; h++)
 	    {
-		zs = 0.001;
+		contributions[h] = 0.0;
 	    }
 
-	    // to make the bessel function evaluation more clear and to simply the debugging
-	    // the concentration will be calculated in the following way
-	    // concentration = tmp1 * bessel_function(tmp2,-v,1)
-	    double temp1 = (q / (constants.HUANG_1 * sigma))
-			   * Math.exp(-Math.pow(y, 2.0) / (2.0 * Math.pow(sigma, 2.0)))
-			   * Math.pow(z * zs, ((1.0 - n) / 2.0)) / (b * alpha * x)
-			   * Math.exp(-a * (Math.pow(z, alpha) + Math.pow(zs, alpha))
-				      / (b * Math.pow(alpha, 2.0) * x));
-	    double temp2 = 2.0 * a * Math.pow(z * zs, (alpha / 2.0)) / (b * Math.pow(alpha, 2.0) * x);
-
-	    if ( Math.abs(temp1) < 1E-200)     // equation blows up if temp1 is 0 and temp2 -> inf
+	    return;
+	}
+
+	double a = disp_param.getA();
+	double b = disp_param.getB();
+	double p = disp_param.getP();
+	double n = disp_param.getN();
+	double sigma = find_sigma(downwind);
+	double alpha = 2 + p - n;
+	double v = (1 - n) / alpha;
+	double zs = (z == 0) ? 0.001 : z;
+
+	// terms common to the whole column
+	double lateral = (q / (constants.HUANG_1 * sigma))
+			 * Math.exp(-Math.pow(crosswind, 2.0) / (2.0 * Math.pow(sigma, 2.0))) / (b * alpha * downwind);
+	double vertical_scale = a / (b * Math.pow(alpha, 2.0) * downwind);
+	double zs_power = Math.pow(zs, ((1.0 - n) / 2.0));
+	double zs_alpha = Math.pow(zs, alpha);
+	double zs_half_alpha = Math.pow(zs, (alpha / 2.0));
+
+	for (int h = 0; h < heights; h++)
+	{
+	    double temp1 = lateral * height_terms[0][h] * zs_power
+			   * Math.exp(-(height_terms[1][h] + zs_alpha) * vertical_scale);
+	    double temp2 = 2.0 * height_terms[2][h] * zs_half_alpha * vertical_scale;
+
+	    if (Math.abs(temp1) < 1E-200)    // equation blows up if temp1 is 0 and temp2 -> inf
 	    {
-	    concentration = 0.0;
+		contributions[h] = 0.0;
 	    }
 	    else
 	    {
-	    concentration = temp1 * numerics.hyperbolics.bessel.bessel_function(temp2, -v, 1);
+		contributions[h] = temp1 * numerics.hyperbolics.bessel.bessel_function(temp2, -v, 1);
 	    }
-	}				    // end else
-
+	}
     }
 
     /**
@@ -332,15 +668,15 @@ public class point
 
     /**
      * <code>find_sigma</code> method calculates the modified BNL lateral standard deviation
-	* based on the huang parameters.
+	* at a downwind distance x.
      * The BNL function is of the form sig(y) = c + d * x^e.
      *
      * @return a <code>double</code> value equal to the value sig(y)
 	* from the BNL lateral standard deviation formula
      */
-    private double find_sigma()
+    static double find_sigma(double x)
     {
-	return disp_param.getC() + disp_param.getD() * Math.pow(huang_parameters.getX(), disp_param.getE());
+	return disp_param.getC() + disp_param.getD() * Math.pow(x, disp_param.getE());
     }
 
     /**
@@ -0,0 +1,33 @@
+package roadway_dispersion;
+
+/**
+ * <b>Overview</b><br>
+ * A <code>point_accumulator</code> receives the point sources of a link in small blocks as they
+ * are generated, so a link contribution can be found without ever storing the complete point array.
+ * See <code>highway_point_spacing.stream_points</code> and <code>link.calculate_link_concentration</code>.
+ * <br>
+ * The arrays passed to <code>accumulate</code> are reused for the next block, so an accumulator
+ * must use (or copy) the values before it returns.
+ *
+ * <br><br>
+ * <b>Notes:</b><br>
+ * All units in metric (MKS) unless otherwise stated.   <br>
+ * Point locations are in the site coordinate system.
+ *
+ * @see highway_point_spacing
+ * @see link
+ */
+
+public interface point_accumulator
+{
+    /**
+     * Receive the next block of point sources.
+     *
+     * @param x the x coordinate of each point.
+     * @param y the y coordinate of each point.
+     * @param z the elevation of each point.
+     * @param source_strength the source strength of each point (g/s).
+     * @param count the number of points in the block (the arrays may be longer).
+     */
+    public void accumulate(double[] x, double[] y, double[] z, double[] source_strength, int count);
+}
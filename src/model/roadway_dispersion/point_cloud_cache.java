@@ -0,0 +1,253 @@
+package roadway_dispersion;
+
+import java.util.*;    // access to the linked hash map class
+import utilities.*;    // access to the debugging routines
+
+/**
+ * <b>Overview</b><br>
+ * The <code>point_cloud_cache</code> class keeps the point sources generated for a receptor and a
+ * link so that later simulations with the same receptor and link (for example the other hours of
+ * a multi-hour run) do not generate them again.  Outside the adaptive spacing mode the points of a
+ * <code>highway_link</code> depend on the horizontal position of the receptor, the link geometry and
+ * line strength, the spacing profile and refinement, and on the wind only through the side of the
+ * road that receives the upwind overhang.  These make up the key of a point cloud.
+ * <br>
+ * The cache is bounded by a memory budget (32 bytes per point).  When a new point cloud does not fit,
+ * the least recently used clouds are removed until it does.  A cloud larger than the whole budget is
+ * not kept.  The cache is off by default and is shared by all links; its methods are synchronized.
+ *
+ * <br><br>
+ * <b>Notes:</b><br>
+ * Point clouds of links in the adaptive spacing mode depend on the wind speed and direction and
+ * are never cached.
+ *
+ * @see highway_link
+ * @see highway_point_spacing
+ */
+
+public class point_cloud_cache
+{
+    /**
+     * The memory used by a point of a cloud: x, y, z, and emission factor.
+     */
+    public static final int BYTES_PER_POINT = 32;
+
+    private static boolean  enabled = false;
+    private static long	    memory_budget = 64L * 1024 * 1024;
+    private static long	    memory_used = 0;
+    private static long	    hits = 0;
+    private static long	    misses = 0;
+
+    /**
+     * The point clouds in least recently used order.  Each value is {x, y, z, emission factor}.
+     */
+    private static LinkedHashMap<key, double[][]> clouds = new LinkedHashMap<key, double[][]>(16, 0.75f, true);
+
+    /**
+     * The point clouds are only used through the static methods.
+     */
+    private point_cloud_cache() {}
+
+    /**
+     * Turn the cache on or off.  Turning the cache off empties it.
+     */
+    public static synchronized void set_enabled(boolean enable)
+    {
+	enabled = enable;
+
+	if (!enable)
+	{
+	    clear();
+	}
+    }
+
+    /**
+     * Returns true if point clouds are cached.
+     */
+    public static synchronized boolean is_enabled()
+    {
+	return enabled;
+    }
+
+    /**
+     * Set the largest memory in bytes the point clouds may use.  Clouds are removed if the
+	* new budget is smaller than the memory in use.
+     */
+    public static synchronized void set_memory_budget(long bytes)
+    {
+	if (bytes < 0)
+	{
+	    System.err.println("The point cloud memory budget can not be negative (" + bytes + " bytes)"
+			       + "\nIf you choose to continue the budget will not be changed");
+	    debugging.exception_handeler();
+
+	    return;
+	}
+
+	memory_budget = bytes;
+	evict(0);
+    }
+
+    /**
+     * Get the largest memory in bytes the point clouds may use.
+     */
+    public static synchronized long getMemory_budget()
+    {
+	return memory_budget;
+    }
+
+    /**
+     * Get the memory in bytes used by the cached point clouds.
+     */
+    public static synchronized long getMemory_used()
+    {
+	return memory_used;
+    }
+
+    /**
+     * Get the number of point clouds found in the cache since it was last cleared.
+     */
+    public static synchronized long getHits()
+    {
+	return hits;
+    }
+
+    /**
+     * Get the number of point clouds not found in the cache since it was last cleared.
+     */
+    public static synchronized long getMisses()
+    {
+	return misses;
+    }
+
+    /**
+     * Remove every point cloud and reset the hit and miss counts.
+     */
+    public static synchronized void clear()
+    {
+	clouds.clear();
+	memory_used = 0;
+	hits = 0;
+	misses = 0;
+    }
+
+    /**
+     * Return the point cloud of a key, or null if it is not cached.  The returned arrays are
+	* shared and must not be changed.
+     */
+    static synchronized double[][] get(key cloud_key)
+    {
+	double[][] cloud = clouds.get(cloud_key);
+
+	if (cloud == null)
+	{
+	    misses++;
+	}
+	else
+	{
+	    hits++;
+	}
+
+	return cloud;
+    }
+
+    /**
+     * Keep a point cloud, removing the least recently used clouds if it does not fit the budget.
+     *
+     * @param cloud the arrays {x, y, z, emission factor} of the points.
+     */
+    static synchronized void put(key cloud_key, double[][] cloud)
+    {
+	long size = (long) cloud[0].length * BYTES_PER_POINT;
+
+	if (size > memory_budget || clouds.containsKey(cloud_key))
+	{
+	    return;
+	}
+
+	evict(size);
+	clouds.put(cloud_key, cloud);
+	memory_used += size;
+    }
+
+    /**
+     * Remove the least recently used clouds until <code>size</code> more bytes fit the budget.
+     */
+    private static void evict(long size)
+    {
+	Iterator<double[][]> eldest = clouds.values().iterator();
+
+	while (memory_used + size > memory_budget && eldest.hasNext())
+	{
+	    double[][] cloud = eldest.next();
+
+	    memory_used -= (long) cloud[0].length * BYTES_PER_POINT;
+	    eldest.remove();
+	}
+    }
+
+    /**
+     * The key of a point cloud.  The spacing profile is compared by reference because profiles
+	* can not be changed once created.
+     */
+    static final class key
+    {
+	private final double	      receptor_x, receptor_y;
+	private final double	      start_x, start_y, start_z, end_x, end_y, end_z, width;
+	private final double	      line_strength, fetch_refinement, cross_refinement, vertical_refinement;
+	private final spacing_profile profile;
+	private final boolean	      wind_x_positive;
+
+	key(coordinate receptor, link_geometry geometry, double line_strength, spacing_profile profile,
+	    double fetch_refinement, double cross_refinement, double vertical_refinement, boolean wind_x_positive)
+	{
+	    this.receptor_x = receptor.getX();
+	    this.receptor_y = receptor.getY();
+	    this.start_x = geometry.getStart_x();
+	    this.start_y = geometry.getStart_y();
+	    this.start_z = geometry.getStart_z();
+	    this.end_x = geometry.getEnd_x();
+	    this.end_y = geometry.getEnd_y();
+	    this.end_z = geometry.getEnd_z();
+	    this.width = geometry.getWidth();
+	    this.line_strength = line_strength;
+	    this.profile = profile;
+	    this.fetch_refinement = fetch_refinement;
+	    this.cross_refinement = cross_refinement;
+	    this.vertical_refinement = vertical_refinement;
+	    this.wind_x_positive = wind_x_positive;
+	}
+
+	public boolean equals(Object other)
+	{
+	    if (!(other instanceof key))
+	    {
+		return false;
+	    }
+
+	    key k = (key) other;
+
+	    return receptor_x == k.receptor_x && receptor_y == k.receptor_y && start_x == k.start_x
+		   && start_y == k.start_y && start_z == k.start_z && end_x == k.end_x && end_y == k.end_y
+		   && end_z == k.end_z && width == k.width && line_strength == k.line_strength
+		   && fetch_refinement == k.fetch_refinement && cross_refinement == k.cross_refinement
+		   && vertical_refinement == k.vertical_refinement && profile == k.profile && wind_x_positive == k.wind_x_positive;
+	}
+
+	public int hashCode()
+	{
+	    double[] values = { receptor_x, receptor_y, start_x, start_y, start_z, end_x, end_y, end_z, width,
+				line_strength, fetch_refinement, cross_refinement, vertical_refinement };
+	    int	     hash = wind_x_positive ? 1 : 0;
+
+	    for (int i = 0; i < values.length; i++)
+	    {
+		long bits = Double.doubleToLongBits(values[i]);
+
+		hash = 31 * hash + (int) (bits ^ (bits >>> 32));
+	    }
+
+	    return 31 * hash + System.identityHashCode(profile);
+	}
+    }
+}
@@ -80,15 +80,8 @@ public class point_vector
 	}
 
 	// place the points equally centered on the mid point of the range
-	// find how many complete intervals are available in the range using integer arithmetic
-	double intervals = Math.floor((upper_bound - lower_bound) / spacing);
-	double num_points = intervals + 1;    // there will be one more point then intervals
-	// find the extra space that will not be covered by the points
-	// calculation will allow the points to be easily placed centered on the range midpoint
-	// basic concept here is to find the start point that will result in a centered series
-	// and then add the points with the desired spacing offset
-	double range_residual = (upper_bound - lower_bound) - intervals * spacing;
-	double start_point = range_residual / 2 + lower_bound;
+	int    num_points = count_points(lower_bound, upper_bound, spacing);
+	double start_point = first_point(lower_bound, upper_bound, spacing);
 
 	for (int i = 0; i < num_points; i++)
 	{
@@ -99,6 +92,43 @@ public class point_vector
 	}
     }
 
+    /**
+     * Find the number of points <code>add_points(lower_bound, upper_bound, spacing)</code> adds to a
+	* profile without creating them.  Point i of the profile is located at
+	* <code>first_point(lower_bound, upper_bound, spacing) + i * spacing</code>, so a caller can
+	* fill its own primitive arrays with exactly the same locations.
+     *
+     * @param lower_bound a <code>double</code> value representing the lowest point value
+     * @param upper_bound a <code>double</code> value representing the upper point value
+     * @param spacing an <code>double</code> value indicating the distance between equaly spaced points
+     * @return the number of points in the range (zero if the upper bound is below the lower bound).
+     */
+    public static int count_points(double lower_bound, double upper_bound, double spacing)
+    {
+	// find how many complete intervals are available in the range using integer arithmetic
+	double intervals = Math.floor((upper_bound - lower_bound) / spacing);
+
+	// there will be one more point then intervals
+	return (int) Math.max(intervals + 1, 0.0);
+    }
+
+    /**
+     * Find the location of the first of the equally spaced points that
+	* <code>add_points(lower_bound, upper_bound, spacing)</code> adds to a profile.
+	* See <code>count_points</code>.
+     */
+    public static double first_point(double lower_bound, double upper_bound, double spacing)
+    {
+	double intervals = Math.floor((upper_bound - lower_bound) / spacing);
+	// find the extra space that will not be covered by the points
+	// calculation will allow the points to be easily placed centered on the range midpoint
+	// basic concept here is to find the start point that will result in a centered series
+	// and then add the points with the desired spacing offset
+	double range_residual = (upper_bound - lower_bound) - intervals * spacing;
+
+	return range_residual / 2 + lower_bound;
+    }
+
     /**
      * <code>add_points</code> based on a lower bound, upper bound, function type, & total number of points desired
      *
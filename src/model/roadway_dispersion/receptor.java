@@ -29,6 +29,22 @@ public class receptor
     public void clear_links()
     {
 	links.clear();
+	link_names.clear();
+	site_links = null;
+	site_link_count = 0;
+    }
+
+    /**
+     * Remove the links of the receptor and the contribution, points and error of each link, keeping
+	* only the total concentration.  This frees the memory of a receptor whose contributions have
+	* been stored elsewhere (see <code>site_description.setSparse_storage</code>).
+     */
+    void release_links()
+    {
+	clear_links();
+	concentration = new double[0];
+	points_used = new int[0];
+	estimated_error = new double[0];
     }
 
     /**
@@ -47,16 +63,58 @@ public class receptor
 	// easier to read code if you have a reference to the link from the vector
 	link current_link = null;
 
+	// metrics are only recorded when they are turned on (see run_metrics)
+	run_metrics metrics = run_metrics.enabled ? run_metrics.current() : null;
+	long	    receptor_start = 0;
+	long	    allocated_before = 0;
+
+	if (metrics != null)
+	{
+	    receptor_start = System.nanoTime();
+	    allocated_before = run_metrics.thread_allocated_bytes();
+	}
+
+	// flight recorder event for the whole receptor (see run_events)
+	run_events.receptor_evaluation receptor_event = new run_events.receptor_evaluation();
+	long			       receptor_points = 0;
+
+	receptor_event.begin();
+
 	// loop through each link - calculate its contribution to the receptor
 	for (int index = 0; index < links.size(); index++)
 	{
 	    // get a reference to the link in the vector
 	    current_link = (link) links.elementAt(index);
 
+	    long			link_start = (metrics != null) ? System.nanoTime() : 0;
+	    run_events.link_evaluation link_event = new run_events.link_evaluation();
+
+	    link_event.begin();
 	    // have the link create its point array and calculate the concentration contribution
-	    current_link.calculate_link_concentration();
+	    // the point array is only kept if it is going to be printed
+	    current_link.calculate_link_concentration(print_point_arrays_to_text_file);
+	    link_event.end();
+
+	    if (link_event.shouldCommit())
+	    {
+		link_event.receptor = naming.getName();
+		link_event.link = (String) link_names.elementAt(index);
+		link_event.points = current_link.getPoints_used();
+		link_event.commit();
+	    }
+
+	    receptor_points += current_link.getPoints_used();
+
+	    if (metrics != null)
+	    {
+		metrics.add_link_time((String) link_names.elementAt(index), System.nanoTime() - link_start);
+		metrics.links_evaluated++;
+	    }
 	    // save the link concentration contribution for this link to the
 	    add_concentration(index, current_link.getTotal_concentration());
+	    // save the number of points and error estimate behind the contribution
+	    points_used[index] = current_link.getPoints_used();
+	    estimated_error[index] = current_link.getEstimated_error();
 
 	    // if the parameter flag was set to true have the link print its point array to a text file
 	    if (true == print_point_arrays_to_text_file)
@@ -67,6 +125,215 @@ public class receptor
 	    // clear the point arrays from each link to free up memory
 	    current_link.clear_points();
 	}
+
+	receptor_event.end();
+
+	if (receptor_event.shouldCommit())
+	{
+	    receptor_event.receptor = naming.getName();
+	    receptor_event.links = links.size();
+	    receptor_event.points = receptor_points;
+	    receptor_event.commit();
+	}
+
+	if (metrics != null)
+	{
+	    metrics.add_receptor_time(naming.getName(), System.nanoTime() - receptor_start);
+	    metrics.add_allocation(allocated_before, run_metrics.thread_allocated_bytes());
+	}
+    }
+
+    /**
+     * Keep the contribution, points and error of every link after the links were evaluated
+	* outside the receptor (see <code>parallel_evaluation</code>).  The earlier contributions are
+	* replaced, and the links are added in order so the total is the same as that of
+	* <code>calculate_concentration</code>.
+     */
+    void record_link_results()
+    {
+	total_concentration = 0.0;
+	total_sum.reset();
+	concentration = new double[links.size()];
+
+	for (int index = 0; index < links.size(); index++)
+	{
+	    link current_link = (link) links.elementAt(index);
+
+	    add_concentration(index, current_link.getTotal_concentration());
+	    points_used[index] = current_link.getPoints_used();
+	    estimated_error[index] = current_link.getEstimated_error();
+
+	    current_link.clear_points();
+	    current_link.setEvaluation_location(null);
+	}
+    }
+
+    /**
+     * Returns the name of the site link that link <code>index</code> of the receptor is a copy of.
+     */
+    String getLink_name(int index)
+    {
+	return (String) link_names.elementAt(index);
+    }
+
+    /**
+     * Find the contributions of all the links to a vertical column of receptors that share the same
+	* horizontal position.  The points of each link are generated once for the whole column
+	* (see <code>link.calculate_column_concentration</code>) using the links of the first receptor,
+	* instead of once for each receptor.  Every receptor of the column must hold copies of the same links.
+     *
+     * @param column the receptors of the column.
+     */
+    public static void calculate_column_concentration(Vector<receptor> column)
+    {
+	receptor base = column.elementAt(0);
+	double[] heights = new double[column.size()];
+
+	// metrics are only recorded when they are turned on (see run_metrics)
+	run_metrics metrics = run_metrics.enabled ? run_metrics.current() : null;
+	long	    column_start = 0;
+	long	    allocated_before = 0;
+
+	if (metrics != null)
+	{
+	    column_start = System.nanoTime();
+	    allocated_before = run_metrics.thread_allocated_bytes();
+	}
+
+	// flight recorder event for the whole column, reported for its first receptor (see run_events)
+	run_events.receptor_evaluation receptor_event = new run_events.receptor_evaluation();
+	long			       column_points = 0;
+
+	receptor_event.begin();
+
+	for (int k = 0; k < column.size(); k++)
+	{
+	    receptor member = column.elementAt(k);
+
+	    heights[k] = member.getLocation().getZ();
+
+	    // replace any earlier contributions
+	    member.total_concentration = 0.0;
+	    member.total_sum.reset();
+	    member.concentration = new double[member.links.size()];
+	}
+
+	// the point locations only depend on the horizontal position of the receptor
+	link.setReceptor_location(base.getLocation());
+	point.setReceptor_location(base.getLocation());
+
+	for (int index = 0; index < base.links.size(); index++)
+	{
+	    link			current_link = (link) base.links.elementAt(index);
+	    long			link_start = (metrics != null) ? System.nanoTime() : 0;
+	    run_events.link_evaluation link_event = new run_events.link_evaluation();
+
+	    link_event.begin();
+	    current_link.calculate_column_concentration(heights);
+	    link_event.end();
+
+	    if (link_event.shouldCommit())
+	    {
+		link_event.receptor = base.naming.getName();
+		link_event.link = base.getLink_name(index);
+		link_event.points = current_link.getPoints_used();
+		link_event.commit();
+	    }
+
+	    column_points += current_link.getPoints_used();
+
+	    if (metrics != null)
+	    {
+		// one evaluation of the link serves every receptor of the column
+		metrics.add_link_time(base.getLink_name(index), System.nanoTime() - link_start);
+		metrics.links_evaluated += column.size();
+	    }
+
+	    double[] column_concentrations = current_link.getColumn_concentrations();
+
+	    for (int k = 0; k < column.size(); k++)
+	    {
+		receptor member = column.elementAt(k);
+
+		member.add_concentration(index, column_concentrations[k]);
+		member.points_used[index] = current_link.getPoints_used();
+		member.estimated_error[index] = current_link.getEstimated_error();
+	    }
+	}
+
+	receptor_event.end();
+
+	if (receptor_event.shouldCommit())
+	{
+	    receptor_event.receptor = base.naming.getName();
+	    receptor_event.links = base.links.size();
+	    receptor_event.points = column_points;
+	    receptor_event.commit();
+	}
+
+	if (metrics != null)
+	{
+	    // the time of the column is shared equally between its receptors
+	    long share = (System.nanoTime() - column_start) / column.size();
+
+	    for (int k = 0; k < column.size(); k++)
+	    {
+		metrics.add_receptor_time(column.elementAt(k).naming.getName(), share);
+	    }
+
+	    metrics.add_allocation(allocated_before, run_metrics.thread_allocated_bytes());
+	}
+    }
+
+    /**
+     * Have each link store the terms of its points that do not depend on the wind constant
+	* <code>a</code> for this receptor (see <code>link.prepare_speed_terms</code>).
+     */
+    public void prepare_speed_terms()
+    {
+	link.setReceptor_location(this.getLocation());
+	point.setReceptor_location(this.getLocation());
+
+	for (int index = 0; index < links.size(); index++)
+	{
+	    ((link) links.elementAt(index)).prepare_speed_terms();
+	}
+    }
+
+    /**
+     * Find the concentration contributions of all the links at the wind constant <code>a</code>
+	* from the terms stored by <code>prepare_speed_terms</code>.  The earlier contributions are replaced.
+     */
+    public void calculate_speed_scaled_concentration(double a)
+    {
+	link.setReceptor_location(this.getLocation());
+	point.setReceptor_location(this.getLocation());
+
+	// replace the contributions found for the earlier wind speed
+	total_concentration = 0.0;
+	total_sum.reset();
+	concentration = new double[links.size()];
+
+	for (int index = 0; index < links.size(); index++)
+	{
+	    link current_link = (link) links.elementAt(index);
+
+	    current_link.calculate_speed_scaled_concentration(a);
+	    add_concentration(index, current_link.getTotal_concentration());
+	    points_used[index] = current_link.getPoints_used();
+	    estimated_error[index] = current_link.getEstimated_error();
+	}
+    }
+
+    /**
+     * Remove the terms stored by <code>prepare_speed_terms</code> from each link.
+     */
+    public void clear_speed_terms()
+    {
+	for (int index = 0; index < links.size(); index++)
+	{
+	    ((link) links.elementAt(index)).clear_speed_terms();
+	}
     }
 
     /**
@@ -86,6 +353,14 @@ public class receptor
      */
     private Vector	  link_names;
 
+    /**
+     * The position in the site links of each link copy, in increasing order, when the receptor holds
+	* copies of only some of the site links (see <code>addLinkCopy(Vector, int[])</code>), and the
+	* number of site links.  <code>site_links</code> is null when the copies are of every site link in order.
+     */
+    private int[]	  site_links = null;
+    private int		  site_link_count = 0;
+
     /**
      * Each receptor has an internal vector that stores a copy of all the links
      * That contribute pollutant concentrations to it.  Use this method to add a copy
@@ -102,6 +377,7 @@ public class receptor
 	    link_names.add(link_to_add.naming.getName());
 	    // add a copy of the link to the receptor vector
 	    links.add((link) link_to_add.clone());
+	    extend_site_links(1);
 	    // change the link name to show receptor ownership
 	    // for instance if you add link named Link_0 to a receptor
 	    // with name Receptor_2 you will get the name
@@ -119,7 +395,10 @@ public class receptor
 	finally
 	{
 	    total_concentration = 0.0;			 // reset total concentration = 0
+	    total_sum.reset();
 	    concentration = new double[links.size()];    // reset concentration contribution from each link =0
+	    points_used = new int[links.size()];
+	    estimated_error = new double[links.size()];
 	}
     }
 
@@ -141,6 +420,7 @@ public class receptor
 		// adds a copy of each member in link_vector_to_add to the internal receptor link
 		// vector
 		links.add(((link) link_vector_to_add.elementAt(i)).clone());
+		extend_site_links(1);
 		// for instance if you add link named Link_0 to a receptor
 		// with name Receptor_2 you will get the name
 		// Receptor_2-Owned-Link_0
@@ -158,10 +438,89 @@ public class receptor
 	finally
 	{
 	    total_concentration = 0.0;			 // reset total concentration = 0
+	    total_sum.reset();
 	    concentration = new double[links.size()];    // reset concentration contribution from each link =0
+	    points_used = new int[links.size()];
+	    estimated_error = new double[links.size()];
 	}
     }
 
+    /**
+     * Add copies of some of the links of a site to the receptor, for instance the links that can
+	* reach it (see <code>influence_index.find_links</code>).  The receptor must not hold any links.
+	* The contributions are still reported for every site link by <code>getConcentration</code>,
+	* <code>getPoints_used</code> and <code>getEstimated_error</code>, with 0 for the links that
+	* were not copied.
+     *
+     * @param link_vector_to_add the links of the site.
+     * @param copied the position in <code>link_vector_to_add</code> of each link to copy, in increasing order.
+     */
+    public void addLinkCopy(Vector<?> link_vector_to_add, int[] copied)
+    {
+	if (links.size() > 0)
+	{
+	    System.err.println("Some of the site links can only be added to a receptor without links, not to "
+			       + naming.getName() + ".\nIf you choose to continue the links will not be added");
+	    debugging.exception_handeler();
+
+	    return;
+	}
+
+	Vector<Object> selected = new Vector<Object>(copied.length);
+
+	for (int k = 0; k < copied.length; k++)
+	{
+	    selected.add(link_vector_to_add.elementAt(copied[k]));
+	}
+
+	addLinkCopy(selected);
+	site_links = copied.clone();
+	site_link_count = link_vector_to_add.size();
+    }
+
+    /**
+     * Record the site position of links added after copies of only some of the site links
+	* (they are taken to follow the site links).
+     */
+    private void extend_site_links(int added)
+    {
+	if (site_links == null)
+	{
+	    return;
+	}
+
+	int[] extended = new int[site_links.length + added];
+
+	System.arraycopy(site_links, 0, extended, 0, site_links.length);
+
+	for (int k = site_links.length; k < extended.length; k++)
+	{
+	    extended[k] = site_link_count++;
+	}
+
+	site_links = extended;
+    }
+
+    /**
+     * Returns the position in the site links of each link copy of the receptor.
+     */
+    int[] getSite_links()
+    {
+	if (site_links != null)
+	{
+	    return site_links;
+	}
+
+	int[] positions = new int[links.size()];
+
+	for (int index = 0; index < positions.length; index++)
+	{
+	    positions[index] = index;
+	}
+
+	return positions;
+    }
+
     /**
      * Routine to return a reference to a link in the link vector.  The index indicates the
 	* possition of the desired link.
@@ -177,6 +536,17 @@ public class receptor
      */
     private double[]   concentration;
 
+    /**
+     * <code>points_used</code> is the number of point sources used to find the concentration from each link.
+     */
+    private int[]      points_used = new int[1];
+
+    /**
+     * <code>estimated_error</code> is the estimated absolute error (g/m^3) of the concentration from each link.
+     * The error is NaN for links that were not evaluated with automatic refinement (see <code>link.set_auto_refine</code>).
+     */
+    private double[]   estimated_error = new double[1];
+
     /**
      * <code>location</code> is the coordinate representing the location of the receptor.
      */
@@ -205,6 +575,11 @@ public class receptor
      */
     private double total_concentration;
 
+    /**
+     * The pairwise sum of the link contributions that <code>total_concentration</code> is taken from.
+     */
+    private pairwise_sum total_sum = new pairwise_sum();
+
     /**
      * <code>getTotal_concentration</code> method returns the pollutant concentration from all known links.
      *
@@ -294,8 +669,10 @@ public class receptor
 
 	// if link and concentration is valid add the concentration contribution
 	concentration[link_num] += x;
-	// update the total concentration as well
-	total_concentration += x;
+	// update the total concentration as well - the link contributions are added in link order
+	// with pairwise summation so the total does not depend on how the links were evaluated
+	total_sum.add(x);
+	total_concentration = total_sum.get_sum();
     }
 
     /**
@@ -385,10 +762,101 @@ public class receptor
 
     /**
      * return the concentration matrix for the calling receptor object
+	* (0 for the site links the receptor holds no copy of, see <code>addLinkCopy(Vector, int[])</code>)
      */
     public double[] getConcentration()
+    {
+	if (site_links == null)
+	{
+	    return this.concentration;
+	}
+
+	double[] site_concentration = new double[site_link_count];
+
+	for (int index = 0; index < site_links.length; index++)
+	{
+	    site_concentration[site_links[index]] = concentration[index];
+	}
+
+	return site_concentration;
+    }
+
+    /**
+     * return the number of point sources used for each link of the calling receptor object
+     */
+    public int[] getPoints_used()
+    {
+	if (site_links == null)
+	{
+	    return this.points_used;
+	}
+
+	int[] site_points = new int[site_link_count];
+
+	for (int index = 0; index < site_links.length; index++)
+	{
+	    site_points[site_links[index]] = points_used[index];
+	}
+
+	return site_points;
+    }
+
+    /**
+     * return the estimated absolute error (g/m^3) of the concentration from each link
+     */
+    public double[] getEstimated_error()
+    {
+	if (site_links == null)
+	{
+	    return this.estimated_error;
+	}
+
+	double[] site_error = new double[site_link_count];
+
+	for (int index = 0; index < site_links.length; index++)
+	{
+	    site_error[site_links[index]] = estimated_error[index];
+	}
+
+	return site_error;
+    }
+
+    /**
+     * Returns the concentration from each link copy of the receptor, in the order of <code>getSite_links</code>.
+     */
+    double[] getCopy_concentration()
     {
 	return this.concentration;
     }
+
+    /**
+     * Returns the number of point sources used for all of the link copies.
+     */
+    int getTotal_points_used()
+    {
+	int total = 0;
+
+	for (int index = 0; index < points_used.length; index++)
+	{
+	    total += points_used[index];
+	}
+
+	return total;
+    }
+
+    /**
+     * Returns the sum of the estimated error (g/m^3) of the link copies.
+     */
+    double getTotal_estimated_error()
+    {
+	double total = 0.0;
+
+	for (int index = 0; index < estimated_error.length; index++)
+	{
+	    total += estimated_error[index];
+	}
+
+	return total;
+    }
 }
 
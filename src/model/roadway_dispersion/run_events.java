@@ -0,0 +1,97 @@
+package roadway_dispersion;
+
+import jdk.jfr.*;    // access to the flight recorder event classes
+
+/**
+ * <b>Overview</b><br>
+ * The <code>run_events</code> class holds the Java Flight Recorder events of the model.  A
+ * <code>simulation</code> event covers each <code>site_description.run_simulation</code>, a
+ * <code>receptor_evaluation</code> event covers each <code>receptor.calculate_concentration</code>
+ * and a <code>link_evaluation</code> event covers each <code>link.calculate_link_concentration</code>
+ * made for a receptor.  The duration of each event is recorded by the flight recorder, so slow
+ * runs can be lined up with garbage collection, safepoints and CPU use in the same recording.
+ * <br>
+ * The events are turned on by the settings file <code>roadway_dispersion.jfc</code> that sits
+ * next to this class, for example:
+ * <pre>
+ *   java -XX:StartFlightRecording:settings=default,settings=roadway_dispersion.jfc,filename=run.jfr ...
+ * </pre>
+ * Events are only created once per simulation, receptor and link, never for a point, and when
+ * the recorder is off an event is created and dropped without being written.
+ *
+ * <br><br>
+ * <b>Notes:</b><br>
+ * The events need the flight recorder of Java 11 or later.
+ *
+ * @see site_description
+ * @see receptor
+ * @see link
+ */
+
+public final class run_events
+{
+    /**
+     * The events are only used through the nested classes.
+     */
+    private run_events() {}
+
+    /**
+     * One <code>site_description.run_simulation</code>.
+     */
+    @Name("roadway_dispersion.Simulation")
+    @Label("Simulation")
+    @Category({"UCD 2001", "Roadway Dispersion"})
+    @Description("One run of a sampling site")
+    public static final class simulation extends Event
+    {
+	@Label("Receptors")
+	public int  receptors;
+
+	@Label("Links")
+	public int  links;
+
+	@Label("Points")
+	@Description("Total number of point sources evaluated")
+	public long points;
+    }
+
+    /**
+     * One <code>receptor.calculate_concentration</code>.
+     */
+    @Name("roadway_dispersion.Receptor")
+    @Label("Receptor Evaluation")
+    @Category({"UCD 2001", "Roadway Dispersion"})
+    @Description("The concentration contributions of every link to one receptor")
+    public static final class receptor_evaluation extends Event
+    {
+	@Label("Receptor")
+	public String receptor;
+
+	@Label("Links")
+	public int    links;
+
+	@Label("Points")
+	@Description("Number of point sources evaluated for the receptor")
+	public long   points;
+    }
+
+    /**
+     * One <code>link.calculate_link_concentration</code> made for a receptor.
+     */
+    @Name("roadway_dispersion.Link")
+    @Label("Link Evaluation")
+    @Category({"UCD 2001", "Roadway Dispersion"})
+    @Description("The concentration contribution of one link to one receptor")
+    public static final class link_evaluation extends Event
+    {
+	@Label("Receptor")
+	public String receptor;
+
+	@Label("Link")
+	public String link;
+
+	@Label("Points")
+	@Description("Number of point sources evaluated for the link")
+	public int    points;
+    }
+}
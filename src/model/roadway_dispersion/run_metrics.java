@@ -0,0 +1,553 @@
+package roadway_dispersion;
+
+import java.util.*;	      // access to the vector and hashtable classes
+import java.lang.reflect.*;    // access to the optional allocation counter of the JVM
+
+/**
+ * <b>Overview</b><br>
+ * The <code>run_metrics</code> class counts the work done during a simulation and times each
+ * stage of it, so one can tell where the run time of a site goes.  The following are recorded:
+ * <ul>
+ * <li>the number of links evaluated and the number of points generated for them</li>
+ * <li>the number of points that were upwind of the receptor (they contribute nothing)</li>
+ * <li>the number of Bessel function evaluations and an estimate of the time spent in them</li>
+ * <li>the time spent generating points and the time spent evaluating the huang kernel
+ *     (normalization, the huang equation and the summation of the contributions)</li>
+ * <li>the wall time of each link (summed over the receptors) and of each receptor</li>
+ * <li>the bytes allocated by the threads doing the work, when the JVM can report them</li>
+ * </ul>
+ * <br>
+ * Metrics are turned on with <code>set_enabled</code>.  When they are off every recording site
+ * is skipped by a single test of a static flag.  When they are on, each thread records into its
+ * own <code>run_metrics</code> object so the counters are never shared between threads, and
+ * <code>collect</code> merges the objects of every thread once the work is done.  The Bessel time
+ * is found by timing one call in <code>BESSEL_SAMPLE_INTERVAL</code> and scaling, which keeps the
+ * cost of the timer calls well below the cost of the kernel.
+ * <br>
+ * <code>site_description.run_simulation</code> collects the metrics of a run, which are then
+ * available from <code>site_description.getRun_metrics</code> as text or as JSON.
+ *
+ * <br><br>
+ * <b>Notes:</b><br>
+ * Times are in nanoseconds unless otherwise stated.
+ *
+ * @see site_description
+ * @see link
+ * @see point
+ */
+
+public class run_metrics
+{
+    /**
+     * Indicates if metrics are recorded.  This is read on every recording site so it is a plain static.
+     */
+    static boolean		     enabled = false;
+
+    /**
+     * One Bessel evaluation in this many is timed to estimate the total Bessel time.
+     */
+    public static final int	     BESSEL_SAMPLE_INTERVAL = 64;
+
+    /**
+     * Every per-thread metrics object that has been created, so that they can be merged.
+     */
+    private static Vector<run_metrics> thread_metrics = new Vector<run_metrics>();
+
+    /**
+     * The metrics object of each thread.
+     */
+    private static ThreadLocal<run_metrics> current_metrics = new ThreadLocal<run_metrics>()
+    {
+	protected run_metrics initialValue()
+	{
+	    run_metrics metrics = new run_metrics();
+
+	    metrics.owner = Thread.currentThread();
+
+	    synchronized (thread_metrics)
+	    {
+		thread_metrics.add(metrics);
+	    }
+
+	    return metrics;
+	}
+    };
+
+    /**
+     * The thread that records into this object, or null for a merged object.
+     */
+    private Thread		     owner = null;
+
+    // counters - public to the package so the recording sites can update them directly
+    long			     links_evaluated = 0;
+    long			     points_generated = 0;
+    long			     points_upwind = 0;
+    long			     bessel_calls = 0;
+    long			     bessel_sampled_calls = 0;
+    long			     bessel_sampled_time = 0;
+    long			     generation_time = 0;
+    long			     kernel_time = 0;
+    long			     allocated_bytes = 0;
+    long			     wall_time = 0;
+
+    /**
+     * Wall time of each link, keyed by the original link name.  Each value is {evaluations, time}.
+     */
+    private Hashtable<String, long[]> link_times = new Hashtable<String, long[]>();
+
+    /**
+     * Wall time of each receptor, keyed by the receptor name.  Each value is {evaluations, time}.
+     */
+    private Hashtable<String, long[]> receptor_times = new Hashtable<String, long[]>();
+
+    /**
+     * Creates a new empty <code>run_metrics</code> object.
+     */
+    public run_metrics() {}
+
+    /**
+     * Turn the recording of metrics on or off.
+     */
+    public static void set_enabled(boolean enable)
+    {
+	enabled = enable;
+    }
+
+    /**
+     * Returns true if metrics are being recorded.
+     */
+    public static boolean is_enabled()
+    {
+	return enabled;
+    }
+
+    /**
+     * Return the metrics object of the calling thread.
+     */
+    static run_metrics current()
+    {
+	return current_metrics.get();
+    }
+
+    /**
+     * Clear the metrics of every thread.  This is done at the start of each simulation.  The
+     * objects of threads that have ended (for example the workers of a replaced pool, see
+     * <code>parallel_evaluation</code>) are dropped.
+     */
+    public static void reset_all()
+    {
+	synchronized (thread_metrics)
+	{
+	    for (int i = thread_metrics.size() - 1; i >= 0; i--)
+	    {
+		run_metrics metrics = thread_metrics.elementAt(i);
+
+		if (!metrics.owner.isAlive())
+		{
+		    thread_metrics.removeElementAt(i);
+		}
+		else
+		{
+		    metrics.clear();
+		}
+	    }
+	}
+    }
+
+    /**
+     * Merge the metrics of every thread into a new object.  The per-thread metrics are not cleared.
+     *
+     * @param wall_time the wall time of the whole run.
+     */
+    public static run_metrics collect(long wall_time)
+    {
+	run_metrics total = new run_metrics();
+
+	synchronized (thread_metrics)
+	{
+	    for (int i = 0; i < thread_metrics.size(); i++)
+	    {
+		total.merge(thread_metrics.elementAt(i));
+	    }
+	}
+
+	total.wall_time = wall_time;
+
+	return total;
+    }
+
+    /**
+     * Reset every counter of this object.
+     */
+    private void clear()
+    {
+	links_evaluated = points_generated = points_upwind = 0;
+	bessel_calls = bessel_sampled_calls = bessel_sampled_time = 0;
+	generation_time = kernel_time = allocated_bytes = wall_time = 0;
+	link_times.clear();
+	receptor_times.clear();
+    }
+
+    /**
+     * Add the counters and times of another metrics object to this object.  The allocated bytes
+	* stay -1 (not available) if they are not available for either object.
+     */
+    private void merge(run_metrics other)
+    {
+	links_evaluated += other.links_evaluated;
+	points_generated += other.points_generated;
+	points_upwind += other.points_upwind;
+	bessel_calls += other.bessel_calls;
+	bessel_sampled_calls += other.bessel_sampled_calls;
+	bessel_sampled_time += other.bessel_sampled_time;
+	generation_time += other.generation_time;
+	kernel_time += other.kernel_time;
+	allocated_bytes = (allocated_bytes < 0 || other.allocated_bytes < 0) ? -1
+			  : allocated_bytes + other.allocated_bytes;
+	merge_times(link_times, other.link_times);
+	merge_times(receptor_times, other.receptor_times);
+    }
+
+    /**
+     * Add the {evaluations, time} entries of one table to another.
+     */
+    private static void merge_times(Hashtable<String, long[]> into, Hashtable<String, long[]> from)
+    {
+	for (Enumeration<String> e = from.keys(); e.hasMoreElements();)
+	{
+	    String key = e.nextElement();
+	    long[] value = from.get(key);
+
+	    add_time(into, key, value[0], value[1]);
+	}
+    }
+
+    /**
+     * Add evaluations and time to the entry of a name in a time table.
+     */
+    private static void add_time(Hashtable<String, long[]> table, String name, long evaluations, long time)
+    {
+	long[] entry = table.get(name);
+
+	if (entry == null)
+	{
+	    entry = new long[2];
+	    table.put(name, entry);
+	}
+
+	entry[0] += evaluations;
+	entry[1] += time;
+    }
+
+    /**
+     * Record the wall time of one link evaluation.
+     */
+    void add_link_time(String link_name, long time)
+    {
+	add_time(link_times, link_name, 1, time);
+    }
+
+    /**
+     * Record the wall time of one receptor evaluation.
+     */
+    void add_receptor_time(String receptor_name, long time)
+    {
+	add_time(receptor_times, receptor_name, 1, time);
+    }
+
+    /**
+     * Record a Bessel function evaluation.  Returns true if this call should be timed.
+     */
+    boolean count_bessel_call()
+    {
+	bessel_calls++;
+
+	return (bessel_calls % BESSEL_SAMPLE_INTERVAL) == 0;
+    }
+
+    /**
+     * Record the time of a sampled Bessel function evaluation.
+     */
+    void add_bessel_sample(long time)
+    {
+	bessel_sampled_calls++;
+	bessel_sampled_time += time;
+    }
+
+    /**
+     * Record the bytes the calling thread allocated between two readings of
+	* <code>thread_allocated_bytes</code>.  The count becomes -1 (not available) if either
+	* reading is -1.
+     */
+    void add_allocation(long before, long after)
+    {
+	if (before < 0 || after < 0)
+	{
+	    allocated_bytes = -1;
+	}
+	else if (allocated_bytes >= 0)
+	{
+	    allocated_bytes += after - before;
+	}
+    }
+
+    /* ----------------------- allocation counter of the JVM ------------------------ */
+    private static final Object thread_bean;
+    private static final Method allocated_bytes_method;
+
+    // the counter is looked up once, when the class is loaded
+    static
+    {
+	Object bean = null;
+	Method method = null;
+
+	try
+	{
+	    Class<?> factory = Class.forName("java.lang.management.ManagementFactory");
+
+	    bean = factory.getMethod("getThreadMXBean").invoke(null);
+	    method = Class.forName("com.sun.management.ThreadMXBean").getMethod("getThreadAllocatedBytes", long.class);
+	}
+	catch (Throwable e)
+	{
+	    method = null;    // the counter is not available on this JVM
+	}
+
+	thread_bean = bean;
+	allocated_bytes_method = method;
+    }
+
+    /**
+     * Return the number of bytes the calling thread has allocated, or -1 if the JVM can not
+	* report it.  The counter is looked up by reflection so the model does not depend on it.
+     */
+    static long thread_allocated_bytes()
+    {
+	if (allocated_bytes_method == null)
+	{
+	    return -1;
+	}
+
+	try
+	{
+	    Object bytes = allocated_bytes_method.invoke(thread_bean, Long.valueOf(Thread.currentThread().getId()));
+
+	    return ((Long) bytes).longValue();
+	}
+	catch (Throwable e)
+	{
+	    return -1;
+	}
+    }
+
+    /* ------------------------------- reporting ---------------------------------- */
+
+    /**
+     * Get the number of links evaluated (one per receptor for each site link).
+     */
+    public long getLinks_evaluated()
+    {
+	return links_evaluated;
+    }
+
+    /**
+     * Get the number of point sources generated.
+     */
+    public long getPoints_generated()
+    {
+	return points_generated;
+    }
+
+    /**
+     * Get the number of point sources that were upwind of the receptor.
+     */
+    public long getPoints_upwind()
+    {
+	return points_upwind;
+    }
+
+    /**
+     * Get the number of Bessel function evaluations.
+     */
+    public long getBessel_calls()
+    {
+	return bessel_calls;
+    }
+
+    /**
+     * Get the estimated time spent in the Bessel function (ns).
+     */
+    public long getBessel_time()
+    {
+	if (bessel_sampled_calls == 0)
+	{
+	    return 0;
+	}
+
+	return (long) ((double) bessel_sampled_time / bessel_sampled_calls * bessel_calls);
+    }
+
+    /**
+     * Get the time spent generating point sources (ns).
+     */
+    public long getGeneration_time()
+    {
+	return generation_time;
+    }
+
+    /**
+     * Get the time spent evaluating the huang kernel and adding the contributions (ns).
+     */
+    public long getKernel_time()
+    {
+	return kernel_time;
+    }
+
+    /**
+     * Get the bytes allocated by the threads that evaluated the receptors (-1 if not available).
+     */
+    public long getAllocated_bytes()
+    {
+	return allocated_bytes;
+    }
+
+    /**
+     * Get the wall time of the run (ns).
+     */
+    public long getWall_time()
+    {
+	return wall_time;
+    }
+
+    /**
+     * Get the allocation rate of the run in bytes per second (-1 if not available).
+     */
+    public double getAllocation_rate()
+    {
+	if (allocated_bytes < 0 || wall_time <= 0)
+	{
+	    return -1;
+	}
+
+	return allocated_bytes / (wall_time / 1.0E9);
+    }
+
+    /**
+     * Return the metrics as a JSON object.
+     */
+    public String to_json()
+    {
+	StringBuffer json = new StringBuffer(512);
+
+	json.append("{\n");
+	json.append("  \"wall_time_ns\": ").append(wall_time).append(",\n");
+	json.append("  \"links_evaluated\": ").append(links_evaluated).append(",\n");
+	json.append("  \"points_generated\": ").append(points_generated).append(",\n");
+	json.append("  \"points_upwind\": ").append(points_upwind).append(",\n");
+	json.append("  \"bessel_calls\": ").append(bessel_calls).append(",\n");
+	json.append("  \"stage_time_ns\": {\"point_generation\": ").append(generation_time)
+	    .append(", \"kernel\": ").append(kernel_time).append(", \"bessel_estimated\": ").append(getBessel_time())
+	    .append("},\n");
+	json.append("  \"allocated_bytes\": ").append(allocated_bytes).append(",\n");
+	json.append("  \"allocation_rate_bytes_per_s\": ").append(getAllocation_rate()).append(",\n");
+	json.append("  \"link_wall_time_ns\": ");
+	append_times(json, link_times);
+	json.append(",\n  \"receptor_wall_time_ns\": ");
+	append_times(json, receptor_times);
+	json.append("\n}\n");
+
+	return json.toString();
+    }
+
+    /**
+     * Append a time table to a JSON buffer as an object of {"evaluations": n, "time_ns": t} entries.
+     */
+    private static void append_times(StringBuffer json, Hashtable<String, long[]> table)
+    {
+	// sort the names so the output is the same from run to run
+	Vector<String> names = new Vector<String>(table.keySet());
+
+	Collections.sort(names);
+	json.append("{");
+
+	for (int i = 0; i < names.size(); i++)
+	{
+	    String name = names.elementAt(i);
+	    long[] entry = table.get(name);
+
+	    json.append(i == 0 ? "\n" : ",\n");
+	    json.append("    \"").append(escape(name)).append("\": {\"evaluations\": ").append(entry[0])
+		.append(", \"time_ns\": ").append(entry[1]).append("}");
+	}
+
+	json.append(names.size() == 0 ? "}" : "\n  }");
+    }
+
+    /**
+     * Escape the quote, backslash and control characters of a name for JSON output.
+     */
+    private static String escape(String name)
+    {
+	StringBuffer escaped = new StringBuffer(name.length());
+
+	for (int i = 0; i < name.length(); i++)
+	{
+	    char c = name.charAt(i);
+
+	    switch (c)
+	    {
+		case '"':
+		case '\\':
+		    escaped.append('\\').append(c);
+		    break;
+		case '\b':
+		    escaped.append("\\b");
+		    break;
+		case '\f':
+		    escaped.append("\\f");
+		    break;
+		case '\n':
+		    escaped.append("\\n");
+		    break;
+		case '\r':
+		    escaped.append("\\r");
+		    break;
+		case '\t':
+		    escaped.append("\\t");
+		    break;
+		default:
+		    if (c < 0x20)
+		    {
+			escaped.append(String.format("\\u%04x", Integer.valueOf(c)));
+		    }
+		    else
+		    {
+			escaped.append(c);
+		    }
+	    }
+	}
+
+	return escaped.toString();
+    }
+
+    /**
+     * Return the metrics as a readable summary.
+     */
+    public String toString()
+    {
+	String return_string = "";
+
+	return_string += "\nRun Metrics";
+	return_string += "\nWall time (ms) = " + wall_time / 1.0E6;
+	return_string += "\nLinks evaluated = " + links_evaluated;
+	return_string += "\nPoints generated = " + points_generated;
+	return_string += "\nPoints upwind of the receptor = " + points_upwind;
+	return_string += "\nBessel function calls = " + bessel_calls;
+	return_string += "\nPoint generation time (ms) = " + generation_time / 1.0E6;
+	return_string += "\nKernel time (ms) = " + kernel_time / 1.0E6;
+	return_string += "\nEstimated Bessel time (ms) = " + getBessel_time() / 1.0E6;
+	return_string += "\nAllocated bytes = " + allocated_bytes;
+
+	return return_string;
+    }
+}
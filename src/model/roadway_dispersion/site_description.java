@@ -66,6 +66,20 @@ public class site_description
  */
     private double[][] conc_matrix;
 
+/**
+ * The error_matrix stores the estimated absolute error (g/m^3) of each member of the
+ * conc_matrix and has the same form.  The totals column is the sum of the link errors.
+ * Errors are only estimated when the automatic point refinement is turned on
+ * (see <code>link.set_auto_refine</code>) and are NaN otherwise.
+ */
+    private double[][] error_matrix;
+
+/**
+ * The points_matrix stores the number of point sources used to find each member of the
+ * conc_matrix and has the same form.  The totals column is the sum of the link points.
+ */
+    private int[][]    points_matrix;
+
 
  /**
   * Array to store the wind speed, angle and the reference elevation that the
@@ -96,6 +110,114 @@ public class site_description
     */
    private pollutant_type pollutant;
 
+   /**
+    * The pollutants of a multi-pollutant study (see <code>add_pollutant</code>).  Each member
+    * of <code>pollutant_line_strengths</code> holds the line strength of every link for the
+    * pollutant with the same index.
+    */
+   private Vector<pollutant_type> pollutants = new Vector<pollutant_type>(0, 5);
+   private Vector<double[]> pollutant_line_strengths = new Vector<double[]>(0, 5);
+
+   /**
+    * pollutant_conc_matrices[p] is the concentration matrix of pollutant p in g/m^3.
+    * It has the form of the <code>conc_matrix</code>.
+    */
+   private double[][][] pollutant_conc_matrices;
+
+   /**
+    * pollutant_error_matrices[p] is the error matrix of pollutant p in g/m^3, in the form of the
+    * <code>error_matrix</code>, and pollutant_pruning_error_bounds[p] holds the pruning error bound
+    * of each receptor for pollutant p.
+    */
+   private double[][][] pollutant_error_matrices;
+   private double[][]   pollutant_pruning_error_bounds;
+
+   /**
+    * The point spacing settings used for the links of this site that do not have a profile of
+    * their own.  If this is null the default profile of <code>highway_point_spacing</code> is used.
+    */
+   private spacing_profile spacing_profile = null;
+
+   /**
+    * The work counters and stage times of the last simulation.  This is null unless metrics
+    * were turned on with <code>run_metrics.set_enabled</code> (see <code>getRun_metrics</code>).
+    */
+   private run_metrics last_metrics = null;
+
+   /**
+    * The dispersion parameters the terms of a speed sweep were found with (null if there is no
+    * speed sweep, see <code>prepare_speed_sweep</code>).
+    */
+   private dispersion speed_sweep_dispersion = null;
+
+   /**
+    * Indicates if the receptors hold the speed terms of the sweep, or if each speed is found by a
+    * full simulation (see <code>prepare_speed_sweep</code>).
+    */
+   private boolean speed_sweep_terms = false;
+
+   /**
+    * Indicates if receptors that share a horizontal position are evaluated together
+    * (see <code>setColumn_batching</code>).
+    */
+   private boolean column_batching = false;
+
+   /**
+    * Indicates if the links are evaluated from trees of point sources shared by every receptor,
+    * and the point spacing and opening angle of the trees (see <code>setSource_tree</code>).
+    */
+   private boolean source_tree_evaluation = false;
+   private double  source_tree_spacing = 1.0;
+   private double  source_tree_opening_angle = 0.3;
+
+   /**
+    * Indicates if receptor and link pairs beyond the influence radius of the link are left out,
+    * and the concentration (g/m^3) a link must be able to contribute for a pair to be evaluated
+    * (see <code>setInfluence_pruning</code>).
+    */
+   private boolean influence_pruning = false;
+   private double  influence_threshold = 1.0E-9;
+
+   /**
+    * The number of pairs left out of the last simulation and, for each receptor, the bound of the
+    * total concentration of the links left out (g/m^3).
+    */
+   private long	    pruned_pairs = 0;
+   private double[] pruning_error_bound = new double[0];
+
+   /**
+    * The influence index of the last simulation (null if pairs were not pruned), used to report
+    * the bound of each pruned pair in the error matrix.
+    */
+   private influence_index pruning_index = null;
+
+   /**
+    * Indicates if the contributions are kept in a sparse <code>transfer_matrix</code> instead of
+    * the dense matrices, and the concentration (g/m^3) at or below which a contribution is not
+    * kept (see <code>setSparse_storage</code>).
+    */
+   private boolean sparse_storage = false;
+   private double  sparse_threshold = 0.0;
+
+   /**
+    * The contributions of the last simulation in the sparse storage mode (null otherwise), and
+    * the total number of points and estimated error of each receptor.
+    */
+   private transfer_matrix transfer = null;
+   private int[]	   sparse_points = null;
+   private double[]	   sparse_error = null;
+
+   /**
+    * The number of threads the receptor and link pairs are evaluated on (see <code>setParallel_threads</code>).
+    */
+   private int parallel_threads = 1;
+
+   /**
+    * The number of receptors for each thread that are evaluated together in the sparse storage
+    * mode when more than one thread is used.
+    */
+   private static final int PARALLEL_SPARSE_RECEPTORS = 16;
+
 
     /**
      * Constructor to create a new site_description.  Use the set routines to update the
@@ -135,6 +257,12 @@ public class site_description
 	links.clear();	      // remove all links
 	receptors.clear();    // remove all receptors
 	conc_matrix = null;   // delete the concentration matrix
+	pollutant_conc_matrices = null;
+	pollutant_error_matrices = null;
+	pollutant_pruning_error_bounds = null;
+	error_matrix = null;
+	points_matrix = null;
+	transfer = null;
 	dispersion_parameters = null;    // reset the dispersion parameter to null
     }
 
@@ -146,6 +274,47 @@ public class site_description
 	links.add(added_link);
     }
 
+    /**
+     * Get the number of links of the site.
+     */
+    int known_links()
+    {
+	return links.size();
+    }
+
+    /**
+     * Get a link of the site by its index in the order it was added.
+     */
+    link getLink(int index)
+    {
+	return (link) links.elementAt(index);
+    }
+
+    /**
+     * Get the number of receptors of the site.
+     */
+    int known_receptors()
+    {
+	return receptors.size();
+    }
+
+    /**
+     * Get a receptor of the site by its index in the order it was added.
+     */
+    receptor getReceptor(int index)
+    {
+	return (receptor) receptors.elementAt(index);
+    }
+
+    /**
+     * Get the concentration (g/m^3) a link must be able to contribute for a pair to be evaluated
+	* when influence pruning is on.
+     */
+    double getInfluence_threshold()
+    {
+	return influence_threshold;
+    }
+
      /**
 	* Add multiple link to the site_description based on a Vector of link information.
 	* The Vector must be a Vector of Vectors.  Each sub vector represents a single link.
@@ -163,77 +332,723 @@ public class site_description
 	*/
    public void add_links(Vector link_vec)
     {
-	 Vector temp_vec;                           // temporary Vector to store a single link vector
-	 highway_link temp_link;                    // link to add to sites links vector
-	 coordinate start_coord = new coordinate();  // temporary coordiante to store link start point
-	 coordinate end_coord = new coordinate();    // temporary coordiante to store link end point
-	 String temp_name;                          // temporary name to store link name
-	 double width, vps, ef;                     // temporary varibles to store width, flowrate, and emission factor info
+	 Vector temp_vec;                           // temporary Vector to store a single link vector
+	 highway_link temp_link;                    // link to add to sites links vector
+	 coordinate start_coord = new coordinate();  // temporary coordiante to store link start point
+	 coordinate end_coord = new coordinate();    // temporary coordiante to store link end point
+	 String temp_name;                          // temporary name to store link name
+	 double width, vps, ef;                     // temporary varibles to store width, flowrate, and emission factor info
+
+	 for (int i=0; i < link_vec.size(); i++)
+	 {
+	    temp_vec = (Vector) link_vec.get(i);     // get the sub vector
+	    temp_name = (String) temp_vec.get(0);     // receptor name
+	    start_coord.setX( ((Double) temp_vec.get(1)).doubleValue() );   // x1 coord
+	    end_coord.setX( ((Double) temp_vec.get(2)).doubleValue() );     // x2 coord
+	    start_coord.setY( ((Double) temp_vec.get(3)).doubleValue() );   // y1 coord
+	    end_coord.setY( ((Double) temp_vec.get(4)).doubleValue() );     // y2 coord
+
+	    width = ((Double) temp_vec.get(5)).doubleValue();            // width
+	    vps = ((Double) temp_vec.get(6)).doubleValue();              // flowrate
+	    ef = ((Double) temp_vec.get(7)).doubleValue();               // emission factor
+
+	    temp_link = new highway_link(start_coord,end_coord,width,ef,vps);        // create the new link
+
+	    this.add_link(temp_link);    // add the link to the site links vector
+	 }
+    }
+
+    /**
+     * Add a single receptor to the vector list of receptors for this sampling site.
+     */
+    public void add_receptor(receptor added_receptor)
+    {
+	receptors.add(added_receptor);
+    }
+
+    /**
+     * This routine will determine the concentration contribution of each link
+	* to each receptor.  This routine adds a copy of each link in the site to a single
+	* receptor.  Each link is simulated as a 3-d point source array with point spacing
+	* optomized based on wind direction and link and receptor coordinates.
+     * @param print_point_arrays_to_text_file - set this parameter to true if you want
+	* a text file listing point source locations and concentrations to be generated.
+	* Note:  each link can be represented by ten's of thousands of points.  Care should be used
+	* when setting the print flag to true.
+     */
+    public void run_simulation(boolean print_point_arrays_to_text_file)
+    {
+	// all links and points will share the same dispersion parameter values
+	// next two lines makes sure that there is global access to dispersion parameters
+	link.setDisp_param(this.dispersion_parameters);
+	point.setDisp_param(this.dispersion_parameters);
+
+	// the links given to the receptors are replaced so the terms of a speed sweep are lost
+	speed_sweep_dispersion = null;
+
+	// flight recorder event for the whole run (see run_events)
+	run_events.simulation simulation_event = new run_events.simulation();
+
+	simulation_event.begin();
+
+	// start the metrics of this run from zero (see run_metrics)
+	long start_time = 0;
+
+	if (run_metrics.is_enabled())
+	{
+	    run_metrics.reset_all();
+	    start_time = System.nanoTime();
+	}
+
+	// find the geometry of each site link once - the copies of the links
+	// given to each receptor will share these geometry objects
+	for (int i = 0; i < links.size(); i++)
+	{
+	    ((link) links.elementAt(i)).determine_link_geometry();
+	}
+
+	// the source tree of each link (see setSource_tree)
+	source_tree[] trees = null;
+
+	// the links that can reach each receptor (see setInfluence_pruning)
+	influence_index index = null;
+
+	pruned_pairs = 0;
+	pruning_error_bound = new double[receptors.size()];
+
+	if (influence_pruning)
+	{
+	    double[] heights = new double[receptors.size()];
+
+	    for (int i = 0; i < receptors.size(); i++)
+	    {
+		heights[i] = ((receptor) receptors.elementAt(i)).getLocation().getZ();
+	    }
+
+	    index = new influence_index(links, heights, spacing_profile, influence_threshold);
+	}
+
+	pruning_index = index;
+
+	long simulation_points = 0;
+
+	if (sparse_storage)
+	{
+	    // each receptor is given its link copies, evaluated and released in turn so only the
+	    // contributions above the threshold are kept (see setSparse_storage)
+	    double[] strengths = new double[links.size()];
+
+	    for (int j = 0; j < links.size(); j++)
+	    {
+		strengths[j] = ((link) links.elementAt(j)).getLine_strength();
+	    }
+
+	    transfer = new transfer_matrix(strengths, sparse_threshold);
+	    sparse_points = new int[receptors.size()];
+	    sparse_error = new double[receptors.size()];
+	    conc_matrix = null;
+	    error_matrix = null;
+	    points_matrix = null;
+	    pollutant_conc_matrices = null;
+	    pollutant_error_matrices = null;
+	    pollutant_pruning_error_bounds = null;
+
+	    // on more than one thread a group of receptors is held at a time so the threads stay busy
+	    boolean parallel = is_parallel(print_point_arrays_to_text_file);
+	    int	    group_size = parallel ? PARALLEL_SPARSE_RECEPTORS * parallel_threads : 1;
+
+	    for (int first = 0; first < receptors.size(); first += group_size)
+	    {
+		int		 last = Math.min(receptors.size(), first + group_size);
+		Vector<receptor> group = new Vector<receptor>(last - first);
+
+		for (int i = first; i < last; i++)
+		{
+		    trees = prepare_receptor(i, trees, index);
+		    group.add((receptor) receptors.elementAt(i));
+		}
+
+		if (parallel)
+		{
+		    parallel_evaluation.evaluate(group, parallel_threads);
+		}
+		else
+		{
+		    group.elementAt(0).calculate_concentration(print_point_arrays_to_text_file);
+		}
+
+		for (int i = first; i < last; i++)
+		{
+		    receptor current_receptor = (receptor) receptors.elementAt(i);
+
+		    // only the links the receptor holds copies of are stored - the others were pruned
+		    transfer.add_row(current_receptor.getSite_links(), current_receptor.getCopy_concentration(),
+				     current_receptor.getTotal_concentration());
+
+		    sparse_points[i] = current_receptor.getTotal_points_used();
+		    sparse_error[i] = current_receptor.getTotal_estimated_error() + pruning_error_bound[i];
+		    simulation_points += sparse_points[i];
+		    current_receptor.release_links();
+		}
+	    }
+	}
+	else
+	{
+	    transfer = null;
+
+	    // add each of the links to each member of the receptor link vector
+	    for (int i = 0; i < receptors.size(); i++)
+	    {
+		trees = prepare_receptor(i, trees, index);
+	    }
+
+	    evaluate_receptors(print_point_arrays_to_text_file);
+
+	    // convert receptor concentration data into a concentration matrix to facilite
+	    // exporting of model results
+	    create_conc_matrix();
+
+	    // the first column of the points matrix is the total of each receptor
+	    for (int i = 0; i < points_matrix.length; i++)
+	    {
+		simulation_points += points_matrix[i][0];
+	    }
+	}
+
+	// merge the metrics recorded by each thread during the run
+	last_metrics = run_metrics.is_enabled() ? run_metrics.collect(System.nanoTime() - start_time) : null;
+
+	simulation_event.end();
+
+	if (simulation_event.shouldCommit())
+	{
+	    simulation_event.receptors = receptors.size();
+	    simulation_event.links = links.size();
+	    simulation_event.points = simulation_points;
+	    simulation_event.commit();
+	}
+    }
+
+    /**
+     * Give receptor i copies of the site links with the spacing, tree and pruning settings of the run.
+	* When pairs are pruned the receptor is only given copies of the links that can reach it.
+     *
+     * @param trees the source trees of the run, or null if they have not been built yet.
+     * @param index the influence index of the run, or null if pairs are not pruned.
+     * @return the source trees of the run (each built from the first copy of its link).
+     */
+    private source_tree[] prepare_receptor(int i, source_tree[] trees, influence_index index)
+    {
+	// get a reference to the current receptor
+	receptor current_receptor = (receptor) receptors.elementAt(i);
+
+	// add a copy of the sampling site links to the receptor
+	// the name of the link will be changed to indicate ownership by the
+	// the current_receptor - the copies of an earlier run are removed first
+	current_receptor.clear_links();
+
+	if (index != null)
+	{
+	    // only the links that can reach the receptor are copied, the others report 0
+	    // and the bound of their contribution (see create_conc_matrix)
+	    double[] pruned = new double[2];
+
+	    current_receptor.addLinkCopy(links, index.find_links(current_receptor.getLocation(), pruned));
+	    pruned_pairs += (long) pruned[0];
+	    pruning_error_bound[i] = pruned[1];
+	}
+	else
+	{
+	    current_receptor.addLinkCopy(links);
+	}
+
+	// links without their own spacing settings use the settings of the site
+	if (spacing_profile != null)
+	{
+	    for (int j = 0; j < current_receptor.known_links(); j++)
+	    {
+		if (current_receptor.getLink(j).getSpacing_profile() == null)
+		{
+		    current_receptor.getLink(j).setSpacing_profile(spacing_profile);
+		}
+	    }
+	}
+
+	// the tree of each site link is built from its first copy, which has the spacing
+	// settings of the site, and shared by the copies of every receptor
+	if (source_tree_evaluation)
+	{
+	    if (trees == null)
+	    {
+		trees = new source_tree[links.size()];
+	    }
+
+	    int[] site_links = current_receptor.getSite_links();
+
+	    for (int j = 0; j < site_links.length; j++)
+	    {
+		if (trees[site_links[j]] == null)
+		{
+		    trees[site_links[j]] = current_receptor.getLink(j).create_source_tree(source_tree_spacing);
+		}
+
+		current_receptor.getLink(j).setSource_tree(trees[site_links[j]], source_tree_opening_angle);
+	    }
+	}
+
+	return trees;
+    }
+
+    /**
+     * Calculate the concentration contribution from each link to each receptor, on several threads
+	* or batching vertical receptor columns when those are turned on.
+     */
+    private void evaluate_receptors(boolean print_point_arrays_to_text_file)
+    {
+	// the pairs of every receptor are shared out between the threads (see setParallel_threads)
+	if (is_parallel(print_point_arrays_to_text_file))
+	{
+	    parallel_evaluation.evaluate(receptors, parallel_threads);
+
+	    return;
+	}
+
+	// receptor columns are only batched when every point is evaluated with the exact kernel, so
+	// not when the points are printed, refined, in trees, pruned, cached, tabled or line sources
+	boolean	  batch_columns = column_batching && !print_point_arrays_to_text_file && !link.is_auto_refine()
+			      && !source_tree_evaluation && !influence_pruning && !link.is_line_source()
+			      && !point_cloud_cache.is_enabled() && !kernel_table.is_enabled();
+	boolean[] evaluated = new boolean[receptors.size()];
+
+	// calculate the concentration contribution from each link to each receptor
+	for (int i = 0; i < receptors.size(); i++)
+	{
+	    if (evaluated[i])    // already found as a member of a receptor column
+	    {
+		continue;
+	    }
+
+	    Vector<receptor> column = batch_columns ? find_receptor_column(i, evaluated) : null;
+
+	    if (column != null && column.size() > 1)
+	    {
+		receptor.calculate_column_concentration(column);
+	    }
+	    else
+	    {
+		// create the point arrays for each link and find the concentration from each link
+		// the argument true indicates that point array locations and concentrations
+		// should be printed to a text file for processing with matlab
+		((receptor) receptors.elementAt(i)).calculate_concentration(print_point_arrays_to_text_file);
+		evaluated[i] = true;
+	    }
+	}
+    }
+
+    /**
+     * Run a simulation at the current dispersion parameters and keep the terms of every point
+	* that do not depend on the wind speed, so the concentrations can then be found for other
+	* wind speeds with <code>run_speed_sweep</code> without generating the points again.  This is
+	* meant for wind speed sensitivity studies where the wind direction and stability do not change.
+	* The terms take three doubles for each downwind point of every receptor and link, so use
+	* <code>clear_speed_sweep</code> to free them at the end of the study.
+	* <br>
+	* The terms hold the exact huang kernel of each point, so when the automatic point refinement,
+	* line source, source tree or kernel table mode is on (see <code>can_scale_speed_terms</code>)
+	* no terms are kept and each speed of the sweep is found by a full simulation instead.
+     */
+    public void prepare_speed_sweep()
+    {
+	if (sparse_storage)
+	{
+	    System.err.println("A speed sweep needs the link copies of the receptors, which are not kept in the "
+			       + "sparse storage mode\nIf you choose to continue the speed sweep will not be prepared");
+	    debugging.exception_handeler();
+
+	    return;
+	}
+
+	run_simulation(false);
+
+	speed_sweep_terms = can_scale_speed_terms();
+
+	for (int i = 0; i < receptors.size() && speed_sweep_terms; i++)
+	{
+	    ((receptor) receptors.elementAt(i)).prepare_speed_terms();
+	}
+
+	speed_sweep_dispersion = new dispersion(dispersion_parameters);
+    }
+
+    /**
+     * Returns true if the concentrations of the current modes can be found from the speed terms
+	* of the points, which are only the exact huang kernel of each point of the link.  The
+	* automatic point refinement, line source, source tree and kernel table modes find the
+	* contributions in other ways.
+     */
+    private boolean can_scale_speed_terms()
+    {
+	return !link.is_auto_refine() && !link.is_line_source() && !source_tree_evaluation && !kernel_table.is_enabled();
+    }
+
+    /**
+     * Find the concentrations at a new wind speed from the terms kept by <code>prepare_speed_sweep</code>.
+	* Only the wind constant <code>a</code> of the dispersion parameters changes.  The results are
+	* available from <code>get_conc_matrix</code> as after <code>run_simulation</code>.
+     *
+     * @param wind_speed the wind speed in m/s at the reference elevation.
+     * @param wind_reference_elevation the elevation of the wind speed in meters.
+     */
+    public void run_speed_sweep(double wind_speed, double wind_reference_elevation)
+    {
+	if (speed_sweep_dispersion == null)
+	{
+	    System.err.println("prepare_speed_sweep must be called before run_speed_sweep"
+			       + "\nIf you choose to continue the concentrations will not be changed");
+	    debugging.exception_handeler();
+
+	    return;
+	}
+
+	// only the wind constant a changes - u(z) = a z^p
+	dispersion_parameters = new dispersion(speed_sweep_dispersion);
+	dispersion_parameters.setA(new wind_vector(wind_speed, wind_reference_elevation,
+						   dispersion_parameters.getP(),
+						   dispersion_parameters.getWind_angle()).getA());
+	link.setDisp_param(dispersion_parameters);
+	point.setDisp_param(dispersion_parameters);
+
+	if (!speed_sweep_terms || !can_scale_speed_terms())
+	{
+	    // the full simulation replaces the link copies, and with them any speed terms
+	    dispersion sweep_dispersion = speed_sweep_dispersion;
+
+	    run_simulation(false);
+	    speed_sweep_dispersion = sweep_dispersion;
+	    speed_sweep_terms = false;
+
+	    return;
+	}
+
+	for (int i = 0; i < receptors.size(); i++)
+	{
+	    ((receptor) receptors.elementAt(i)).calculate_speed_scaled_concentration(dispersion_parameters.getA());
+	}
+
+	create_conc_matrix();
+    }
+
+    /**
+     * Remove the terms kept by <code>prepare_speed_sweep</code>.
+     */
+    public void clear_speed_sweep()
+    {
+	for (int i = 0; i < receptors.size(); i++)
+	{
+	    ((receptor) receptors.elementAt(i)).clear_speed_terms();
+	}
+
+	speed_sweep_dispersion = null;
+	speed_sweep_terms = false;
+    }
+
+    /**
+     * Return the metrics of the last simulation (null if metrics were not turned on with
+	* <code>run_metrics.set_enabled</code>).  Use <code>to_json</code> on the result to export them.
+     */
+    public run_metrics getRun_metrics()
+    {
+	return last_metrics;
+    }
+
+    /**
+     * Output the metrics of the last simulation to the console.
+     */
+    public void output_run_metrics()
+    {
+	if (last_metrics == null)
+	{
+	    System.out.println("No metrics were recorded for the last simulation");
+	}
+	else
+	{
+	    System.out.println(last_metrics);
+	}
+    }
+
+    /**
+     * Find the receptors that share the horizontal position of receptor <code>first</code>,
+	* starting with it, and mark them as evaluated.
+     */
+    private Vector<receptor> find_receptor_column(int first, boolean[] evaluated)
+    {
+	coordinate	 location = ((receptor) receptors.elementAt(first)).getLocation();
+	Vector<receptor> column = new Vector<receptor>(0, 5);
+
+	for (int i = first; i < receptors.size(); i++)
+	{
+	    coordinate other = ((receptor) receptors.elementAt(i)).getLocation();
+
+	    if (!evaluated[i] && other.getX() == location.getX() && other.getY() == location.getY())
+	    {
+		column.add((receptor) receptors.elementAt(i));
+		evaluated[i] = true;
+	    }
+	}
+
+	return column;
+    }
+
+    /**
+     * Turn on or off the batching of vertical receptor columns.  When it is on, receptors that
+	* share the same horizontal position are evaluated together: the points of each link are
+	* generated once for the column, and only the height dependent terms of the huang equation
+	* are found for each receptor.  Columns are not batched when the point arrays are printed or
+	* when automatic refinement, source trees, pruning, line sources, the point cloud cache or the
+	* kernel table are on, since the column always evaluates every point with the exact kernel.
+     */
+    public void setColumn_batching(boolean batch)
+    {
+	column_batching = batch;
+    }
+
+    /**
+     * Returns true if vertical receptor columns are batched.
+     */
+    public boolean isColumn_batching()
+    {
+	return column_batching;
+    }
+
+    /**
+     * Turn on or off the evaluation of the links from trees of point sources.  When it is on, the
+	* points of each link are generated once for the run with a uniform spacing and placed in a
+	* <code>source_tree</code>, and each receptor treats distant groups of points as single sources
+	* (the Barnes-Hut method) instead of generating the points of every link for every receptor.
+	* This is meant for sites with many receptors.  Links that can not build a tree, printed point
+	* arrays and vertical receptor columns still use the point arrays.
+     *
+     * @param spacing the fetch and cross spacing of the tree points (m).
+     * @param opening_angle the largest ratio of the size of a group of points to its downwind
+	* distance for the group to be treated as a single source (see <code>source_tree</code>).
+     */
+    public void setSource_tree(boolean enable, double spacing, double opening_angle)
+    {
+	if (spacing <= 0.0 || opening_angle < 0.0)
+	{
+	    System.err.println("A source tree needs a positive spacing and a non negative opening angle, not "
+			       + spacing + " and " + opening_angle + ".\nIf you choose to continue the tree "
+			       + "settings will not be changed");
+	    debugging.exception_handeler();
+
+	    return;
+	}
+
+	source_tree_evaluation = enable;
+	source_tree_spacing = spacing;
+	source_tree_opening_angle = opening_angle;
+    }
+
+    /**
+     * Returns true if the links are evaluated from trees of point sources.
+     */
+    public boolean isSource_tree()
+    {
+	return source_tree_evaluation;
+    }
+
+    /**
+     * Turn on or off the pruning of receptor and link pairs by influence radius.  When it is on,
+	* an <code>influence_index</code> of the links is built at the start of each simulation and
+	* a link is only evaluated for the receptors within its influence radius, the distance beyond
+	* which the estimated bound of its contribution from the huang equation is below
+	* <code>threshold</code> for any wind direction.  Each receptor is only given copies of the links that can reach it, so the work of
+	* a receptor grows with the number of links near it.  The other pairs report a concentration of
+	* 0, no points, and the bound of their contribution in the error matrix.  The bound of all the
+	* pairs left out of each receptor is available from <code>get_pruning_error_bound</code>.
+	* Vertical receptor columns are not batched when pruning is on.
+     *
+     * @param threshold the concentration (g/m^3) a link must be able to contribute to a receptor for
+	* the pair to be evaluated.
+     */
+    public void setInfluence_pruning(boolean enable, double threshold)
+    {
+	if (threshold <= 0.0)
+	{
+	    System.err.println("The influence threshold must be positive, not " + threshold
+			       + ".\nIf you choose to continue the pruning settings will not be changed");
+	    debugging.exception_handeler();
+
+	    return;
+	}
+
+	influence_pruning = enable;
+	influence_threshold = threshold;
+    }
+
+    /**
+     * Returns true if receptor and link pairs are pruned by influence radius.
+     */
+    public boolean isInfluence_pruning()
+    {
+	return influence_pruning;
+    }
+
+    /**
+     * Returns the number of receptor and link pairs left out of the last simulation.
+     */
+    public long getPruned_pairs()
+    {
+	return pruned_pairs;
+    }
+
+    /**
+     * Return, for each receptor of the last simulation, the bound of the total concentration of
+	* the links left out by influence pruning (0 when pruning is off).  The concentration of a
+	* receptor is expected to be at most this much below the concentration without pruning.  The
+	* bound is an estimate found from sampled terms of the huang equation, not a proven bound
+	* (see <code>influence_index</code>).
+     *
+     * @param units indicates what units to return the bounds in (see <code>get_conc_matrix</code>).
+     */
+    public double[] get_pruning_error_bound(int units)
+    {
+	double	 unit_conversion = find_unit_conversion(units);
+	double[] return_bounds = new double[pruning_error_bound.length];
+
+	for (int i = 0; i < pruning_error_bound.length; i++)
+	{
+	    return_bounds[i] = pruning_error_bound[i] * unit_conversion;
+	}
+
+	return return_bounds;
+    }
+
+    /**
+     * Turn on or off the sparse storage of the contributions.  When it is on, each receptor is
+	* evaluated and then released in turn, and only the contributions above <code>threshold</code>
+	* are kept, in a <code>transfer_matrix</code> (see <code>getTransfer_matrix</code>), together
+	* with the exact total of each receptor.  The dense matrices of <code>get_conc_matrix</code> and
+	* the other matrix routines are then only built when they are requested, with the contributions
+	* that were not kept set to 0 and only the totals of the points and errors.  This is meant for
+	* networks of many links and receptors, where the dense matrices would not fit in memory.
+	* The link copies of the receptors are not kept, so a speed sweep can not be prepared and
+	* vertical receptor columns are not batched.
+     *
+     * @param threshold contributions at or below this concentration (g/m^3) are not kept.
+     */
+    public void setSparse_storage(boolean enable, double threshold)
+    {
+	if (threshold < 0.0)
+	{
+	    System.err.println("The sparse storage threshold can not be negative, not " + threshold
+			       + ".\nIf you choose to continue the storage settings will not be changed");
+	    debugging.exception_handeler();
 
-	 for (int i=0; i < link_vec.size(); i++)
-	 {
-	    temp_vec = (Vector) link_vec.get(i);     // get the sub vector
-	    temp_name = (String) temp_vec.get(0);     // receptor name
-	    start_coord.setX( ((Double) temp_vec.get(1)).doubleValue() );   // x1 coord
-	    end_coord.setX( ((Double) temp_vec.get(2)).doubleValue() );     // x2 coord
-	    start_coord.setY( ((Double) temp_vec.get(3)).doubleValue() );   // y1 coord
-	    end_coord.setY( ((Double) temp_vec.get(4)).doubleValue() );     // y2 coord
+	    return;
+	}
 
-	    width = ((Double) temp_vec.get(5)).doubleValue();            // width
-	    vps = ((Double) temp_vec.get(6)).doubleValue();              // flowrate
-	    ef = ((Double) temp_vec.get(7)).doubleValue();               // emission factor
+	sparse_storage = enable;
+	sparse_threshold = threshold;
+    }
 
-	    temp_link = new highway_link(start_coord,end_coord,width,ef,vps);        // create the new link
+    /**
+     * Returns true if the contributions are kept in a sparse <code>transfer_matrix</code>.
+     */
+    public boolean isSparse_storage()
+    {
+	return sparse_storage;
+    }
 
-	    this.add_link(temp_link);    // add the link to the site links vector
-	 }
+    /**
+     * Return the contributions of the last simulation in the sparse storage mode, or null if the
+	* simulation kept the dense matrices.  The rows are the receptors and the columns the links in
+	* the order they were added, in g/m^3.
+     */
+    public transfer_matrix getTransfer_matrix()
+    {
+	return transfer;
     }
 
     /**
-     * Add a single receptor to the vector list of receptors for this sampling site.
+     * Set the number of threads the contributions are found on.  With more than one thread every
+	* receptor and link pair of a run is shared out with a fork-join pool, splitting the work by
+	* receptor, by link and, for very large links, by block of points, so sites of one receptor
+	* next to a long link and sites of many receptors next to short links both keep every thread
+	* busy (see <code>parallel_evaluation</code>).  The results are identical to those of a single
+	* thread.  The threads are only used when the point arrays are not printed and the points are
+	* streamed in the link coordinate system (which is off by default, see
+	* <code>link.set_local_frame</code>) without the point cloud cache, and vertical receptor
+	* columns are not batched on more than one thread.
+     *
+     * @param threads the number of threads, 1 to evaluate every pair on the calling thread.
      */
-    public void add_receptor(receptor added_receptor)
+    public void setParallel_threads(int threads)
     {
-	receptors.add(added_receptor);
+	if (threads < 1)
+	{
+	    System.err.println("A simulation needs at least one thread, not " + threads
+			       + ".\nIf you choose to continue the number of threads will not be changed");
+	    debugging.exception_handeler();
+
+	    return;
+	}
+
+	parallel_threads = threads;
     }
 
     /**
-     * This routine will determine the concentration contribution of each link
-	* to each receptor.  This routine adds a copy of each link in the site to a single
-	* receptor.  Each link is simulated as a 3-d point source array with point spacing
-	* optomized based on wind direction and link and receptor coordinates.
-     * @param print_point_arrays_to_text_file - set this parameter to true if you want
-	* a text file listing point source locations and concentrations to be generated.
-	* Note:  each link can be represented by ten's of thousands of points.  Care should be used
-	* when setting the print flag to true.
+     * Returns the number of threads the contributions are found on.
      */
-    public void run_simulation(boolean print_point_arrays_to_text_file)
+    public int getParallel_threads()
     {
-	// all links and points will share the same dispersion parameter values
-	// next two lines makes sure that there is global access to dispersion parameters
-	link.setDisp_param(this.dispersion_parameters);
-	point.setDisp_param(this.dispersion_parameters);
+	return parallel_threads;
+    }
+
+    /**
+     * Returns true if a run is evaluated with <code>parallel_evaluation</code>.
+     */
+    private boolean is_parallel(boolean print_point_arrays_to_text_file)
+    {
+	return parallel_threads > 1 && !print_point_arrays_to_text_file && parallel_evaluation.is_supported();
+    }
+
+    /**
+     * Build the dense matrices from the transfer matrix of a sparse simulation the first time they
+	* are requested.
+     */
+    private void create_dense_matrices()
+    {
+	if (conc_matrix != null || transfer == null)
+	{
+	    return;
+	}
+
+	conc_matrix = new double[receptors.size()][links.size() + 1];
+	error_matrix = new double[receptors.size()][links.size() + 1];
+	points_matrix = new int[receptors.size()][links.size() + 1];
 
-	// add each of the links to each member of the receptor link vector
-	// calculate the concentration contribution from each link to each receptor
 	for (int i = 0; i < receptors.size(); i++)
 	{
-	    // get a reference to the current receptor
-	    receptor current_receptor = (receptor) receptors.elementAt(i);
+	    int[]    row_links = transfer.get_row_links(i);
+	    double[] row_values = transfer.get_row_values(i);
 
-	    // add a copy of all the sampling site links to the receptor
-	    // the name of the link will be changed to indicate ownership by the
-	    // the current_receptor
-	    current_receptor.addLinkCopy(links);
-	    // create the point arrays for each link and find the concentration from each link
-	    // the argument true indicates that point array locations and concentrations
-	    // should be printed to a text file for processing with matlab
-	    current_receptor.calculate_concentration(print_point_arrays_to_text_file);
+	    for (int k = 0; k < row_links.length; k++)
+	    {
+		conc_matrix[i][row_links[k] + 1] = row_values[k];
+	    }
+
+	    for (int j = 0; j < links.size(); j++)
+	    {
+		error_matrix[i][j + 1] = Double.NaN;    // only the totals are kept
+	    }
+
+	    conc_matrix[i][0] = transfer.get_total(i);
+	    error_matrix[i][0] = sparse_error[i];
+	    points_matrix[i][0] = sparse_points[i];
 	}
 
-	// convert receptor concentration data into a concentration matrix to facilite
-	// exporting of model results
-	   create_conc_matrix();
+	create_pollutant_conc_matrices();
     }
 
     /**
@@ -245,6 +1060,23 @@ public class site_description
 	this.dispersion_parameters = disp_param;
     }
 
+    /**
+     * Set the point spacing settings used for the links of the site that do not have a profile
+	* of their own.  Use null to return to the default profile of <code>highway_point_spacing</code>.
+     */
+    public void setSpacing_profile(spacing_profile profile)
+    {
+	this.spacing_profile = profile;
+    }
+
+    /**
+     * Return the point spacing settings of the site (null if the default profile is used).
+     */
+    public spacing_profile getSpacing_profile()
+    {
+	return this.spacing_profile;
+    }
+
     /**
      * Return the dispersion parameters of the sampling site.
      */
@@ -359,6 +1191,17 @@ public class site_description
 	* P = 0.25, N = 0.81, C = 3.0, D = 0.32, E = 0.78.
      */
     public void setDispersion(double wind_speed, double wind_direction, double wind_reference_elevation)
+    {
+	this.dispersion_parameters = create_gm_dispersion(wind_speed, wind_direction, wind_reference_elevation);
+    }
+
+    /**
+     * Create the dispersion parameters that <code>setDispersion(wind_speed, wind_direction,
+	* wind_reference_elevation)</code> gives a site, without changing a site.  This is used to
+	* describe the hours of a <code>hourly_run</code>.
+     */
+    public static dispersion create_gm_dispersion(double wind_speed, double wind_direction,
+						  double wind_reference_elevation)
     {
 	dispersion disp = new dispersion();    // create a new dispersion object
 
@@ -382,8 +1225,7 @@ public class site_description
 	    // find the (a) associated with this u and p at z
 	    disp.setA(wv.getA());
 
-	    this.dispersion_parameters = disp;  // set the site's dispersion parameters for this object
-
+	    return disp;
     }
 
 
@@ -410,6 +1252,8 @@ public class site_description
 	// redim the concentration matrix so that it can accomidate all the
 	// receptors and links including a total column
 	conc_matrix = new double[receptors.size()][links.size() + 1];
+	error_matrix = new double[receptors.size()][links.size() + 1];
+	points_matrix = new int[receptors.size()][links.size() + 1];
 
 	// loop through each receptor and populate the concentraton array
 	for (i = 0; i < receptors.size(); i++)
@@ -417,17 +1261,198 @@ public class site_description
 	    // get a reference to the current receptor
 	    receptor current_receptor = (receptor) receptors.elementAt(i);
 	    double[] single_recept_conc = current_receptor.getConcentration();
+	    double[] single_recept_error = current_receptor.getEstimated_error();
+	    int[]    single_recept_points = current_receptor.getPoints_used();
+
+	    // the pruned pairs report the bound of their contribution as their error
+	    if (pruning_index != null)
+	    {
+		double[] link_bounds = pruning_index.find_bounds(current_receptor.getLocation());
+
+		for (j = 0; j < link_bounds.length && j < single_recept_error.length; j++)
+		{
+		    if (link_bounds[j] >= 0.0)
+		    {
+			single_recept_error[j] = link_bounds[j];
+		    }
+		}
+	    }
 
 	    // loop through each of the link concentrations and add that to the concentration array
 	    for (j = 0; j < single_recept_conc.length; j++)
 	    {
 		conc_matrix[i][j + 1] = single_recept_conc[j];    // link total is member zero so j+1 is an offset
+		error_matrix[i][j + 1] = single_recept_error[j];
+		points_matrix[i][j + 1] = single_recept_points[j];
+		error_matrix[i][0] += single_recept_error[j];
+		points_matrix[i][0] += single_recept_points[j];
 	    }
 
 	    // find the total concentration for the receptor from all links
 	    conc_matrix[i][0] = current_receptor.getTotal_concentration();
 	}
 
+	create_pollutant_conc_matrices();
+    }
+
+    /**
+     * Create the concentration and error matrices and the pruning error bounds of each pollutant of
+	* the study from those of the run.  The concentration from a link is proportional to its line
+	* strength, so the points and the kernel are only evaluated once (at the line strength of each
+	* link) and each link column of a pollutant is found by scaling by the ratio of the line strength
+	* of the pollutant to the line strength of the link.  The errors and bounds are scaled by the
+	* size of the ratio.  A link evaluated with a line strength of 0 can not be scaled, so it is
+	* evaluated again for each receptor at the line strength of the pollutant (see
+	* <code>evaluate_link_directly</code>).
+	* <br>
+	* After a sparse simulation only the total error of each receptor is kept, so the total error
+	* of a pollutant is scaled by the largest ratio of the scaled links, which bounds the sum of the
+	* scaled link errors.
+     */
+    private void create_pollutant_conc_matrices()
+    {
+	pollutant_conc_matrices = new double[pollutants.size()][][];
+	pollutant_error_matrices = new double[pollutants.size()][][];
+	pollutant_pruning_error_bounds = new double[pollutants.size()][];
+
+	// the bound of each pruned link of each receptor (negative for the links that were evaluated)
+	double[][] link_bounds = new double[receptors.size()][];
+
+	for (int i = 0; i < receptors.size() && pruning_index != null; i++)
+	{
+	    link_bounds[i] = pruning_index.find_bounds(((receptor) receptors.elementAt(i)).getLocation());
+	}
+
+	for (int p = 0; p < pollutants.size(); p++)
+	{
+	    double[] strengths = pollutant_line_strengths.elementAt(p);
+
+	    if (strengths.length != links.size())
+	    {
+		System.err.println("The pollutant " + pollutants.elementAt(p).GetName()
+				   + " has line strengths for " + strengths.length + " links but the site has "
+				   + links.size() + " links.\nIf you choose to continue its concentrations will be 0");
+		debugging.exception_handeler();
+		pollutant_conc_matrices[p] = new double[receptors.size()][links.size() + 1];
+		pollutant_error_matrices[p] = new double[receptors.size()][links.size() + 1];
+		pollutant_pruning_error_bounds[p] = new double[receptors.size()];
+
+		continue;
+	    }
+
+	    // ratio of the pollutant line strength to the line strength each link was evaluated with
+	    double[]   ratio = new double[links.size()];
+	    double     largest_ratio = 0.0;
+	    double[][] direct_conc = new double[links.size()][];
+	    double[][] direct_error = new double[links.size()][];
+
+	    for (int j = 0; j < links.size(); j++)
+	    {
+		double link_strength = ((link) links.elementAt(j)).getLine_strength();
+
+		if (link_strength == 0.0 && strengths[j] != 0.0)
+		{
+		    direct_conc[j] = new double[receptors.size()];
+		    direct_error[j] = new double[receptors.size()];
+		    evaluate_link_directly(j, strengths[j], direct_conc[j], direct_error[j]);
+		}
+
+		ratio[j] = (link_strength == 0.0) ? 0.0 : strengths[j] / link_strength;
+		largest_ratio = Math.max(largest_ratio, Math.abs(ratio[j]));
+	    }
+
+	    double[][] matrix = new double[receptors.size()][links.size() + 1];
+	    double[][] errors = new double[receptors.size()][links.size() + 1];
+	    double[]   bounds = new double[receptors.size()];
+
+	    for (int i = 0; i < receptors.size(); i++)
+	    {
+		pairwise_sum total = new pairwise_sum();
+
+		errors[i][0] = (transfer != null) ? error_matrix[i][0] * largest_ratio : 0.0;
+
+		for (int j = 0; j < links.size(); j++)
+		{
+		    if (direct_conc[j] != null)
+		    {
+			matrix[i][j + 1] = direct_conc[j][i];
+			errors[i][j + 1] = direct_error[j][i];
+		    }
+		    else
+		    {
+			matrix[i][j + 1] = conc_matrix[i][j + 1] * ratio[j];
+			errors[i][j + 1] = error_matrix[i][j + 1] * Math.abs(ratio[j]);
+
+			if (link_bounds[i] != null && j < link_bounds[i].length && link_bounds[i][j] >= 0.0)
+			{
+			    bounds[i] += link_bounds[i][j] * Math.abs(ratio[j]);
+			}
+		    }
+
+		    total.add(matrix[i][j + 1]);
+
+		    // the link errors of a sparse simulation are not kept, only the directly evaluated ones
+		    if (transfer == null || direct_conc[j] != null)
+		    {
+			errors[i][0] += errors[i][j + 1];
+		    }
+		}
+
+		matrix[i][0] = total.get_sum();
+	    }
+
+	    pollutant_conc_matrices[p] = matrix;
+	    pollutant_error_matrices[p] = errors;
+	    pollutant_pruning_error_bounds[p] = bounds;
+	}
+    }
+
+    /**
+     * Find the contribution of site link j to every receptor at a line strength, with a copy of the
+	* link of its own evaluated point by point.  This is used for the pollutants of links that were
+	* evaluated with a line strength of 0, whose contributions can not be scaled.
+     *
+     * @param concentrations receives the contribution to each receptor (g/m^3).
+     * @param errors receives the estimated error of each contribution (g/m^3).
+     */
+    private void evaluate_link_directly(int j, double line_strength, double[] concentrations, double[] errors)
+    {
+	link copy;
+
+	try
+	{
+	    copy = (link) ((link) links.elementAt(j)).clone();
+	}
+	catch (CloneNotSupportedException e)
+	{
+	    System.err.println("The link " + ((link) links.elementAt(j)).naming.getName() + " could not be copied"
+			       + "\nIf you choose to continue its concentrations will be 0");
+	    debugging.exception_handeler();
+
+	    return;
+	}
+
+	copy.setLine_strength(line_strength);
+
+	if (copy.getSpacing_profile() == null && spacing_profile != null)
+	{
+	    copy.setSpacing_profile(spacing_profile);
+	}
+
+	link.setDisp_param(dispersion_parameters);
+	point.setDisp_param(dispersion_parameters);
+
+	for (int i = 0; i < receptors.size(); i++)
+	{
+	    coordinate location = ((receptor) receptors.elementAt(i)).getLocation();
+
+	    link.setReceptor_location(location);
+	    point.setReceptor_location(location);
+	    copy.calculate_link_concentration(false);
+	    concentrations[i] = copy.getTotal_concentration();
+	    errors[i] = copy.getEstimated_error();
+	    copy.clear_points();
+	}
     }
 
 
@@ -567,6 +1592,48 @@ public class site_description
 	 return this.pollutant ;
     }
 
+    /**
+	* Add a pollutant to a multi-pollutant study.  All the pollutants of a study are found from a
+	* single evaluation of the links, so adding pollutants does not add to the run time of
+	* <code>run_simulation</code>.  Use <code>get_pollutant_conc_matrix</code> to get the results.
+	* @param pt the pollutant.
+	* @param line_strengths the line strength of each link of the site for this pollutant
+	* in the order the links were added [(grams of pollutant) / (m-s)].
+	*/
+    public void add_pollutant( pollutant_type pt, double[] line_strengths )
+    {
+	 pollutants.add(pt);
+	 pollutant_line_strengths.add(line_strengths.clone());
+    }
+
+    /**
+	* Remove all the pollutants of a multi-pollutant study.
+	*/
+    public void clear_pollutants( )
+    {
+	 pollutants.clear();
+	 pollutant_line_strengths.clear();
+	 pollutant_conc_matrices = null;
+	 pollutant_error_matrices = null;
+	 pollutant_pruning_error_bounds = null;
+    }
+
+    /**
+	* Get the number of pollutants of a multi-pollutant study.
+	*/
+    public int get_pollutant_count( )
+    {
+	 return pollutants.size();
+    }
+
+    /**
+	* Get a pollutant of a multi-pollutant study by the order it was added.
+	*/
+    public pollutant_type get_pollutant( int pollutant_index )
+    {
+	 return pollutants.elementAt(pollutant_index);
+    }
+
     /**
 	* Return the concentration matrix representing the concentration contribution
 	* from each link to each receptor.
@@ -589,13 +1656,166 @@ public class site_description
 
 	public double[][] get_conc_matrix(int units)
 	{
+	  create_dense_matrices();    // only needed after a sparse simulation
 
 	int i,j;     // counters use for looping
+	double unit_conversion = find_unit_conversion(units);    // converts concentrations in g/m^3
+	double[][] return_matrix;	  // concentrations in the specified units will be
+			                  // returned with this variable
+
+	// redim the return concentration matrix to same size as the concentration matrix
+	return_matrix = new double[receptors.size()][links.size() + 1];
+
+	// populate the return matrix with the concentration matrix
+	// the routine will also convert the units to the desired format
+
+	  for (i = 0; i < receptors.size(); i++)
+	  {
+	    for (j = 0; j < links.size() + 1 ; j++)
+	    {
+		  return_matrix[i][j] =  conc_matrix[i][j] * unit_conversion;
+	    }
+	  }
+
+	  return return_matrix;     // send the concentration matrix back in the desired units
+
+	}  // end method
+
+
+	/**
+	 * Return the concentration matrix of one pollutant of a multi-pollutant study
+	 * (see <code>add_pollutant</code>).  The form of the matrix and the units are the same as
+	 * <code>get_conc_matrix</code>, and the molecular weight of the pollutant is used for
+	 * mixing ratios.
+	 * @param pollutant_index the index of the pollutant in the order it was added.
+	 * @param units indicates what units to return the concentration data in.
+	 */
+	public double[][] get_pollutant_conc_matrix(int pollutant_index, int units)
+	{
+	  create_dense_matrices();    // only needed after a sparse simulation
+
+	  pollutant_type pt = pollutants.elementAt(pollutant_index);
+	  double unit_conversion = find_unit_conversion(units, pt);
+	  double[][] return_matrix = new double[receptors.size()][links.size() + 1];
+
+	  for (int i = 0; i < receptors.size(); i++)
+	  {
+	    for (int j = 0; j < links.size() + 1 ; j++)
+	    {
+		  return_matrix[i][j] =  pollutant_conc_matrices[pollutant_index][i][j] * unit_conversion;
+	    }
+	  }
+
+	  return return_matrix;
+	}
+
+	/**
+	 * Return the matrix of estimated absolute errors of the concentration matrix of one pollutant
+	 * of a multi-pollutant study, in the form of <code>get_error_matrix</code> and the units of
+	 * <code>get_pollutant_conc_matrix</code>.
+	 * @param pollutant_index the index of the pollutant in the order it was added.
+	 * @param units indicates what units to return the error data in.
+	 */
+	public double[][] get_pollutant_error_matrix(int pollutant_index, int units)
+	{
+	  create_dense_matrices();    // only needed after a sparse simulation
+
+	  double unit_conversion = find_unit_conversion(units, pollutants.elementAt(pollutant_index));
+	  double[][] return_matrix = new double[receptors.size()][links.size() + 1];
+
+	  for (int i = 0; i < receptors.size(); i++)
+	  {
+	    for (int j = 0; j < links.size() + 1 ; j++)
+	    {
+		  return_matrix[i][j] =  pollutant_error_matrices[pollutant_index][i][j] * unit_conversion;
+	    }
+	  }
+
+	  return return_matrix;
+	}
+
+	/**
+	 * Return the pruning error bound of each receptor for one pollutant of a multi-pollutant
+	 * study (see <code>get_pruning_error_bound</code>).
+	 * @param pollutant_index the index of the pollutant in the order it was added.
+	 * @param units indicates what units to return the bounds in.
+	 */
+	public double[] get_pollutant_pruning_error_bound(int pollutant_index, int units)
+	{
+	  create_dense_matrices();    // only needed after a sparse simulation
+
+	  double unit_conversion = find_unit_conversion(units, pollutants.elementAt(pollutant_index));
+	  double[] return_bounds = new double[receptors.size()];
+
+	  for (int i = 0; i < receptors.size(); i++)
+	  {
+	    return_bounds[i] = pollutant_pruning_error_bounds[pollutant_index][i] * unit_conversion;
+	  }
+
+	  return return_bounds;
+	}
+
+	/**
+	 * Return the matrix of estimated absolute errors of the concentration matrix in the same
+	 * form and units as <code>get_conc_matrix</code>.  Errors are only estimated when the automatic
+	 * point refinement is turned on (see <code>link.set_auto_refine</code>) and are NaN otherwise.
+	 * @param units indicates what units to return the error data in (see <code>get_conc_matrix</code>).
+	 */
+	public double[][] get_error_matrix(int units)
+	{
+	  create_dense_matrices();    // only needed after a sparse simulation
+
+	  double unit_conversion = find_unit_conversion(units);
+	  double[][] return_matrix = new double[receptors.size()][links.size() + 1];
+
+	  for (int i = 0; i < receptors.size(); i++)
+	  {
+	    for (int j = 0; j < links.size() + 1 ; j++)
+	    {
+		  return_matrix[i][j] =  error_matrix[i][j] * unit_conversion;
+	    }
+	  }
+
+	  return return_matrix;
+	}
+
+	/**
+	 * Return the matrix of the number of point sources used to find each member of the
+	 * concentration matrix.  The form is the same as <code>get_conc_matrix</code>, with the
+	 * totals column holding the number of points used for all the links of a receptor.
+	 */
+	public int[][] get_points_matrix()
+	{
+	  create_dense_matrices();    // only needed after a sparse simulation
+
+	  int[][] return_matrix = new int[receptors.size()][links.size() + 1];
+
+	  for (int i = 0; i < receptors.size(); i++)
+	  {
+	    System.arraycopy(points_matrix[i], 0, return_matrix[i], 0, links.size() + 1);
+	  }
+
+	  return return_matrix;
+	}
+
+	/**
+	 * Find the factor that converts a concentration in g/m^3 to the units
+	 * specified by the <code>units</code> code of <code>get_conc_matrix</code>.
+	 */
+	double find_unit_conversion(int units)
+	{
+	 return find_unit_conversion(units, pollutant);
+	}
+
+	/**
+	 * Find the factor that converts a concentration of the pollutant <code>pt</code> in g/m^3
+	 * to the units specified by the <code>units</code> code of <code>get_conc_matrix</code>.
+	 */
+	private double find_unit_conversion(int units, pollutant_type pt)
+	{
 	double unit_conversion = 1.0;     // unit_conversion is used to convert concentrations
                                           // in g/m^3 to mixing ratios.  Initially this factor
 					  // is 1.0 indicating that not conversion will be made.
-	double[][] return_matrix;	  // concentrations in the specified units will be
-			                  // returned with this variable
      double PPM_TO_PPT = 1E6;             // conversion factor from PPM to PPT
 
 // determine what unit the user wants the concentration data to be returned in
@@ -611,13 +1831,13 @@ public class site_description
 		    // this requires the temperature and pressure and MW of the pollutant
 		    unit_conversion = convert_unit.G_PER_METER_CUBED_TO_PPM(
 						  1.0, site_pressure_in_ATMS, site_temperature_in_K,
-						  pollutant.GetMolecular_weight() );
+						  pt.GetMolecular_weight() );
 			break;
 	    case 3:  // units of PPTV
 		        // similar to case 2, however, units will be reported in PPTV rather than PPMV
 			unit_conversion = convert_unit.G_PER_METER_CUBED_TO_PPM(
 				   1.0, site_pressure_in_ATMS, site_temperature_in_K,
-				   pollutant.GetMolecular_weight() ) * PPM_TO_PPT;
+				   pt.GetMolecular_weight() ) * PPM_TO_PPT;
 			break;
 	    case 4:  // units of ug/M^3
 		        // scaled down version of case 1
@@ -629,24 +1849,8 @@ public class site_description
 		  break;
 	 }
 
-
-	// redim the return concentration matrix to same size as the concentration matrix
-	return_matrix = new double[receptors.size()][links.size() + 1];
-
-	// populate the return matrix with the concentration matrix
-	// the routine will also convert the units to the desired format
-
-	  for (i = 0; i < receptors.size(); i++)
-	  {
-	    for (j = 0; j < links.size() + 1 ; j++)
-	    {
-		  return_matrix[i][j] =  conc_matrix[i][j] * unit_conversion;
-	    }
-	  }
-
-	  return return_matrix;     // send the concentration matrix back in the desired units
-
-	}  // end method
+	 return unit_conversion;
+	}
 
 }
 
@@ -0,0 +1,362 @@
+package roadway_dispersion;
+
+/**
+ * <b>Overview</b><br>
+ * The <code>source_tree</code> class evaluates the concentration contribution of a large set of
+ * point sources to many receptors with the Barnes-Hut method.  The points are placed in a
+ * quad-tree in the horizontal plane: each node covers a rectangle, holds the total source strength
+ * and the strength weighted centroid of its points, and is split into four children until it holds
+ * no more than <code>LEAF_SIZE</code> points.
+ * <br>
+ * A receptor is evaluated by walking the tree from the root.  A node is treated as a single point
+ * source at its centroid when it is far downwind compared to its size,
+ * <tt><pre>
+ *   node diagonal &lt; opening_angle * downwind distance of the centroid
+ * </pre></tt>
+ * a node that lies entirely upwind of the receptor is skipped, and any other node is opened.  The
+ * points of an opened leaf are evaluated one by one.  Near the receptor the tree is therefore opened
+ * down to the individual points while distant parts of the link are evaluated as a few aggregate
+ * sources, so the cost of a receptor grows with the logarithm of the number of points rather than
+ * the number itself.  An opening angle of 0 opens every node and gives the same result as evaluating
+ * each point (to rounding); larger angles are faster and less accurate.
+ * <br>
+ * The tree does not depend on the receptor, so one tree serves every receptor of a run (see
+ * <code>site_description.setSource_tree</code>).
+ *
+ * <br><br>
+ * <b>Notes:</b><br>
+ * All units in metric (MKS) unless otherwise stated.   <br>
+ * The nodes are stored in parallel arrays and the points are reordered so that the points of
+ * each node are contiguous.  A tree is not changed once built and may be shared between threads.
+ *
+ * @see highway_link
+ * @see site_description
+ */
+
+public final class source_tree
+{
+    /**
+     * The largest number of points in a leaf node.
+     */
+    public static final int LEAF_SIZE = 16;
+
+    /**
+     * The points {x, y, z, source strength}, ordered so that each node covers a contiguous range.
+     */
+    private final double[]  point_x, point_y, point_z, point_q;
+
+    /**
+     * The number of nodes and, for each node, its range of points [first_point, last_point),
+	* its first child (-1 for a leaf) and number of children.
+     */
+    private int		    node_count = 0;
+    private int[]	    first_point, last_point, first_child, child_count;
+
+    /**
+     * The total strength, strength weighted centroid and diagonal of the bounding rectangle of each node.
+     */
+    private double[]	    node_q, node_x, node_y, node_z, node_diagonal;
+
+    /**
+     * Build the tree of a set of points.  The arrays are reordered in place and kept by the tree.
+     *
+     * @param points the arrays {x, y, z, source strength} of the points.
+     */
+    public source_tree(double[][] points)
+    {
+	point_x = points[0];
+	point_y = points[1];
+	point_z = points[2];
+	point_q = points[3];
+
+	// a quad-tree with leaves of LEAF_SIZE points has fewer than this many nodes
+	int capacity = Math.max(1, 2 * (point_x.length / LEAF_SIZE + 1)) + 1;
+
+	first_point = new int[capacity];
+	last_point = new int[capacity];
+	first_child = new int[capacity];
+	child_count = new int[capacity];
+	node_q = new double[capacity];
+	node_x = new double[capacity];
+	node_y = new double[capacity];
+	node_z = new double[capacity];
+	node_diagonal = new double[capacity];
+
+	if (point_x.length > 0)
+	{
+	    build(add_node(0, point_x.length));
+	}
+    }
+
+    /**
+     * Get the number of points of the tree.
+     */
+    public int getNum_points()
+    {
+	return point_x.length;
+    }
+
+    /**
+     * Get the number of nodes of the tree.
+     */
+    public int getNum_nodes()
+    {
+	return node_count;
+    }
+
+    /**
+     * Add a node for the points [first, last) and find its strength, centroid and diagonal.
+     *
+     * @return the index of the node.
+     */
+    private int add_node(int first, int last)
+    {
+	if (node_count == first_point.length)
+	{
+	    grow();
+	}
+
+	int    node = node_count++;
+	double q = 0.0, qx = 0.0, qy = 0.0, qz = 0.0;
+	double min_x = Double.MAX_VALUE, min_y = Double.MAX_VALUE;
+	double max_x = -Double.MAX_VALUE, max_y = -Double.MAX_VALUE;
+
+	for (int i = first; i < last; i++)
+	{
+	    q += point_q[i];
+	    qx += point_q[i] * point_x[i];
+	    qy += point_q[i] * point_y[i];
+	    qz += point_q[i] * point_z[i];
+	    min_x = Math.min(min_x, point_x[i]);
+	    max_x = Math.max(max_x, point_x[i]);
+	    min_y = Math.min(min_y, point_y[i]);
+	    max_y = Math.max(max_y, point_y[i]);
+	}
+
+	first_point[node] = first;
+	last_point[node] = last;
+	first_child[node] = -1;
+	child_count[node] = 0;
+	node_q[node] = q;
+	node_diagonal[node] = Math.sqrt((max_x - min_x) * (max_x - min_x) + (max_y - min_y) * (max_y - min_y));
+
+	// a node without strength is placed at the center of its rectangle
+	node_x[node] = (q != 0.0) ? qx / q : (min_x + max_x) / 2.0;
+	node_y[node] = (q != 0.0) ? qy / q : (min_y + max_y) / 2.0;
+	node_z[node] = (q != 0.0) ? qz / q : point_z[first];
+
+	return node;
+    }
+
+    /**
+     * Make room for more nodes.
+     */
+    private void grow()
+    {
+	int size = first_point.length * 2;
+
+	first_point = copy(first_point, size);
+	last_point = copy(last_point, size);
+	first_child = copy(first_child, size);
+	child_count = copy(child_count, size);
+	node_q = copy(node_q, size);
+	node_x = copy(node_x, size);
+	node_y = copy(node_y, size);
+	node_z = copy(node_z, size);
+	node_diagonal = copy(node_diagonal, size);
+    }
+
+    private static int[] copy(int[] array, int size)
+    {
+	int[] copied = new int[size];
+
+	System.arraycopy(array, 0, copied, 0, array.length);
+
+	return copied;
+    }
+
+    private static double[] copy(double[] array, int size)
+    {
+	double[] copied = new double[size];
+
+	System.arraycopy(array, 0, copied, 0, array.length);
+
+	return copied;
+    }
+
+    /**
+     * Split a node into the four quadrants of its bounding rectangle, and split each child in turn.
+	* Nodes whose points all share one horizontal location are not split.
+     */
+    private void build(int node)
+    {
+	int first = first_point[node];
+	int last = last_point[node];
+
+	if (last - first <= LEAF_SIZE || node_diagonal[node] == 0.0)
+	{
+	    return;
+	}
+
+	double min_x = Double.MAX_VALUE, min_y = Double.MAX_VALUE;
+	double max_x = -Double.MAX_VALUE, max_y = -Double.MAX_VALUE;
+
+	for (int i = first; i < last; i++)
+	{
+	    min_x = Math.min(min_x, point_x[i]);
+	    max_x = Math.max(max_x, point_x[i]);
+	    min_y = Math.min(min_y, point_y[i]);
+	    max_y = Math.max(max_y, point_y[i]);
+	}
+
+	double center_x = (min_x + max_x) / 2.0;
+	double center_y = (min_y + max_y) / 2.0;
+
+	// order the points by quadrant: first split on y, then split each half on x
+	int middle = partition(first, last, center_y, false);
+	int[] bounds = { first, partition(first, middle, center_x, true), middle, partition(middle, last, center_x, true),
+			 last };
+
+	// the children are added next to each other so they can be found from the first child
+	int children = 0;
+	int child_start = node_count;
+
+	for (int k = 0; k < 4; k++)
+	{
+	    if (bounds[k + 1] > bounds[k])
+	    {
+		add_node(bounds[k], bounds[k + 1]);
+		children++;
+	    }
+	}
+
+	first_child[node] = child_start;
+	child_count[node] = children;
+
+	for (int k = 0; k < children; k++)
+	{
+	    build(child_start + k);
+	}
+    }
+
+    /**
+     * Reorder the points [first, last) so that those with a coordinate below <code>split</code>
+	* come first.
+     *
+     * @param along_x true to split on the x coordinate, false to split on the y coordinate.
+     * @return the index of the first point at or above the split.
+     */
+    private int partition(int first, int last, double split, boolean along_x)
+    {
+	double[] key = along_x ? point_x : point_y;
+	int	 i = first;
+	int	 j = last - 1;
+
+	while (i <= j)
+	{
+	    if (key[i] < split)
+	    {
+		i++;
+	    }
+	    else
+	    {
+		swap(i, j);
+		j--;
+	    }
+	}
+
+	return i;
+    }
+
+    private void swap(int i, int j)
+    {
+	double temp = point_x[i];
+
+	point_x[i] = point_x[j];
+	point_x[j] = temp;
+	temp = point_y[i];
+	point_y[i] = point_y[j];
+	point_y[j] = temp;
+	temp = point_z[i];
+	point_z[i] = point_z[j];
+	point_z[j] = temp;
+	temp = point_q[i];
+	point_q[i] = point_q[j];
+	point_q[j] = temp;
+    }
+
+    /**
+     * Add the concentration contribution of every point of the tree to a receptor, for the
+	* dispersion parameters of <code>point</code>.
+     *
+     * @param cos_wind the cosine of the wind angle.
+     * @param sin_wind the sine of the wind angle.
+     * @param opening_angle the largest ratio of the diagonal of a node to its downwind distance for
+	* the node to be treated as a single point source.
+     * @param sum receives the contributions.
+     * @param metrics the metrics of the calling thread (null if metrics are not recorded).
+     * @return the number of kernel evaluations (aggregate nodes and single points).
+     */
+    int evaluate(double receptor_x, double receptor_y, double receptor_z, double cos_wind, double sin_wind,
+		 double opening_angle, pairwise_sum sum, run_metrics metrics)
+    {
+	if (node_count == 0)
+	{
+	    return 0;
+	}
+
+	int[] stack = new int[64];
+	int   depth = 0;
+	int   evaluations = 0;
+
+	stack[depth++] = 0;
+
+	while (depth > 0)
+	{
+	    int node = stack[--depth];
+
+	    // the downwind distance of the centroid (see point.normalize)
+	    double downwind = -((receptor_x - node_x[node]) * cos_wind + (receptor_y - node_y[node]) * sin_wind);
+
+	    if (downwind + node_diagonal[node] < constants.DISTANCE_TOLERANCE)
+	    {
+		continue;    // every point of the node is upwind of the receptor
+	    }
+
+	    if (node_diagonal[node] < opening_angle * downwind)
+	    {
+		sum.add(point.contribution(node_x[node], node_y[node], node_z[node], node_q[node], receptor_x,
+					   receptor_y, receptor_z, cos_wind, sin_wind, metrics));
+		evaluations++;
+	    }
+	    else if (first_child[node] < 0)
+	    {
+		for (int i = first_point[node]; i < last_point[node]; i++)
+		{
+		    sum.add(point.contribution(point_x[i], point_y[i], point_z[i], point_q[i], receptor_x, receptor_y,
+					       receptor_z, cos_wind, sin_wind, metrics));
+		}
+
+		evaluations += last_point[node] - first_point[node];
+	    }
+	    else
+	    {
+		if (depth + 4 > stack.length)
+		{
+		    int[] larger = new int[stack.length * 2];
+
+		    System.arraycopy(stack, 0, larger, 0, depth);
+		    stack = larger;
+		}
+
+		// push the children in reverse so they are visited in order
+		for (int k = child_count[node] - 1; k >= 0; k--)
+		{
+		    stack[depth++] = first_child[node] + k;
+		}
+	    }
+	}
+
+	return evaluations;
+    }
+}
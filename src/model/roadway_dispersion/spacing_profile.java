@@ -0,0 +1,425 @@
+package roadway_dispersion;
+
+import utilities.*;    // access to formating routines
+
+/**
+ * <b>Overview</b><br>
+ * The <code>spacing_profile</code> class holds the settings that <code>highway_point_spacing</code>
+ * uses to place point sources along a highway link: the region <code>zones</code>, the fetch,
+ * cross and vertical point densities of each region, the distance points extend past the
+ * traveled way, and the settings of the adaptive spacing mode.
+ * <br>
+ * A <code>spacing_profile</code> is checked once when it is created and can not be changed
+ * afterwards.  Any number of links, receptors or sites can therefore share a profile, and sites
+ * with different spacing (for example a fine resolution validation site and a coarse production
+ * site) can be run at the same time.  A profile is attached to a link with
+ * <code>link.setSpacing_profile</code> or to every link of a site with
+ * <code>site_description.setSpacing_profile</code>.  Links without a profile use the default
+ * profile of <code>highway_point_spacing.get_default_profile</code>.
+ * <br>
+ * See <code>highway_point_spacing</code> for a description of each of the settings.
+ *
+ * <br><br>
+ * <b>Notes:</b><br>
+ * All units in metric (MKS) unless otherwise stated.   <br>
+ * If an invalid set of zones and densities is specified a warning is printed and the
+ * default tables are used instead, in the same way the spacing tables were always validated.
+ *
+ * @see highway_point_spacing
+ * @see highway_link
+ */
+
+public final class spacing_profile
+{
+    /**
+     * The distance from the receptor cross section that each region ends (see
+	* <code>highway_point_spacing</code>).  There is one more region than zones.
+     */
+    private final double[]   zones;
+
+    /**
+     * The spacing of points along the roadway centerline for each region.
+     */
+    private final double[]   fetch_density;
+
+    /**
+     * The spacing of points normal to the roadway centerline for each region.
+     */
+    private final double[]   cross_density;
+
+    /**
+     * The vertical point segments as rows of [start, stop, spacing].
+     */
+    private final double[][] vertical_density;
+
+    /**
+     * The distance points extend past the upwind side of the traveled way.
+     */
+    private final double     cross_component_overhang_UP;
+
+    /**
+     * The distance points extend past the downwind side of the traveled way.
+     */
+    private final double     cross_component_overhang_Down;
+
+    /**
+     * Indicates if the point spacing is sized from the huang kernel instead of the density tables.
+     */
+    private final boolean    adaptive_spacing;
+
+    /**
+     * The relative accuracy targeted by the adaptive spacing mode.
+     */
+    private final double     adaptive_tolerance;
+
+    /**
+     * The smallest spacing (m) the adaptive spacing mode will use.
+     */
+    private final double     adaptive_min_spacing;
+
+    /**
+     * The largest spacing (m) the adaptive spacing mode will use.
+     */
+    private final double     adaptive_max_spacing;
+
+    /**
+     * The default region zones - points are most dense within 5 m of the receptor cross section.
+     */
+    private static final double[]   DEFAULT_ZONES = { 5.0, 20.0, 100.0 };
+
+    /**
+     * The default fetch density of each region.
+     */
+    private static final double[]   DEFAULT_FETCH_DENSITY = { 0.5, 1.0, 5.0, 100.0 };
+
+    /**
+     * The default cross density of each region - distant regions have a single point centered in the roadway.
+     */
+    private static final double[]   DEFAULT_CROSS_DENSITY = { 0.5, 1.0, 3.0, 5.0 };
+
+    /**
+     * The default vertical density - points every 0.5 m from the road surface to 2.5 m.
+     */
+    private static final double[][] DEFAULT_VERTICAL_DENSITY = {{ 0.0, 2.5, 0.5 }};
+
+    /**
+     * The default distance points extend to each side of the traveled way.
+     */
+    private static final double     DEFAULT_OVERHANG = 3.0;
+
+    /**
+     * Creates a new <code>spacing_profile</code> with the default spacing scheme used to
+	* validate the model against the GM database.
+     */
+    public spacing_profile()
+    {
+	this(DEFAULT_ZONES, DEFAULT_FETCH_DENSITY, DEFAULT_CROSS_DENSITY, DEFAULT_VERTICAL_DENSITY,
+	     DEFAULT_OVERHANG, DEFAULT_OVERHANG, false, 1.0E-3, 0.5, 100.0);
+    }
+
+    /**
+     * Creates a new <code>spacing_profile</code> that uses the density tables to place points.
+     *
+     * @param zones the region zones.  There must be one less zone than fetch and cross densities.
+     * @param fetch_density the fetch spacing of each region.
+     * @param cross_density the cross spacing of each region.
+     * @param vertical_density the vertical segments as rows of [start, stop, spacing].
+     * @param overhang_UP the distance points extend past the upwind side of the traveled way.
+     * @param overhang_Down the distance points extend past the downwind side of the traveled way.
+     */
+    public spacing_profile(double[] zones, double[] fetch_density, double[] cross_density,
+			   double[][] vertical_density, double overhang_UP, double overhang_Down)
+    {
+	this(zones, fetch_density, cross_density, vertical_density, overhang_UP, overhang_Down, false, 1.0E-3, 0.5,
+	     100.0);
+    }
+
+    /**
+     * Creates a new <code>spacing_profile</code> with every setting specified.  Copies of the
+	* arrays are stored so later changes to the arguments will not affect the profile.
+     *
+     * @param zones the region zones.  There must be one less zone than fetch and cross densities.
+     * @param fetch_density the fetch spacing of each region.
+     * @param cross_density the cross spacing of each region.
+     * @param vertical_density the vertical segments as rows of [start, stop, spacing].
+     * @param overhang_UP the distance points extend past the upwind side of the traveled way.
+     * @param overhang_Down the distance points extend past the downwind side of the traveled way.
+     * @param adaptive true to size the spacing from the huang kernel instead of the density tables.
+     * @param tolerance the relative accuracy of the adaptive mode (between 0 and 1).
+     * @param min_spacing the smallest spacing of the adaptive mode.
+     * @param max_spacing the largest spacing of the adaptive mode.
+     */
+    public spacing_profile(double[] zones, double[] fetch_density, double[] cross_density,
+			   double[][] vertical_density, double overhang_UP, double overhang_Down, boolean adaptive,
+			   double tolerance, double min_spacing, double max_spacing)
+    {
+	String problem = find_table_problem(zones, fetch_density, cross_density, vertical_density, overhang_UP,
+					    overhang_Down);
+
+	if (problem != null)
+	{
+	    System.err.println("Warning: a invalid set of highway point density parameters were specified ("
+			       + problem + "), a default setting will be used instead");
+
+	    zones = DEFAULT_ZONES;
+	    fetch_density = DEFAULT_FETCH_DENSITY;
+	    cross_density = DEFAULT_CROSS_DENSITY;
+	    vertical_density = DEFAULT_VERTICAL_DENSITY;
+	    overhang_UP = overhang_Down = DEFAULT_OVERHANG;
+	}
+
+	if (tolerance <= 0.0 || tolerance >= 1.0 || min_spacing <= 0.0 || max_spacing < min_spacing)
+	{
+	    System.err.println("Warning: invalid adaptive spacing settings (tolerance = " + tolerance + ", limits = "
+			       + min_spacing + ", " + max_spacing + ") were specified, the defaults will be used instead");
+
+	    tolerance = 1.0E-3;
+	    min_spacing = 0.5;
+	    max_spacing = 100.0;
+	}
+
+	this.zones = zones.clone();
+	this.fetch_density = fetch_density.clone();
+	this.cross_density = cross_density.clone();
+	this.vertical_density = new double[vertical_density.length][];
+
+	for (int i = 0; i < vertical_density.length; i++)
+	{
+	    this.vertical_density[i] = vertical_density[i].clone();
+	}
+
+	this.cross_component_overhang_UP = overhang_UP;
+	this.cross_component_overhang_Down = overhang_Down;
+	this.adaptive_spacing = adaptive;
+	this.adaptive_tolerance = tolerance;
+	this.adaptive_min_spacing = min_spacing;
+	this.adaptive_max_spacing = max_spacing;
+    }
+
+    /**
+     * Check that the zones and densities describe a usable spacing scheme.
+     *
+     * @return a description of the first problem found, or null if the tables are valid.
+     */
+    private static String find_table_problem(double[] zones, double[] fetch_density, double[] cross_density,
+					     double[][] vertical_density, double overhang_UP, double overhang_Down)
+    {
+	if (zones == null || fetch_density == null || cross_density == null || vertical_density == null)
+	{
+	    return "a table is missing";
+	}
+
+	if (fetch_density.length != zones.length + 1 || cross_density.length != zones.length + 1)
+	{
+	    return "there must be one more fetch and cross density than zones";
+	}
+
+	for (int i = 0; i < zones.length; i++)
+	{
+	    if (zones[i] <= 0.0 || (i > 0 && zones[i] <= zones[i - 1]))
+	    {
+		return "zones must be positive and increasing";
+	    }
+	}
+
+	for (int i = 0; i < fetch_density.length; i++)
+	{
+	    if (fetch_density[i] <= 0.0 || cross_density[i] <= 0.0)
+	    {
+		return "densities must be positive";
+	    }
+	}
+
+	for (int i = 0; i < vertical_density.length; i++)
+	{
+	    if (vertical_density[i] == null || vertical_density[i].length != 3
+		    || vertical_density[i][1] < vertical_density[i][0] || vertical_density[i][2] < 0.0)
+	    {
+		return "vertical segments must be [start, stop, spacing] with start <= stop";
+	    }
+	}
+
+	if (overhang_UP < 0.0 || overhang_Down < 0.0)
+	{
+	    return "overhangs can not be negative";
+	}
+
+	return null;
+    }
+
+    /**
+     * Returns a copy of this profile with the adaptive spacing mode turned on or off.
+     */
+    public spacing_profile with_adaptive_spacing(boolean adaptive, double tolerance)
+    {
+	return new spacing_profile(zones, fetch_density, cross_density, vertical_density, cross_component_overhang_UP,
+				   cross_component_overhang_Down, adaptive, tolerance, adaptive_min_spacing,
+				   adaptive_max_spacing);
+    }
+
+    /**
+     * Returns a copy of this profile with new adaptive spacing limits.
+     */
+    public spacing_profile with_adaptive_spacing_limits(double min_spacing, double max_spacing)
+    {
+	return new spacing_profile(zones, fetch_density, cross_density, vertical_density, cross_component_overhang_UP,
+				   cross_component_overhang_Down, adaptive_spacing, adaptive_tolerance, min_spacing,
+				   max_spacing);
+    }
+
+    /**
+     * Get the number of regions with unique point densities.
+     */
+    public int getNum_regions()
+    {
+	return zones.length + 1;
+    }
+
+    /**
+     * Get a copy of the region zones.
+     */
+    public double[] getZones()
+    {
+	return zones.clone();
+    }
+
+    /**
+     * Get a copy of the fetch density of each region.
+     */
+    public double[] getFetch_density()
+    {
+	return fetch_density.clone();
+    }
+
+    /**
+     * Get a copy of the cross density of each region.
+     */
+    public double[] getCross_density()
+    {
+	return cross_density.clone();
+    }
+
+    /**
+     * Get a copy of the vertical density segments.
+     */
+    public double[][] getVertical_density()
+    {
+	double[][] return_array = new double[vertical_density.length][];
+
+	for (int i = 0; i < vertical_density.length; i++)
+	{
+	    return_array[i] = vertical_density[i].clone();
+	}
+
+	return return_array;
+    }
+
+    /**
+     * Find the vertical location of the points in each cross section from the vertical density
+	* segments, with every spacing divided by <code>refinement</code>.  The locations are the
+	* same as those of a <code>point_vector</code> built from the segments.
+     */
+    double[] vertical_locations(double refinement)
+    {
+	int count = 0;
+
+	// loop through each of the start stop, spacing rows of the vertical_density arrays
+	// if vertical spacing is zero then skip to the next spacing vector in the matrix
+	for (int i = 0; i < vertical_density.length; i++)
+	{
+	    if (vertical_density[i][2] != 0.0)
+	    {
+		count += point_vector.count_points(vertical_density[i][0], vertical_density[i][1],
+						   vertical_density[i][2] / refinement);
+	    }
+	}
+
+	double[] locations = new double[count];
+	int	 index = 0;
+
+	for (int i = 0; i < vertical_density.length; i++)
+	{
+	    if (vertical_density[i][2] != 0.0)
+	    {
+		double spacing = vertical_density[i][2] / refinement;
+		double first = point_vector.first_point(vertical_density[i][0], vertical_density[i][1], spacing);
+		int    n = point_vector.count_points(vertical_density[i][0], vertical_density[i][1], spacing);
+
+		// add poins from [i][0] to [i][1] with spacing [i][2]
+		for (int k = 0; k < n; k++)
+		{
+		    locations[index++] = first + k * spacing;
+		}
+	    }
+	}
+
+	return locations;
+    }
+
+    /**
+     * Get the distance points extend past the upwind side of the traveled way.
+     */
+    public double getCross_component_overhang_UP()
+    {
+	return cross_component_overhang_UP;
+    }
+
+    /**
+     * Get the distance points extend past the downwind side of the traveled way.
+     */
+    public double getCross_component_overhang_Down()
+    {
+	return cross_component_overhang_Down;
+    }
+
+    /**
+     * Returns true if the spacing is sized from the huang kernel instead of the density tables.
+     */
+    public boolean is_adaptive_spacing()
+    {
+	return adaptive_spacing;
+    }
+
+    /**
+     * Get the relative accuracy targeted by the adaptive spacing mode.
+     */
+    public double getAdaptive_tolerance()
+    {
+	return adaptive_tolerance;
+    }
+
+    /**
+     * Get the smallest spacing the adaptive spacing mode will use.
+     */
+    public double getAdaptive_min_spacing()
+    {
+	return adaptive_min_spacing;
+    }
+
+    /**
+     * Get the largest spacing the adaptive spacing mode will use.
+     */
+    public double getAdaptive_max_spacing()
+    {
+	return adaptive_max_spacing;
+    }
+
+    /**
+     * This routine returns the profile settings as a string and is primarily used for debugging purposes.
+     */
+    public String toString()
+    {
+	String return_string = "";
+
+	return_string += "Number of Regions = " + getNum_regions();
+	return_string += "\nZones = " + format_matrix.array_2_str(zones, true, "%4.3g\t");
+	return_string += "\nFetch Density = " + format_matrix.array_2_str(fetch_density, true, "%4.3g\t");
+	return_string += "\nCross Density = " + format_matrix.array_2_str(cross_density, true, "%4.3g\t");
+	return_string += "\nVertical Density = " + format_matrix.array_2_str(vertical_density, true, "%4.3g\t");
+	return_string += "\nOverhang Up/Down = " + cross_component_overhang_UP + " " + cross_component_overhang_Down;
+	return_string += "\nAdaptive Spacing = " + adaptive_spacing + " (tolerance " + adaptive_tolerance
+			 + ", limits " + adaptive_min_spacing + " to " + adaptive_max_spacing + ")";
+
+	return return_string;
+    }
+}
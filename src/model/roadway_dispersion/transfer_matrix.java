@@ -0,0 +1,569 @@
+package roadway_dispersion;
+
+import java.io.*;      // binary file access
+import utilities.*;    // access to the debugging routines
+
+/**
+ * <b>Overview</b><br>
+ * The <code>transfer_matrix</code> class stores the concentration contribution of each link to
+ * each receptor of a simulation in compressed sparse row (CSR) form.  Contributions at or below a
+ * threshold are not stored, so for a network where each receptor is reached by a few of the links
+ * the storage grows with the number of contributions that matter instead of
+ * <code>receptors * links</code>.
+ * <br>
+ * The contributions of receptor i are the entries <code>row_start[i] .. row_start[i + 1]</code> of
+ * <code>link_index</code> and <code>value</code>, with the links in increasing order.  For each
+ * receptor the exact total of all the links and the sum of the contributions that were not stored
+ * are also kept, so the totals do not depend on the threshold and the dropped sum bounds what is
+ * missing from the per-link breakdown.
+ * <br>
+ * The contributions are proportional to the line strength of each link, so the totals of another
+ * emission scenario are a sparse matrix-vector product of the stored entries with the ratio of the
+ * scenario line strengths to the line strengths the links were evaluated with
+ * (see <code>scenario_totals</code>).
+ *
+ * <br><br>
+ * <b>Notes:</b><br>
+ * All concentrations are in g/m^3.   <br>
+ * The matrix is filled one receptor at a time by <code>site_description</code> and is not changed
+ * afterwards.  <code>save</code> and <code>load</code> write and read it as a binary file (see
+ * <code>save</code> for the layout).
+ *
+ * @see site_description
+ */
+
+public final class transfer_matrix
+{
+    /**
+     * The first four bytes of a transfer matrix file ("UCDT") and the version of the layout.
+     */
+    public static final int FILE_MAGIC = 0x55434454;
+    public static final int FILE_VERSION = 1;
+
+    /**
+     * The number of receptors (rows) added so far and the number of links (columns).
+     */
+    private int	      receptor_count = 0;
+    private final int link_count;
+
+    /**
+     * Contributions at or below this concentration (g/m^3) are not stored.
+     */
+    private final double threshold;
+
+    /**
+     * The line strength (g/m-s) each link was evaluated with.
+     */
+    private final double[] line_strengths;
+
+    /**
+     * The compressed rows: the first entry of each row, and the link and contribution of each entry.
+     */
+    private int[]    row_start = new int[17];
+    private int[]    link_index = new int[64];
+    private double[] value = new double[64];
+
+    /**
+     * The total of every link and the sum of the contributions that were not stored, for each receptor.
+     */
+    private double[] totals = new double[16];
+    private double[] dropped = new double[16];
+
+    /**
+     * Create an empty matrix.
+     *
+     * @param line_strengths the line strength each link is evaluated with (one per column).
+     * @param threshold contributions at or below this concentration (g/m^3) are not stored.
+     */
+    public transfer_matrix(double[] line_strengths, double threshold)
+    {
+	this.link_count = line_strengths.length;
+	this.line_strengths = line_strengths.clone();
+	this.threshold = threshold;
+    }
+
+    /**
+     * Add the row of the next receptor.
+     *
+     * @param concentrations the contribution of each link (g/m^3).
+     * @param total the total of all the links (g/m^3).
+     */
+    void add_row(double[] concentrations, double total)
+    {
+	if (concentrations.length != link_count)
+	{
+	    System.err.println("A receptor with contributions from " + concentrations.length + " links was added to a "
+			       + "transfer matrix of " + link_count + " links.\nIf you choose to continue its "
+			       + "contributions will not be stored");
+	    debugging.exception_handeler();
+	    concentrations = new double[0];
+	}
+
+	add_row(null, concentrations, total);
+    }
+
+    /**
+     * Add the row of the next receptor from the contributions of some of the links, the others
+	* contributing nothing (see <code>influence_index.find_links</code>).
+     *
+     * @param links the index of each link with a contribution, in increasing order, or null if
+	* <code>concentrations</code> has the contribution of every link.
+     * @param concentrations the contribution of each of the links (g/m^3).
+     * @param total the total of all the links (g/m^3).
+     */
+    void add_row(int[] links, double[] concentrations, double total)
+    {
+	if (links != null && links.length != concentrations.length)
+	{
+	    System.err.println("A receptor with " + concentrations.length + " contributions for " + links.length
+			       + " links was added to a transfer matrix.\nIf you choose to continue its "
+			       + "contributions will not be stored");
+	    debugging.exception_handeler();
+	    links = new int[0];
+	    concentrations = new double[0];
+	}
+
+	if (receptor_count + 1 > totals.length)
+	{
+	    int size = 2 * receptor_count + 16;
+
+	    row_start = copy(row_start, size + 1);
+	    totals = copy(totals, size);
+	    dropped = copy(dropped, size);
+	}
+
+	int	     entries = row_start[receptor_count];
+	pairwise_sum dropped_sum = new pairwise_sum();
+
+	for (int j = 0; j < concentrations.length; j++)
+	{
+	    if (Math.abs(concentrations[j]) <= threshold)
+	    {
+		dropped_sum.add(concentrations[j]);
+
+		continue;
+	    }
+
+	    if (entries == value.length)
+	    {
+		link_index = copy(link_index, 2 * entries + 64);
+		value = copy(value, 2 * entries + 64);
+	    }
+
+	    link_index[entries] = (links == null) ? j : links[j];
+	    value[entries] = concentrations[j];
+	    entries++;
+	}
+
+	totals[receptor_count] = total;
+	dropped[receptor_count] = dropped_sum.get_sum();
+	row_start[++receptor_count] = entries;
+    }
+
+    private static int[] copy(int[] array, int size)
+    {
+	int[] copied = new int[size];
+
+	System.arraycopy(array, 0, copied, 0, Math.min(array.length, size));
+
+	return copied;
+    }
+
+    private static double[] copy(double[] array, int size)
+    {
+	double[] copied = new double[size];
+
+	System.arraycopy(array, 0, copied, 0, Math.min(array.length, size));
+
+	return copied;
+    }
+
+    /**
+     * Get the number of receptors (rows).
+     */
+    public int getReceptor_count()
+    {
+	return receptor_count;
+    }
+
+    /**
+     * Get the number of links (columns).
+     */
+    public int getLink_count()
+    {
+	return link_count;
+    }
+
+    /**
+     * Get the number of stored contributions.
+     */
+    public int getEntry_count()
+    {
+	return row_start[receptor_count];
+    }
+
+    /**
+     * Get the concentration (g/m^3) at or below which contributions are not stored.
+     */
+    public double getThreshold()
+    {
+	return threshold;
+    }
+
+    /**
+     * Get the line strength (g/m-s) a link was evaluated with.
+     */
+    public double getLine_strength(int link)
+    {
+	return line_strengths[link];
+    }
+
+    /**
+     * Get the total concentration (g/m^3) of all the links at a receptor.
+     */
+    public double get_total(int receptor)
+    {
+	return totals[receptor];
+    }
+
+    /**
+     * Get the total concentration (g/m^3) of all the links at each receptor.
+     */
+    public double[] get_totals()
+    {
+	return copy(totals, receptor_count);
+    }
+
+    /**
+     * Get the sum of the contributions (g/m^3) to a receptor that were not stored because they were
+	* at or below the threshold.
+     */
+    public double get_dropped(int receptor)
+    {
+	return dropped[receptor];
+    }
+
+    /**
+     * Get the contribution (g/m^3) of a link to a receptor, or 0 if it was not stored.
+     */
+    public double get_contribution(int receptor, int link)
+    {
+	int low = row_start[receptor];
+	int high = row_start[receptor + 1] - 1;
+
+	// the links of a row are in increasing order
+	while (low <= high)
+	{
+	    int middle = (low + high) >>> 1;
+
+	    if (link_index[middle] < link)
+	    {
+		low = middle + 1;
+	    }
+	    else if (link_index[middle] > link)
+	    {
+		high = middle - 1;
+	    }
+	    else
+	    {
+		return value[middle];
+	    }
+	}
+
+	return 0.0;
+    }
+
+    /**
+     * Get the links with a stored contribution to a receptor, in increasing order.  Together with
+	* <code>get_row_values</code> this is the per-link breakdown (source attribution) of the receptor.
+     */
+    public int[] get_row_links(int receptor)
+    {
+	int[] links = new int[row_start[receptor + 1] - row_start[receptor]];
+
+	System.arraycopy(link_index, row_start[receptor], links, 0, links.length);
+
+	return links;
+    }
+
+    /**
+     * Get the stored contributions (g/m^3) to a receptor, in the order of <code>get_row_links</code>.
+     */
+    public double[] get_row_values(int receptor)
+    {
+	double[] values = new double[row_start[receptor + 1] - row_start[receptor]];
+
+	System.arraycopy(value, row_start[receptor], values, 0, values.length);
+
+	return values;
+    }
+
+    /**
+     * Get the stored contribution (g/m^3) of one link to every receptor (0 where it was not stored).
+     */
+    public double[] get_link_contributions(int link)
+    {
+	double[] contributions = new double[receptor_count];
+
+	for (int i = 0; i < receptor_count; i++)
+	{
+	    contributions[i] = get_contribution(i, link);
+	}
+
+	return contributions;
+    }
+
+    /**
+     * Multiply the stored contributions by a weight for each link and sum each row (a sparse
+	* matrix-vector product).  The contributions that were not stored are left out.
+     *
+     * @param weights the weight of each link.
+     * @return the weighted sum (g/m^3) of each receptor.
+     */
+    public double[] multiply(double[] weights)
+    {
+	if (weights.length != link_count)
+	{
+	    System.err.println("A transfer matrix of " + link_count + " links was multiplied by " + weights.length
+			       + " weights.\nIf you choose to continue the result will be 0");
+	    debugging.exception_handeler();
+
+	    return new double[receptor_count];
+	}
+
+	double[] result = new double[receptor_count];
+
+	for (int i = 0; i < receptor_count; i++)
+	{
+	    pairwise_sum sum = new pairwise_sum();
+
+	    for (int k = row_start[i]; k < row_start[i + 1]; k++)
+	    {
+		sum.add(value[k] * weights[link_index[k]]);
+	    }
+
+	    result[i] = sum.get_sum();
+	}
+
+	return result;
+    }
+
+    /**
+     * Find the total concentration at each receptor for other line strengths of the links, without
+	* running the simulation again.  The stored contributions are scaled by the ratio of the new
+	* line strength of each link to the line strength it was evaluated with.  Links evaluated with a
+	* line strength of 0 can not be scaled and contribute nothing.
+     *
+     * @param scenario_strengths the line strength (g/m-s) of each link in the scenario.
+     * @return the total (g/m^3) of each receptor, without the contributions that were not stored.
+     */
+    public double[] scenario_totals(double[] scenario_strengths)
+    {
+	if (scenario_strengths.length != link_count)
+	{
+	    System.err.println("A scenario with line strengths for " + scenario_strengths.length + " links was "
+			       + "applied to a transfer matrix of " + link_count + " links.\nIf you choose to "
+			       + "continue the result will be 0");
+	    debugging.exception_handeler();
+
+	    return new double[receptor_count];
+	}
+
+	double[] ratio = new double[link_count];
+
+	for (int j = 0; j < link_count; j++)
+	{
+	    ratio[j] = (line_strengths[j] == 0.0) ? 0.0 : scenario_strengths[j] / line_strengths[j];
+	}
+
+	return multiply(ratio);
+    }
+
+    /**
+     * Write the matrix to a binary file.  The file holds, with the big-endian types of
+	* <code>DataOutputStream</code>:
+	* <tt><pre>
+	*   int     FILE_MAGIC, FILE_VERSION, receptors, links, entries
+	*   double  threshold
+	*   double  line strength of each link
+	*   int     row_start of each receptor and the end of the last row
+	*   int     link of each entry
+	*   double  contribution of each entry
+	*   double  total and dropped sum of each receptor
+	* </pre></tt>
+     *
+     * @return true if the file was written.
+     */
+    public boolean save(String file_name)
+    {
+	try
+	{
+	    DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file_name)));
+	    int		     entries = getEntry_count();
+
+	    try
+	    {
+		out.writeInt(FILE_MAGIC);
+		out.writeInt(FILE_VERSION);
+		out.writeInt(receptor_count);
+		out.writeInt(link_count);
+		out.writeInt(entries);
+		out.writeDouble(threshold);
+
+		for (int j = 0; j < link_count; j++)
+		{
+		    out.writeDouble(line_strengths[j]);
+		}
+
+		for (int i = 0; i <= receptor_count; i++)
+		{
+		    out.writeInt(row_start[i]);
+		}
+
+		for (int k = 0; k < entries; k++)
+		{
+		    out.writeInt(link_index[k]);
+		}
+
+		for (int k = 0; k < entries; k++)
+		{
+		    out.writeDouble(value[k]);
+		}
+
+		for (int i = 0; i < receptor_count; i++)
+		{
+		    out.writeDouble(totals[i]);
+		    out.writeDouble(dropped[i]);
+		}
+	    }
+	    finally
+	    {
+		out.close();
+	    }
+
+	    return true;
+	}
+	catch (IOException e)
+	{
+	    System.err.println("Error saving the transfer matrix to " + file_name + ": " + e.getMessage()
+			       + "\nIf you choose to continue the matrix will not be saved");
+	    debugging.exception_handeler();
+
+	    return false;
+	}
+    }
+
+    /**
+     * Read a matrix written by <code>save</code>.
+     *
+     * @return the matrix, or null if the file could not be read.
+     */
+    public static transfer_matrix load(String file_name)
+    {
+	try
+	{
+	    DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file_name)));
+
+	    try
+	    {
+		if (in.readInt() != FILE_MAGIC || in.readInt() != FILE_VERSION)
+		{
+		    throw new IOException("not a transfer matrix file of version " + FILE_VERSION);
+		}
+
+		int receptors = in.readInt();
+		int links = in.readInt();
+		int entries = in.readInt();
+
+		if (receptors < 0 || links < 0 || entries < 0)
+		{
+		    throw new IOException("negative size");
+		}
+
+		double	 threshold = in.readDouble();
+		double[] strengths = new double[links];
+
+		for (int j = 0; j < links; j++)
+		{
+		    strengths[j] = in.readDouble();
+		}
+
+		transfer_matrix matrix = new transfer_matrix(strengths, threshold);
+
+		matrix.receptor_count = receptors;
+		matrix.row_start = new int[receptors + 1];
+		matrix.link_index = new int[entries];
+		matrix.value = new double[entries];
+		matrix.totals = new double[receptors];
+		matrix.dropped = new double[receptors];
+
+		for (int i = 0; i <= receptors; i++)
+		{
+		    matrix.row_start[i] = in.readInt();
+		}
+
+		for (int k = 0; k < entries; k++)
+		{
+		    matrix.link_index[k] = in.readInt();
+		}
+
+		for (int k = 0; k < entries; k++)
+		{
+		    matrix.value[k] = in.readDouble();
+		}
+
+		for (int i = 0; i < receptors; i++)
+		{
+		    matrix.totals[i] = in.readDouble();
+		    matrix.dropped[i] = in.readDouble();
+		}
+
+		if (matrix.row_start[0] != 0 || matrix.row_start[receptors] != entries)
+		{
+		    throw new IOException("the rows do not match the number of entries");
+		}
+
+		// the rows must be in order before their links are read
+		for (int i = 0; i < receptors; i++)
+		{
+		    if (matrix.row_start[i + 1] < matrix.row_start[i])
+		    {
+			throw new IOException("row " + i + " ends before it starts");
+		    }
+		}
+
+		// each row holds links of the matrix in increasing order
+		for (int i = 0; i < receptors; i++)
+		{
+		    for (int k = matrix.row_start[i]; k < matrix.row_start[i + 1]; k++)
+		    {
+			if (matrix.link_index[k] < 0 || matrix.link_index[k] >= links)
+			{
+			    throw new IOException("row " + i + " holds link " + matrix.link_index[k] + " of "
+						  + links + " links");
+			}
+
+			if (k > matrix.row_start[i] && matrix.link_index[k] <= matrix.link_index[k - 1])
+			{
+			    throw new IOException("the links of row " + i + " are not in increasing order");
+			}
+		    }
+		}
+
+		return matrix;
+	    }
+	    finally
+	    {
+		in.close();
+	    }
+	}
+	catch (IOException e)
+	{
+	    System.err.println("Error loading a transfer matrix from " + file_name + ": " + e.getMessage()
+			       + "\nIf you choose to continue no matrix will be loaded");
+	    debugging.exception_handeler();
+
+	    return null;
+	}
+    }
+}